@@ -406,7 +406,7 @@ public class Props {
             return true;
         else if(o == null)
             return false;
-        else if(o.getClass() != Props.class)
+        else if(!(o instanceof Props))
             return false;
         Props p = (Props) o;
         return _current.equals(p._current) && Objects.equal(this._parent, p._parent);
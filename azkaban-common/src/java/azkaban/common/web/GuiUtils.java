@@ -16,6 +16,8 @@
 
 package azkaban.common.web;
 
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -26,6 +28,7 @@ import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.joda.time.Period;
@@ -151,6 +154,22 @@ public class GuiUtils {
         return NEWLINE_PATTERN.matcher(in).replaceAll("<br/>");
     }
 
+    public String escapeHtml(String in) {
+        return StringEscapeUtils.escapeHtml(in);
+    }
+
+    public String escapeJavaScript(String in) {
+        return StringEscapeUtils.escapeJavaScript(in);
+    }
+
+    public String urlEncode(String in) {
+        try {
+            return URLEncoder.encode(in, "UTF-8");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     public DateTime getNow() {
         return new DateTime();
     }
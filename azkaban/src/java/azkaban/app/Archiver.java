@@ -0,0 +1,281 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import azkaban.flow.ExecutionIndex;
+import azkaban.flow.ExecutionSummary;
+import azkaban.flow.JsonExecutionStore;
+import azkaban.flow.Status;
+
+/**
+ * Keeps the log directory and the execution store small by moving old runs
+ * out of them. The logs of finished runs are gzipped in place once they are
+ * gzipAfterMs old. Runs older than archiveAfterMs, or beyond the most recent
+ * runsPerJob of their job, are rolled into the job's LogArchive, and archive
+ * segments older than retentionMs are deleted. Finished executions are
+ * archived by the same age, or beyond the most recent executionsPerFlow of
+ * their flow, and are never deleted.
+ * 
+ * A limit of zero turns that limit off.
+ * 
+ * Which executions are finished is taken from the execution index when there
+ * is one. Without it, the summary of every execution is read once, and only
+ * executions that were still running are read again on later rounds.
+ */
+public class Archiver {
+
+    private static final Logger logger = Logger.getLogger(Archiver.class);
+
+    private final File _logDir;
+    private final LogArchive _logArchive;
+    private final JsonExecutionStore _executions;
+    private final ExecutionIndex _executionIndex;
+    private final int _runsPerJob;
+    private final int _executionsPerFlow;
+    private final long _archiveAfterMs;
+    private final long _gzipAfterMs;
+    private final long _retentionMs;
+
+    // Finished executions already read from the store, and ones stored before summaries were.
+    private final Map<String, ExecutionSummary> _finished = new HashMap<String, ExecutionSummary>();
+    private final Set<String> _unsummarized = new HashSet<String>();
+
+    private volatile ScheduledExecutorService _executor;
+
+    /**
+     * @param logDir The log directory
+     * @param executions The execution store to archive, or null to archive
+     *        only logs
+     */
+    public Archiver(File logDir,
+                    JsonExecutionStore executions,
+                    int runsPerJob,
+                    int executionsPerFlow,
+                    long archiveAfterMs,
+                    long gzipAfterMs,
+                    long retentionMs) {
+        this(logDir, executions, null, runsPerJob, executionsPerFlow, archiveAfterMs, gzipAfterMs, retentionMs);
+    }
+
+    /**
+     * @param logDir The log directory
+     * @param executions The execution store to archive, or null to archive
+     *        only logs
+     * @param executionIndex The index of the executions in the store, or
+     *        null to read their summaries from the store
+     */
+    public Archiver(File logDir,
+                    JsonExecutionStore executions,
+                    ExecutionIndex executionIndex,
+                    int runsPerJob,
+                    int executionsPerFlow,
+                    long archiveAfterMs,
+                    long gzipAfterMs,
+                    long retentionMs) {
+        this._logDir = logDir;
+        this._logArchive = new LogArchive(logDir);
+        this._executions = executions;
+        this._executionIndex = executionIndex;
+        this._runsPerJob = runsPerJob;
+        this._executionsPerFlow = executionsPerFlow;
+        this._archiveAfterMs = archiveAfterMs;
+        this._gzipAfterMs = gzipAfterMs;
+        this._retentionMs = retentionMs;
+    }
+
+    /**
+     * Archive every intervalMs from now on, on a background thread
+     */
+    public void start(long intervalMs) {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "archiver");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        _executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    archive();
+                } catch(RuntimeException e) {
+                    logger.warn("Archiving failed, will retry on next interval.", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if(_executor != null)
+            _executor.shutdownNow();
+    }
+
+    /**
+     * Do one round of archiving
+     */
+    public void archive() {
+        long now = System.currentTimeMillis();
+        File[] jobDirs = _logDir.listFiles();
+        if(jobDirs != null) {
+            for(File jobDir: jobDirs) {
+                if(!jobDir.isDirectory() || jobDir.getName().startsWith("."))
+                    continue;
+                try {
+                    archiveLogs(jobDir.getName(), now);
+                } catch(IOException e) {
+                    logger.warn("Could not archive the logs of " + jobDir.getName(), e);
+                }
+            }
+        }
+
+        if(_executions != null)
+            archiveExecutions(now);
+    }
+
+    private void archiveLogs(String jobName, long now) throws IOException {
+        List<String> toArchive = new ArrayList<String>();
+        int compressed = 0;
+        List<String> runs = _logArchive.listRuns(jobName);
+        for(int i = 0; i < runs.size(); i++) {
+            String run = runs.get(i);
+            long age = now - LogArchive.getRunDate(run).getMillis();
+            boolean finished = _logArchive.isFinished(jobName, run);
+            boolean tooOld = _archiveAfterMs > 0 && age > _archiveAfterMs;
+
+            // A run that never finished may still be writing, unless it is far too old to be.
+            if(tooOld || (finished && _runsPerJob > 0 && i >= _runsPerJob))
+                toArchive.add(run);
+            else if(finished && _gzipAfterMs > 0 && age > _gzipAfterMs)
+                compressed += _logArchive.gzipLogs(jobName, run);
+        }
+        if(compressed > 0)
+            logger.info("Compressed " + compressed + " logs of " + jobName);
+
+        _logArchive.archiveRuns(jobName, toArchive);
+
+        if(_retentionMs > 0) {
+            int deleted = _logArchive.deleteSegmentsBefore(jobName, new DateTime(now - _retentionMs));
+            if(deleted > 0) {
+                logger.info("Deleted " + deleted + " expired archive segments of " + jobName);
+                new JobRunIndex(_logDir, jobName).rebuild();
+            }
+        }
+    }
+
+    private void archiveExecutions(long now) {
+        Set<String> archived = new HashSet<String>(_executions.getArchivedIds());
+        List<ExecutionSummary> finished = _executionIndex != null ? getFinishedFromIndex(archived)
+                                                                  : getFinishedFromStore(archived);
+
+        Map<String, List<ExecutionSummary>> byFlow = new HashMap<String, List<ExecutionSummary>>();
+        for(ExecutionSummary summary: finished) {
+            List<ExecutionSummary> summaries = byFlow.get(summary.getName());
+            if(summaries == null) {
+                summaries = new ArrayList<ExecutionSummary>();
+                byFlow.put(summary.getName(), summaries);
+            }
+            summaries.add(summary);
+        }
+
+        List<String> toArchive = new ArrayList<String>();
+        for(List<ExecutionSummary> summaries: byFlow.values()) {
+            Collections.sort(summaries, new Comparator<ExecutionSummary>() {
+
+                public int compare(ExecutionSummary s1, ExecutionSummary s2) {
+                    return s2.getEndTime().compareTo(s1.getEndTime());
+                }
+            });
+            for(int i = 0; i < summaries.size(); i++) {
+                ExecutionSummary summary = summaries.get(i);
+                boolean tooOld = _archiveAfterMs > 0 && now - summary.getEndTime().getMillis() > _archiveAfterMs;
+                if(tooOld || (_executionsPerFlow > 0 && i >= _executionsPerFlow))
+                    toArchive.add(summary.getId());
+            }
+        }
+
+        _executions.archive(toArchive);
+        _finished.keySet().removeAll(toArchive);
+    }
+
+    private List<ExecutionSummary> getFinishedFromIndex(Set<String> archived) {
+        List<ExecutionSummary> finished = new ArrayList<ExecutionSummary>();
+        for(ExecutionSummary summary: _executionIndex.query(null, null, null, null, 0, Integer.MAX_VALUE)) {
+            if(!archived.contains(summary.getId()) && isFinished(summary))
+                finished.add(summary);
+        }
+        return finished;
+    }
+
+    private List<ExecutionSummary> getFinishedFromStore(Set<String> archived) {
+        Set<String> current = new HashSet<String>();
+        for(String id: _executions.getIds()) {
+            if(archived.contains(id))
+                continue;
+            current.add(id);
+            if(_finished.containsKey(id) || _unsummarized.contains(id))
+                continue;
+
+            // Executions stored before summaries were are left where they are.
+            ExecutionSummary summary;
+            try {
+                Map<String, Object> summaryMap = _executions.loadSummary(id);
+                if(summaryMap == null) {
+                    _unsummarized.add(id);
+                    continue;
+                }
+                summary = ExecutionSummary.fromMap(summaryMap);
+            } catch(RuntimeException e) {
+                // Left where it is; it is tried again on the next pass.
+                logger.warn("Could not read execution " + id + ", not archiving it.", e);
+                continue;
+            }
+            if(isFinished(summary))
+                _finished.put(id, summary);
+        }
+
+        // Forget the executions that were archived or deleted since.
+        _finished.keySet().retainAll(current);
+        _unsummarized.retainAll(current);
+        return new ArrayList<ExecutionSummary>(_finished.values());
+    }
+
+    private static boolean isFinished(ExecutionSummary summary) {
+        return summary.getEndTime() != null && summary.getStatus() != Status.RUNNING
+               && summary.getStatus() != Status.READY;
+    }
+}
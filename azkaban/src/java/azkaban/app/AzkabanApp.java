@@ -4,7 +4,9 @@ package azkaban.app;
 import azkaban.common.utils.Utils;
 import azkaban.jobs.AzkabanCommandLine;
 import azkaban.web.AzkabanServletContextListener;
+import azkaban.web.ExecutionQueryServlet;
 import azkaban.web.JobManagerServlet;
+import azkaban.web.LogSearchServlet;
 import azkaban.web.LogServlet;
 import azkaban.web.pages.ExecutionHistoryServlet;
 import azkaban.web.pages.HdfsBrowserServlet;
@@ -64,7 +66,7 @@ public class AzkabanApp
       logger.info("Job log directory set to " + cl.getLogDir().getAbsolutePath());
       logger.info("Job directories set to " + cl.getJobDirs());
 
-      AzkabanApplication app = new AzkabanApplication(cl.getJobDirs(), cl.getLogDir(), new File("temp"), options.has(devModeOpt));
+      final AzkabanApplication app = new AzkabanApplication(cl.getJobDirs(), cl.getLogDir(), new File("temp"), options.has(devModeOpt));
 
       int portNumber = 8081;
       if(options.has(portOpt))
@@ -98,6 +100,8 @@ public class AzkabanApp
                           "/history/*",
                           ExecutionHistoryServlet.class.getName());
       servlets.addServlet("Job Manager", "/api/jobs", JobManagerServlet.class.getName());
+      servlets.addServlet("Execution Query", "/api/executions", ExecutionQueryServlet.class.getName());
+      servlets.addServlet("Log Search", "/api/logs", LogSearchServlet.class.getName());
       servlets.addServlet("Job Upload", "/job-upload/*", JobUploadServlet.class.getName());
       servlets.addServlet("HDFS Browser", "/fs/*", HdfsBrowserServlet.class.getName());
 
@@ -118,6 +122,7 @@ public class AzkabanApp
               } catch(Exception e) {
                   logger.error("Error while shutting down http server.", e);
               }
+              app.shutdown();
               logger.info("kk thx bye.");
           }
       });
@@ -22,28 +22,47 @@ import azkaban.common.utils.Props;
 import azkaban.common.utils.Utils;
 import azkaban.flow.CachingFlowManager;
 import azkaban.flow.ExecutableFlow;
+import azkaban.flow.ExecutionIdAllocator;
+import azkaban.flow.ExecutionIndex;
+import azkaban.flow.ExecutionJournal;
+import azkaban.flow.ExecutionSummary;
+import azkaban.flow.ExecutionStore;
 import azkaban.flow.FlowManager;
+import azkaban.flow.Flows;
 import azkaban.flow.JobManagerFlowDeserializer;
+import azkaban.flow.JsonExecutionStore;
 import azkaban.flow.RefreshableFlowManager;
+import azkaban.flow.SegmentedExecutionStore;
+import azkaban.flow.Status;
+import azkaban.flow.WriteBehindFlowManager;
 import azkaban.jobcontrol.impl.jobs.locks.NamedPermitManager;
 import azkaban.jobcontrol.impl.jobs.locks.ReadWriteLockManager;
+import azkaban.jobs.InProcessJavaJob;
 import azkaban.jobs.JavaJob;
 import azkaban.jobs.JavaProcessJob;
+import azkaban.jobs.OrphanReaper;
 import azkaban.jobs.PigProcessJob;
 import azkaban.jobs.ProcessJob;
-import azkaban.serialization.DefaultExecutableFlowSerializer;
 import azkaban.serialization.ExecutableFlowSerializer;
+import azkaban.serialization.ExecutionCodecs;
+import azkaban.serialization.IndividualJobEFSerializer;
+import azkaban.serialization.StreamingExecutableFlowSerializer;
 import azkaban.serialization.de.ExecutableFlowDeserializer;
 import azkaban.serialization.de.JobFlowDeserializer;
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.net.UnknownHostException;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import org.apache.log4j.Logger;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.runtime.log.Log4JLogChute;
@@ -63,6 +82,8 @@ public class AzkabanApplication
 
     private static final Logger logger = Logger.getLogger(AzkabanApplication.class);
     private static final String INSTANCE_NAME = "instance.name";
+    private static final String RESTART_RERUN = "rerun";
+    private static final String RESTART_FAIL = "fail";
     
     private final String _instanceName;
     private final List<File> _jobDirs;
@@ -75,6 +96,14 @@ public class AzkabanApplication
     private final ClassLoader _baseClassLoader;
     private final String _hdfsUrl;
     private final FlowManager _allFlows;
+    private final WriteBehindFlowManager _writeBehindFlows;
+    private final ExecutionJournal _executionJournal;
+    private final ExecutionStore _executionStore;
+    private final ExecutionIndex _executionIndex;
+    private final Archiver _archiver;
+    private final LogIndexer _logIndexer;
+    private final Thread _indexCatchUp;
+    private final OrphanReaper _orphanReaper;
 
     public AzkabanApplication(List<File> jobDirs, File logDir, File tempDir, boolean enableDevMode) throws IOException {
         this._jobDirs = Utils.nonNull(jobDirs);
@@ -110,7 +139,9 @@ public class AzkabanApplication
                 ImmutableMap.<String, Class<? extends Job>>of("java", JavaJob.class,
                                                               "command", ProcessJob.class,
                                                               "javaprocess", JavaProcessJob.class,
-                                                              "pig", PigProcessJob.class)
+                                                              "pig", PigProcessJob.class,
+                                                              "java-inprocess", InProcessJavaJob.class),
+                ExecutionLog.Options.fromProps(defaultProps)
         );
 
         _hdfsUrl = defaultProps.getString("hdfs.instance.url", null);
@@ -128,6 +159,7 @@ public class AzkabanApplication
         String successEmail = defaultProps.getString("job.success.email", null);
         int schedulerThreads = defaultProps.getInt("scheduler.threads", 50);
         _instanceName = defaultProps.getString(INSTANCE_NAME, "");
+        OrphanReaper.setInstance(defaultProps.getString("azkaban.instance.id", getDefaultInstanceId()));
         
         final File initialJobDir = _jobDirs.get(0);
         File schedule = getScheduleFile(defaultProps, initialJobDir);
@@ -136,11 +168,22 @@ public class AzkabanApplication
                 defaultProps.getString("azkaban.executions.storage.dir", initialJobDir.getAbsolutePath() + "/executions")
         );
         if (! executionsStorageDir.exists()) executionsStorageDir.mkdirs();
-        long lastExecutionId = getLastExecutionId(executionsStorageDir);
-        logger.info(String.format("Using path[%s] for storing executions.", executionsStorageDir));
+        _executionStore = createExecutionStore(defaultProps, executionsStorageDir);
+        logger.info(String.format("Using path[%s] for storing executions in %s.", executionsStorageDir, _executionStore));
+
+        // Only an execution store without a mark yet needs to be searched for its highest id.
+        File idMarkFile = new File(executionsStorageDir, "execution.id");
+        ExecutionIdAllocator executionIds = new ExecutionIdAllocator(
+                idMarkFile,
+                defaultProps.getLong("azkaban.executions.id.block.size", 100),
+                idMarkFile.exists() ? 0 : _executionStore.getMaxId()
+        );
+        long lastExecutionId = executionIds.current();
         logger.info(String.format("Last known execution id was [%s]", lastExecutionId));
 
-        final ExecutableFlowSerializer flowSerializer = new DefaultExecutableFlowSerializer();
+        final ExecutableFlowSerializer flowSerializer = new StreamingExecutableFlowSerializer(
+                defaultProps.getInt("azkaban.executions.generated.props.max.bytes", IndividualJobEFSerializer.DEFAULT_MAX_GENERATED_PROPS_BYTES)
+        );
         final ExecutableFlowDeserializer flowDeserializer = new ExecutableFlowDeserializer(
                 new JobFlowDeserializer(
                         ImmutableMap.<String, Function<Map<String, Object>, ExecutableFlow>>of(
@@ -149,12 +192,76 @@ public class AzkabanApplication
                 )
         );
 
+        if (defaultProps.getBoolean("azkaban.executions.journal.enabled", false)) {
+            _executionJournal = new ExecutionJournal(
+                    new File(executionsStorageDir, "journal"),
+                    defaultProps.getLong("azkaban.executions.journal.segment.bytes", 64 * 1024 * 1024),
+                    defaultProps.getLong("azkaban.executions.journal.max.idle.ms", 7 * 24 * 60 * 60 * 1000L)
+            );
+            logger.info("Journaling job transitions of running executions. " + _executionJournal);
+        }
+        else {
+            _executionJournal = null;
+        }
+
+        if (defaultProps.getBoolean("azkaban.executions.index.enabled", true)) {
+            _executionIndex = new ExecutionIndex(new File(executionsStorageDir, "index"));
+        }
+        else {
+            _executionIndex = null;
+        }
+
+        FlowManager storedFlows = new RefreshableFlowManager(
+                _jobManager,
+                factory,
+                flowSerializer,
+                flowDeserializer,
+                _executionStore,
+                executionIds,
+                _executionJournal,
+                _executionIndex
+        );
+
+        long flushIntervalMs = defaultProps.getLong("azkaban.executions.flush.interval.ms", 1000);
+        if (flushIntervalMs > 0) {
+            logger.info(String.format("Writing running executions at most every [%s] ms.", flushIntervalMs));
+            _writeBehindFlows = new WriteBehindFlowManager(storedFlows, flushIntervalMs);
+            storedFlows = _writeBehindFlows;
+        }
+        else {
+            _writeBehindFlows = null;
+        }
+
         _allFlows = new CachingFlowManager(
-                new RefreshableFlowManager(_jobManager, factory, flowSerializer, flowDeserializer, executionsStorageDir, lastExecutionId),
+                storedFlows,
                 defaultProps.getInt("azkaban.flow.cache.size", 1000)
         );
         _jobManager.setFlowManager(_allFlows);
 
+        // Recovery finds running executions through the index, so it has to wait for the catch-up.
+        final boolean recover = defaultProps.getBoolean("azkaban.executions.recovery.enabled", false);
+        if (_executionIndex != null && recover) {
+            catchUpExecutionIndex(lastExecutionId);
+            _indexCatchUp = null;
+        }
+        else if (_executionIndex != null) {
+            final long catchUpTo = lastExecutionId;
+            _indexCatchUp = new Thread("execution-index-catch-up")
+            {
+                @Override
+                public void run()
+                {
+                    catchUpExecutionIndex(catchUpTo);
+                }
+            };
+            _indexCatchUp.setDaemon(true);
+            _indexCatchUp.setPriority(Thread.MIN_PRIORITY);
+            _indexCatchUp.start();
+        }
+        else {
+            _indexCatchUp = null;
+        }
+
         this._scheduler = new Scheduler(_jobManager,
                                         _allFlows,
                                         _mailer,
@@ -165,6 +272,60 @@ public class AzkabanApplication
                                         backup,
                                         schedulerThreads);
 
+        if (recover) {
+            recoverExecutions(
+                    defaultProps.getString("azkaban.executions.recovery.restart.policy", RESTART_RERUN),
+                    defaultProps.getInt("azkaban.executions.recovery.lookback", 100),
+                    lastExecutionId
+            );
+        }
+
+        if (defaultProps.getBoolean("azkaban.archive.enabled", false)) {
+            long dayMs = 24L * 60 * 60 * 1000;
+            JsonExecutionStore archivableStore = null;
+            if (_executionStore instanceof JsonExecutionStore) {
+                archivableStore = (JsonExecutionStore) _executionStore;
+            }
+            else {
+                logger.info(String.format("Archiving only logs, %s keeps executions in segments already.", _executionStore));
+            }
+            _archiver = new Archiver(
+                    _logsDir,
+                    archivableStore,
+                    _executionIndex,
+                    defaultProps.getInt("azkaban.archive.runs.per.job", 50),
+                    defaultProps.getInt("azkaban.archive.executions.per.flow", 100),
+                    defaultProps.getLong("azkaban.archive.after.days", 30) * dayMs,
+                    defaultProps.getLong("azkaban.archive.gzip.after.days", 1) * dayMs,
+                    defaultProps.getLong("azkaban.archive.retention.days", 0) * dayMs
+            );
+            _archiver.start(defaultProps.getLong("azkaban.archive.interval.ms", 60 * 60 * 1000));
+        }
+        else {
+            _archiver = null;
+        }
+
+        _logIndexer = new LogIndexer(
+                _logsDir,
+                defaultProps.getMapByPrefix("azkaban.log.index.pattern."),
+                defaultProps.getLong("azkaban.log.index.backfill.days", 7) * 24L * 60 * 60 * 1000
+        );
+        if (defaultProps.getBoolean("azkaban.log.index.enabled", false)) {
+            _logIndexer.start(defaultProps.getLong("azkaban.log.index.interval.ms", 60 * 1000));
+        }
+
+        if (defaultProps.getBoolean("azkaban.process.reaper.enabled", false)) {
+            _orphanReaper = new OrphanReaper(
+                    OrphanReaper.getInstance(),
+                    defaultProps.getStringList("azkaban.process.reaper.signals", ProcessJob.DEFAULT_KILL_SIGNALS),
+                    defaultProps.getLong("azkaban.process.reaper.grace.ms", 5 * 1000)
+            );
+            _orphanReaper.start(defaultProps.getLong("azkaban.process.reaper.interval.ms", 60 * 1000));
+        }
+        else {
+            _orphanReaper = null;
+        }
+
         this._velocityEngine = configureVelocityEngine(enableDevMode);
     }
 
@@ -233,6 +394,22 @@ public class AzkabanApplication
         return _baseClassLoader;
     }
 
+    /**
+     * Identifies this Azkaban among the ones that may share a host, the same way across restarts: the host and
+     * the log directory, which no two of them can share.
+     */
+    private String getDefaultInstanceId() throws IOException
+    {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return host + ":" + _logsDir.getCanonicalPath();
+    }
+
     public String getAppInstanceName() {
         return _instanceName;
     }
@@ -242,6 +419,176 @@ public class AzkabanApplication
         return _allFlows;
     }
 
+    /**
+     * @return the index of execution summaries, or null if it is disabled
+     */
+    public ExecutionIndex getExecutionIndex()
+    {
+        return _executionIndex;
+    }
+
+    /**
+     * @return the index of tagged log lines; it indexes logs when they are
+     *         searched even if background indexing is disabled
+     */
+    public LogIndexer getLogIndexer()
+    {
+        return _logIndexer;
+    }
+
+    /**
+     * Write out any execution state that has not been persisted yet.
+     */
+    public void shutdown()
+    {
+        if (_archiver != null) {
+            _archiver.shutdown();
+        }
+        _logIndexer.shutdown();
+        if (_orphanReaper != null) {
+            _orphanReaper.shutdown();
+        }
+        if (_writeBehindFlows != null) {
+            _writeBehindFlows.shutdown();
+        }
+        if (_executionJournal != null) {
+            _executionJournal.close();
+        }
+        if (_indexCatchUp != null) {
+            _indexCatchUp.interrupt();
+            try {
+                _indexCatchUp.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (_executionIndex != null) {
+            _executionIndex.close();
+        }
+        _executionStore.close();
+    }
+
+    /**
+     * Resume the executions that were running when the previous process went
+     * away. Their interrupted jobs are rerun or failed according to each job's
+     * restart.policy, falling back to the given default, and the rest of each
+     * flow carries on from there without rerunning the jobs that finished.
+     *
+     * Running executions are found through the execution index or, without
+     * one, among the last lookback executions.
+     */
+    private void recoverExecutions(final String defaultPolicy, int lookback, long lastExecutionId)
+    {
+        if(!RESTART_RERUN.equals(defaultPolicy) && !RESTART_FAIL.equals(defaultPolicy)) {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown azkaban.executions.recovery.restart.policy[%s], expected %s or %s.",
+                    defaultPolicy, RESTART_RERUN, RESTART_FAIL));
+        }
+
+        Set<Long> candidates = new TreeSet<Long>();
+        if(_executionIndex != null) {
+            candidates.addAll(_executionIndex.getUnfinishedIds());
+        }
+        else {
+            for(long id = lastExecutionId; id > 0 && id > lastExecutionId - lookback; --id) {
+                candidates.add(id);
+            }
+        }
+        if(_executionJournal != null) {
+            for(String id : _executionJournal.getUnfinishedExecutionIds()) {
+                candidates.add(Long.parseLong(id));
+            }
+        }
+
+        for(long id : candidates) {
+            try {
+                ExecutionSummary summary = _allFlows.loadExecutionSummary(id);
+                if(summary == null || summary.getStatus() != Status.RUNNING) {
+                    forgetJournaled(id);
+                    continue;
+                }
+
+                ExecutableFlow flow = _allFlows.loadExecutableFlow(id);
+                List<String> interrupted = Flows.recoverInterruptedJobs(flow, new Predicate<String>() {
+                    @Override
+                    public boolean apply(String jobName) {
+                        return RESTART_RERUN.equals(getRestartPolicy(jobName, defaultPolicy));
+                    }
+                });
+                _allFlows.saveExecutableFlow(flow);
+
+                logger.info(String.format("Resuming execution[%s] of flow[%s], interrupted jobs %s.",
+                                          id, flow.getName(), interrupted));
+                _scheduler.resume(flow);
+            }
+            catch(RuntimeException e) {
+                logger.error(String.format("Could not resume execution[%s].", id), e);
+                forgetJournaled(id);
+            }
+        }
+    }
+
+    /**
+     * Executions that are not resumed are never saved again, so the journal has to let go of them.
+     */
+    private void forgetJournaled(long id)
+    {
+        if(_executionJournal != null) {
+            _executionJournal.forget(String.valueOf(id));
+        }
+    }
+
+    private String getRestartPolicy(String jobName, String defaultPolicy)
+    {
+        JobDescriptor descriptor = _jobManager.getJobDescriptor(jobName);
+        String policy = descriptor == null ? null : descriptor.getRestartPolicy();
+
+        if(policy == null) {
+            return defaultPolicy;
+        }
+        else if(!RESTART_RERUN.equals(policy) && !RESTART_FAIL.equals(policy)) {
+            logger.warn(String.format("Job[%s] has unknown %s[%s], using [%s].",
+                                      jobName, JobDescriptor.RESTART_POLICY, policy, defaultPolicy));
+            return defaultPolicy;
+        }
+
+        return policy;
+    }
+
+    /**
+     * Index the executions stored since the index was last written, and re-index the ones it last saw
+     * unfinished, whose final state may not have reached it.  An execution that can't be read is left out.
+     */
+    private void catchUpExecutionIndex(long lastExecutionId)
+    {
+        List<Long> ids = _executionIndex.getUnfinishedIds();
+        for(long id = _executionIndex.getMaxId() + 1; id <= lastExecutionId; ++id) {
+            ids.add(id);
+        }
+        if(ids.isEmpty()) {
+            return;
+        }
+
+        logger.info(String.format("Indexing [%s] executions.", ids.size()));
+        for(long id : ids) {
+            if(Thread.currentThread().isInterrupted()) {
+                logger.info("Stopped indexing executions, the rest are indexed on the next start.");
+                return;
+            }
+            try {
+                ExecutionSummary summary = _allFlows.loadExecutionSummary(id);
+                if(summary != null) {
+                    _executionIndex.update(summary);
+                }
+            }
+            catch(RuntimeException e) {
+                logger.warn(String.format("Could not index execution[%s].", id), e);
+            }
+        }
+        logger.info(String.format("Opened %s", _executionIndex));
+    }
+
     private ClassLoader getBaseClassloader() throws MalformedURLException
     {
         final ClassLoader retVal;
@@ -294,24 +641,27 @@ public class AzkabanApplication
         return retVal;
     }
 
-    private long getLastExecutionId(File executionsStorageDir)
+    private ExecutionStore createExecutionStore(Props defaultProps, File executionsStorageDir)
     {
-        long lastId = 0;
-
-        for (File file : executionsStorageDir.listFiles()) {
-            final String filename = file.getName();
-            if (filename.endsWith(".json")) {
-                try {
-                    lastId = Math.max(
-                            lastId,
-                            Long.parseLong(filename.substring(0, filename.length() - 5))
-                    );
-                }
-                catch (NumberFormatException e) {
-                }
-            }
-        }
+        String storeType = defaultProps.getString("azkaban.executions.store", "json");
 
-        return lastId;
+        if ("json".equals(storeType)) {
+            return new JsonExecutionStore(executionsStorageDir);
+        }
+        else if ("segmented".equals(storeType)) {
+            return new SegmentedExecutionStore(
+                    executionsStorageDir,
+                    defaultProps.getLong("azkaban.executions.store.segment.bytes", 64 * 1024 * 1024),
+                    defaultProps.getDouble("azkaban.executions.store.compaction.threshold", 0.5),
+                    defaultProps.getBoolean("azkaban.executions.store.sync", false),
+                    ExecutionCodecs.forName(defaultProps.getString("azkaban.executions.store.codec", "json"))
+            );
+        }
+        else {
+            throw new IllegalArgumentException(String.format(
+                    "Unknown azkaban.executions.store[%s], expected json or segmented.",
+                    storeType
+            ));
+        }
     }
 }
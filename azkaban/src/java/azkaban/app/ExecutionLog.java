@@ -0,0 +1,397 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import azkaban.common.utils.Props;
+
+/**
+ * The log of one run of a job. Writers never touch the disk: what they write
+ * goes into a bounded ring buffer, which a single background thread shared by
+ * all runs drains in batches. Writes that find the buffer full are dropped,
+ * counted, and marked in the log once there is room again.
+ * 
+ * A log can be capped at a size. It then keeps the first half of the cap as it
+ * was written and the last half in two rotating spill files, and when it is
+ * closed it joins the two with a marker saying how much was cut. A log can
+ * also be gzipped as it is written, in which case it can only be read once it
+ * is closed.
+ */
+public class ExecutionLog {
+
+    /**
+     * How the logs of runs are written
+     */
+    public static class Options {
+
+        private final int _bufferBytes;
+        private final long _maxBytes;
+        private final boolean _gzip;
+
+        /**
+         * @param bufferBytes The size of the ring buffer of each log
+         * @param maxBytes The most bytes a log keeps, or 0 for no limit
+         * @param gzip Whether to gzip logs as they are written
+         */
+        public Options(int bufferBytes, long maxBytes, boolean gzip) {
+            _bufferBytes = bufferBytes;
+            _maxBytes = maxBytes;
+            _gzip = gzip;
+        }
+
+        public static Options fromProps(Props props) {
+            return new Options(props.getInt("azkaban.job.log.buffer.bytes", DEFAULT_BUFFER_BYTES),
+                               props.getLong("azkaban.job.log.max.bytes", 0),
+                               props.getBoolean("azkaban.job.log.gzip", false));
+        }
+    }
+
+    public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+    public static final Options DEFAULT_OPTIONS = new Options(DEFAULT_BUFFER_BYTES, 0, false);
+
+    private static final long FLUSH_INTERVAL_MS = 200;
+
+    private static final Logger logger = Logger.getLogger(ExecutionLog.class);
+
+    private static final AtomicLong totalBytesWritten = new AtomicLong(0);
+    private static final AtomicLong totalBytesDropped = new AtomicLong(0);
+    private static final AtomicLong totalBytesTruncated = new AtomicLong(0);
+
+    private static final Flusher flusher = new Flusher();
+
+    private final File _file;
+    private final long _headLimit;
+    private final long _tailLimit;
+
+    // The ring buffer, guarded by this.
+    private final byte[] _ring;
+    private int _ringStart = 0;
+    private int _ringSize = 0;
+    private long _pendingDropped = 0;
+    private boolean _closed = false;
+
+    // Only touched while draining, guarded by _drainLock.
+    private final Object _drainLock = new Object();
+    private final byte[] _batch;
+    private final OutputStream _out;
+    private long _headWritten = 0;
+    private final File[] _spills;
+    private OutputStream _spillOut;
+    private int _spillIndex = 0;
+    private long _spillWritten = 0;
+    private boolean _spillRotated = false;
+
+    private final AtomicLong _bytesWritten = new AtomicLong(0);
+    private final AtomicLong _bytesDropped = new AtomicLong(0);
+    private final AtomicLong _bytesTruncated = new AtomicLong(0);
+
+    /**
+     * @param logFile The file to write, which gets a .gz suffix if the log is
+     *        gzipped
+     * @param options How to write it
+     * @throws IOException If the file can't be created
+     */
+    public ExecutionLog(File logFile, Options options) throws IOException {
+        _file = options._gzip ? new File(logFile.getPath() + ".gz") : logFile;
+        _ring = new byte[Math.max(1024, options._bufferBytes)];
+        _batch = new byte[_ring.length];
+        _headLimit = options._maxBytes > 0 ? options._maxBytes / 2 : Long.MAX_VALUE;
+        _tailLimit = options._maxBytes > 0 ? options._maxBytes - _headLimit : 0;
+        _spills = new File[] { new File(_file.getPath() + ".tail.0"), new File(_file.getPath() + ".tail.1") };
+
+        OutputStream out = new FileOutputStream(_file);
+        _out = options._gzip ? new GZIPOutputStream(out, 64 * 1024) : new BufferedOutputStream(out, 64 * 1024);
+        flusher.register(this);
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Add to the log, without waiting for the disk
+     */
+    public void write(String message) {
+        byte[] bytes = message.getBytes();
+        boolean wake;
+        synchronized(this) {
+            if(_closed)
+                return;
+
+            if(_pendingDropped > 0) {
+                byte[] marker = ("... " + _pendingDropped + " bytes dropped, the log could not keep up ...\n").getBytes();
+                if(_ring.length - _ringSize >= marker.length + bytes.length) {
+                    put(marker);
+                    _pendingDropped = 0;
+                }
+            }
+
+            if(_pendingDropped > 0 || _ring.length - _ringSize < bytes.length) {
+                _pendingDropped += bytes.length;
+                _bytesDropped.addAndGet(bytes.length);
+                totalBytesDropped.addAndGet(bytes.length);
+                wake = true;
+            } else {
+                put(bytes);
+                wake = _ringSize > _ring.length / 2;
+            }
+        }
+        if(wake)
+            flusher.wakeUp();
+    }
+
+    /**
+     * Write out everything written so far and close the log
+     */
+    public void close() throws IOException {
+        synchronized(this) {
+            if(_closed)
+                return;
+            _closed = true;
+        }
+        flusher.unregister(this);
+
+        synchronized(_drainLock) {
+            try {
+                drain();
+                if(_bytesWritten.get() > _headWritten)
+                    appendTail();
+            } finally {
+                IOUtils.closeQuietly(_spillOut);
+                _out.close();
+                for(File spill: _spills)
+                    spill.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The bytes written to the log, including any later cut by its
+     *         size limit
+     */
+    public long getBytesWritten() {
+        return _bytesWritten.get();
+    }
+
+    /**
+     * @return The bytes that never made it into the log because its buffer was
+     *         full
+     */
+    public long getBytesDropped() {
+        return _bytesDropped.get();
+    }
+
+    /**
+     * @return The bytes cut from the middle of the log by its size limit
+     */
+    public long getBytesTruncated() {
+        return _bytesTruncated.get();
+    }
+
+    public static long getTotalBytesWritten() {
+        return totalBytesWritten.get();
+    }
+
+    public static long getTotalBytesDropped() {
+        return totalBytesDropped.get();
+    }
+
+    public static long getTotalBytesTruncated() {
+        return totalBytesTruncated.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutionLog{" + _file + "}";
+    }
+
+    private void put(byte[] bytes) {
+        int end = (_ringStart + _ringSize) % _ring.length;
+        int first = Math.min(bytes.length, _ring.length - end);
+        System.arraycopy(bytes, 0, _ring, end, first);
+        System.arraycopy(bytes, first, _ring, 0, bytes.length - first);
+        _ringSize += bytes.length;
+    }
+
+    /*
+     * Moves what is in the ring buffer to the disk.
+     */
+    private void drain() throws IOException {
+        synchronized(_drainLock) {
+            int length;
+            synchronized(this) {
+                length = _ringSize;
+                int first = Math.min(length, _ring.length - _ringStart);
+                System.arraycopy(_ring, _ringStart, _batch, 0, first);
+                System.arraycopy(_ring, 0, _batch, first, length - first);
+                _ringStart = (_ringStart + length) % _ring.length;
+                _ringSize = 0;
+            }
+            if(length == 0)
+                return;
+
+            int headPart = (int) Math.min(length, _headLimit - _headWritten);
+            if(headPart > 0) {
+                _out.write(_batch, 0, headPart);
+                _out.flush();
+                _headWritten += headPart;
+            }
+            if(headPart < length)
+                spill(_batch, headPart, length - headPart);
+
+            _bytesWritten.addAndGet(length);
+            totalBytesWritten.addAndGet(length);
+        }
+    }
+
+    /*
+     * Past the head, what is written goes to the current spill file, and the
+     * spill files swap whenever the current one has as much as the tail keeps.
+     */
+    private void spill(byte[] bytes, int offset, int length) throws IOException {
+        while(length > 0) {
+            if(_spillOut == null)
+                _spillOut = new BufferedOutputStream(new FileOutputStream(_spills[_spillIndex]));
+
+            int part = (int) Math.min(length, _tailLimit - _spillWritten);
+            _spillOut.write(bytes, offset, part);
+            _spillWritten += part;
+            offset += part;
+            length -= part;
+
+            if(_spillWritten >= _tailLimit) {
+                _spillOut.close();
+                _spillOut = null;
+                _spillIndex = 1 - _spillIndex;
+                _spills[_spillIndex].delete();
+                _spillWritten = 0;
+                _spillRotated = true;
+            }
+        }
+    }
+
+    /*
+     * Writes the last _tailLimit bytes spilled after a marker for what was cut.
+     */
+    private void appendTail() throws IOException {
+        if(_spillOut != null) {
+            _spillOut.close();
+            _spillOut = null;
+        }
+
+        File current = _spills[_spillIndex];
+        File previous = _spills[1 - _spillIndex];
+        long previousLength = _spillRotated ? previous.length() : 0;
+        long currentLength = current.length();
+        long skip = Math.max(0, previousLength + currentLength - _tailLimit);
+
+        long truncated = (_bytesWritten.get() - _headWritten) - (previousLength + currentLength - skip);
+        if(truncated > 0) {
+            _out.write(("\n... " + truncated + " bytes truncated ...\n").getBytes());
+            _bytesTruncated.addAndGet(truncated);
+            totalBytesTruncated.addAndGet(truncated);
+        }
+
+        if(_spillRotated)
+            copy(previous, skip);
+        copy(current, Math.max(0, skip - previousLength));
+        _out.flush();
+    }
+
+    private void copy(File file, long skip) throws IOException {
+        if(!file.exists())
+            return;
+        InputStream in = new FileInputStream(file);
+        try {
+            while(skip > 0) {
+                long skipped = in.skip(skip);
+                if(skipped <= 0)
+                    return;
+                skip -= skipped;
+            }
+            IOUtils.copyLarge(in, _out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * The one thread that writes the logs of all runs.
+     */
+    private static class Flusher extends Thread {
+
+        private final Set<ExecutionLog> _logs = new CopyOnWriteArraySet<ExecutionLog>();
+        private boolean _woken = false;
+
+        private Flusher() {
+            super("execution-log-writer");
+            setDaemon(true);
+            start();
+        }
+
+        void register(ExecutionLog log) {
+            _logs.add(log);
+        }
+
+        void unregister(ExecutionLog log) {
+            _logs.remove(log);
+        }
+
+        synchronized void wakeUp() {
+            _woken = true;
+            notify();
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                try {
+                    synchronized(this) {
+                        if(!_woken)
+                            wait(FLUSH_INTERVAL_MS);
+                        _woken = false;
+                    }
+                    for(ExecutionLog log: _logs) {
+                        try {
+                            log.drain();
+                        } catch(IOException e) {
+                            logger.error("Could not write " + log, e);
+                        }
+                    }
+                } catch(InterruptedException e) {
+                    return;
+                } catch(Throwable t) {
+                    logger.error("Unexpected error writing job logs.", t);
+                }
+            }
+        }
+    }
+}
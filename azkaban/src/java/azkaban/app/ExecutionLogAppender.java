@@ -0,0 +1,66 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Layout;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * Appends to the ExecutionLog of one run. Concurrent runs of the same job log
+ * to the same logger, so events are told apart by the run named in their
+ * RUN_MDC_KEY, and only those of this run, or of no run at all, are taken.
+ */
+public class ExecutionLogAppender extends AppenderSkeleton {
+
+    public static final String RUN_MDC_KEY = "azkaban.run";
+
+    private final ExecutionLog _log;
+    private final String _runId;
+
+    public ExecutionLogAppender(ExecutionLog log, Layout layout, String runId) {
+        this._log = log;
+        this._runId = runId;
+        setLayout(layout);
+    }
+
+    @Override
+    protected void append(LoggingEvent event) {
+        Object run = event.getMDC(RUN_MDC_KEY);
+        if(run != null && !_runId.equals(run))
+            return;
+
+        _log.write(layout.format(event));
+        if(layout.ignoresThrowable()) {
+            String[] throwable = event.getThrowableStrRep();
+            if(throwable != null) {
+                StringBuilder builder = new StringBuilder();
+                for(String line: throwable)
+                    builder.append(line).append(Layout.LINE_SEP);
+                _log.write(builder.toString());
+            }
+        }
+    }
+
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    public void close() {
+        closed = true;
+    }
+}
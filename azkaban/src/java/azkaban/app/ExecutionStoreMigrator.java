@@ -0,0 +1,137 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.app;
+
+import static java.util.Arrays.asList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+
+import azkaban.flow.JsonExecutionStore;
+import azkaban.flow.SegmentedExecutionStore;
+import azkaban.serialization.ExecutionCodecs;
+
+/**
+ * Copies the executions of a directory of &lt;id&gt;.json files into a
+ * segmented execution store.
+ *
+ * The usage is
+ *
+ * bin/migrate-executions.sh --from executions-dir [--to store-dir] [--codec name] [--delete]
+ *
+ * Executions are copied in id order and read back from the new store before
+ * anything is deleted, so the migration can be re-run safely if it is
+ * interrupted.
+ */
+public class ExecutionStoreMigrator {
+
+    public static void main(String[] args) throws IOException {
+        OptionParser parser = new OptionParser();
+        OptionSpec<String> fromOpt = parser.accepts("from", "The directory holding the <id>.json executions")
+                                           .withRequiredArg()
+                                           .describedAs("dir");
+        OptionSpec<String> toOpt = parser.accepts("to", "The segmented store directory, defaults to the --from directory")
+                                         .withRequiredArg()
+                                         .describedAs("dir");
+        OptionSpec<Long> segmentBytesOpt = parser.accepts("segment-bytes", "The size of a store segment")
+                                                 .withRequiredArg()
+                                                 .ofType(Long.class)
+                                                 .defaultsTo(64L * 1024 * 1024);
+        OptionSpec<String> codecOpt = parser.accepts("codec", "The codec to write with: json, binary or binary-deflate")
+                                            .withRequiredArg()
+                                            .defaultsTo("json");
+        parser.accepts("delete", "Delete the json files once they are migrated");
+        parser.acceptsAll(asList("h", "help"), "Print usage information");
+
+        OptionSet options = parser.parse(args);
+        if(options.has("help") || !options.has(fromOpt)) {
+            System.out.println("USAGE: bin/migrate-executions.sh --from dir [--to dir] [--codec name] [--delete]");
+            parser.printHelpOn(System.out);
+            System.exit(options.has("help") ? 0 : 1);
+        }
+
+        File from = new File(options.valueOf(fromOpt));
+        File to = options.has(toOpt) ? new File(options.valueOf(toOpt)) : from;
+
+        JsonExecutionStore source = new JsonExecutionStore(from);
+        SegmentedExecutionStore destination = new SegmentedExecutionStore(to,
+                                                                          options.valueOf(segmentBytesOpt),
+                                                                          0.5,
+                                                                          true,
+                                                                          ExecutionCodecs.forName(options.valueOf(codecOpt)));
+        try {
+            List<String> ids = migrate(source, destination);
+            System.out.println(String.format("Migrated %s executions from %s to %s.", ids.size(), source, destination));
+
+            if(options.has("delete")) {
+                int deleted = 0;
+                for(String id: ids) {
+                    if(source.delete(id))
+                        deleted++;
+                }
+                System.out.println(String.format("Deleted %s json files.", deleted));
+            }
+        } finally {
+            destination.close();
+        }
+    }
+
+    /**
+     * Copy every execution of the source into the destination.
+     *
+     * @return The ids of the executions copied and verified
+     */
+    public static List<String> migrate(JsonExecutionStore source, SegmentedExecutionStore destination) {
+        List<String> ids = new ArrayList<String>(source.getIds());
+        Collections.sort(ids, new Comparator<String>() {
+
+            public int compare(String o1, String o2) {
+                if(o1.length() != o2.length())
+                    return o1.length() - o2.length();
+                return o1.compareTo(o2);
+            }
+        });
+
+        List<String> migrated = new ArrayList<String>(ids.size());
+        for(String id: ids) {
+            Map<String, Object> descriptor;
+            try {
+                descriptor = source.load(id);
+            } catch(RuntimeException e) {
+                System.err.println(String.format("Skipping unreadable execution[%s]: %s", id, e.getMessage()));
+                continue;
+            }
+
+            destination.save(id, source.loadSummary(id), descriptor);
+            if(!descriptor.equals(destination.load(id)))
+                throw new IllegalStateException(String.format("Execution[%s] did not read back as written.", id));
+            migrated.add(id);
+        }
+
+        return migrated;
+    }
+}
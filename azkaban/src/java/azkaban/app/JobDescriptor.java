@@ -47,6 +47,7 @@ public class JobDescriptor {
     public static final String RETRY_BACKOFF = "retry.backoff";
     public static final String JOB_PERMITS = "job.permits";
     public static final String NOTIFY_EMAIL = "notify.emails";
+    public static final String RESTART_POLICY = "restart.policy";
 
     public static final Comparator<JobDescriptor> NAME_COMPARATOR = new Comparator<JobDescriptor>() {
 
@@ -70,6 +71,8 @@ public class JobDescriptor {
     private final String _sourceEmailList;
     private final List<String> _emailList;
     private final String _jobType;
+    private final String _restartPolicy;
+    private volatile PropsTemplate _propsTemplate;
 
     public JobDescriptor(String id, String conicalPath, String fullpath, Props props, ClassLoader classLoader) {
         this._id = id;
@@ -103,6 +106,7 @@ public class JobDescriptor {
         Collections.sort(this._writeResourceLocks);
 
         this._emailList = props.getStringList(NOTIFY_EMAIL);
+        this._restartPolicy = props.getString(RESTART_POLICY, null);
     }
 
     /**
@@ -131,6 +135,20 @@ public class JobDescriptor {
         return this._props;
     }
 
+    /**
+     * The compiled form of this descriptor's props, built on first use. A
+     * descriptor is a snapshot of the job files, so the template is never
+     * invalidated; reloading the jobs creates new descriptors instead.
+     */
+    public PropsTemplate getPropsTemplate() {
+        PropsTemplate template = this._propsTemplate;
+        if(template == null) {
+            template = PropsTemplate.compile(this._props);
+            this._propsTemplate = template;
+        }
+        return template;
+    }
+
     public boolean hasDependencies() {
         return this._dependencies.size() > 0;
     }
@@ -189,4 +207,12 @@ public class JobDescriptor {
     public String getSenderEmail() {
         return _sourceEmailList;
     }
+
+    /**
+     * What to do with this job when it was running at the time Azkaban went
+     * down: "rerun" or "fail". Null if the job leaves it to the default.
+     */
+    public String getRestartPolicy() {
+        return _restartPolicy;
+    }
 }
\ No newline at end of file
@@ -18,6 +18,8 @@ package azkaban.app;
 
 import org.joda.time.DateTime;
 
+import azkaban.jobs.ResourceUsage;
+
 /**
  * Represents information about the execution of a job
  * 
@@ -31,14 +33,25 @@ public class JobExecution {
     private final DateTime _end;
     private final boolean _succeeded;
     private final String _log;
+    private final ResourceUsage _resources;
 
     public JobExecution(String jobName, DateTime start, DateTime end, boolean succeeded, String log) {
+        this(jobName, start, end, succeeded, log, null);
+    }
+
+    public JobExecution(String jobName,
+                        DateTime start,
+                        DateTime end,
+                        boolean succeeded,
+                        String log,
+                        ResourceUsage resources) {
         super();
         _jobName = jobName;
         _start = start;
         _end = end;
         _succeeded = succeeded;
         _log = log;
+        _resources = resources;
     }
 
     public String getJobName() {
@@ -64,4 +77,11 @@ public class JobExecution {
     public String getLog() {
         return _log;
     }
+
+    /**
+     * @return What the processes of the run used, or null if that is unknown
+     */
+    public ResourceUsage getResources() {
+        return _resources;
+    }
 }
@@ -18,15 +18,11 @@ package azkaban.app;
 
 import azkaban.common.jobs.Job;
 import azkaban.common.utils.Props;
-import azkaban.common.utils.UndefinedPropertyException;
 import azkaban.common.utils.Utils;
 import azkaban.flow.FlowManager;
 import com.google.common.collect.ImmutableSet;
 import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Logger;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
 
 import java.io.File;
 import java.io.IOException;
@@ -55,7 +51,6 @@ import java.util.concurrent.atomic.AtomicReference;
 public class JobManager {
 
     private static final String JOB_SUFFIX = ".job";
-    private static final DateTimeFormatter JOB_EXEC_DATE_FORMAT = DateTimeFormat.forPattern("MM-dd-yyyy.HH.mm.ss.SSS");
     private static final Set<String> EXCLUDE_PATHS = ImmutableSet.of("__MACOSX");
     private static final Comparator<JobExecution> JOB_EXEC_COMPARATOR = new Comparator<JobExecution>() {
 
@@ -71,6 +66,7 @@ public class JobManager {
     private final Props _defaultProps;
     private final List<File> _jobDirs;
     private final ClassLoader _baseClassLoader;
+    private final PropsLayerCache _propsCache = new PropsLayerCache();
 
     private static Logger logger = Logger.getLogger(JobManager.class);
 
@@ -164,10 +160,8 @@ public class JobManager {
 
         List<JobExecution> execs = new ArrayList<JobExecution>();
         for(File jobDir: jobDirs) {
-            List<JobExecution> found = loadJobExecutions(jobDir.getName(), jobDir);
-            if(found.size() > count)
-                found.subList(count, found.size()).clear();
-            execs.addAll(found);
+            if(jobDir.isDirectory() && !jobDir.getName().startsWith("."))
+                execs.addAll(new JobRunIndex(logDir, jobDir.getName()).loadLatest(count));
         }
 
         Collections.sort(execs, JOB_EXEC_COMPARATOR);
@@ -184,52 +178,25 @@ public class JobManager {
      * @throws IOException If loading fails
      */
     public List<JobExecution> loadJobExecutions(String jobName) throws IOException {
-        File dir = new File(_logDir + File.separator + jobName);
-        List<JobExecution> execs = loadJobExecutions(jobName, dir);
+        return loadJobExecutions(jobName, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Load the most recent executions of the given job from its run index
+     * 
+     * @param jobName The name of the job
+     * @param count The most executions to load
+     * @return A list of past executions sorted from most to least recent
+     * @throws IOException If loading fails
+     */
+    public List<JobExecution> loadJobExecutions(String jobName, int count) throws IOException {
+        List<JobExecution> execs = new JobRunIndex(new File(_logDir), jobName).loadLatest(count);
 
         // sort the executions from latest to oldest
         Collections.sort(execs, JOB_EXEC_COMPARATOR);
         return execs;
     }
 
-    private List<JobExecution> loadJobExecutions(String jobName, File jobDir) throws IOException {
-        List<JobExecution> execs = new ArrayList<JobExecution>();
-        File[] files = jobDir.listFiles();
-        if(files != null) {
-            for(File execDir: files) {
-                // Sometimes there are os or other maintenance files that should be skipped.
-                if (!execDir.isDirectory() || execDir.getName().startsWith(".")) {
-                    continue;
-                }
-                File runProps = new File(execDir, "run.properties");
-                DateTime start = null;
-                DateTime end = null;
-                boolean succeeded = false;
-                DateTime dirDate = null;
-                try {
-                    dirDate = JOB_EXEC_DATE_FORMAT.parseDateTime(execDir.getName());
-                } catch (Exception e) {
-                    logger.info("Ignoring unknown directory found in logs:" + execDir.getAbsolutePath(), e);
-                    continue;
-                }
-                if(runProps.canRead()) {
-                    Props props = new Props(null, runProps.getAbsolutePath());
-                    start = new DateTime(props.getLong("start"));
-                    end = new DateTime(props.getLong("end"));
-                    succeeded = props.getBoolean("succeeded");
-                }
-                String logFile = jobName + File.separator + execDir.getName() + File.separator
-                                 + jobName + "." + execDir.getName() + ".log";
-                execs.add(new JobExecution(jobName,
-                                           start == null ? dirDate : start,
-                                           end,
-                                           succeeded,
-                                           logFile));
-            }
-        }
-        return execs;
-    }
-
     public JobDescriptor getJobDescriptor(String name)
     {
         return jobDescriptorCache.get().get(name);
@@ -310,8 +277,9 @@ public class JobManager {
         // first load additional props defined in this directory
         Props dirProps = loadLocalNonJobProps(currDir, defaultProps);
 
-        // apply overrides
-        dirProps = new Props(dirProps, overrides);
+        // apply overrides just beneath each job so that the directory layers
+        // stay shareable between loads
+        Props jobParentProps = overrides == null ? dirProps : new Props(dirProps, overrides);
 
         ClassLoader loader = createClassLoaderForDir(parentClassLoader, currDir);
 
@@ -336,7 +304,10 @@ public class JobManager {
 
                 logger.debug("Loading job '" + name + "' with path " + jobPath);
                 try {
-                    Props jobProps = new Props(dirProps, f.getAbsolutePath());
+                    // A job stacked on overrides is loaded for this once, the cached layer stays as it is.
+                    Props jobProps = overrides == null
+                                     ? _propsCache.getLayer(f, Collections.singletonList(f), jobParentProps)
+                                     : _propsCache.getTransientLayer(f, Collections.singletonList(f), jobParentProps);
                     jobs.put(name, new JobDescriptor(name, jobPath, f.getPath(), jobProps, loader));
                 } catch(Exception e) {
                     throw new JobLoadException("Failed to create Job '" + name + "': "
@@ -444,21 +415,17 @@ public class JobManager {
         else if(!dir.canRead())
             throw new JobLoadException(dir + " is not a readable directory!");
 
-        try {
-            Props props = new Props(parent);
-            for(File f: dir.listFiles()) {
-                try {
-                    String name = f.getName();
-                    if(name.endsWith(".schema") || name.endsWith(".properties")) {
-                        logger.debug("Loading properties from " + f.getAbsolutePath());
-                        props.putLocal(new Props(null, f.getAbsolutePath()));
-                    }
-                } catch(UndefinedPropertyException e) {
-                    throw new JobLoadException("Undefined property while loading properties in '"
-                                               + f + "'.", e);
-                }
+        List<File> propFiles = new ArrayList<File>();
+        for(File f: dir.listFiles()) {
+            String name = f.getName();
+            if(name.endsWith(".schema") || name.endsWith(".properties")) {
+                logger.debug("Loading properties from " + f.getAbsolutePath());
+                propFiles.add(f);
             }
-            return props;
+        }
+
+        try {
+            return _propsCache.getLayer(dir, propFiles, parent);
         } catch(IOException e) {
             throw new RuntimeException(e);
         }
@@ -491,6 +458,8 @@ public class JobManager {
     private void updateFlowManager()
     {
         jobDescriptorCache.set(loadJobDescriptors());
+        _propsCache.evictMissing();
+        logger.info("Job properties reloaded: " + _propsCache);
         manager.reload();
     }
 
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+import azkaban.common.utils.Props;
+import azkaban.jobs.ResourceUsage;
+
+/**
+ * An append-only record of the runs of one job, kept as logDir/job/.runs.idx
+ * so that listing the runs of a job reads one file instead of every run
+ * directory. LoggingJob appends a record when a run starts and another when
+ * it ends; the later record of a run replaces the earlier one. Records have a
+ * fixed size, so the most recent runs are read from the tail of the file.
+ * 
+ * Each record also holds what the run's processes used, if that was sampled.
+ * 
+ * The first time the index of a job is used it is built from the run
+ * directories and archived runs already on disk, if there are any, and it is
+ * rebuilt the same way when archived runs are deleted, it was written by an
+ * older version, or it lists runs that are neither in their own directory nor
+ * archived any more, such as ones deleted by hand.
+ */
+public class JobRunIndex {
+
+    public static final String INDEX_FILE = ".runs.idx";
+
+    private static final int MAGIC = 0x417a6b52;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_NAME_LENGTH = 46;
+    static final int RECORD_SIZE = 8 + 8 + 4 * 8 + 4 + 1 + 1 + MAX_NAME_LENGTH;
+    private static final int READ_BATCH = 128;
+
+    private static final byte ENDED = 1;
+    private static final byte SUCCEEDED = 2;
+    private static final byte HAS_RESOURCES = 4;
+
+    // FileChannel locks are held by the whole JVM, so writers in it take turns first.
+    private static final Object WRITE_LOCK = new Object();
+
+    private static final Logger logger = Logger.getLogger(JobRunIndex.class);
+
+    private final File _logDir;
+    private final String _jobName;
+    private final File _indexFile;
+
+    public JobRunIndex(File logDir, String jobName) {
+        this._logDir = logDir;
+        this._jobName = jobName;
+        this._indexFile = new File(new File(logDir, jobName), INDEX_FILE);
+    }
+
+    /**
+     * Record that a run has started
+     */
+    public void runStarted(String runName, long start) throws IOException {
+        append(runName, start, 0, false, false, null);
+    }
+
+    /**
+     * Record that a run has ended
+     */
+    public void runEnded(String runName, long start, long end, boolean succeeded) throws IOException {
+        runEnded(runName, start, end, succeeded, null);
+    }
+
+    /**
+     * Record that a run has ended, and what its processes used if that is
+     * known
+     */
+    public void runEnded(String runName, long start, long end, boolean succeeded, ResourceUsage resources)
+            throws IOException {
+        append(runName, start, end, true, succeeded, resources);
+    }
+
+    /**
+     * Load the most recent runs of the job
+     * 
+     * @param count The most runs to load
+     * @return The runs, most recently recorded first
+     * @throws IOException If the index can't be read
+     */
+    public List<JobExecution> loadLatest(int count) throws IOException {
+        if(!_indexFile.exists() || !isCurrentVersion()) {
+            if(!_indexFile.getParentFile().isDirectory() || !hasRuns())
+                return Collections.emptyList();
+            ensureBuilt();
+        }
+
+        List<JobExecution> execs = new ArrayList<JobExecution>();
+        Set<String> seen = new HashSet<String>();
+        Set<String> archived = null;
+        int dropped = 0;
+        RandomAccessFile file;
+        try {
+            file = new RandomAccessFile(_indexFile, "r");
+        } catch(IOException e) {
+            return execs;
+        }
+        try {
+            // A record still being appended is not counted.
+            long records = Math.max(0, (file.length() - HEADER_SIZE) / RECORD_SIZE);
+            byte[] buffer = new byte[READ_BATCH * RECORD_SIZE];
+            for(long end = records; end > 0 && execs.size() < count;) {
+                long begin = Math.max(0, end - READ_BATCH);
+                int length = (int) (end - begin) * RECORD_SIZE;
+                file.seek(HEADER_SIZE + begin * RECORD_SIZE);
+                file.readFully(buffer, 0, length);
+
+                ByteBuffer buf = ByteBuffer.wrap(buffer, 0, length);
+                for(int i = (int) (end - begin) - 1; i >= 0 && execs.size() < count; i--) {
+                    buf.position(i * RECORD_SIZE);
+                    long start = buf.getLong();
+                    long ended = buf.getLong();
+                    ResourceUsage resources = new ResourceUsage(buf.getLong(),
+                                                                buf.getLong(),
+                                                                buf.getLong(),
+                                                                buf.getLong(),
+                                                                buf.getInt());
+                    byte flags = buf.get();
+                    int nameLength = Math.min(buf.get() & 0xff, MAX_NAME_LENGTH);
+                    byte[] name = new byte[nameLength];
+                    buf.get(name);
+
+                    String runName = new String(name, "US-ASCII");
+                    if(!seen.add(runName))
+                        continue;
+                    if(!new File(_indexFile.getParentFile(), runName).isDirectory()) {
+                        if(archived == null)
+                            archived = new LogArchive(_logDir).listArchivedRuns(_jobName);
+                        if(!archived.contains(runName)) {
+                            dropped++;
+                            continue;
+                        }
+                    }
+                    execs.add(newJobExecution(_jobName,
+                                              runName,
+                                              new DateTime(start),
+                                              (flags & ENDED) == 0 ? null : new DateTime(ended),
+                                              (flags & SUCCEEDED) != 0,
+                                              (flags & HAS_RESOURCES) == 0 ? null : resources));
+                }
+                end = begin;
+            }
+        } finally {
+            file.close();
+        }
+
+        if(dropped > 0) {
+            logger.info("Dropping " + dropped + " runs of " + _jobName + " that are gone from the run index");
+            rebuild();
+        }
+        return execs;
+    }
+
+    static JobExecution newJobExecution(String jobName,
+                                        String runName,
+                                        DateTime start,
+                                        DateTime end,
+                                        boolean succeeded,
+                                        ResourceUsage resources) {
+        String logFile = jobName + File.separator + runName + File.separator + jobName + "." + runName
+                         + ".log";
+        return new JobExecution(jobName, start, end, succeeded, logFile, resources);
+    }
+
+    private void append(String runName,
+                        long start,
+                        long end,
+                        boolean ended,
+                        boolean succeeded,
+                        ResourceUsage resources) throws IOException {
+        byte[] name = runName.getBytes("US-ASCII");
+        if(name.length > MAX_NAME_LENGTH)
+            throw new IllegalArgumentException("Run name too long for the index: " + runName);
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        putRecord(record, name, start, end, ended, succeeded, resources);
+        record.rewind();
+
+        synchronized(WRITE_LOCK) {
+            RandomAccessFile file = openLocked();
+            try {
+                FileChannel channel = file.getChannel();
+                // Appends go after the last whole record, over what is left of a torn one.
+                long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+                long position = HEADER_SIZE + records * RECORD_SIZE;
+                while(record.hasRemaining())
+                    position += channel.write(record, position);
+                channel.truncate(position);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index from the runs on disk, dropping runs whose logs have
+     * since been deleted
+     */
+    public void rebuild() throws IOException {
+        synchronized(WRITE_LOCK) {
+            RandomAccessFile file = openLocked();
+            try {
+                build(file.getChannel());
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    private boolean hasRuns() throws IOException {
+        LogArchive archive = new LogArchive(_logDir);
+        return !archive.listRuns(_jobName).isEmpty() || !archive.listArchivedRuns(_jobName).isEmpty();
+    }
+
+    private void ensureBuilt() throws IOException {
+        synchronized(WRITE_LOCK) {
+            openLocked().close();
+        }
+    }
+
+    /*
+     * Opens the index with a lock on it that lasts until it is closed,
+     * building it first if it is new.
+     */
+    private RandomAccessFile openLocked() throws IOException {
+        _indexFile.getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(_indexFile, "rw");
+        try {
+            FileLock lock = file.getChannel().lock();
+            if(file.length() < HEADER_SIZE) {
+                build(file.getChannel());
+            } else {
+                file.seek(0);
+                if(file.readInt() != MAGIC)
+                    throw new IOException("Not a run index: " + _indexFile);
+                if(file.readInt() != VERSION)
+                    build(file.getChannel());
+            }
+            if(!lock.isValid())
+                throw new IOException("Lost the lock on " + _indexFile);
+            return file;
+        } catch(IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Records the runs already on disk, oldest first.
+     */
+    private void build(FileChannel channel) throws IOException {
+        List<Run> runs = new ArrayList<Run>();
+        LogArchive archive = new LogArchive(_logDir);
+        for(String run: archive.listRuns(_jobName)) {
+            File runProps = new File(new File(new File(_logDir, _jobName), run), "run.properties");
+            runs.add(new Run(run, runProps.canRead() ? new Props(null, runProps.getAbsolutePath()) : null));
+        }
+        for(Map.Entry<String, Props> run: archive.loadArchivedRuns(_jobName).entrySet()) {
+            if(LogArchive.getRunDate(run.getKey()) != null)
+                runs.add(new Run(run.getKey(), run.getValue().containsKey("start") ? run.getValue() : null));
+        }
+        Collections.sort(runs, new Comparator<Run>() {
+
+            public int compare(Run r1, Run r2) {
+                return r1.execution.getStarted().compareTo(r2.execution.getStarted());
+            }
+        });
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + runs.size() * RECORD_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        for(Run run: runs) {
+            byte[] name = run.name.getBytes("US-ASCII");
+            if(name.length > MAX_NAME_LENGTH)
+                continue;
+            JobExecution exec = run.execution;
+            putRecord(buffer,
+                      name,
+                      exec.getStarted().getMillis(),
+                      exec.hasEnded() ? exec.getEnded().getMillis() : 0,
+                      exec.hasEnded(),
+                      exec.isSucceeded(),
+                      exec.getResources());
+        }
+        buffer.flip();
+
+        channel.truncate(0);
+        long position = 0;
+        while(buffer.hasRemaining())
+            position += channel.write(buffer, position);
+        channel.force(false);
+
+        if(!runs.isEmpty())
+            logger.info("Indexed " + runs.size() + " runs of " + _jobName);
+    }
+
+    private static void putRecord(ByteBuffer buffer,
+                                  byte[] name,
+                                  long start,
+                                  long end,
+                                  boolean ended,
+                                  boolean succeeded,
+                                  ResourceUsage resources) {
+        int position = buffer.position();
+        buffer.putLong(start);
+        buffer.putLong(end);
+        buffer.putLong(resources == null ? 0 : resources.getCpuMillis());
+        buffer.putLong(resources == null ? 0 : resources.getPeakRssBytes());
+        buffer.putLong(resources == null ? 0 : resources.getReadBytes());
+        buffer.putLong(resources == null ? 0 : resources.getWriteBytes());
+        buffer.putInt(resources == null ? 0 : resources.getPeakThreads());
+        buffer.put((byte) ((ended ? ENDED : 0) | (succeeded ? SUCCEEDED : 0)
+                           | (resources == null ? 0 : HAS_RESOURCES)));
+        buffer.put((byte) name.length);
+        buffer.put(name);
+        buffer.position(position + RECORD_SIZE);
+    }
+
+    /**
+     * @return Whether the index was written by this version, as far as its
+     *         header can be read
+     */
+    private boolean isCurrentVersion() {
+        try {
+            RandomAccessFile file = new RandomAccessFile(_indexFile, "r");
+            try {
+                return file.length() < HEADER_SIZE || (file.readInt() == MAGIC && file.readInt() == VERSION);
+            } finally {
+                file.close();
+            }
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    private class Run {
+
+        private final String name;
+        private final JobExecution execution;
+
+        Run(String name, Props runProps) {
+            this.name = name;
+            this.execution = runProps == null
+                             ? newJobExecution(_jobName, name, LogArchive.getRunDate(name), null, false, null)
+                             : newJobExecution(_jobName,
+                                               name,
+                                               new DateTime(runProps.getLong("start")),
+                                               new DateTime(runProps.getLong("end")),
+                                               runProps.getBoolean("succeeded"),
+                                               ResourceUsage.fromProps(runProps));
+        }
+    }
+}
@@ -39,6 +39,7 @@ public class JobWrappingFactory implements Function<JobDescriptor, Job>
     private final Map<String, Class<? extends Job>> _jobToClass;
 
     private final NamedPermitManager _permitManager;
+    private final ExecutionLog.Options _logOptions;
 
     public JobWrappingFactory(
             final NamedPermitManager permitManager,
@@ -47,8 +48,21 @@ public class JobWrappingFactory implements Function<JobDescriptor, Job>
             final String defaultType,
             final Map<String, Class<? extends Job>> jobTypeToClassMap
     )
+    {
+        this(permitManager, readWriteLockManager, logDir, defaultType, jobTypeToClassMap, ExecutionLog.DEFAULT_OPTIONS);
+    }
+
+    public JobWrappingFactory(
+            final NamedPermitManager permitManager,
+            final ReadWriteLockManager readWriteLockManager,
+            final String logDir,
+            final String defaultType,
+            final Map<String, Class<? extends Job>> jobTypeToClassMap,
+            final ExecutionLog.Options logOptions
+    )
     {
         this._permitManager = permitManager;
+        this._logOptions = logOptions;
         this._readWriteLockManager = readWriteLockManager;
         this._logDir = logDir;
         this._defaultType = defaultType;
@@ -122,7 +136,7 @@ public class JobWrappingFactory implements Function<JobDescriptor, Job>
         }
 
         // wrap up job in logging proxy
-        job = new LoggingJob(_logDir, job, job.getId());
+        job = new LoggingJob(_logDir, job, job.getId(), _logOptions);
 
         return job;
     }
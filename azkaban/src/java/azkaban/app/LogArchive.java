@@ -0,0 +1,468 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import azkaban.common.utils.Props;
+
+/**
+ * The logs of past job runs, wherever the Archiver has put them. A run starts
+ * out as its own directory, logDir/job/date/, its logs may later be gzipped in
+ * place, and finally the whole run is rolled into a zip segment under
+ * logDir/job/.archive/. Logs are always addressed by the path of the
+ * original, uncompressed file.
+ */
+public class LogArchive {
+
+    public static final String ARCHIVE_DIR = ".archive";
+
+    static final DateTimeFormatter RUN_DATE_FORMAT = DateTimeFormat.forPattern("MM-dd-yyyy.HH.mm.ss.SSS");
+
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String RUN_PROPERTIES = "run.properties";
+    private static final String SEGMENT_PREFIX = "runs-";
+    private static final String SEGMENT_SUFFIX = ".zip";
+
+    private static final Logger logger = Logger.getLogger(LogArchive.class);
+
+    private final File _logDir;
+
+    public LogArchive(File logDir) {
+        this._logDir = logDir;
+    }
+
+    /**
+     * A log opened for reading, along with its uncompressed size.
+     */
+    public static class LogFile {
+
+        private final long _size;
+        private final InputStream _in;
+        private final boolean _complete;
+
+        LogFile(long size, InputStream in, boolean complete) {
+            _size = size;
+            _in = in;
+            _complete = complete;
+        }
+
+        public long getSize() {
+            return _size;
+        }
+
+        public InputStream getInputStream() {
+            return _in;
+        }
+
+        /**
+         * @return A channel to read the log from at any position, or null if
+         *         the log is compressed and can only be read in order
+         */
+        public FileChannel getChannel() {
+            return _in instanceof FileInputStream ? ((FileInputStream) _in).getChannel() : null;
+        }
+
+        /**
+         * @return true if the run that wrote the log has ended, so the log
+         *         won't grow any more
+         */
+        public boolean isComplete() {
+            return _complete;
+        }
+    }
+
+    /**
+     * Open a log for reading
+     * 
+     * @param path The path of the log relative to the log directory, as
+     *        first written
+     * @return The opened log, or null if there is no such log
+     * @throws IOException If the log can't be read, or can't be read yet
+     */
+    public LogFile open(String path) throws IOException {
+        File file = new File(_logDir, path);
+        if(file.canRead())
+            return new LogFile(file.length(),
+                               new FileInputStream(file),
+                               new File(file.getParentFile(), RUN_PROPERTIES).exists());
+
+        File gzipped = new File(_logDir, path + GZIP_SUFFIX);
+        if(gzipped.canRead()) {
+            // A log gzipped as it is written isn't a whole gzip file until its run ends.
+            if(!new File(gzipped.getParentFile(), RUN_PROPERTIES).exists())
+                throw new IOException("The log is compressed as it is written and can be read once the run ends.");
+            return new LogFile(getGzipSize(gzipped), new GZIPInputStream(new FileInputStream(gzipped)), true);
+        }
+
+        String normalized = path.replace(File.separatorChar, '/');
+        int jobEnd = normalized.indexOf('/');
+        if(jobEnd <= 0)
+            return null;
+
+        String entryName = normalized.substring(jobEnd + 1);
+        for(File segment: listSegments(normalized.substring(0, jobEnd))) {
+            final ZipFile zip = new ZipFile(segment);
+            ZipEntry entry = zip.getEntry(entryName);
+            if(entry == null) {
+                zip.close();
+                continue;
+            }
+
+            InputStream in = new FilterInputStream(zip.getInputStream(entry)) {
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+            return new LogFile(entry.getSize(), in, true);
+        }
+
+        return null;
+    }
+
+    /**
+     * Get the runs of the given job that are still in their own directories
+     * 
+     * @param jobName The name of the job
+     * @return The names of the run directories, most recent first
+     */
+    public List<String> listRuns(String jobName) {
+        File[] files = new File(_logDir, jobName).listFiles();
+        if(files == null)
+            return Collections.emptyList();
+
+        List<String> runs = new ArrayList<String>();
+        for(File file: files) {
+            if(file.isDirectory() && !file.getName().startsWith(".") && getRunDate(file.getName()) != null)
+                runs.add(file.getName());
+        }
+        Collections.sort(runs, new Comparator<String>() {
+
+            public int compare(String r1, String r2) {
+                return getRunDate(r2).compareTo(getRunDate(r1));
+            }
+        });
+        return runs;
+    }
+
+    /**
+     * Get the archived runs of the given job, without reading any of their
+     * files
+     * 
+     * @param jobName The name of the job
+     * @return The names of the directories of the archived runs
+     * @throws IOException If an archive segment can't be read
+     */
+    public Set<String> listArchivedRuns(String jobName) throws IOException {
+        Set<String> runs = new HashSet<String>();
+        for(File segment: listSegments(jobName)) {
+            ZipFile zip = new ZipFile(segment);
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while(entries.hasMoreElements()) {
+                    String name = entries.nextElement().getName();
+                    int runEnd = name.indexOf('/');
+                    if(runEnd > 0)
+                        runs.add(name.substring(0, runEnd));
+                }
+            } finally {
+                zip.close();
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Load the run.properties of every archived run of the given job
+     * 
+     * @param jobName The name of the job
+     * @return The run.properties of each archived run by the name of its
+     *         directory, empty for runs that did not write any
+     * @throws IOException If an archive segment can't be read
+     */
+    public Map<String, Props> loadArchivedRuns(String jobName) throws IOException {
+        Map<String, Props> runs = new LinkedHashMap<String, Props>();
+        for(File segment: listSegments(jobName)) {
+            ZipFile zip = new ZipFile(segment);
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while(entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    int runEnd = entry.getName().indexOf('/');
+                    if(runEnd <= 0)
+                        continue;
+
+                    String run = entry.getName().substring(0, runEnd);
+                    if(!runs.containsKey(run))
+                        runs.put(run, new Props());
+                    if(entry.getName().endsWith("/" + RUN_PROPERTIES)) {
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            runs.put(run, new Props(null, in));
+                        } finally {
+                            in.close();
+                        }
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @return The time a run started, from the name of its directory, or null
+     *         if the name isn't one
+     */
+    public static DateTime getRunDate(String runName) {
+        try {
+            return RUN_DATE_FORMAT.parseDateTime(runName);
+        } catch(IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the run has written its run.properties, which it does
+     *         once it is over
+     */
+    public boolean isFinished(String jobName, String runName) {
+        return new File(getRunDir(jobName, runName), RUN_PROPERTIES).exists();
+    }
+
+    /**
+     * Gzip the logs of a run in place
+     * 
+     * @return The number of logs compressed
+     * @throws IOException If compressing fails
+     */
+    public int gzipLogs(String jobName, String runName) throws IOException {
+        File[] files = getRunDir(jobName, runName).listFiles();
+        if(files == null)
+            return 0;
+
+        int compressed = 0;
+        for(File file: files) {
+            if(!file.isFile() || !file.getName().endsWith(LOG_SUFFIX))
+                continue;
+
+            File gzipped = new File(file.getParentFile(), file.getName() + GZIP_SUFFIX);
+            File temp = new File(file.getParentFile(), gzipped.getName() + ".tmp");
+            InputStream in = new FileInputStream(file);
+            OutputStream out = null;
+            try {
+                out = new GZIPOutputStream(new FileOutputStream(temp));
+                IOUtils.copy(in, out);
+                out.close();
+                out = null;
+            } finally {
+                IOUtils.closeQuietly(in);
+                IOUtils.closeQuietly(out);
+            }
+
+            if(!temp.renameTo(gzipped) || !file.delete()) {
+                temp.delete();
+                throw new IOException("Could not replace " + file + " with " + gzipped);
+            }
+            compressed++;
+        }
+        return compressed;
+    }
+
+    /**
+     * Roll the given runs of a job into a new archive segment and remove their
+     * directories. Gzipped logs are stored uncompressed within the segment,
+     * which is compressed as a whole.
+     * 
+     * @param jobName The name of the job
+     * @param runNames The names of the run directories
+     * @return The number of runs archived
+     * @throws IOException If the segment can't be written
+     */
+    public int archiveRuns(String jobName, List<String> runNames) throws IOException {
+        if(runNames.isEmpty())
+            return 0;
+
+        long oldest = Long.MAX_VALUE;
+        long newest = Long.MIN_VALUE;
+        for(String run: runNames) {
+            long started = getRunDate(run).getMillis();
+            oldest = Math.min(oldest, started);
+            newest = Math.max(newest, started);
+        }
+
+        File archiveDir = new File(new File(_logDir, jobName), ARCHIVE_DIR);
+        archiveDir.mkdirs();
+        String segmentName = SEGMENT_PREFIX + oldest + "-" + newest;
+        File segment = new File(archiveDir, segmentName + SEGMENT_SUFFIX);
+        for(int i = 1; segment.exists(); i++)
+            segment = new File(archiveDir, segmentName + "." + i + SEGMENT_SUFFIX);
+
+        File temp = new File(archiveDir, segment.getName() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(temp);
+        ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(fileOut));
+        try {
+            for(String run: runNames) {
+                File[] files = getRunDir(jobName, run).listFiles();
+                if(files == null)
+                    continue;
+
+                // An entry for the run itself, so that one without files is still listed.
+                out.putNextEntry(new ZipEntry(run + "/"));
+                out.closeEntry();
+                for(File file: files) {
+                    if(!file.isFile())
+                        continue;
+
+                    boolean gzipped = file.getName().endsWith(GZIP_SUFFIX);
+                    String name = gzipped ? file.getName().substring(0, file.getName().length() - GZIP_SUFFIX.length())
+                                         : file.getName();
+                    InputStream in = new FileInputStream(file);
+                    try {
+                        if(gzipped)
+                            in = new GZIPInputStream(in);
+                        out.putNextEntry(new ZipEntry(run + "/" + name));
+                        IOUtils.copy(in, out);
+                        out.closeEntry();
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            out.finish();
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+        } finally {
+            if(out != null) {
+                IOUtils.closeQuietly(out);
+                temp.delete();
+            }
+        }
+
+        if(!temp.renameTo(segment)) {
+            temp.delete();
+            throw new IOException("Could not rename " + temp + " to " + segment);
+        }
+
+        for(String run: runNames)
+            FileUtils.deleteDirectory(getRunDir(jobName, run));
+
+        logger.info("Archived " + runNames.size() + " runs of " + jobName + " into " + segment);
+        return runNames.size();
+    }
+
+    /**
+     * Delete the archive segments of a job whose most recent run started
+     * before the given time
+     * 
+     * @return The number of segments deleted
+     */
+    public int deleteSegmentsBefore(String jobName, DateTime cutoff) {
+        int deleted = 0;
+        for(File segment: listSegments(jobName)) {
+            String name = segment.getName();
+            int newestStart = name.indexOf('-', SEGMENT_PREFIX.length()) + 1;
+            int newestEnd = newestStart;
+            while(newestEnd < name.length() && Character.isDigit(name.charAt(newestEnd)))
+                newestEnd++;
+
+            try {
+                long newest = Long.parseLong(name.substring(newestStart, newestEnd));
+                if(newest < cutoff.getMillis() && segment.delete())
+                    deleted++;
+            } catch(NumberFormatException e) {
+                logger.warn("Ignoring archive segment with an unexpected name: " + segment);
+            }
+        }
+        return deleted;
+    }
+
+    private File getRunDir(String jobName, String runName) {
+        return new File(new File(_logDir, jobName), runName);
+    }
+
+    private List<File> listSegments(String jobName) {
+        File[] files = new File(new File(_logDir, jobName), ARCHIVE_DIR).listFiles();
+        if(files == null)
+            return Collections.emptyList();
+
+        List<File> segments = new ArrayList<File>();
+        for(File file: files) {
+            if(file.getName().startsWith(SEGMENT_PREFIX) && file.getName().endsWith(SEGMENT_SUFFIX))
+                segments.add(file);
+        }
+        return segments;
+    }
+
+    /*
+     * A gzip file ends with the size of its contents, modulo 2^32.
+     */
+    private static long getGzipSize(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if(raf.length() < 4)
+                return 0;
+            raf.seek(raf.length() - 4);
+            long size = 0;
+            for(int i = 0; i < 4; i++)
+                size |= ((long) raf.read()) << (8 * i);
+            return size;
+        } finally {
+            raf.close();
+        }
+    }
+}
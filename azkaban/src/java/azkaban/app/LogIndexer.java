@@ -0,0 +1,641 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+/**
+ * Records where the ERROR and WARN lines of job logs are, and the lines
+ * matching any of a set of named patterns, so they can be found without
+ * reading every log again.
+ * 
+ * Each log gets an index file next to it, with a line "offset length tag" for
+ * every tagged line, and a checkpoint "@position" after each round saying how
+ * far into the log the index goes. Later rounds only read the bytes past the
+ * last checkpoint, and only complete lines of a log that is still being
+ * written. Once the run has ended and its whole log is indexed, a last line
+ * "#complete" says so, and the log is not opened again. Offsets are into the
+ * uncompressed log, so they hold after the log is gzipped or archived along
+ * with its index.
+ * 
+ * Background rounds leave alone the runs that started more than backfillMs
+ * ago; their logs are indexed when they are first searched or filtered.
+ * 
+ * Logs written before a pattern was added are not indexed for it again.
+ */
+public class LogIndexer {
+
+    public static final String ERROR = "ERROR";
+    public static final String WARN = "WARN";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    private static final Logger logger = Logger.getLogger(LogIndexer.class);
+
+    private static final Pattern LEVEL = Pattern.compile(" (FATAL|ERROR|WARN) - ");
+    private static final char CHECKPOINT = '@';
+    private static final String COMPLETE = "#complete";
+    private static final int MAX_MATCHED_BYTES = 64 * 1024;
+    private static final int MAX_LINE_BYTES = 4 * 1024;
+
+    private final File _logDir;
+    private final LogArchive _logArchive;
+    private final Map<String, Pattern> _patterns;
+    private final long _backfillMs;
+    private final ConcurrentMap<String, Checkpoint> _checkpoints = new ConcurrentHashMap<String, Checkpoint>();
+
+    private volatile ScheduledExecutorService _executor;
+
+    /**
+     * A tagged line of a log
+     */
+    public static class Entry {
+
+        private final long _offset;
+        private final int _length;
+        private final String _tag;
+
+        Entry(long offset, int length, String tag) {
+            _offset = offset;
+            _length = length;
+            _tag = tag;
+        }
+
+        public long getOffset() {
+            return _offset;
+        }
+
+        public int getLength() {
+            return _length;
+        }
+
+        public String getTag() {
+            return _tag;
+        }
+    }
+
+    /**
+     * A tagged line found by a search, with its text
+     */
+    public static class Match {
+
+        private final String _jobName;
+        private final String _runName;
+        private final String _logPath;
+        private final Entry _entry;
+        private final String _line;
+
+        Match(String jobName, String runName, String logPath, Entry entry, String line) {
+            _jobName = jobName;
+            _runName = runName;
+            _logPath = logPath;
+            _entry = entry;
+            _line = line;
+        }
+
+        public String getJobName() {
+            return _jobName;
+        }
+
+        public String getRunName() {
+            return _runName;
+        }
+
+        public String getLogPath() {
+            return _logPath;
+        }
+
+        public Entry getEntry() {
+            return _entry;
+        }
+
+        public String getLine() {
+            return _line;
+        }
+    }
+
+    /*
+     * How far a log is indexed, how long its index file is up to that
+     * checkpoint, and whether that is the whole of a log that won't grow
+     * again. Anything in the file past the length was written by a round that
+     * didn't finish.
+     */
+    private static class Checkpoint {
+
+        final long position;
+        final long length;
+        final boolean complete;
+
+        Checkpoint(long position, long length, boolean complete) {
+            this.position = position;
+            this.length = length;
+            this.complete = complete;
+        }
+    }
+
+    /*
+     * What an index file holds
+     */
+    private static class Index {
+
+        final List<Entry> entries = new ArrayList<Entry>();
+        Checkpoint checkpoint = new Checkpoint(0, 0, false);
+    }
+
+    /*
+     * What one pass over a log found
+     */
+    private static class Scan {
+
+        final List<Entry> entries = new ArrayList<Entry>();
+        long position;
+    }
+
+    /**
+     * @param logDir The log directory
+     * @param patterns Regular expressions to tag lines with, by the tag
+     */
+    public LogIndexer(File logDir, Map<String, String> patterns) {
+        this(logDir, patterns, 0);
+    }
+
+    /**
+     * @param logDir The log directory
+     * @param patterns Regular expressions to tag lines with, by the tag
+     * @param backfillMs How old a run can be for background rounds to index
+     *        its log, or zero for any age
+     */
+    public LogIndexer(File logDir, Map<String, String> patterns, long backfillMs) {
+        this._logDir = logDir;
+        this._backfillMs = backfillMs;
+        this._logArchive = new LogArchive(logDir);
+        this._patterns = new LinkedHashMap<String, Pattern>();
+        for(Map.Entry<String, String> pattern: patterns.entrySet()) {
+            if(pattern.getKey().length() == 0 || pattern.getKey().matches(".*\\s.*"))
+                throw new IllegalArgumentException("Invalid name for a log pattern: '" + pattern.getKey() + "'");
+            _patterns.put(pattern.getKey(), Pattern.compile(pattern.getValue()));
+        }
+    }
+
+    /**
+     * @return The tags lines can have: the levels and the names of the
+     *         patterns
+     */
+    public Set<String> getTags() {
+        Set<String> tags = new HashSet<String>();
+        tags.add(ERROR);
+        tags.add(WARN);
+        tags.addAll(_patterns.keySet());
+        return tags;
+    }
+
+    /**
+     * Index every intervalMs from now on, on a background thread
+     */
+    public void start(long intervalMs) {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "log-indexer");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        _executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    indexAll();
+                } catch(RuntimeException e) {
+                    logger.warn("Indexing logs failed, will retry on next interval.", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if(_executor != null)
+            _executor.shutdownNow();
+    }
+
+    /**
+     * Index what has been appended to the logs of every run still in its own
+     * directory
+     * 
+     * @return The number of tagged lines found
+     */
+    public int indexAll() {
+        int found = 0;
+        Set<String> seen = new HashSet<String>();
+        File[] jobDirs = _logDir.listFiles();
+        if(jobDirs == null)
+            return 0;
+
+        DateTime cutoff = _backfillMs > 0 ? new DateTime().minus(_backfillMs) : null;
+        for(File jobDir: jobDirs) {
+            if(!jobDir.isDirectory() || jobDir.getName().startsWith("."))
+                continue;
+            for(String run: _logArchive.listRuns(jobDir.getName())) {
+                // The runs are listed newest first.
+                if(cutoff != null && LogArchive.getRunDate(run).isBefore(cutoff))
+                    break;
+                String path = getLogPath(jobDir.getName(), run);
+                seen.add(path);
+                if(!_logArchive.isFinished(jobDir.getName(), run) && isGzipped(path))
+                    continue; // not readable until the run ends
+                try {
+                    found += update(path);
+                } catch(IOException e) {
+                    logger.warn("Could not index " + path, e);
+                }
+            }
+        }
+
+        // Forget the logs that have been archived or deleted.
+        _checkpoints.keySet().retainAll(seen);
+        return found;
+    }
+
+    /**
+     * Index what has been appended to a log since it was last indexed
+     * 
+     * @param path The path of the log relative to the log directory
+     * @return The number of tagged lines found
+     * @throws IOException If the log or its index can't be read or written
+     */
+    public synchronized int update(String path) throws IOException {
+        File index = new File(_logDir, path + INDEX_SUFFIX);
+        Checkpoint checkpoint = _checkpoints.get(path);
+        if(checkpoint == null)
+            checkpoint = index.exists() ? readIndex(FileUtils.readFileToByteArray(index)).checkpoint
+                                        : new Checkpoint(0, 0, false);
+        if(checkpoint.complete) {
+            _checkpoints.put(path, checkpoint);
+            return 0;
+        }
+
+        LogArchive.LogFile log = _logArchive.open(path);
+        if(log == null)
+            return 0;
+
+        Scan scan;
+        boolean complete;
+        try {
+            if(log.getSize() < checkpoint.position) {
+                // The log was started over.
+                checkpoint = new Checkpoint(0, 0, false);
+            }
+            if(log.getSize() == checkpoint.position) {
+                scan = new Scan();
+                scan.position = checkpoint.position;
+            } else {
+                scan = scan(log, checkpoint.position);
+            }
+            complete = log.isComplete() && scan.position == log.getSize();
+        } finally {
+            log.getInputStream().close();
+        }
+        if(scan.position == checkpoint.position && !complete) {
+            _checkpoints.put(path, checkpoint);
+            return 0;
+        }
+
+        StringBuilder appended = new StringBuilder();
+        for(Entry entry: scan.entries)
+            appended.append(entry.getOffset()).append(' ').append(entry.getLength()).append(' ').append(entry.getTag()).append('\n');
+        appended.append(CHECKPOINT).append(scan.position).append('\n');
+        if(complete)
+            appended.append(COMPLETE).append('\n');
+        byte[] bytes = appended.toString().getBytes("UTF-8");
+
+        RandomAccessFile out = new RandomAccessFile(index, "rw");
+        try {
+            out.setLength(checkpoint.length);
+            out.seek(checkpoint.length);
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        _checkpoints.put(path, new Checkpoint(scan.position, checkpoint.length + bytes.length, complete));
+        return scan.entries.size();
+    }
+
+    /**
+     * Get the tagged lines of a log, indexing it first if it is still in the
+     * log directory. The lines of an archived log that was never indexed are
+     * found by reading it, without keeping an index.
+     * 
+     * @param path The path of the log relative to the log directory
+     * @param tags The tags to get the lines of
+     * @return The tagged lines in the order they appear
+     * @throws IOException If the log or its index can't be read
+     */
+    public List<Entry> getEntries(String path, Set<String> tags) throws IOException {
+        List<Entry> entries;
+        if(new File(_logDir, path).exists() || isGzipped(path)) {
+            update(path);
+            File index = new File(_logDir, path + INDEX_SUFFIX);
+            entries = index.exists() ? readIndex(FileUtils.readFileToByteArray(index)).entries
+                                    : Collections.<Entry> emptyList();
+        } else {
+            LogArchive.LogFile index = _logArchive.open(path + INDEX_SUFFIX);
+            if(index != null) {
+                try {
+                    entries = readIndex(IOUtils.toByteArray(index.getInputStream())).entries;
+                } finally {
+                    index.getInputStream().close();
+                }
+            } else {
+                LogArchive.LogFile log = _logArchive.open(path);
+                if(log == null)
+                    return Collections.emptyList();
+                try {
+                    entries = scan(log, 0).entries;
+                } finally {
+                    log.getInputStream().close();
+                }
+            }
+        }
+
+        List<Entry> tagged = new ArrayList<Entry>();
+        for(Entry entry: entries) {
+            if(tags.contains(entry.getTag()))
+                tagged.add(entry);
+        }
+        return tagged;
+    }
+
+    /**
+     * Read the text of the given lines of a log, each cut short if it is very
+     * long
+     * 
+     * @param path The path of the log relative to the log directory
+     * @param entries Lines of the log, in the order they appear
+     * @return The text of each line
+     * @throws IOException If the log can't be read
+     */
+    public List<String> readLines(String path, List<Entry> entries) throws IOException {
+        List<String> lines = new ArrayList<String>(entries.size());
+        if(entries.isEmpty())
+            return lines;
+
+        LogArchive.LogFile log = _logArchive.open(path);
+        if(log == null)
+            return lines;
+        try {
+            FileChannel channel = log.getChannel();
+            InputStream in = new BufferedInputStream(log.getInputStream());
+            long position = 0;
+            long lastOffset = -1;
+            String lastLine = null;
+            for(Entry entry: entries) {
+                if(entry.getOffset() == lastOffset) {
+                    // The same line under another tag.
+                    lines.add(lastLine);
+                    continue;
+                }
+
+                byte[] bytes = new byte[Math.min(entry.getLength(), MAX_LINE_BYTES)];
+                int read = 0;
+                if(channel != null) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                    while(buffer.hasRemaining() && channel.read(buffer, entry.getOffset() + buffer.position()) > 0)
+                        ;
+                    read = buffer.position();
+                } else {
+                    skip(in, entry.getOffset() - position);
+                    for(int n = 0; read < bytes.length && (n = in.read(bytes, read, bytes.length - read)) >= 0;)
+                        read += n;
+                    position = entry.getOffset() + read;
+                }
+                lastOffset = entry.getOffset();
+                lastLine = trimLine(new String(bytes, 0, read, "UTF-8"));
+                lines.add(lastLine);
+            }
+        } finally {
+            log.getInputStream().close();
+        }
+        return lines;
+    }
+
+    /**
+     * Find tagged lines in the logs of the given jobs, most recent runs first
+     * 
+     * @param jobNames The jobs to search the logs of
+     * @param tags The tags of the lines to find
+     * @param text Text the lines must contain, or null for any line
+     * @param limit The most lines to return
+     * @return The lines found
+     * @throws IOException If a log or its index can't be read
+     */
+    public List<Match> search(Collection<String> jobNames, Set<String> tags, String text, int limit)
+            throws IOException {
+        // Every run of the jobs, newest first, so the most recent lines are found first.
+        List<String[]> runs = new ArrayList<String[]>();
+        for(String jobName: jobNames) {
+            for(String run: _logArchive.listRuns(jobName))
+                runs.add(new String[] { jobName, run });
+            for(String run: _logArchive.loadArchivedRuns(jobName).keySet()) {
+                if(LogArchive.getRunDate(run) != null)
+                    runs.add(new String[] { jobName, run });
+            }
+        }
+        Collections.sort(runs, new Comparator<String[]>() {
+
+            public int compare(String[] r1, String[] r2) {
+                DateTime d1 = LogArchive.getRunDate(r1[1]);
+                DateTime d2 = LogArchive.getRunDate(r2[1]);
+                return d2.compareTo(d1);
+            }
+        });
+
+        List<Match> matches = new ArrayList<Match>();
+        for(String[] run: runs) {
+            String path = getLogPath(run[0], run[1]);
+            List<Entry> entries;
+            List<String> lines;
+            try {
+                entries = getEntries(path, tags);
+                lines = readLines(path, entries);
+            } catch(IOException e) {
+                logger.debug("Skipping " + path + " in search: " + e.getMessage());
+                continue;
+            }
+            for(int i = 0; i < entries.size() && matches.size() < limit; i++) {
+                if(text == null || lines.get(i).contains(text))
+                    matches.add(new Match(run[0], run[1], path, entries.get(i), lines.get(i)));
+            }
+            if(matches.size() >= limit)
+                break;
+        }
+        return matches;
+    }
+
+    /**
+     * @return The path of the log a run of a job writes, relative to the log
+     *         directory
+     */
+    public static String getLogPath(String jobName, String runName) {
+        return jobName + File.separator + runName + File.separator + jobName + "." + runName + ".log";
+    }
+
+    /*
+     * Read the log from the given position, up to the last complete line if
+     * the log may still grow.
+     */
+    private Scan scan(LogArchive.LogFile log, long from) throws IOException {
+        Scan scan = new Scan();
+        scan.position = from;
+
+        InputStream in = new BufferedInputStream(log.getInputStream(), 64 * 1024);
+        skip(in, from);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long lineStart = from;
+        long end = log.getSize();
+        byte[] buffer = new byte[64 * 1024];
+        for(long offset = from; offset < end;) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, end - offset));
+            if(n < 0)
+                break;
+            int start = 0;
+            for(int i = 0; i < n; i++) {
+                if(buffer[i] != '\n')
+                    continue;
+                line.write(buffer, start, Math.max(0, Math.min(i - start, MAX_MATCHED_BYTES - line.size())));
+                tag(line, lineStart, (int) (offset + i + 1 - lineStart), scan.entries);
+                line.reset();
+                lineStart = offset + i + 1;
+                scan.position = lineStart;
+                start = i + 1;
+            }
+            line.write(buffer, start, Math.max(0, Math.min(n - start, MAX_MATCHED_BYTES - line.size())));
+            offset += n;
+        }
+        if(log.isComplete() && lineStart < end) {
+            tag(line, lineStart, (int) (end - lineStart), scan.entries);
+            scan.position = end;
+        }
+        return scan;
+    }
+
+    private void tag(ByteArrayOutputStream bytes, long offset, int length, List<Entry> entries) {
+        if(bytes.size() == 0)
+            return;
+
+        // Latin-1 so that no byte fails to decode; the tags are all ASCII.
+        String line;
+        try {
+            line = bytes.toString("ISO-8859-1");
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        Matcher level = LEVEL.matcher(line);
+        if(level.find())
+            entries.add(new Entry(offset, length, level.group(1).equals("WARN") ? WARN : ERROR));
+        for(Map.Entry<String, Pattern> pattern: _patterns.entrySet()) {
+            if(pattern.getValue().matcher(line).find())
+                entries.add(new Entry(offset, length, pattern.getKey()));
+        }
+    }
+
+    private boolean isGzipped(String path) {
+        return new File(_logDir, path + ".gz").exists();
+    }
+
+    /*
+     * The entries of an index and its last checkpoint. Lines after the last
+     * checkpoint, including a last line cut short, are left out, except for
+     * the mark that the checkpoint is the end of the log. A line that can't be
+     * parsed ends the index as if it had been cut short there, so the next
+     * update rewrites the index from the checkpoint before it.
+     */
+    private static Index readIndex(byte[] bytes) throws IOException {
+        Index index = new Index();
+        List<Entry> pending = new ArrayList<Entry>();
+        int lineStart = 0;
+        for(int i = 0; i < bytes.length; i++) {
+            if(bytes[i] != '\n')
+                continue;
+            String line = new String(bytes, lineStart, i - lineStart, "UTF-8");
+            lineStart = i + 1;
+            try {
+                if(line.length() > 0 && line.charAt(0) == CHECKPOINT) {
+                    Checkpoint checkpoint = new Checkpoint(Long.parseLong(line.substring(1)), lineStart, false);
+                    index.entries.addAll(pending);
+                    pending.clear();
+                    index.checkpoint = checkpoint;
+                } else if(line.equals(COMPLETE)) {
+                    index.checkpoint = new Checkpoint(index.checkpoint.position, lineStart, true);
+                } else {
+                    String[] fields = line.split(" ");
+                    if(fields.length == 3)
+                        pending.add(new Entry(Long.parseLong(fields[0]), Integer.parseInt(fields[1]), fields[2]));
+                }
+            } catch(NumberFormatException e) {
+                break;
+            }
+        }
+        return index;
+    }
+
+    private static String trimLine(String line) {
+        int end = line.length();
+        while(end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r'))
+            end--;
+        return line.substring(0, end);
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        for(long left = bytes; left > 0;) {
+            long n = in.skip(left);
+            if(n <= 0)
+                break;
+            left -= n;
+        }
+    }
+}
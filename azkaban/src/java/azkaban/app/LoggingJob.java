@@ -20,21 +20,23 @@ import java.io.File;
 import java.io.IOException;
 
 import org.apache.log4j.Appender;
-import org.apache.log4j.FileAppender;
 import org.apache.log4j.Layout;
 import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
 import org.apache.log4j.PatternLayout;
 import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
 
 import azkaban.common.jobs.DelegatingJob;
 import azkaban.common.jobs.Job;
 import azkaban.common.utils.Props;
 import azkaban.common.utils.Utils;
+import azkaban.jobs.ProcessJob;
+import azkaban.jobs.ResourceUsage;
 
 /**
  * A wrapper for a job that attaches a Log4J appender to write to the logs
- * directory in the particular format expected
+ * directory in the particular format expected. Each run writes its own
+ * ExecutionLog, asynchronously.
  * 
  * @author jkreps
  * 
@@ -45,13 +47,19 @@ public class LoggingJob extends DelegatingJob {
 
     private final Logger _logger;
     private final String _logDir;
+    private final ExecutionLog.Options _logOptions;
     
     private Props jobGeneratedProperties;
 
     public LoggingJob(String logDir, Job innerJob, String loggerName) {
+        this(logDir, innerJob, loggerName, ExecutionLog.DEFAULT_OPTIONS);
+    }
+
+    public LoggingJob(String logDir, Job innerJob, String loggerName, ExecutionLog.Options logOptions) {
         super(innerJob);
         this._logDir = Utils.nonNull(logDir);
         this._logger = Logger.getLogger(loggerName);
+        this._logOptions = Utils.nonNull(logOptions);
     }
     
     @Override
@@ -70,13 +78,20 @@ public class LoggingJob extends DelegatingJob {
         Utils.makePaths(new File(_logDir));
         File jobLogDir = new File(_logDir + File.separator + jobName);
         jobLogDir.mkdir();
-        String date = DateTimeFormat.forPattern("MM-dd-yyyy.HH.mm.ss.SSS").print(new DateTime());
+        String date = LogArchive.RUN_DATE_FORMAT.print(new DateTime());
         File runLogDir = new File(jobLogDir, date);
         runLogDir.mkdir();
-        String logName = new File(runLogDir, jobName + "." + date + ".log").getAbsolutePath();
+        File logFile = new File(runLogDir, jobName + "." + date + ".log");
+
+        // Other runs of this job log to the same logger, so this run's events are marked as its own.
+        String runId = jobName + File.separator + date;
+        Object outerRun = MDC.get(ExecutionLogAppender.RUN_MDC_KEY);
+        MDC.put(ExecutionLogAppender.RUN_MDC_KEY, runId);
+        ExecutionLog log = null;
         Appender jobAppender = null;
         try {
-            jobAppender = new FileAppender(DEFAULT_LAYOUT, logName, false);
+            log = new ExecutionLog(logFile, _logOptions);
+            jobAppender = new ExecutionLogAppender(log, DEFAULT_LAYOUT, runId);
             _logger.addAppender(jobAppender);
         } catch(IOException e) {
             _logger.error("Could not open log file in " + _logDir, e);
@@ -85,6 +100,12 @@ public class LoggingJob extends DelegatingJob {
         boolean succeeded = false;
         boolean jobNotStaleException = false;
         long start = System.currentTimeMillis();
+        JobRunIndex runIndex = new JobRunIndex(new File(_logDir), jobName);
+        try {
+            runIndex.runStarted(date, start);
+        } catch(IOException e) {
+            _logger.warn("Could not record the start of this run in " + runIndex, e);
+        }
         try {
             getInnerJob().run(jobInputOutputProperties);
             succeeded = true;
@@ -99,16 +120,48 @@ public class LoggingJob extends DelegatingJob {
             props.put("end", Long.toString(end));
             props.put("succeeded", Boolean.toString(succeeded));
             props.put("jobNotStaleException", Boolean.toString(jobNotStaleException));
+            ResourceUsage usage = getResourceUsage(getInnerJob());
+            if(usage != null)
+                usage.storeIn(props);
+
+            if(jobAppender != null)
+                _logger.removeAppender(jobAppender);
+            if(outerRun == null)
+                MDC.remove(ExecutionLogAppender.RUN_MDC_KEY);
+            else
+                MDC.put(ExecutionLogAppender.RUN_MDC_KEY, outerRun);
+            if(log != null) {
+                try {
+                    log.close();
+                } catch(IOException e) {
+                    _logger.warn("Could not close " + log, e);
+                }
+                props.put("log.bytes.written", Long.toString(log.getBytesWritten()));
+                props.put("log.bytes.dropped", Long.toString(log.getBytesDropped()));
+                props.put("log.bytes.truncated", Long.toString(log.getBytesTruncated()));
+            }
+            try {
+                runIndex.runEnded(date, start, end, succeeded, usage);
+            } catch(IOException e) {
+                _logger.warn("Could not record the end of this run in " + runIndex, e);
+            }
             try {
                 props.storeLocal(new File(runLogDir, "run.properties"));
             } catch (IOException e) {
                 _logger.warn(String.format("IOException when storing props to local dir[%s]", runLogDir), e);
                 throw new RuntimeException(e);
             }
-
-            if(jobAppender != null)
-                _logger.removeAppender(jobAppender);
         }
     }
 
+    /**
+     * @return What the processes of the job inside the wrappers used, if it
+     *         is a ProcessJob that sampled them, or else null
+     */
+    private static ResourceUsage getResourceUsage(Job job) {
+        while(job instanceof DelegatingJob)
+            job = ((DelegatingJob) job).getInnerJob();
+        return job instanceof ProcessJob ? ((ProcessJob) job).getResourceUsage() : null;
+    }
+
 }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import azkaban.common.utils.Props;
+
+/**
+ * Caches the Props layers built from property and job files so that repeated
+ * loads of the job directories share structure instead of re-reading every
+ * file.
+ *
+ * A layer is keyed by the file (or directory) it was loaded from. It is reused
+ * as-is when none of its source files changed and it is being stacked on the
+ * very same parent instance, so an unchanged directory tree yields the same
+ * Props objects on every reload. When only the parent changed, the layer is
+ * rebuilt from the already parsed values without touching the disk.
+ *
+ * All keys and values are interned through a weak pool, so strings repeated
+ * across thousands of job files (cluster urls, classpaths, emails) are stored
+ * once. Layers handed out by this cache are shared, so they are read-only:
+ * changing one throws UnsupportedOperationException. Stack a new Props on a
+ * layer to add to it.
+ */
+public class PropsLayerCache {
+
+    private final Map<String, WeakReference<String>> _stringPool = new WeakHashMap<String, WeakReference<String>>();
+    private final Map<File, Layer> _layers = new ConcurrentHashMap<File, Layer>();
+
+    private final AtomicLong _reused = new AtomicLong(0);
+    private final AtomicLong _restacked = new AtomicLong(0);
+    private final AtomicLong _parsed = new AtomicLong(0);
+
+    /**
+     * Get the layer holding the properties of the given files on top of the
+     * given parent. Later files override earlier ones.
+     *
+     * @param source The file or directory identifying this layer
+     * @param files The property files making up the layer
+     * @param parent The parent of the layer
+     * @return A Props whose local values are those of the files
+     * @throws IOException If a file cannot be read
+     */
+    public Props getLayer(File source, List<File> files, Props parent) throws IOException {
+        String fingerprint = fingerprint(files);
+        Layer layer = _layers.get(source);
+
+        if(layer != null && layer.fingerprint.equals(fingerprint)) {
+            if(layer.parent == parent) {
+                _reused.incrementAndGet();
+                return layer.props;
+            }
+            _restacked.incrementAndGet();
+            layer = new Layer(fingerprint, layer.props, parent);
+        } else {
+            _parsed.incrementAndGet();
+            layer = new Layer(fingerprint, load(files), parent);
+        }
+
+        _layers.put(source, layer);
+        return layer.props;
+    }
+
+    /**
+     * Get the layer of the given files on top of the given parent like
+     * getLayer, but without keeping it. For one-off parents, such as
+     * overrides, that would otherwise replace the layer cached for the usual
+     * parent.
+     */
+    public Props getTransientLayer(File source, List<File> files, Props parent) throws IOException {
+        String fingerprint = fingerprint(files);
+        Layer layer = _layers.get(source);
+
+        if(layer != null && layer.fingerprint.equals(fingerprint)) {
+            if(layer.parent == parent) {
+                _reused.incrementAndGet();
+                return layer.props;
+            }
+            _restacked.incrementAndGet();
+            return new Layer(fingerprint, layer.props, parent).props;
+        }
+        _parsed.incrementAndGet();
+        return new Layer(fingerprint, load(files), parent).props;
+    }
+
+    /**
+     * Drop the layers of files and directories that no longer exist.
+     */
+    public void evictMissing() {
+        Iterator<File> iter = _layers.keySet().iterator();
+        while(iter.hasNext()) {
+            if(!iter.next().exists())
+                iter.remove();
+        }
+    }
+
+    /**
+     * Return the canonical instance of the given string.
+     */
+    public String intern(String s) {
+        if(s == null)
+            return null;
+
+        synchronized(_stringPool) {
+            WeakReference<String> ref = _stringPool.get(s);
+            String canonical = ref == null ? null : ref.get();
+            if(canonical == null) {
+                canonical = s;
+                _stringPool.put(canonical, new WeakReference<String>(canonical));
+            }
+            return canonical;
+        }
+    }
+
+    public int getLayerCount() {
+        return _layers.size();
+    }
+
+    public int getInternedCount() {
+        synchronized(_stringPool) {
+            return _stringPool.size();
+        }
+    }
+
+    public long getReusedCount() {
+        return _reused.get();
+    }
+
+    public long getRestackedCount() {
+        return _restacked.get();
+    }
+
+    public long getParsedCount() {
+        return _parsed.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PropsLayerCache{layers=%s, strings=%s, reused=%s, restacked=%s, parsed=%s}",
+                             getLayerCount(),
+                             getInternedCount(),
+                             getReusedCount(),
+                             getRestackedCount(),
+                             getParsedCount());
+    }
+
+    private Map<String, String> load(List<File> files) throws IOException {
+        Map<String, String> values = new HashMap<String, String>();
+        for(File file: files) {
+            Properties properties = new Properties();
+            InputStream input = new BufferedInputStream(new FileInputStream(file));
+            try {
+                properties.load(input);
+            } finally {
+                input.close();
+            }
+
+            for(String name: properties.stringPropertyNames())
+                values.put(intern(name), intern(properties.getProperty(name)));
+        }
+        return values;
+    }
+
+    private static String fingerprint(List<File> files) {
+        StringBuilder builder = new StringBuilder();
+        for(File file: files) {
+            builder.append(file.getName())
+                   .append(':')
+                   .append(file.lastModified())
+                   .append(':')
+                   .append(file.length())
+                   .append(';');
+        }
+        return builder.toString();
+    }
+
+    private static class Layer {
+
+        private final String fingerprint;
+        private final Props parent;
+        private final Props props;
+
+        private Layer(String fingerprint, Map<String, String> values, Props parent) {
+            this.fingerprint = fingerprint;
+            this.parent = parent;
+            this.props = new ReadOnlyProps(parent, values);
+        }
+
+        private Layer(String fingerprint, Props sameValues, Props parent) {
+            this.fingerprint = fingerprint;
+            this.parent = parent;
+            Map<String, String> values = new HashMap<String, String>();
+            for(String key: sameValues.localKeySet())
+                values.put(key, sameValues.get(key));
+            this.props = new ReadOnlyProps(parent, values);
+        }
+    }
+
+    /**
+     * A Props whose own values can't be changed once it is built
+     */
+    private static class ReadOnlyProps extends Props {
+
+        private final boolean _built;
+
+        private ReadOnlyProps(Props parent, Map<String, String> values) {
+            super(parent);
+            for(Map.Entry<String, String> entry: values.entrySet())
+                super.put(entry.getKey(), entry.getValue());
+            this._built = true;
+        }
+
+        @Override
+        public String put(String key, String value) {
+            if(_built)
+                throw readOnly();
+            return super.put(key, value);
+        }
+
+        @Override
+        public void put(Properties properties) {
+            throw readOnly();
+        }
+
+        @Override
+        public String put(String key, Integer value) {
+            throw readOnly();
+        }
+
+        @Override
+        public String put(String key, Long value) {
+            throw readOnly();
+        }
+
+        @Override
+        public String put(String key, Double value) {
+            throw readOnly();
+        }
+
+        @Override
+        public String removeLocal(Object s) {
+            throw readOnly();
+        }
+
+        @Override
+        public void clearLocal() {
+            throw readOnly();
+        }
+
+        @Override
+        public Set<String> localKeySet() {
+            return Collections.unmodifiableSet(super.localKeySet());
+        }
+
+        private UnsupportedOperationException readOnly() {
+            return new UnsupportedOperationException("Cached property layers are shared and read-only.");
+        }
+    }
+}
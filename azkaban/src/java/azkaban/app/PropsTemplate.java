@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.app;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import azkaban.common.utils.Props;
+import azkaban.common.utils.UndefinedPropertyException;
+
+/**
+ * A pre-parsed form of a Props object that can be resolved against generated
+ * properties without re-running a regex over every value.
+ *
+ * Each value is split once into alternating literal and variable segments.
+ * Resolution walks those segments with a single StringBuilder per value,
+ * resolving referenced variables recursively and memoizing the result so every
+ * key is expanded at most once per call to resolve().
+ *
+ * Instances are immutable and safe to share between threads.
+ */
+public class PropsTemplate {
+
+    private final Map<String, String[]> _templates;
+
+    private PropsTemplate(Map<String, String[]> templates) {
+        this._templates = templates;
+    }
+
+    /**
+     * Compile all the values visible from the given props, including those
+     * defined by its parents.
+     *
+     * @param props The props to compile
+     * @return The compiled template
+     */
+    public static PropsTemplate compile(Props props) {
+        Map<String, String[]> templates = new HashMap<String, String[]>();
+        for(String key: props.getKeySet())
+            templates.put(key, parse(props.get(key)));
+        return new PropsTemplate(templates);
+    }
+
+    /**
+     * Substitute every ${variable} in the compiled values. Variables are looked
+     * up in the compiled props first and then in the generated props.
+     *
+     * @param inputGeneratedProps Properties generated by upstream jobs, may be
+     *        null
+     * @return A new, flat Props containing every resolved value
+     *
+     * @throws UndefinedPropertyException If a variable cannot be found
+     * @throws IllegalArgumentException If the variables form a cycle
+     */
+    public Props resolve(Props inputGeneratedProps) {
+        Resolution resolution = new Resolution(inputGeneratedProps);
+        Props resolvedProps = new Props();
+        for(String key: _templates.keySet())
+            resolvedProps.put(key, resolution.resolve(key, _templates.get(key)));
+        return resolvedProps;
+    }
+
+    public int size() {
+        return _templates.size();
+    }
+
+    /**
+     * Split a value into segments. Even indices hold literal text and odd
+     * indices hold variable names, so a value without variables is a single
+     * element array. Variable names follow the same rules as ${[a-zA-Z_.0-9]+}.
+     */
+    static String[] parse(String value) {
+        List<String> segments = null;
+        int literalStart = 0;
+        int index = value.indexOf("${");
+        while(index >= 0) {
+            int nameEnd = index + 2;
+            while(nameEnd < value.length() && isVariableChar(value.charAt(nameEnd)))
+                nameEnd++;
+
+            if(nameEnd > index + 2 && nameEnd < value.length() && value.charAt(nameEnd) == '}') {
+                if(segments == null)
+                    segments = new ArrayList<String>();
+                segments.add(value.substring(literalStart, index));
+                segments.add(value.substring(index + 2, nameEnd));
+                literalStart = nameEnd + 1;
+                index = value.indexOf("${", literalStart);
+            } else {
+                index = value.indexOf("${", index + 1);
+            }
+        }
+
+        if(segments == null)
+            return new String[] { value };
+
+        segments.add(value.substring(literalStart));
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    private static boolean isVariableChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+               || c == '_' || c == '.';
+    }
+
+    /*
+     * The state of a single resolve() call: memoized values and the chain of
+     * keys currently being expanded, used to report cycles of any length.
+     */
+    private class Resolution {
+
+        private final Props _generated;
+        private final Map<String, String> _resolved = new HashMap<String, String>();
+        private final List<String> _inProgress = new ArrayList<String>();
+
+        private Resolution(Props generated) {
+            this._generated = generated;
+        }
+
+        private String resolve(String key, String[] segments) {
+            if(segments.length == 1)
+                return segments[0];
+
+            String done = _resolved.get(key);
+            if(done != null)
+                return done;
+
+            int cycleStart = _inProgress.indexOf(key);
+            if(cycleStart >= 0) {
+                StringBuilder chain = new StringBuilder();
+                for(String link: _inProgress.subList(cycleStart, _inProgress.size()))
+                    chain.append(link).append(" -> ");
+                chain.append(key);
+                throw new IllegalArgumentException(String.format("Circular property definition starting from property[%s]: %s",
+                                                                 key,
+                                                                 chain));
+            }
+
+            _inProgress.add(key);
+            StringBuilder builder = new StringBuilder();
+            for(int i = 0; i < segments.length; i++) {
+                if(i % 2 == 0)
+                    builder.append(segments[i]);
+                else
+                    builder.append(lookup(segments[i], key));
+            }
+            _inProgress.remove(_inProgress.size() - 1);
+
+            String value = builder.toString();
+            _resolved.put(key, value);
+            return value;
+        }
+
+        private String lookup(String variableName, String referencingKey) {
+            String[] segments = _templates.get(variableName);
+            if(segments == null && _generated != null) {
+                String generatedValue = _generated.get(variableName);
+                if(generatedValue != null)
+                    segments = parse(generatedValue);
+            }
+
+            if(segments == null)
+                throw new UndefinedPropertyException("Could not find variable substitution for variable '"
+                                                     + variableName + "' in key '" + referencingKey + "'.");
+
+            return resolve(variableName, segments);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PropsTemplate{keys=" + _templates.keySet() + "}";
+    }
+}
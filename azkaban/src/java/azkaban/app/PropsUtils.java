@@ -19,11 +19,8 @@ package azkaban.app;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import azkaban.common.utils.Props;
-import azkaban.common.utils.UndefinedPropertyException;
 
 public class PropsUtils {
 
@@ -108,49 +105,18 @@ public class PropsUtils {
         return false;
     }
     
-    private static final Pattern VARIABLE_PATTERN = Pattern.compile("\\$\\{([a-zA-Z_.0-9]+)\\}");
-    
+    /**
+     * Substitute all ${variable} references in the given props, looking
+     * variables up first in the props themselves and then in the generated
+     * props. Callers that resolve the same props repeatedly should compile a
+     * {@link PropsTemplate} once and reuse it instead.
+     *
+     * @param props The props to resolve
+     * @param inputGeneratedProps Properties generated by upstream jobs, may be
+     *        null
+     * @return A new Props with every value resolved
+     */
     public static Props resolveProps(Props props, Props inputGeneratedProps) {
-    	Props resolvedProps = new Props();
-
-    	for(String key : props.getKeySet()) {
-	        StringBuffer replaced = new StringBuffer();
-	        String value = props.get(key);
-	        Matcher matcher = VARIABLE_PATTERN.matcher(value);
-	        while(matcher.find()) {
-	            String variableName = matcher.group(1);
-	
-	            if (variableName.equals(key)) {
-	                throw new IllegalArgumentException(
-	                        String.format("Circular property definition starting from property[%s]", key)
-	                );
-	            }
-	
-	            String replacement = props.get(variableName);
-	            if(replacement == null) {
-	                if (inputGeneratedProps != null) {
-	                    replacement = inputGeneratedProps.get(variableName);
-	                }
-	                if (replacement == null) {
-	                  throw new UndefinedPropertyException("Could not find variable substitution for variable '"
-	                                                       + variableName + "' in key '" + key + "'.");
-	                }
-	            }
-	
-	            replacement = replacement.replaceAll("\\\\", "\\\\\\\\");
-	            replacement = replacement.replaceAll("\\$", "\\\\\\$");
-	
-	            matcher.appendReplacement(replaced, replacement);
-	            matcher.appendTail(replaced);
-	
-	            value = replaced.toString();
-	            replaced = new StringBuffer();
-	            matcher = VARIABLE_PATTERN.matcher(value);
-	        }
-	        matcher.appendTail(replaced);
-	        resolvedProps.put(key, replaced.toString());
-    	}
-    	
-    	return resolvedProps;
+        return PropsTemplate.compile(props).resolve(inputGeneratedProps);
     }
 }
@@ -212,7 +212,23 @@ public class Scheduler
         // mark the job as scheduled
         _scheduled.put(flow.getName(), schedJob);
 
-        return _executor.schedule(new ScheduledFlow(flow, schedJob), 1, TimeUnit.MILLISECONDS);
+        return _executor.schedule(new ScheduledFlow(flow, schedJob, true), 1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Carry on with an execution that was in flight when the previous process went away.  Unlike scheduleNow(),
+     * this neither needs nor touches a schedule for the flow, since the flow's regular schedule may well have
+     * been loaded already.
+     *
+     * @param flow The ExecutableFlow to resume, with its interrupted jobs already settled
+     */
+    public ScheduledFuture<?> resume(ExecutableFlow flow)
+    {
+        logger.info("Resuming execution " + flow.getId() + " of '" + flow.getName() + "'");
+
+        final ScheduledJob schedJob = new ScheduledJob(flow.getName(), _jobManager, new DateTime(), true);
+
+        return _executor.schedule(new ScheduledFlow(flow, schedJob, false), 1, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -676,15 +692,18 @@ public class Scheduler
     {
         private final ExecutableFlow _flow;
         private final ScheduledJob _scheduledJob;
+        private final boolean _wasScheduled;
 
 
         private ScheduledFlow(
                 ExecutableFlow flow,
-                ScheduledJob scheduledJob
+                ScheduledJob scheduledJob,
+                boolean wasScheduled
         )
         {
             this._flow = flow;
             this._scheduledJob = scheduledJob;
+            this._wasScheduled = wasScheduled;
         }
 
         public void run()
@@ -701,7 +720,9 @@ public class Scheduler
                 final String senderEmail = senderAddress;
                 
                 // mark the job as executing
-                _scheduled.remove(_scheduledJob.getId());
+                if (_wasScheduled) {
+                    _scheduled.remove(_scheduledJob.getId());
+                }
                 _scheduledJob.setStarted(new DateTime());
                 _executing.put(_flow.getName(), new ScheduledJobAndInstance(_flow, _scheduledJob));
                 _flow.execute(new FlowCallback()
@@ -748,7 +769,9 @@ public class Scheduler
                 if (emailList != null) {
                     sendErrorEmail(_scheduledJob, t, senderAddress, emailList);
                 }
-                _scheduled.remove(_scheduledJob.getId());
+                if (_wasScheduled) {
+                    _scheduled.remove(_scheduledJob.getId());
+                }
                 _executing.remove(_scheduledJob.getId());
                 logger.warn(String.format("An exception almost made it back to the ScheduledThreadPool from job[%s]", _scheduledJob), t);
             }
@@ -138,6 +138,17 @@ public class CachingFlowManager implements FlowManager
         return retVal;
     }
 
+    public ExecutionSummary loadExecutionSummary(long id)
+    {
+        final ExecutableFlow executableFlow = flowCache.get(String.valueOf(id));
+        if (executableFlow != null) {
+            return ExecutionSummary.of(executableFlow);
+        }
+
+        // Summaries are not cached: listing old executions should not evict the flows that are in use.
+        return baseManager.loadExecutionSummary(id);
+    }
+
     public void reload()
     {
         baseManager.reload();
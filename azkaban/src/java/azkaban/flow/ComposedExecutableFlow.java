@@ -129,6 +129,13 @@ public class ComposedExecutableFlow implements ExecutableFlow
                     return;
                 case COMPLETED:
                 case SUCCEEDED:
+                    if (jobState == Status.SUCCEEDED && flowOutputGeneratedProperties == null) {
+                        // Succeeded before this flow was loaded; rebuild its output from its parts.
+                        flowOutputGeneratedProperties = new Props();
+                        flowOutputGeneratedProperties.putAll(flowInputGeneratedProperties);
+                        flowOutputGeneratedProperties.putAll(dependee.getFlowGeneratedProperties());
+                        flowOutputGeneratedProperties.putAll(depender.getFlowGeneratedProperties());
+                    }
                     callback.completed(Status.SUCCEEDED);
                     return;
                 case FAILED:
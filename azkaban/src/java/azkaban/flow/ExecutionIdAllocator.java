@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.flow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Hands out execution ids without ever handing out the same one twice, even across crashes.
+ *
+ * Ids are reserved in blocks: before the first id of a block is handed out, the highest id of the block is
+ * written to the high-water mark file and forced to disk.  Ids within a reserved block are handed out with a
+ * single atomic increment.  On startup, allocation resumes after the recorded mark, so reading one small file
+ * replaces listing every stored execution, at the cost of skipping whatever was left of the last block.
+ *
+ * An allocator built without a file keeps the mark in memory only.
+ */
+public class ExecutionIdAllocator
+{
+    private static final Logger log = Logger.getLogger(ExecutionIdAllocator.class);
+
+    private final File markFile;
+    private final long blockSize;
+
+    private final AtomicLong lastId;
+    private volatile long reserved;
+    private long reservations = 0;
+
+    public ExecutionIdAllocator(long lastId)
+    {
+        this.markFile = null;
+        this.blockSize = 1;
+        this.lastId = new AtomicLong(lastId);
+        this.reserved = Long.MAX_VALUE;
+    }
+
+    /**
+     * @param markFile where the high-water mark is kept
+     * @param blockSize how many ids are reserved by every write of the mark
+     * @param floor the highest id known to be in use, for when there is no mark yet
+     */
+    public ExecutionIdAllocator(File markFile, long blockSize, long floor)
+    {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException(String.format("Bad id block size[%s].", blockSize));
+        }
+
+        this.markFile = markFile;
+        this.blockSize = blockSize;
+
+        long mark = floor;
+        if (markFile.exists()) {
+            try {
+                mark = Math.max(mark, Long.parseLong(FileUtils.readFileToString(markFile).trim()));
+            }
+            catch (NumberFormatException e) {
+                // Starting from anything lower could reuse ids, so refuse to guess.
+                throw new IllegalStateException(String.format("Corrupt execution id mark[%s].", markFile), e);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(String.format("Could not read execution id mark[%s].", markFile), e);
+            }
+        }
+
+        this.lastId = new AtomicLong(mark);
+        this.reserved = mark;
+
+        log.info(String.format("Opened %s", this));
+    }
+
+    public long next()
+    {
+        final long id = lastId.incrementAndGet();
+
+        if (id > reserved) {
+            synchronized (this) {
+                if (id > reserved) {
+                    reserve(Math.max(reserved + blockSize, id));
+                }
+            }
+        }
+
+        return id;
+    }
+
+    /**
+     * @return the highest id handed out, or after a restart the highest id that may have been
+     */
+    public long current()
+    {
+        return lastId.get();
+    }
+
+    public synchronized long getReservations()
+    {
+        return reservations;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ExecutionIdAllocator{" +
+               "markFile=" + markFile +
+               ", blockSize=" + blockSize +
+               ", lastId=" + lastId +
+               ", reserved=" + reserved +
+               '}';
+    }
+
+    /**
+     * Durably records the new mark before any id up to it is handed out.  The mark is written to a temporary
+     * file that replaces the old one, so a crash leaves either the old mark or the new one.
+     */
+    private void reserve(long mark)
+    {
+        final File tmp = new File(markFile.getPath() + ".tmp");
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(String.valueOf(mark).getBytes("UTF-8"));
+            out.getFD().sync();
+            out.close();
+            out = null;
+
+            if (! tmp.renameTo(markFile)) {
+                throw new IOException(String.format("Could not rename [%s] to [%s].", tmp, markFile));
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not advance execution id mark[%s].", markFile), e);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+
+        reserved = mark;
+        ++reservations;
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.flow;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+
+/**
+ * A memory-mapped index of the summaries of all executions, for listing and filtering them without touching the
+ * execution store.
+ *
+ * The index file holds one fixed-width slot per execution id: the id, the id of the flow name, the status, the
+ * start and end times in millis and the duration.  The slot of an execution is found from its id alone, so every
+ * save overwrites its slot in place.  Flow names are kept once each in a names file next to it and referred to by
+ * their position in it.
+ *
+ * Postings -- the ascending ids of the executions of every flow name and every status -- are rebuilt in memory
+ * from the mapped file on startup and kept up to date on every update.  A query walks the smallest applicable
+ * postings list from the newest id down and checks the remaining conditions against the mapped slots, so pages
+ * are answered without reading any execution.
+ */
+public class ExecutionIndex
+{
+    private static final Logger log = Logger.getLogger(ExecutionIndex.class);
+
+    private static final int MAGIC = 0x417a6978;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    // id, name id, status, start, end, duration
+    private static final int SLOT_BYTES = 8 + 4 + 4 + 8 + 8 + 8;
+    private static final int NAME_OFFSET = 8;
+    private static final int STATUS_OFFSET = 12;
+    private static final int START_OFFSET = 16;
+    private static final int END_OFFSET = 24;
+    private static final int DURATION_OFFSET = 32;
+
+    private static final long NO_TIME = -1;
+    private static final int INITIAL_SLOTS = 1024;
+
+    private final File indexFile;
+    private final File namesFile;
+
+    private final RandomAccessFile raf;
+    private MappedByteBuffer slots;
+    private long capacity;
+
+    private final List<String> names = new ArrayList<String>();
+    private final Map<String, Integer> nameIds = new HashMap<String, Integer>();
+    private Writer namesWriter;
+
+    private final List<Postings> namePostings = new ArrayList<Postings>();
+    private final Postings[] statusPostings = new Postings[Status.values().length];
+    private long maxId = 0;
+    private long size = 0;
+
+    public ExecutionIndex(File directory)
+    {
+        if (! directory.exists() && ! directory.mkdirs()) {
+            throw new IllegalArgumentException(String.format("Could not create index directory[%s].", directory));
+        }
+
+        this.indexFile = new File(directory, "executions.idx");
+        this.namesFile = new File(directory, "executions.names");
+
+        for (int i = 0; i < statusPostings.length; ++i) {
+            statusPostings[i] = new Postings();
+        }
+
+        try {
+            loadNames();
+
+            raf = new RandomAccessFile(indexFile, "rw");
+            boolean fresh = raf.length() < HEADER_BYTES;
+            map(Math.max(raf.length(), offset(INITIAL_SLOTS)));
+
+            if (fresh) {
+                slots.putInt(0, MAGIC);
+                slots.putInt(4, VERSION);
+            }
+            else if (slots.getInt(0) != MAGIC || slots.getInt(4) != VERSION) {
+                throw new IOException(String.format("[%s] is not a version %s execution index.", indexFile, VERSION));
+            }
+
+            rebuildPostings();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not open execution index[%s].", directory), e);
+        }
+
+        log.info(String.format("Opened %s", this));
+    }
+
+    /**
+     * Records the current state of an execution, replacing whatever was indexed for its id.  Executions whose
+     * ids are not positive numbers are ignored.
+     */
+    public synchronized void update(ExecutionSummary summary)
+    {
+        final long id = parseId(summary.getId());
+
+        if (id <= 0) {
+            return;
+        }
+
+        try {
+            if (offset(id + 1) > capacity) {
+                map(Math.max(offset(id + 1), HEADER_BYTES + (capacity - HEADER_BYTES) * 2));
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not grow execution index[%s].", indexFile), e);
+        }
+
+        final int slot = (int) offset(id);
+        if (slots.getLong(slot) == id) {
+            namePostings.get(slots.getInt(slot + NAME_OFFSET)).remove(id);
+            statusPostings[slots.getInt(slot + STATUS_OFFSET)].remove(id);
+        }
+        else {
+            ++size;
+        }
+
+        final int nameId = nameId(summary.getName() == null ? "" : summary.getName());
+        final long start = summary.getStartTime() == null ? NO_TIME : summary.getStartTime().getMillis();
+        final long end = summary.getEndTime() == null ? NO_TIME : summary.getEndTime().getMillis();
+
+        slots.putInt(slot + NAME_OFFSET, nameId);
+        slots.putInt(slot + STATUS_OFFSET, summary.getStatus().ordinal());
+        slots.putLong(slot + START_OFFSET, start);
+        slots.putLong(slot + END_OFFSET, end);
+        slots.putLong(slot + DURATION_OFFSET, start == NO_TIME || end == NO_TIME ? NO_TIME : end - start);
+        // The id goes last: a slot only counts once it is complete.
+        slots.putLong(slot, id);
+
+        namePostings.get(nameId).add(id);
+        statusPostings[summary.getStatus().ordinal()].add(id);
+        maxId = Math.max(maxId, id);
+    }
+
+    public synchronized ExecutionSummary get(long id)
+    {
+        return id > 0 && offset(id + 1) <= capacity && slots.getLong((int) offset(id)) == id ? read(id) : null;
+    }
+
+    /**
+     * Finds executions, newest first.
+     *
+     * @param flowName only executions of this flow, or null for all
+     * @param status only executions in this status, or null for all
+     * @param startedAfter only executions started at or after this time, or null
+     * @param startedBefore only executions started before this time, or null
+     * @param offset how many matching executions to skip
+     * @param limit the most executions to return
+     */
+    public synchronized List<ExecutionSummary> query(
+            String flowName,
+            Status status,
+            DateTime startedAfter,
+            DateTime startedBefore,
+            int offset,
+            int limit
+    )
+    {
+        final int nameId;
+        if (flowName == null) {
+            nameId = -1;
+        }
+        else if (nameIds.containsKey(flowName)) {
+            nameId = nameIds.get(flowName);
+        }
+        else {
+            return Collections.emptyList();
+        }
+
+        final Postings candidates;
+        if (nameId >= 0 && status != null) {
+            Postings byName = namePostings.get(nameId);
+            Postings byStatus = statusPostings[status.ordinal()];
+            candidates = byName.size() <= byStatus.size() ? byName : byStatus;
+        }
+        else if (nameId >= 0) {
+            candidates = namePostings.get(nameId);
+        }
+        else if (status != null) {
+            candidates = statusPostings[status.ordinal()];
+        }
+        else {
+            candidates = null;
+        }
+
+        final long after = startedAfter == null ? Long.MIN_VALUE : startedAfter.getMillis();
+        final long before = startedBefore == null ? Long.MAX_VALUE : startedBefore.getMillis();
+        final boolean timeBounded = startedAfter != null || startedBefore != null;
+
+        List<ExecutionSummary> retVal = new ArrayList<ExecutionSummary>(Math.min(limit, 1024));
+        int skipped = 0;
+        int i = candidates == null ? 0 : candidates.size() - 1;
+        long id = candidates == null ? maxId : 0;
+
+        while (retVal.size() < limit) {
+            if (candidates == null) {
+                if (id <= 0) {
+                    break;
+                }
+            }
+            else {
+                if (i < 0) {
+                    break;
+                }
+                id = candidates.get(i--);
+            }
+
+            final int slot = (int) offset(id);
+            final long current = id--;
+
+            if (slots.getLong(slot) != current) {
+                continue;
+            }
+            if (nameId >= 0 && slots.getInt(slot + NAME_OFFSET) != nameId) {
+                continue;
+            }
+            if (status != null && slots.getInt(slot + STATUS_OFFSET) != status.ordinal()) {
+                continue;
+            }
+            if (timeBounded) {
+                long start = slots.getLong(slot + START_OFFSET);
+                if (start == NO_TIME || start < after || start >= before) {
+                    continue;
+                }
+            }
+
+            if (skipped < offset) {
+                ++skipped;
+            }
+            else {
+                retVal.add(read(current));
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * @return the number of executions of the flow in the status, either of which may be null for all
+     */
+    public synchronized int count(String flowName, Status status)
+    {
+        if (flowName == null) {
+            return status == null ? (int) size : statusPostings[status.ordinal()].size();
+        }
+
+        Integer nameId = nameIds.get(flowName);
+        if (nameId == null) {
+            return 0;
+        }
+        if (status == null) {
+            return namePostings.get(nameId).size();
+        }
+
+        Postings byName = namePostings.get(nameId);
+        int retVal = 0;
+        for (int i = 0; i < byName.size(); ++i) {
+            if (slots.getInt((int) offset(byName.get(i)) + STATUS_OFFSET) == status.ordinal()) {
+                ++retVal;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return the ids of the executions last indexed as READY or RUNNING
+     */
+    public synchronized List<Long> getUnfinishedIds()
+    {
+        List<Long> retVal = new ArrayList<Long>();
+        for (Status status : Arrays.asList(Status.READY, Status.RUNNING)) {
+            Postings postings = statusPostings[status.ordinal()];
+            for (int i = 0; i < postings.size(); ++i) {
+                retVal.add(postings.get(i));
+            }
+        }
+        return retVal;
+    }
+
+    public synchronized List<String> getFlowNames()
+    {
+        return new ArrayList<String>(names);
+    }
+
+    public synchronized long getMaxId()
+    {
+        return maxId;
+    }
+
+    public synchronized long size()
+    {
+        return size;
+    }
+
+    public synchronized void close()
+    {
+        slots.force();
+        IOUtils.closeQuietly(namesWriter);
+        try {
+            raf.close();
+        }
+        catch (IOException e) {
+            log.warn(String.format("Problem closing execution index[%s].", indexFile), e);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ExecutionIndex{" +
+               "indexFile=" + indexFile +
+               ", executions=" + size +
+               ", flowNames=" + names.size() +
+               ", maxId=" + maxId +
+               '}';
+    }
+
+    private ExecutionSummary read(long id)
+    {
+        final int slot = (int) offset(id);
+        final long start = slots.getLong(slot + START_OFFSET);
+        final long end = slots.getLong(slot + END_OFFSET);
+
+        return new ExecutionSummary(
+                String.valueOf(id),
+                names.get(slots.getInt(slot + NAME_OFFSET)),
+                Status.values()[slots.getInt(slot + STATUS_OFFSET)],
+                start == NO_TIME ? null : new DateTime(start),
+                end == NO_TIME ? null : new DateTime(end)
+        );
+    }
+
+    private int nameId(String name)
+    {
+        Integer retVal = nameIds.get(name);
+
+        if (retVal == null) {
+            try {
+                namesWriter.write(name);
+                namesWriter.write('\n');
+                namesWriter.flush();
+            }
+            catch (IOException e) {
+                throw new RuntimeException(String.format("Could not add flow name[%s] to %s.", name, namesFile), e);
+            }
+            retVal = addName(name);
+        }
+
+        return retVal;
+    }
+
+    private int addName(String name)
+    {
+        names.add(name);
+        nameIds.put(name, names.size() - 1);
+        namePostings.add(new Postings());
+
+        return names.size() - 1;
+    }
+
+    private void loadNames() throws IOException
+    {
+        if (namesFile.exists()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(namesFile), "UTF-8"));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    addName(line);
+                }
+            }
+            finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+
+        namesWriter = new OutputStreamWriter(new FileOutputStream(namesFile, true), "UTF-8");
+    }
+
+    private void rebuildPostings()
+    {
+        final long slotCount = (capacity - HEADER_BYTES) / SLOT_BYTES;
+
+        for (long id = 1; id < slotCount; ++id) {
+            final int slot = (int) offset(id);
+
+            if (slots.getLong(slot) != id) {
+                continue;
+            }
+
+            final int nameId = slots.getInt(slot + NAME_OFFSET);
+            final int status = slots.getInt(slot + STATUS_OFFSET);
+            if (nameId < 0 || nameId >= names.size() || status < 0 || status >= statusPostings.length) {
+                log.warn(String.format("Ignoring corrupt slot of execution[%s] in %s.", id, indexFile));
+                slots.putLong(slot, 0);
+                continue;
+            }
+
+            namePostings.get(nameId).add(id);
+            statusPostings[status].add(id);
+            maxId = id;
+            ++size;
+        }
+    }
+
+    private void map(long bytes) throws IOException
+    {
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Execution index[%s] cannot grow past 2GB.", indexFile));
+        }
+
+        slots = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        capacity = bytes;
+    }
+
+    private static long offset(long id)
+    {
+        return HEADER_BYTES + id * SLOT_BYTES;
+    }
+
+    private static long parseId(String id)
+    {
+        try {
+            return Long.parseLong(id);
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * A sorted, growable list of execution ids.  Ids almost always arrive in increasing order, so additions are
+     * appends and removals touch only the tail.
+     */
+    static class Postings
+    {
+        private long[] ids = new long[16];
+        private int size = 0;
+
+        void add(long id)
+        {
+            if (size == 0 || ids[size - 1] < id) {
+                ensureCapacity();
+                ids[size++] = id;
+                return;
+            }
+
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                pos = -(pos + 1);
+                ensureCapacity();
+                System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+                ids[pos] = id;
+                ++size;
+            }
+        }
+
+        void remove(long id)
+        {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+                --size;
+            }
+        }
+
+        long get(int i)
+        {
+            return ids[i];
+        }
+
+        int size()
+        {
+            return size;
+        }
+
+        private void ensureCapacity()
+        {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+        }
+    }
+}
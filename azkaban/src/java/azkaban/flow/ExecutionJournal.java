@@ -0,0 +1,698 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.flow;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.joda.time.DateTime;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import azkaban.serialization.IndividualJobEFSerializer;
+import azkaban.util.JSONToJava;
+
+/**
+ * An append-only journal of job state transitions, shared by all executions.
+ *
+ * Once a base snapshot of an execution has been written, record() only appends one small event per job whose
+ * status or times changed since the last save, instead of rewriting the whole flow.  A full snapshot is only
+ * needed again when the execution reaches a terminal status or when one is asked for with requestSnapshot().
+ *
+ * Events are stored one JSON object per line in segment files named journal-&lt;n&gt;.log.  A segment is
+ * deleted once every execution with events in it has a final snapshot.  A torn line at the end of a segment
+ * (from a crash mid-write) is ignored on startup, and a fresh segment is always started when the journal is
+ * opened.  Events that are newer than the last snapshot of an execution are kept in memory and replayed on top
+ * of that snapshot when it is loaded.
+ *
+ * The journal listens to the jobs of the flow instance it last took a snapshot of, so record() only looks at the
+ * jobs that changed since the last save.  An execution that is neither saved nor snapshotted for maxIdleMs, or
+ * that is dropped with forget(), is no longer tracked and no longer holds on to its segments.
+ */
+public class ExecutionJournal
+{
+    private static final Logger log = Logger.getLogger(ExecutionJournal.class);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String SNAPSHOT_BASE = "base";
+    private static final String SNAPSHOT_FINAL = "final";
+    // Not a snapshot, but ends the execution in the journal like a final one.
+    private static final String SNAPSHOT_DROPPED = "dropped";
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final JSONToJava jsonToJava = new JSONToJava();
+
+    private static final long EVICTION_CHECK_MS = 60 * 1000;
+
+    // Last journaled state of every job of the executions that have a base snapshot.
+    private final Map<String, TrackedFlow> knownStates = new HashMap<String, TrackedFlow>();
+    // Events that are newer than the last snapshot of each execution, in the order they were written.
+    private final Map<String, List<Map<String, Object>>> pendingEvents = new HashMap<String, List<Map<String, Object>>>();
+    // Executions without a final snapshot that have events in each segment, oldest segment first.
+    private final Map<File, Set<String>> liveExecutions = new LinkedHashMap<File, Set<String>>();
+    // When each execution the journal holds anything for was last saved.
+    private final Map<String, Long> lastActive = new HashMap<String, Long>();
+    private final long maxIdleMs;
+    private long lastEvictionCheck = System.currentTimeMillis();
+
+    private File currentSegment;
+    private Writer out;
+    private long currentSegmentBytes;
+    private long nextSegmentNumber;
+
+    private long eventsWritten = 0;
+    private long snapshotsWritten = 0;
+
+    public ExecutionJournal(File directory, long maxSegmentBytes)
+    {
+        this(directory, maxSegmentBytes, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param maxIdleMs how long an unfinished execution may go without being saved before the journal drops it
+     */
+    public ExecutionJournal(File directory, long maxSegmentBytes, long maxIdleMs)
+    {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.maxIdleMs = maxIdleMs;
+
+        if (! directory.exists() && ! directory.mkdirs()) {
+            throw new IllegalArgumentException(String.format("Could not create journal directory[%s].", directory));
+        }
+
+        recover();
+        openNextSegment();
+    }
+
+    /**
+     * Journals the transitions of a flow since it was last saved.
+     *
+     * @return true if the transitions were journaled.  false if the caller must write a full snapshot instead and
+     * then call snapshotWritten(), which is the case for a flow without a base snapshot or in a terminal status.
+     */
+    public synchronized boolean record(ExecutableFlow flow)
+    {
+        final String id = flow.getId();
+        final TrackedFlow tracked = knownStates.get(id);
+
+        if (tracked == null || flow.getStatus().isTerminal()) {
+            return false;
+        }
+
+        final Collection<IndividualJobExecutableFlow> changed;
+        if (tracked.flow == flow) {
+            changed = tracked.drainChanged();
+        }
+        else {
+            // Another instance of the execution, such as one loaded again, is followed from now on.
+            changed = Flows.collectJobFlows(flow).values();
+            tracked.follow(flow, changed);
+        }
+
+        boolean wrote = false;
+        for (IndividualJobExecutableFlow job : changed) {
+            JobState state = new JobState(job);
+            if (! state.equals(tracked.states.get(job.getName()))) {
+                Map<String, Object> event = state.toEvent(id, job);
+                append(event);
+                pendingEventsFor(id).add(event);
+                tracked.states.put(job.getName(), state);
+                wrote = true;
+            }
+        }
+
+        if (wrote) {
+            flushSegment();
+        }
+
+        touch(id);
+        return true;
+    }
+
+    /**
+     * Tells the journal that a full snapshot of the flow was written.  Events journaled before it are no longer
+     * needed to rebuild the flow.
+     */
+    public synchronized void snapshotWritten(ExecutableFlow flow)
+    {
+        final String id = flow.getId();
+        final boolean terminal = flow.getStatus().isTerminal();
+
+        appendMarker(id, terminal ? SNAPSHOT_FINAL : SNAPSHOT_BASE);
+
+        ++snapshotsWritten;
+        pendingEvents.remove(id);
+
+        untrack(id);
+        if (terminal) {
+            lastActive.remove(id);
+            finished(id);
+        }
+        else {
+            TrackedFlow tracked = new TrackedFlow();
+            tracked.follow(flow, Flows.collectJobFlows(flow).values());
+            knownStates.put(id, tracked);
+            touch(id);
+        }
+    }
+
+    /**
+     * Makes the next save of the given execution write a full snapshot.
+     */
+    public synchronized void requestSnapshot(String id)
+    {
+        untrack(id);
+    }
+
+    /**
+     * Drops everything the journal holds for an execution that won't be saved again, such as one that was
+     * abandoned.  Its journaled events are no longer replayed and its segments can be deleted.
+     */
+    public synchronized void forget(String id)
+    {
+        if (! getUnfinishedExecutionIds().contains(id)) {
+            return;
+        }
+
+        appendMarker(id, SNAPSHOT_DROPPED);
+        untrack(id);
+        pendingEvents.remove(id);
+        lastActive.remove(id);
+        finished(id);
+    }
+
+    /**
+     * Forgets the executions that have not been saved for maxIdleMs.
+     *
+     * @return the ids of the executions forgotten
+     */
+    public synchronized Set<String> evictIdle(long now)
+    {
+        lastEvictionCheck = now;
+
+        Set<String> idle = new TreeSet<String>();
+        for (Map.Entry<String, Long> entry : lastActive.entrySet()) {
+            if (now - entry.getValue() > maxIdleMs) {
+                idle.add(entry.getKey());
+            }
+        }
+
+        for (String id : idle) {
+            log.warn(String.format("Journal[%s] drops execution[%s], not saved for over %s ms.", directory, id, maxIdleMs));
+            forget(id);
+        }
+
+        return idle;
+    }
+
+    /**
+     * Applies the events journaled after the last snapshot of an execution to the serialized form of that
+     * snapshot.
+     *
+     * @param id the execution id
+     * @param descriptor the serialized snapshot, as produced by an ExecutableFlowSerializer
+     * @return the descriptor, updated in place
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized Map<String, Object> replay(String id, Map<String, Object> descriptor)
+    {
+        final List<Map<String, Object>> events = pendingEvents.get(id);
+        if (events == null) {
+            return descriptor;
+        }
+
+        final Map<String, Object> jobs = (Map<String, Object>) descriptor.get("jobs");
+        for (Map<String, Object> event : events) {
+            Map<String, Object> job = jobs == null ? null : (Map<String, Object>) jobs.get(event.get("job"));
+            if (job == null) {
+                log.warn(String.format("Journal of execution[%s] has an event for unknown job[%s].", id, event.get("job")));
+                continue;
+            }
+
+            for (String key : Arrays.asList("status", "startTime", "endTime", "generatedProps", "generatedPropsOmitted")) {
+                if (event.containsKey(key)) {
+                    job.put(key, event.get(key));
+                }
+            }
+        }
+
+        return descriptor;
+    }
+
+    /**
+     * @return true if events were journaled for the execution after its last snapshot
+     */
+    public synchronized boolean hasPendingEvents(String id)
+    {
+        final List<Map<String, Object>> events = pendingEvents.get(id);
+        return events != null && ! events.isEmpty();
+    }
+
+    /**
+     * @return the ids of executions that have journaled events but no final snapshot
+     */
+    public synchronized Set<String> getUnfinishedExecutionIds()
+    {
+        Set<String> retVal = new TreeSet<String>();
+        for (Set<String> ids : liveExecutions.values()) {
+            retVal.addAll(ids);
+        }
+        retVal.addAll(knownStates.keySet());
+
+        return retVal;
+    }
+
+    public synchronized long getEventsWritten()
+    {
+        return eventsWritten;
+    }
+
+    public synchronized long getSnapshotsWritten()
+    {
+        return snapshotsWritten;
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return liveExecutions.size();
+    }
+
+    public synchronized void close()
+    {
+        IOUtils.closeQuietly(out);
+        out = null;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(
+                "ExecutionJournal{dir=%s, segments=%s, events=%s, snapshots=%s, inFlight=%s}",
+                directory,
+                liveExecutions.size(),
+                eventsWritten,
+                snapshotsWritten,
+                knownStates.size()
+        );
+    }
+
+    private void appendMarker(String id, String snapshot)
+    {
+        Map<String, Object> marker = new HashMap<String, Object>();
+        marker.put("id", id);
+        marker.put("snapshot", snapshot);
+        marker.put("time", String.valueOf(System.currentTimeMillis()));
+        append(marker);
+        flushSegment();
+    }
+
+    private void touch(String id)
+    {
+        final long now = System.currentTimeMillis();
+        lastActive.put(id, now);
+
+        if (maxIdleMs != Long.MAX_VALUE && now - lastEvictionCheck > EVICTION_CHECK_MS) {
+            evictIdle(now);
+        }
+    }
+
+    private void untrack(String id)
+    {
+        final TrackedFlow tracked = knownStates.remove(id);
+        if (tracked != null) {
+            tracked.follow(null, Collections.<IndividualJobExecutableFlow>emptyList());
+        }
+    }
+
+    private List<Map<String, Object>> pendingEventsFor(String id)
+    {
+        List<Map<String, Object>> events = pendingEvents.get(id);
+        if (events == null) {
+            events = new ArrayList<Map<String, Object>>();
+            pendingEvents.put(id, events);
+        }
+        return events;
+    }
+
+    private void append(Map<String, Object> record)
+    {
+        if (out == null) {
+            throw new IllegalStateException(String.format("Journal[%s] is closed.", directory));
+        }
+
+        final String id = (String) record.get("id");
+        final String line = new JSONObject(record).toString();
+
+        try {
+            out.write(line);
+            out.write('\n');
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not append to journal segment[%s].", currentSegment), e);
+        }
+
+        currentSegmentBytes += line.length() + 1;
+        ++eventsWritten;
+        liveExecutions.get(currentSegment).add(id);
+    }
+
+    private void flushSegment()
+    {
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not flush journal segment[%s].", currentSegment), e);
+        }
+
+        if (currentSegmentBytes >= maxSegmentBytes) {
+            IOUtils.closeQuietly(out);
+            final File full = currentSegment;
+            openNextSegment();
+            deleteIfFinished(full);
+        }
+    }
+
+    private void openNextSegment()
+    {
+        currentSegment = new File(directory, SEGMENT_PREFIX + nextSegmentNumber++ + SEGMENT_SUFFIX);
+        currentSegmentBytes = 0;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(currentSegment, true), "UTF-8"));
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not open journal segment[%s].", currentSegment), e);
+        }
+        liveExecutions.put(currentSegment, new HashSet<String>());
+    }
+
+    private void finished(String id)
+    {
+        for (File segment : new ArrayList<File>(liveExecutions.keySet())) {
+            liveExecutions.get(segment).remove(id);
+            deleteIfFinished(segment);
+        }
+    }
+
+    private void deleteIfFinished(File segment)
+    {
+        if (segment.equals(currentSegment) || ! liveExecutions.get(segment).isEmpty()) {
+            return;
+        }
+
+        liveExecutions.remove(segment);
+        if (! segment.delete()) {
+            log.warn(String.format("Could not delete finished journal segment[%s].", segment));
+        }
+    }
+
+    /*
+     * Rebuilds the pending events and live executions from the segments left on disk.
+     */
+    private void recover()
+    {
+        File[] segments = directory.listFiles();
+        if (segments == null) {
+            segments = new File[0];
+        }
+
+        List<File> sorted = new ArrayList<File>();
+        for (File segment : segments) {
+            if (segmentNumber(segment) >= 0) {
+                sorted.add(segment);
+            }
+        }
+        Collections.sort(sorted, new Comparator<File>()
+        {
+            @Override
+            public int compare(File o1, File o2)
+            {
+                return Long.valueOf(segmentNumber(o1)).compareTo(segmentNumber(o2));
+            }
+        });
+
+        for (File segment : sorted) {
+            nextSegmentNumber = Math.max(nextSegmentNumber, segmentNumber(segment) + 1);
+            liveExecutions.put(segment, new HashSet<String>());
+            readSegment(segment);
+        }
+
+        for (File segment : sorted) {
+            deleteIfFinished(segment);
+        }
+
+        final long now = System.currentTimeMillis();
+        for (String id : pendingEvents.keySet()) {
+            lastActive.put(id, now);
+        }
+
+        if (! pendingEvents.isEmpty()) {
+            log.info(String.format("Journal[%s] has unfinished executions %s.", directory, pendingEvents.keySet()));
+        }
+    }
+
+    private void readSegment(File segment)
+    {
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(segment), "UTF-8"));
+
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                ++lineNumber;
+                final Map<String, Object> record;
+                try {
+                    record = jsonToJava.apply(new JSONObject(line));
+                }
+                catch (JSONException e) {
+                    log.warn(String.format("Ignoring torn record at line[%s] of journal segment[%s].", lineNumber, segment));
+                    break;
+                }
+
+                final String id = (String) record.get("id");
+                if (id == null) {
+                    continue;
+                }
+
+                liveExecutions.get(segment).add(id);
+                if (SNAPSHOT_FINAL.equals(record.get("snapshot")) || SNAPSHOT_DROPPED.equals(record.get("snapshot"))) {
+                    pendingEvents.remove(id);
+                    finishedDuringRecovery(id);
+                }
+                else if (SNAPSHOT_BASE.equals(record.get("snapshot"))) {
+                    pendingEvents.put(id, new ArrayList<Map<String, Object>>());
+                }
+                else {
+                    pendingEventsFor(id).add(record);
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not read journal segment[%s].", segment), e);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void finishedDuringRecovery(String id)
+    {
+        for (Set<String> ids : liveExecutions.values()) {
+            ids.remove(id);
+        }
+    }
+
+    private static long segmentNumber(File file)
+    {
+        final String name = file.getName();
+        if (! file.isFile() || ! name.startsWith(SEGMENT_PREFIX) || ! name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * The flow instance of an execution whose jobs the journal listens to, the last journaled state of each job, and
+     * the jobs that changed since the last save.
+     */
+    private static class TrackedFlow implements IndividualJobExecutableFlow.TransitionListener
+    {
+        private final Map<String, JobState> states = new HashMap<String, JobState>();
+        private final Set<IndividualJobExecutableFlow> changed = new LinkedHashSet<IndividualJobExecutableFlow>();
+        private final List<IndividualJobExecutableFlow> jobs = new ArrayList<IndividualJobExecutableFlow>();
+        private ExecutableFlow flow;
+
+        /*
+         * Listens to the given jobs of the flow instead of the ones before, and takes their current state as the
+         * journaled one if they have none yet.
+         */
+        private void follow(ExecutableFlow flow, Collection<IndividualJobExecutableFlow> flowJobs)
+        {
+            for (IndividualJobExecutableFlow job : jobs) {
+                job.setTransitionListener(null);
+            }
+            jobs.clear();
+            synchronized (changed) {
+                changed.clear();
+            }
+
+            this.flow = flow;
+            for (IndividualJobExecutableFlow job : flowJobs) {
+                job.setTransitionListener(this);
+                jobs.add(job);
+                if (! states.containsKey(job.getName())) {
+                    states.put(job.getName(), new JobState(job));
+                }
+            }
+        }
+
+        private List<IndividualJobExecutableFlow> drainChanged()
+        {
+            synchronized (changed) {
+                List<IndividualJobExecutableFlow> retVal = new ArrayList<IndividualJobExecutableFlow>(changed);
+                changed.clear();
+                return retVal;
+            }
+        }
+
+        @Override
+        public void transitioned(IndividualJobExecutableFlow job)
+        {
+            synchronized (changed) {
+                changed.add(job);
+            }
+        }
+    }
+
+    /*
+     * The part of a job's state that the journal tracks.
+     */
+    private static class JobState
+    {
+        private final Status status;
+        private final DateTime startTime;
+        private final DateTime endTime;
+
+        private JobState(IndividualJobExecutableFlow job)
+        {
+            this.status = job.getStatus();
+            this.startTime = job.getStartTime();
+            this.endTime = job.getEndTime();
+        }
+
+        private Map<String, Object> toEvent(String id, IndividualJobExecutableFlow job)
+        {
+            Map<String, Object> event = new HashMap<String, Object>();
+            event.put("id", id);
+            event.put("job", job.getName());
+            event.put("event", eventName(job));
+            event.put("time", String.valueOf(System.currentTimeMillis()));
+            event.put("status", status.toString());
+
+            if (startTime != null) {
+                event.put("startTime", startTime.toString());
+            }
+
+            if (endTime != null) {
+                event.put("endTime", endTime.toString());
+            }
+
+            event.putAll(IndividualJobEFSerializer.describeGeneratedProps(
+                    job,
+                    IndividualJobEFSerializer.DEFAULT_MAX_GENERATED_PROPS_BYTES
+            ));
+
+            return event;
+        }
+
+        private String eventName(IndividualJobExecutableFlow job)
+        {
+            switch (status) {
+                case RUNNING:
+                    return "started";
+                case SUCCEEDED:
+                    return "succeeded";
+                case FAILED:
+                    // A cancelled job is failed without an exception of its own.
+                    return job.getException() == null ? "cancelled" : "failed";
+                case COMPLETED:
+                    return "completed";
+                default:
+                    return "reset";
+            }
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            JobState that = (JobState) o;
+
+            return status == that.status &&
+                   (startTime == null ? that.startTime == null : startTime.equals(that.startTime)) &&
+                   (endTime == null ? that.endTime == null : endTime.equals(that.endTime));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            int result = status.hashCode();
+            result = 31 * result + (startTime == null ? 0 : startTime.hashCode());
+            result = 31 * result + (endTime == null ? 0 : endTime.hashCode());
+            return result;
+        }
+    }
+}
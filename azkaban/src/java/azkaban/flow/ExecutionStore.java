@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.flow;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Persistent storage for the serialized form of executions, as produced by an ExecutableFlowSerializer.
+ */
+public interface ExecutionStore
+{
+    /**
+     * Stores the given execution, replacing any previously stored version of it.
+     *
+     * @param id id of the execution
+     * @param summary the summary of the execution, written ahead of it.  May be null.
+     * @param descriptor the serialized execution
+     */
+    void save(String id, Map<String, Object> summary, Map<String, Object> descriptor);
+
+    /**
+     * Loads the latest stored version of an execution.
+     *
+     * @param id id of the execution
+     * @return the serialized execution, or null if it was never stored
+     */
+    Map<String, Object> load(String id);
+
+    /**
+     * Loads the summary stored ahead of the latest version of an execution, without reading the rest of it.
+     *
+     * @param id id of the execution
+     * @return the summary, or null if the execution was never stored or was stored without one
+     */
+    Map<String, Object> loadSummary(String id);
+
+    /**
+     * Gets the ids of all stored executions.
+     *
+     * @return the ids of all stored executions
+     */
+    Collection<String> getIds();
+
+    /**
+     * Gets the largest numeric execution id in the store.
+     *
+     * @return the largest id, or 0 if the store is empty
+     */
+    long getMaxId();
+
+    /**
+     * Releases any resources held by the store.
+     */
+    void close();
+}
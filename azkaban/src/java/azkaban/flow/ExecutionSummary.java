@@ -0,0 +1,119 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.flow;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import azkaban.serialization.Verifier;
+
+/**
+ * The few facts about an execution that listings need: its id, the name of its root flow, its status and
+ * when it ran.  Stores keep one of these at the head of every saved execution so that it can be read without
+ * building the whole ExecutableFlow.
+ */
+public class ExecutionSummary
+{
+    private final String id;
+    private final String name;
+    private final Status status;
+    private final DateTime startTime;
+    private final DateTime endTime;
+
+    public ExecutionSummary(String id, String name, Status status, DateTime startTime, DateTime endTime)
+    {
+        this.id = id;
+        this.name = name;
+        this.status = status;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    public static ExecutionSummary of(ExecutableFlow flow)
+    {
+        return new ExecutionSummary(flow.getId(), flow.getName(), flow.getStatus(), flow.getStartTime(), flow.getEndTime());
+    }
+
+    public static ExecutionSummary fromMap(Map<String, Object> descriptor)
+    {
+        return new ExecutionSummary(
+                Verifier.getString(descriptor, "id"),
+                Verifier.getString(descriptor, "name"),
+                Verifier.getEnumType(descriptor, "status", Status.class),
+                Verifier.getOptionalDateTime(descriptor, "startTime"),
+                Verifier.getOptionalDateTime(descriptor, "endTime")
+        );
+    }
+
+    public Map<String, Object> toMap()
+    {
+        Map<String, Object> retVal = new HashMap<String, Object>();
+        retVal.put("id", id);
+        retVal.put("name", name);
+        retVal.put("status", status.toString());
+
+        if (startTime != null) {
+            retVal.put("startTime", startTime.toString());
+        }
+
+        if (endTime != null) {
+            retVal.put("endTime", endTime.toString());
+        }
+
+        return retVal;
+    }
+
+    public String getId()
+    {
+        return id;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Status getStatus()
+    {
+        return status;
+    }
+
+    public DateTime getStartTime()
+    {
+        return startTime;
+    }
+
+    public DateTime getEndTime()
+    {
+        return endTime;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ExecutionSummary{" +
+               "id='" + id + '\'' +
+               ", name='" + name + '\'' +
+               ", status=" + status +
+               ", startTime=" + startTime +
+               ", endTime=" + endTime +
+               '}';
+    }
+}
@@ -118,6 +118,15 @@ public interface FlowManager extends Iterable<Flow>
      */
     ExecutableFlow loadExecutableFlow(long id);
 
+    /**
+     * Loads the summary of an ExecutableFlow without building the flow itself, when the underlying storage allows
+     * it.  Use this for listings and only load the whole flow when its jobs are needed.
+     *
+     * @param id id of the flow
+     * @return the summary of the flow with said id, null if doesn't exist
+     */
+    ExecutionSummary loadExecutionSummary(long id);
+
     /**
      * Tells the FlowManager to reload its flows.
      */
@@ -16,15 +16,21 @@
 
 package azkaban.flow;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.joda.time.DateTime;
+
 import azkaban.app.JobDescriptor;
 import azkaban.app.JobManager;
 import azkaban.app.JobWrappingFactory;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
@@ -90,6 +96,11 @@ public class Flows
         if (theFlow.getStatus() == Status.FAILED) {
             theFlow.reset();
         }
+        else if (theFlow instanceof IndividualJobExecutableFlow
+                 && ((IndividualJobExecutableFlow) theFlow).isGeneratedPropertiesOmitted()) {
+            // What it generated was too large to store, so its dependers can only get it by running it again.
+            theFlow.reset();
+        }
 
         if (theFlow.hasChildren()) {
             for (ExecutableFlow flow : theFlow.getChildren()) {
@@ -100,4 +111,81 @@ public class Flows
         return theFlow;
     }
 
+    /**
+     * Settles the jobs of a flow loaded after a restart that were running when the previous process went away.
+     * Such jobs are loaded READY but keep the start time of their interrupted run, and have no end time.
+     *
+     * Each of them is either reset, so that it runs again when the flow is next executed, or failed.  Jobs that
+     * finished are left alone, so executing the flow afterwards carries on from where it was interrupted.
+     *
+     * @param rerun decides by job name whether an interrupted job runs again; otherwise it is failed
+     * @return the names of the interrupted jobs
+     */
+    public static List<String> recoverInterruptedJobs(
+            final ExecutableFlow theFlow,
+            final Predicate<String> rerun
+    )
+    {
+        List<String> retVal = new ArrayList<String>();
+
+        for (IndividualJobExecutableFlow job : collectJobFlows(theFlow).values()) {
+            if (job.getStatus() != Status.READY || job.getStartTime() == null || job.getEndTime() != null) {
+                continue;
+            }
+
+            retVal.add(job.getName());
+
+            if (rerun.apply(job.getName())) {
+                job.reset();
+            }
+            else {
+                job.setStatus(Status.FAILED).setEndTime(new DateTime());
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Collects the individual jobs of an executable flow, keyed by job name.  Every node of the flow is visited
+     * once, even when it is shared between several dependers.
+     */
+    public static Map<String, IndividualJobExecutableFlow> collectJobFlows(
+            final ExecutableFlow theFlow
+    )
+    {
+        Map<String, IndividualJobExecutableFlow> retVal = new LinkedHashMap<String, IndividualJobExecutableFlow>();
+        collectJobFlows(theFlow, retVal, new IdentityHashMap<ExecutableFlow, Boolean>());
+
+        return retVal;
+    }
+
+    private static void collectJobFlows(
+            final ExecutableFlow theFlow,
+            final Map<String, IndividualJobExecutableFlow> jobs,
+            final Map<ExecutableFlow, Boolean> visited
+    )
+    {
+        if (visited.put(theFlow, Boolean.TRUE) != null) {
+            return;
+        }
+
+        if (theFlow instanceof IndividualJobExecutableFlow) {
+            if (! jobs.containsKey(theFlow.getName())) {
+                jobs.put(theFlow.getName(), (IndividualJobExecutableFlow) theFlow);
+            }
+        }
+        else if (theFlow instanceof MultipleDependencyExecutableFlow) {
+            collectJobFlows(((MultipleDependencyExecutableFlow) theFlow).getActualFlow(), jobs, visited);
+        }
+        else if (theFlow instanceof ComposedExecutableFlow) {
+            collectJobFlows(((ComposedExecutableFlow) theFlow).getDepender(), jobs, visited);
+            collectJobFlows(((ComposedExecutableFlow) theFlow).getDependee(), jobs, visited);
+        }
+        else if (theFlow.hasChildren()) {
+            for (ExecutableFlow flow : theFlow.getChildren()) {
+                collectJobFlows(flow, jobs, visited);
+            }
+        }
+    }
 }
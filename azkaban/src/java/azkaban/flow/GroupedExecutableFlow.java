@@ -175,6 +175,14 @@ public class GroupedExecutableFlow implements ExecutableFlow
                     return;
                 case COMPLETED:
                 case SUCCEEDED:
+                    if (jobState == Status.SUCCEEDED && flowOutputGeneratedProperties == null) {
+                        // Succeeded before this flow was loaded; rebuild its output from its parts.
+                        flowOutputGeneratedProperties = new Props();
+                        flowOutputGeneratedProperties.putAll(flowInputOutputProperties);
+                        for (ExecutableFlow flow : flows) {
+                            flowOutputGeneratedProperties.putAll(flow.getFlowGeneratedProperties());
+                        }
+                    }
                     callback.completed(Status.SUCCEEDED);
                     return;
                 case FAILED:
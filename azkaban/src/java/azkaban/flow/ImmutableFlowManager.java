@@ -16,11 +16,7 @@
 
 package azkaban.flow;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -28,17 +24,12 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.fileupload.util.Streams;
-import org.apache.commons.io.IOUtils;
 import org.joda.time.DateTime;
-import org.json.JSONObject;
 
 import azkaban.common.utils.Props;
 import azkaban.serialization.ExecutableFlowSerializer;
 import azkaban.serialization.de.ExecutableFlowDeserializer;
-import azkaban.util.JSONToJava;
 
 /**
  * An "append-only" set of Flows.  If you need to remove flows, this object should be thrown away and a
@@ -46,14 +37,15 @@ import azkaban.util.JSONToJava;
  */
 public class ImmutableFlowManager implements FlowManager
 {
-    private final JSONToJava jsonToJava;
     private final Map<String, Flow> flowsMap;
     private final Set<String> rootFlowNames;
-    private final AtomicLong lastId;
+    private final ExecutionIdAllocator ids;
 
-    private final File storageDirectory;
+    private final ExecutionStore store;
     private final ExecutableFlowSerializer serializer;
     private final ExecutableFlowDeserializer deserializer;
+    private final ExecutionJournal journal;
+    private final ExecutionIndex index;
 
     public ImmutableFlowManager(
             Map<String, Flow> flowMap,
@@ -63,15 +55,36 @@ public class ImmutableFlowManager implements FlowManager
             File storageDirectory,
             long lastId
     )
+    {
+        this(flowMap, rootFlows, serializer, deserializer, new JsonExecutionStore(storageDirectory), new ExecutionIdAllocator(lastId), null, null);
+    }
+
+    /**
+     * @param store where executions are saved
+     * @param ids where new execution ids come from
+     * @param journal if not null, transitions of running flows are appended to this journal and full snapshots
+     * are only written when the journal asks for them
+     * @param index if not null, the summary of every saved flow is written to this index
+     */
+    public ImmutableFlowManager(
+            Map<String, Flow> flowMap,
+            Set<String> rootFlows,
+            ExecutableFlowSerializer serializer,
+            ExecutableFlowDeserializer deserializer,
+            ExecutionStore store,
+            ExecutionIdAllocator ids,
+            ExecutionJournal journal,
+            ExecutionIndex index
+    )
     {
         this.flowsMap = flowMap;
         this.rootFlowNames = rootFlows;
         this.serializer = serializer;
         this.deserializer = deserializer;
-        this.storageDirectory = storageDirectory;
-
-        this.lastId = new AtomicLong(lastId);
-        this.jsonToJava = new JSONToJava();
+        this.store = store;
+        this.journal = journal;
+        this.index = index;
+        this.ids = ids;
     }
 
     @Override
@@ -136,34 +149,30 @@ public class ImmutableFlowManager implements FlowManager
     @Override
     public long getNextId()
     {
-        return lastId.incrementAndGet();
+        return ids.next();
     }
 
     @Override
     public long getCurrMaxId()
     {
-        return lastId.get();
+        return ids.current();
     }
 
     @Override
     public ExecutableFlow saveExecutableFlow(ExecutableFlow flow)
     {
-        File storageFile = new File(storageDirectory, String.format("%s.json", flow.getId()));
-
-        Map<String, Object> map = serializer.apply(flow);
-        JSONObject jsonObj = new JSONObject(map);
-
-        BufferedWriter out = null;
-        try {
-            out = new BufferedWriter(new FileWriter(storageFile));
-            out.write(jsonObj.toString(2));
-            out.flush();
+        if (index != null) {
+            index.update(ExecutionSummary.of(flow));
         }
-        catch (Exception e) {
-            throw new RuntimeException(e);
+
+        if (journal != null && journal.record(flow)) {
+            return flow;
         }
-        finally {
-            IOUtils.closeQuietly(out);
+
+        store.save(flow.getId(), ExecutionSummary.of(flow).toMap(), serializer.apply(flow));
+
+        if (journal != null) {
+            journal.snapshotWritten(flow);
         }
 
         return flow;
@@ -172,26 +181,36 @@ public class ImmutableFlowManager implements FlowManager
     @Override
     public ExecutableFlow loadExecutableFlow(long id)
     {
-        File storageFile = new File(storageDirectory, String.format("%s.json", id));
+        Map<String, Object> descriptor = store.load(String.valueOf(id));
 
-        if (! storageFile.exists()) {
+        if (descriptor == null) {
             return null;
         }
 
-        BufferedInputStream in = null;
-        try {
-            in = new BufferedInputStream(new FileInputStream(storageFile));
+        if (journal != null) {
+            journal.replay(String.valueOf(id), descriptor);
+        }
 
-            JSONObject jsonObj = new JSONObject(Streams.asString(in));
+        return deserializer.apply(descriptor);
+    }
 
-            return deserializer.apply(jsonToJava.apply(jsonObj));
-        }
-        catch (Exception e) {
-            throw new RuntimeException(e);
-        }
-        finally {
-            IOUtils.closeQuietly(in);
+    @Override
+    public ExecutionSummary loadExecutionSummary(long id)
+    {
+        final String idString = String.valueOf(id);
+
+        // A stored summary predates any transitions journaled since.
+        if (journal == null || ! journal.hasPendingEvents(idString)) {
+            Map<String, Object> summary = store.loadSummary(idString);
+
+            if (summary != null) {
+                return ExecutionSummary.fromMap(summary);
+            }
         }
+
+        final ExecutableFlow flow = loadExecutableFlow(id);
+
+        return flow == null ? null : ExecutionSummary.of(flow);
     }
 
     @Override
@@ -51,6 +51,9 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
     private volatile Job job;
     private volatile Throwable exception;
     private volatile Props flowOutputGeneratedProperties;
+    private volatile Props restoredGeneratedProperties;
+    private volatile boolean generatedPropertiesOmitted;
+    private volatile TransitionListener transitionListener;
 
     public IndividualJobExecutableFlow(String id, String name, Props overrideProps, JobManager jobManager)
     {
@@ -80,7 +83,38 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
     
     @Override
     public Props getFlowGeneratedProperties() {
-        return flowOutputGeneratedProperties;
+        return flowOutputGeneratedProperties == null ? restoredGeneratedProperties : flowOutputGeneratedProperties;
+    }
+
+    /**
+     * @return the properties this job generated itself, leaving out those it was handed by upstream jobs and passed
+     * on unchanged, or null if it has not generated any
+     */
+    public Props getOwnGeneratedProperties()
+    {
+        final Props output = flowOutputGeneratedProperties;
+        if (output == null) {
+            return restoredGeneratedProperties;
+        }
+
+        final Props input = flowInputGeneratedProperties;
+        Props retVal = new Props();
+        for (String key : output.keySet()) {
+            final String value = output.get(key);
+            if (input == null || ! value.equals(input.get(key))) {
+                retVal.put(key, value);
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * @return whether this job was loaded without the properties it generated, because they were too large to store
+     */
+    public boolean isGeneratedPropertiesOmitted()
+    {
+        return generatedPropertiesOmitted;
     }
     
     public Props getOverrideProps() {
@@ -96,12 +130,22 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                     jobState = Status.RUNNING;
                     startTime = new DateTime();
                     callbacksToCall.add(callback);
+                    transitioned();
                     break;
                 case RUNNING:
                     callbacksToCall.add(callback);
                     return;
                 case COMPLETED:
                 case SUCCEEDED:
+                    if (jobState == Status.SUCCEEDED && flowOutputGeneratedProperties == null
+                        && restoredGeneratedProperties != null) {
+                        // Succeeded before this flow was loaded: hand on what it generated then.
+                        flowInputGeneratedProperties = (flowGeneratedProperties == null ?
+                                                        new Props() : Props.clone(flowGeneratedProperties));
+                        Props output = Props.clone(flowInputGeneratedProperties);
+                        output.putAll(restoredGeneratedProperties);
+                        flowOutputGeneratedProperties = output;
+                    }
                     callback.completed(Status.SUCCEEDED);
                     return;
                 case FAILED:
@@ -175,6 +219,7 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                         if (endTime == null) {
                             endTime = new DateTime();
                         }
+                        transitioned();
 
                         Thread callbackThread = new Thread(
                                 new Runnable()
@@ -234,6 +279,7 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                     callbacksToCall = new ArrayList<FlowCallback>();
             }
         }
+        transitioned();
 
         for (FlowCallback callback : callbacks) {
             callback.completed(Status.FAILED);
@@ -270,8 +316,11 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                     startTime = null;
                     endTime = null;
                     exception = null;
+                    restoredGeneratedProperties = null;
+                    generatedPropertiesOmitted = false;
             }
         }
+        transitioned();
 
         return true;
     }
@@ -287,6 +336,7 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                     jobState = Status.COMPLETED;
             }
         }
+        transitioned();
         return true;
     }
 
@@ -340,6 +390,7 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
                     throw new IllegalStateException("Can only set status when job is in the READY state.");
             }
         }
+        transitioned();
 
         return this;
     }
@@ -347,6 +398,15 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
     IndividualJobExecutableFlow setStartTime(DateTime startTime)
     {
         this.startTime = startTime;
+        transitioned();
+
+        return this;
+    }
+
+    IndividualJobExecutableFlow setRestoredGeneratedProperties(Props generatedProperties, boolean omitted)
+    {
+        this.restoredGeneratedProperties = generatedProperties;
+        this.generatedPropertiesOmitted = omitted;
 
         return this;
     }
@@ -354,7 +414,32 @@ public class IndividualJobExecutableFlow implements ExecutableFlow
     IndividualJobExecutableFlow setEndTime(DateTime endTime)
     {
         this.endTime = endTime;
+        transitioned();
 
         return this;
     }
+
+    /**
+     * Sets what to tell when the status or times of this job change, in place of any listener before.
+     */
+    void setTransitionListener(TransitionListener listener)
+    {
+        this.transitionListener = listener;
+    }
+
+    private void transitioned()
+    {
+        final TransitionListener listener = transitionListener;
+        if (listener != null) {
+            listener.transitioned(this);
+        }
+    }
+
+    /**
+     * Told about changes to the status or times of a job, on the thread that made them.
+     */
+    interface TransitionListener
+    {
+        void transitioned(IndividualJobExecutableFlow job);
+    }
 }
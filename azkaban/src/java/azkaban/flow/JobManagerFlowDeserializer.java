@@ -63,6 +63,8 @@ public class JobManagerFlowDeserializer implements Function<Map<String, Object>,
                 overrideProps,
                 jobManager
         );
+        // A job that was running when it was saved cannot still be running here.  It comes back READY but keeps
+        // its start time and has no end time, which is how Flows.recoverInterruptedJobs() recognizes it.
         if (jobStatus != Status.RUNNING) {
             retVal.setStatus(jobStatus);
         }
@@ -75,6 +77,22 @@ public class JobManagerFlowDeserializer implements Function<Map<String, Object>,
             retVal.setEndTime(endTime);
         }
 
+        if (jobStatus == Status.SUCCEEDED) {
+            Props generatedProps = null;
+            if (descriptor.containsKey("generatedProps")) {
+                generatedProps = new Props();
+                Map<String, Object> generatedPropsMap = Verifier.getVerifiedObject(descriptor, "generatedProps", Map.class);
+                for (Map.Entry<String, Object> entry : generatedPropsMap.entrySet()) {
+                    generatedProps.put(entry.getKey(), String.valueOf(entry.getValue()));
+                }
+            }
+
+            // Stored as a boolean in JSON, but as a string by codecs without booleans.
+            boolean omitted = Boolean.valueOf(String.valueOf(descriptor.get("generatedPropsOmitted")));
+
+            retVal.setRestoredGeneratedProperties(generatedProps, omitted);
+        }
+
         return retVal;
     }
 }
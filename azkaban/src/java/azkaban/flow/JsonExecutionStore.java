@@ -0,0 +1,404 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.flow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import azkaban.util.JSONToJava;
+import azkaban.util.StreamingJSONWriter;
+
+/**
+ * Stores every execution as &lt;id&gt;.json in a single directory.  Executions are written as compact JSON
+ * straight to the file, with the execution's summary as the first entry; indented files written by older versions
+ * are read just the same.
+ *
+ * Finished executions can be moved out of the directory with archive(), which rolls them into a compressed
+ * segment under archive/.  Archived executions are still loaded by id, so only the size of the directory changes.
+ */
+public class JsonExecutionStore implements ExecutionStore
+{
+    private static final Logger log = Logger.getLogger(JsonExecutionStore.class);
+
+    private static final String SUFFIX = ".json";
+    private static final String SUMMARY_KEY = "summary";
+    private static final String ARCHIVE_DIRECTORY = "archive";
+    private static final String SEGMENT_PREFIX = "executions-";
+    private static final String SEGMENT_SUFFIX = ".zip";
+
+    private final File storageDirectory;
+    private final File archiveDirectory;
+    private final JSONToJava jsonToJava;
+    private final Map<String, File> archivedSegments;
+
+    public JsonExecutionStore(File storageDirectory)
+    {
+        this.storageDirectory = storageDirectory;
+        this.archiveDirectory = new File(storageDirectory, ARCHIVE_DIRECTORY);
+        this.jsonToJava = new JSONToJava();
+        this.archivedSegments = new ConcurrentHashMap<String, File>();
+
+        File[] segments = archiveDirectory.listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                if (segment.getName().startsWith(SEGMENT_PREFIX) && segment.getName().endsWith(SEGMENT_SUFFIX)) {
+                    indexSegment(segment);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void save(String id, Map<String, Object> summary, Map<String, Object> descriptor)
+    {
+        File storageFile = new File(storageDirectory, id + SUFFIX);
+
+        // The summary goes first so that loadSummary() can stop reading right after it.
+        Map<String, Object> toWrite = new LinkedHashMap<String, Object>();
+        if (summary != null) {
+            toWrite.put(SUMMARY_KEY, summary);
+        }
+        toWrite.putAll(descriptor);
+
+        BufferedWriter out = null;
+        try {
+            out = new BufferedWriter(new FileWriter(storageFile));
+            new StreamingJSONWriter(out).write(toWrite).flush();
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    @Override
+    public Map<String, Object> load(String id)
+    {
+        InputStream in = null;
+        try {
+            in = open(id);
+            if (in == null) {
+                return null;
+            }
+
+            Map<String, Object> retVal = jsonToJava.apply(new JSONObject(Streams.asString(new BufferedInputStream(in))));
+            retVal.remove(SUMMARY_KEY);
+
+            return retVal;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    @Override
+    public Map<String, Object> loadSummary(String id)
+    {
+        Reader in = null;
+        try {
+            InputStream stream = open(id);
+            if (stream == null) {
+                return null;
+            }
+            in = new BufferedReader(new InputStreamReader(stream), 1024);
+
+            JSONTokener tokener = new JSONTokener(in);
+            if (tokener.nextClean() != '{' || ! SUMMARY_KEY.equals(tokener.nextValue()) || tokener.nextClean() != ':') {
+                return null;
+            }
+
+            Object summary = tokener.nextValue();
+
+            return summary instanceof JSONObject ? jsonToJava.apply((JSONObject) summary) : null;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Opens the stored form of an execution, from its own file if it has one and otherwise from the archive.
+     *
+     * @return the stream, or null if the execution was never stored
+     */
+    private InputStream open(String id) throws IOException
+    {
+        File storageFile = new File(storageDirectory, id + SUFFIX);
+        if (storageFile.exists()) {
+            return new FileInputStream(storageFile);
+        }
+
+        File segment = archivedSegments.get(id);
+        if (segment == null) {
+            return null;
+        }
+
+        final ZipFile zip = new ZipFile(segment);
+        ZipEntry entry = zip.getEntry(id + SUFFIX);
+        if (entry == null) {
+            zip.close();
+            return null;
+        }
+
+        return new FilterInputStream(zip.getInputStream(entry))
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try {
+                    super.close();
+                }
+                finally {
+                    zip.close();
+                }
+            }
+        };
+    }
+
+    @Override
+    public Collection<String> getIds()
+    {
+        List<String> retVal = new ArrayList<String>(getArchivedIds());
+
+        File[] files = storageDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final String filename = file.getName();
+                if (filename.endsWith(SUFFIX)) {
+                    final String id = filename.substring(0, filename.length() - SUFFIX.length());
+                    if (! archivedSegments.containsKey(id)) {
+                        retVal.add(id);
+                    }
+                }
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * Gets the ids of the executions that have been archived.
+     *
+     * @return the ids of the archived executions
+     */
+    public Collection<String> getArchivedIds()
+    {
+        return Collections.unmodifiableSet(archivedSegments.keySet());
+    }
+
+    /**
+     * Moves the given executions out of the storage directory into a new compressed segment of the archive.
+     * Their stored form is kept byte for byte, so they load just as before.  An execution saved again while it is
+     * being archived keeps its file, which then shadows the archived copy.
+     *
+     * @param ids ids of executions to archive; ones without a file of their own are skipped
+     * @return the number of executions archived
+     */
+    public synchronized int archive(Collection<String> ids)
+    {
+        List<String> toArchive = new ArrayList<String>();
+        long minId = Long.MAX_VALUE;
+        long maxId = Long.MIN_VALUE;
+        for (String id : ids) {
+            if (new File(storageDirectory, id + SUFFIX).exists()) {
+                toArchive.add(id);
+                try {
+                    minId = Math.min(minId, Long.parseLong(id));
+                    maxId = Math.max(maxId, Long.parseLong(id));
+                }
+                catch (NumberFormatException e) {
+                }
+            }
+        }
+        if (toArchive.isEmpty()) {
+            return 0;
+        }
+
+        archiveDirectory.mkdirs();
+        String segmentName = minId <= maxId
+                             ? String.format("%s%s-%s", SEGMENT_PREFIX, minId, maxId)
+                             : SEGMENT_PREFIX + "0-0";
+        File segment = new File(archiveDirectory, segmentName + SEGMENT_SUFFIX);
+        for (int i = 1; segment.exists(); ++i) {
+            segment = new File(archiveDirectory, String.format("%s.%s%s", segmentName, i, SEGMENT_SUFFIX));
+        }
+
+        // Remember what each file looked like when it was copied, so one rewritten since is left alone.
+        Map<String, Long> copiedVersions = new LinkedHashMap<String, Long>();
+        File tempFile = new File(archiveDirectory, segment.getName() + ".tmp");
+        FileOutputStream fileOut = null;
+        ZipOutputStream out = null;
+        try {
+            fileOut = new FileOutputStream(tempFile);
+            out = new ZipOutputStream(new BufferedOutputStream(fileOut));
+            for (String id : toArchive) {
+                File storageFile = new File(storageDirectory, id + SUFFIX);
+                final long version = storageFile.lastModified();
+
+                InputStream in;
+                try {
+                    in = new FileInputStream(storageFile);
+                }
+                catch (FileNotFoundException e) {
+                    continue;
+                }
+
+                try {
+                    out.putNextEntry(new ZipEntry(id + SUFFIX));
+                    IOUtils.copy(in, out);
+                    out.closeEntry();
+                }
+                finally {
+                    IOUtils.closeQuietly(in);
+                }
+                copiedVersions.put(id, version);
+            }
+            out.finish();
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+        }
+        catch (IOException e) {
+            IOUtils.closeQuietly(out);
+            tempFile.delete();
+            throw new RuntimeException(String.format("Unable to write archive segment[%s]", segment), e);
+        }
+
+        if (! tempFile.renameTo(segment)) {
+            tempFile.delete();
+            throw new RuntimeException(String.format("Unable to rename [%s] to [%s]", tempFile, segment));
+        }
+
+        int archived = 0;
+        for (Map.Entry<String, Long> copied : copiedVersions.entrySet()) {
+            final String id = copied.getKey();
+            archivedSegments.put(id, segment);
+
+            File storageFile = new File(storageDirectory, id + SUFFIX);
+            if (storageFile.lastModified() == copied.getValue() && storageFile.delete()) {
+                ++archived;
+            }
+        }
+
+        log.info(String.format("Archived [%s] executions into [%s].", archived, segment));
+
+        return archived;
+    }
+
+    private void indexSegment(File segment)
+    {
+        ZipFile zip = null;
+        try {
+            zip = new ZipFile(segment);
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final String name = entries.nextElement().getName();
+                if (name.endsWith(SUFFIX)) {
+                    archivedSegments.put(name.substring(0, name.length() - SUFFIX.length()), segment);
+                }
+            }
+        }
+        catch (IOException e) {
+            log.warn(String.format("Ignoring unreadable archive segment[%s]", segment), e);
+        }
+        finally {
+            if (zip != null) {
+                try {
+                    zip.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public long getMaxId()
+    {
+        long lastId = 0;
+
+        for (String id : getIds()) {
+            try {
+                lastId = Math.max(lastId, Long.parseLong(id));
+            }
+            catch (NumberFormatException e) {
+            }
+        }
+
+        return lastId;
+    }
+
+    /**
+     * Deletes the stored version of an execution.
+     *
+     * @return true if it was deleted
+     */
+    public boolean delete(String id)
+    {
+        return new File(storageDirectory, id + SUFFIX).delete();
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    @Override
+    public String toString()
+    {
+        return "JsonExecutionStore{storageDirectory=" + storageDirectory + '}';
+    }
+}
@@ -37,13 +37,14 @@ import azkaban.serialization.de.ExecutableFlowDeserializer;
  */
 public class RefreshableFlowManager implements FlowManager
 {
-    private final Object idSync = new Object();
-    
     private final JobManager jobManager;
     private final JobWrappingFactory jobFactory;
     private final ExecutableFlowSerializer serializer;
     private final ExecutableFlowDeserializer deserializer;
-    private final File storageDirectory;
+    private final ExecutionStore store;
+    private final ExecutionIdAllocator ids;
+    private final ExecutionJournal journal;
+    private final ExecutionIndex index;
 
     private final AtomicReference<ImmutableFlowManager> delegateManager;
 
@@ -55,15 +56,32 @@ public class RefreshableFlowManager implements FlowManager
             File storageDirectory,
             long lastId
     )
+    {
+        this(jobManager, jobFactory, serializer, deserializer, new JsonExecutionStore(storageDirectory), new ExecutionIdAllocator(lastId), null, null);
+    }
+
+    public RefreshableFlowManager(
+            JobManager jobManager,
+            JobWrappingFactory jobFactory,
+            ExecutableFlowSerializer serializer,
+            ExecutableFlowDeserializer deserializer,
+            ExecutionStore store,
+            ExecutionIdAllocator ids,
+            ExecutionJournal journal,
+            ExecutionIndex index
+    )
     {
         this.jobManager = jobManager;
         this.jobFactory = jobFactory;
         this.serializer = serializer;
         this.deserializer = deserializer;
-        this.storageDirectory = storageDirectory;
+        this.store = store;
+        this.ids = ids;
+        this.journal = journal;
+        this.index = index;
 
         this.delegateManager = new AtomicReference<ImmutableFlowManager>(null);
-        reloadInternal(lastId);
+        reloadInternal();
     }
 
     @Override
@@ -105,9 +123,7 @@ public class RefreshableFlowManager implements FlowManager
     @Override
     public long getNextId()
     {
-        synchronized (idSync) {
-            return delegateManager.get().getNextId();
-        }
+        return delegateManager.get().getNextId();
     }
 
     @Override
@@ -128,13 +144,19 @@ public class RefreshableFlowManager implements FlowManager
         return delegateManager.get().loadExecutableFlow(id);
     }
 
+    @Override
+    public ExecutionSummary loadExecutionSummary(long id)
+    {
+        return delegateManager.get().loadExecutionSummary(id);
+    }
+
     @Override
     public void reload()
     {
-        reloadInternal(null);
+        reloadInternal();
     }
 
-    private final void reloadInternal(Long lastId)
+    private final void reloadInternal()
     {
         Map<String, Flow> flowMap = new HashMap<String, Flow>();
         Set<String> rootFlows = new TreeSet<String>();
@@ -146,17 +168,18 @@ public class RefreshableFlowManager implements FlowManager
             }
         }
 
-        synchronized (idSync) {
-            delegateManager.set(
-                    new ImmutableFlowManager(
-                            flowMap,
-                            rootFlows,
-                            serializer,
-                            deserializer,
-                            storageDirectory,
-                            lastId == null ? delegateManager.get().getCurrMaxId() : lastId
-                    )
-            );
-        }
+        // Every delegate shares the allocator, so ids carry on across reloads.
+        delegateManager.set(
+                new ImmutableFlowManager(
+                        flowMap,
+                        rootFlows,
+                        serializer,
+                        deserializer,
+                        store,
+                        ids,
+                        journal,
+                        index
+                )
+        );
     }
 }
@@ -0,0 +1,705 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.flow;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+import azkaban.serialization.ExecutionCodec;
+import azkaban.serialization.ExecutionCodecs;
+import azkaban.serialization.JsonExecutionCodec;
+
+/**
+ * Stores executions as records appended to a small number of segment files.
+ *
+ * Every save appends a new version of the execution, encoded with the store's ExecutionCodec, to the active
+ * segment and points an in-memory id to offset index at it.  Each record carries a CRC32 of its contents, which is
+ * checked on every read.  When the active
+ * segment grows past the segment size it is sealed: a hint file listing its live records is written next to it
+ * so the next startup can rebuild the index without reading the segment, and a new segment is started.
+ *
+ * Sealed segments in which less than the compaction threshold of the bytes are still live have their live
+ * records copied to the active segment and are deleted.
+ *
+ * Records of executions saved with a summary hold it ahead of the execution, so loadSummary() only reads the
+ * head of the record.
+ *
+ * On startup the segments without a hint file are scanned record by record.  A torn or corrupt record at the end
+ * of the last segment, left by a crash during a write, is truncated away.
+ */
+public class SegmentedExecutionStore implements ExecutionStore
+{
+    private static final Logger log = Logger.getLogger(SegmentedExecutionStore.class);
+
+    private static final int RECORD_MAGIC = 0x417a6b31;
+    private static final int HEADER_BYTES = 16;
+    private static final int SUMMARY_FRAME = 1;
+
+    private static final String SEGMENT_PREFIX = "executions-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HINT_SUFFIX = ".hint";
+
+    private final File directory;
+    private final long maxSegmentBytes;
+    private final double compactionThreshold;
+    private final boolean sync;
+    private final ExecutionCodec codec;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private final Map<String, Location> index = new HashMap<String, Location>();
+    private Segment active;
+    private long maxId = 0;
+
+    private long recordsWritten = 0;
+    private long recordsCompacted = 0;
+    private long segmentsCompacted = 0;
+
+    public SegmentedExecutionStore(File directory, long maxSegmentBytes, boolean sync)
+    {
+        this(directory, maxSegmentBytes, 0.5, sync, new JsonExecutionCodec());
+    }
+
+    /**
+     * @param directory the directory holding the segments
+     * @param maxSegmentBytes the size at which the active segment is sealed
+     * @param compactionThreshold sealed segments with a smaller fraction of live bytes are compacted
+     * @param sync whether every write is forced to disk before save() returns
+     * @param codec the codec new records are written with.  Records written with any other known codec are
+     * still read.
+     */
+    public SegmentedExecutionStore(
+            File directory,
+            long maxSegmentBytes,
+            double compactionThreshold,
+            boolean sync,
+            ExecutionCodec codec
+    )
+    {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.compactionThreshold = compactionThreshold;
+        this.sync = sync;
+        this.codec = codec;
+
+        if (! directory.exists() && ! directory.mkdirs()) {
+            throw new IllegalArgumentException(String.format("Could not create store directory[%s].", directory));
+        }
+
+        try {
+            recover();
+
+            if (segments.isEmpty() || segments.lastEntry().getValue().hintFile().exists()) {
+                active = openSegment(segments.isEmpty() ? 0 : segments.lastKey() + 1);
+            }
+            else {
+                active = segments.lastEntry().getValue();
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(String.format("Could not open execution store[%s].", directory), e);
+        }
+
+        log.info(String.format("Opened %s", this));
+    }
+
+    @Override
+    public void save(String id, Map<String, Object> summary, Map<String, Object> descriptor)
+    {
+        final byte[] record = encode(id, summary == null ? codec.encode(descriptor) : frame(codec.encode(summary), codec.encode(descriptor)));
+
+        synchronized (this) {
+            try {
+                if (append(id, record)) {
+                    compact();
+                }
+            }
+            catch (IOException e) {
+                throw new RuntimeException(String.format("Could not write execution[%s] to %s.", id, active.file), e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Object> load(String id)
+    {
+        final byte[] data;
+        synchronized (this) {
+            final Location location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+
+            try {
+                data = decode(location, read(location));
+            }
+            catch (IOException e) {
+                throw new RuntimeException(String.format("Could not read execution[%s] from %s.", id, location.segment.file), e);
+            }
+        }
+
+        if (data.length > 0 && data[0] == SUMMARY_FRAME) {
+            final int summaryLength = readInt(data, 1);
+            final int descriptorStart = 5 + summaryLength;
+            byte[] descriptor = new byte[data.length - descriptorStart];
+            System.arraycopy(data, descriptorStart, descriptor, 0, descriptor.length);
+
+            return ExecutionCodecs.decode(descriptor);
+        }
+
+        return ExecutionCodecs.decode(data);
+    }
+
+    /**
+     * Reads only the summary at the head of the record.  Unlike load(), this does not verify the record's checksum,
+     * since that would mean reading all of it.
+     */
+    @Override
+    public Map<String, Object> loadSummary(String id)
+    {
+        final byte[] summary;
+        synchronized (this) {
+            final Location location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+
+            try {
+                final RandomAccessFile raf = location.segment.handle();
+                raf.seek(location.offset + 4);
+                final int idLength = raf.readInt();
+                raf.seek(location.offset + HEADER_BYTES + idLength);
+
+                if (raf.readByte() != SUMMARY_FRAME) {
+                    return null;
+                }
+
+                final int summaryLength = raf.readInt();
+                if (summaryLength < 0 || HEADER_BYTES + idLength + 5 + summaryLength > location.length) {
+                    throw new IOException(String.format("Bad summary length[%s].", summaryLength));
+                }
+
+                summary = new byte[summaryLength];
+                raf.readFully(summary);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(String.format("Could not read summary of execution[%s] from %s.", id, location.segment.file), e);
+            }
+        }
+
+        return ExecutionCodecs.decode(summary);
+    }
+
+    @Override
+    public synchronized Collection<String> getIds()
+    {
+        return new ArrayList<String>(index.keySet());
+    }
+
+    @Override
+    public synchronized long getMaxId()
+    {
+        return maxId;
+    }
+
+    /**
+     * Copies the live records out of every sealed segment whose live fraction is under the compaction threshold
+     * and deletes those segments.
+     */
+    public synchronized void compact()
+    {
+        for (Segment segment : new ArrayList<Segment>(segments.values())) {
+            if (segment != active && segment.size > 0 && segment.liveBytes < segment.size * compactionThreshold) {
+                try {
+                    compact(segment);
+                }
+                catch (IOException e) {
+                    log.warn(String.format("Could not compact segment[%s], will retry later.", segment.file), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    public synchronized int getSegmentCount()
+    {
+        return segments.size();
+    }
+
+    public synchronized long getRecordsWritten()
+    {
+        return recordsWritten;
+    }
+
+    public synchronized long getRecordsCompacted()
+    {
+        return recordsCompacted;
+    }
+
+    public synchronized long getSegmentsCompacted()
+    {
+        return segmentsCompacted;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(
+                "SegmentedExecutionStore{dir=%s, codec=%s, executions=%s, segments=%s, written=%s, compactedRecords=%s, compactedSegments=%s}",
+                directory,
+                codec,
+                index.size(),
+                segments.size(),
+                recordsWritten,
+                recordsCompacted,
+                segmentsCompacted
+        );
+    }
+
+    /*
+     * Appends a record to the active segment.  Returns true if that sealed the active segment.
+     */
+    private boolean append(String id, byte[] record) throws IOException
+    {
+        final long offset = active.size;
+        final RandomAccessFile raf = active.handle();
+        raf.seek(offset);
+        raf.write(record);
+        if (sync) {
+            raf.getFD().sync();
+        }
+
+        active.size += record.length;
+        put(id, new Location(active, offset, record.length));
+        ++recordsWritten;
+
+        if (active.size >= maxSegmentBytes) {
+            seal(active);
+            active = openSegment(active.number + 1);
+            return true;
+        }
+
+        return false;
+    }
+
+    private void put(String id, Location location)
+    {
+        final Location old = index.put(id, location);
+        if (old != null) {
+            old.segment.liveBytes -= old.length;
+        }
+        location.segment.liveBytes += location.length;
+
+        try {
+            maxId = Math.max(maxId, Long.parseLong(id));
+        }
+        catch (NumberFormatException e) {
+        }
+    }
+
+    private void compact(Segment segment) throws IOException
+    {
+        List<Map.Entry<String, Location>> live = liveRecords(segment);
+        for (Map.Entry<String, Location> entry : live) {
+            final byte[] record = read(entry.getValue());
+            decode(entry.getValue(), record);
+            append(entry.getKey(), record);
+        }
+
+        // The copies must be durable before the only other copy goes away.
+        active.handle().getFD().sync();
+
+        segment.close();
+        segments.remove(segment.number);
+        segment.hintFile().delete();
+        if (! segment.file.delete()) {
+            log.warn(String.format("Could not delete compacted segment[%s].", segment.file));
+        }
+
+        recordsCompacted += live.size();
+        ++segmentsCompacted;
+        log.info(String.format("Compacted segment[%s], kept %s records.", segment.file, live.size()));
+    }
+
+    private List<Map.Entry<String, Location>> liveRecords(Segment segment)
+    {
+        List<Map.Entry<String, Location>> retVal = new ArrayList<Map.Entry<String, Location>>();
+        for (Map.Entry<String, Location> entry : index.entrySet()) {
+            if (entry.getValue().segment == segment) {
+                retVal.add(entry);
+            }
+        }
+
+        Collections.sort(retVal, new Comparator<Map.Entry<String, Location>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Location> o1, Map.Entry<String, Location> o2)
+            {
+                return Long.valueOf(o1.getValue().offset).compareTo(o2.getValue().offset);
+            }
+        });
+
+        return retVal;
+    }
+
+    /*
+     * Writes the hint file of a segment that will not be appended to anymore.
+     */
+    private void seal(Segment segment) throws IOException
+    {
+        segment.handle().getFD().sync();
+
+        final File tmp = new File(directory, segment.hintFile().getName() + ".tmp");
+        final FileOutputStream file = new FileOutputStream(tmp);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            for (Map.Entry<String, Location> entry : liveRecords(segment)) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        finally {
+            // Unlike closeQuietly, a failed close keeps the hint file from being renamed into place.
+            file.close();
+        }
+
+        if (! tmp.renameTo(segment.hintFile())) {
+            throw new IOException(String.format("Could not rename [%s] to [%s].", tmp, segment.hintFile()));
+        }
+
+        segment.close();
+    }
+
+    private Segment openSegment(long number)
+    {
+        final Segment segment = new Segment(number, new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX));
+        segments.put(number, segment);
+        return segment;
+    }
+
+    private void recover() throws IOException
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            files = new File[0];
+        }
+
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    long number = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                    openSegment(number).size = file.length();
+                }
+                catch (NumberFormatException e) {
+                }
+            }
+        }
+
+        for (Segment segment : segments.values()) {
+            if (segment.hintFile().exists()) {
+                readHints(segment);
+            }
+            else {
+                scan(segment, segment.number == segments.lastKey());
+            }
+        }
+    }
+
+    /*
+     * Indexes a sealed segment from its hint file, or by scanning the segment if the hint file is short or
+     * unreadable.
+     */
+    private void readHints(Segment segment) throws IOException
+    {
+        final Map<String, Location> hints = new HashMap<String, Location>();
+        FileInputStream file = null;
+        try {
+            file = new FileInputStream(segment.hintFile());
+            final ByteArrayInputStream bytes = new ByteArrayInputStream(IOUtils.toByteArray(file));
+            final DataInputStream in = new DataInputStream(bytes);
+            while (bytes.available() > 0) {
+                final String id = in.readUTF();
+                final long offset = in.readLong();
+                final int length = in.readInt();
+                if (offset < 0 || length < 0 || offset + length > segment.size) {
+                    throw new IOException(String.format("Hint of execution[%s] points past the end of the segment.", id));
+                }
+                hints.put(id, new Location(segment, offset, length));
+            }
+        }
+        catch (IOException e) {
+            log.warn(String.format("Hint file[%s] is corrupt, scanning segment[%s] instead.", segment.hintFile(), segment.file), e);
+            scan(segment, false);
+            return;
+        }
+        finally {
+            IOUtils.closeQuietly(file);
+        }
+
+        for (Map.Entry<String, Location> hint : hints.entrySet()) {
+            put(hint.getKey(), hint.getValue());
+        }
+    }
+
+    private void scan(Segment segment, boolean last) throws IOException
+    {
+        long offset = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment.file)));
+            while (offset < segment.size) {
+                final byte[] record = readRecord(in, segment.size - offset);
+                if (record == null) {
+                    break;
+                }
+
+                final Location location = new Location(segment, offset, record.length);
+                try {
+                    decode(location, record);
+                }
+                catch (IOException e) {
+                    break;
+                }
+
+                put(idOf(record), location);
+                offset += record.length;
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        if (offset < segment.size) {
+            if (last) {
+                log.warn(String.format("Truncating [%s] bytes of torn records from the end of segment[%s].", segment.size - offset, segment.file));
+                segment.handle().setLength(offset);
+                segment.size = offset;
+            }
+            else {
+                log.error(String.format("Segment[%s] is corrupt after offset[%s], the records after it are lost.", segment.file, offset));
+            }
+        }
+    }
+
+    /*
+     * Reads one whole record from the stream, or returns null if there is not a complete one left.
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException
+    {
+        if (remaining < HEADER_BYTES) {
+            return null;
+        }
+
+        byte[] header = new byte[HEADER_BYTES];
+        in.readFully(header);
+
+        DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(header));
+        final int magic = headerIn.readInt();
+        final int idLength = headerIn.readInt();
+        final int dataLength = headerIn.readInt();
+        if (magic != RECORD_MAGIC || idLength < 0 || dataLength < 0 || HEADER_BYTES + (long) idLength + dataLength > remaining) {
+            return null;
+        }
+
+        byte[] record = new byte[HEADER_BYTES + idLength + dataLength];
+        System.arraycopy(header, 0, record, 0, HEADER_BYTES);
+        in.readFully(record, HEADER_BYTES, idLength + dataLength);
+
+        return record;
+    }
+
+    private byte[] read(Location location) throws IOException
+    {
+        final byte[] record = new byte[location.length];
+        final RandomAccessFile raf = location.segment.handle();
+        raf.seek(location.offset);
+        raf.readFully(record);
+
+        return record;
+    }
+
+    /*
+     * Puts a summary ahead of an encoded execution.  Neither codec output starts with the frame byte, so records
+     * written without a summary are still told apart.
+     */
+    private static byte[] frame(byte[] summary, byte[] descriptor)
+    {
+        byte[] retVal = new byte[5 + summary.length + descriptor.length];
+        retVal[0] = SUMMARY_FRAME;
+        retVal[1] = (byte) (summary.length >>> 24);
+        retVal[2] = (byte) (summary.length >>> 16);
+        retVal[3] = (byte) (summary.length >>> 8);
+        retVal[4] = (byte) summary.length;
+        System.arraycopy(summary, 0, retVal, 5, summary.length);
+        System.arraycopy(descriptor, 0, retVal, 5 + summary.length, descriptor.length);
+
+        return retVal;
+    }
+
+    private static int readInt(byte[] bytes, int offset)
+    {
+        return ((bytes[offset] & 0xff) << 24) |
+               ((bytes[offset + 1] & 0xff) << 16) |
+               ((bytes[offset + 2] & 0xff) << 8) |
+               (bytes[offset + 3] & 0xff);
+    }
+
+    private static byte[] encode(String id, byte[] data)
+    {
+        try {
+            final byte[] idBytes = id.getBytes("UTF-8");
+
+            CRC32 crc = new CRC32();
+            crc.update(idBytes);
+            crc.update(data);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_BYTES + idBytes.length + data.length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(RECORD_MAGIC);
+            out.writeInt(idBytes.length);
+            out.writeInt(data.length);
+            out.writeInt((int) crc.getValue());
+            out.write(idBytes);
+            out.write(data);
+            out.flush();
+
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Verifies a record and returns its data.
+     */
+    private static byte[] decode(Location location, byte[] record) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        final int magic = in.readInt();
+        final int idLength = in.readInt();
+        final int dataLength = in.readInt();
+        final int checksum = in.readInt();
+
+        if (magic != RECORD_MAGIC || HEADER_BYTES + idLength + dataLength != record.length) {
+            throw new IOException(String.format("Bad record header at offset[%s] of %s.", location.offset, location.segment.file));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record, HEADER_BYTES, idLength + dataLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException(String.format("Checksum mismatch at offset[%s] of %s.", location.offset, location.segment.file));
+        }
+
+        byte[] data = new byte[dataLength];
+        System.arraycopy(record, HEADER_BYTES + idLength, data, 0, dataLength);
+
+        return data;
+    }
+
+    private static String idOf(byte[] record) throws IOException
+    {
+        final int idLength = new DataInputStream(new ByteArrayInputStream(record, 4, 4)).readInt();
+        return new String(record, HEADER_BYTES, idLength, "UTF-8");
+    }
+
+    private static class Location
+    {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        private Location(Segment segment, long offset, int length)
+        {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private class Segment
+    {
+        private final long number;
+        private final File file;
+        private long size = 0;
+        private long liveBytes = 0;
+        private RandomAccessFile handle;
+
+        private Segment(long number, File file)
+        {
+            this.number = number;
+            this.file = file;
+        }
+
+        private File hintFile()
+        {
+            return new File(directory, SEGMENT_PREFIX + number + HINT_SUFFIX);
+        }
+
+        private RandomAccessFile handle() throws IOException
+        {
+            if (handle == null) {
+                handle = new RandomAccessFile(file, "rw");
+            }
+            return handle;
+        }
+
+        private void close()
+        {
+            if (handle != null) {
+                try {
+                    handle.close();
+                }
+                catch (IOException e) {
+                    log.warn(String.format("Could not close segment[%s].", file), e);
+                }
+                handle = null;
+            }
+        }
+    }
+}
@@ -24,5 +24,20 @@ public enum Status {
     SUCCEEDED,
     FAILED,
     READY,
-    COMPLETED
+    COMPLETED;
+
+    /**
+     * @return true if a flow in this status is done and won't change again unless it is reset
+     */
+    public boolean isTerminal()
+    {
+        switch (this) {
+            case SUCCEEDED:
+            case FAILED:
+            case COMPLETED:
+                return true;
+            default:
+                return false;
+        }
+    }
 }
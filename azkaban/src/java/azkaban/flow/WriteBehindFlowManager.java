@@ -0,0 +1,305 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.flow;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import azkaban.common.utils.Props;
+
+/**
+ * A FlowManager that coalesces saves of running flows.
+ *
+ * saveExecutableFlow() only marks a running flow as dirty.  A background thread writes every dirty flow through
+ * to the base manager at most once per flush interval, so a burst of progress callbacks costs a single write.  Flows
+ * that have reached a terminal status are written immediately, as is everything still dirty on shutdown().
+ *
+ * Writes of a given flow id are serialized and each write serializes the flow as it is at that moment, so the last
+ * write always carries the newest state.
+ */
+public class WriteBehindFlowManager implements FlowManager
+{
+    private static final Logger log = Logger.getLogger(WriteBehindFlowManager.class);
+
+    private static final int NUM_LOCK_STRIPES = 32;
+
+    private final FlowManager baseManager;
+    private final long flushIntervalMs;
+    private final ConcurrentMap<String, ExecutableFlow> dirtyFlows;
+    private final Object[] writeLocks;
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong savesRequested = new AtomicLong(0);
+    private final AtomicLong writesPerformed = new AtomicLong(0);
+    private final AtomicLong flushCount = new AtomicLong(0);
+    private final AtomicLong totalFlushNanos = new AtomicLong(0);
+    private final AtomicLong maxFlushNanos = new AtomicLong(0);
+
+    public WriteBehindFlowManager(FlowManager baseManager, long flushIntervalMs)
+    {
+        this.baseManager = baseManager;
+        this.flushIntervalMs = flushIntervalMs;
+        this.dirtyFlows = new ConcurrentHashMap<String, ExecutableFlow>();
+
+        this.writeLocks = new Object[NUM_LOCK_STRIPES];
+        for (int i = 0; i < writeLocks.length; ++i) {
+            writeLocks[i] = new Object();
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread t = new Thread(r, "execution-flusher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }
+        );
+        this.flusher.scheduleWithFixedDelay(
+                new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            flush();
+                        }
+                        catch (RuntimeException e) {
+                            log.warn("Exception while flushing executions, will retry on next interval.", e);
+                        }
+                    }
+                },
+                flushIntervalMs,
+                flushIntervalMs,
+                TimeUnit.MILLISECONDS
+        );
+    }
+
+    @Override
+    public boolean hasFlow(String name)
+    {
+        return baseManager.hasFlow(name);
+    }
+
+    @Override
+    public Flow getFlow(String name)
+    {
+        return baseManager.getFlow(name);
+    }
+
+    @Override
+    public Collection<Flow> getFlows()
+    {
+        return baseManager.getFlows();
+    }
+
+    @Override
+    public Set<String> getRootFlowNames()
+    {
+        return baseManager.getRootFlowNames();
+    }
+
+    @Override
+    public Iterator<Flow> iterator()
+    {
+        return baseManager.iterator();
+    }
+
+    @Override
+    public ExecutableFlow createNewExecutableFlow(String name, Props overrideProps)
+    {
+        return baseManager.createNewExecutableFlow(name, overrideProps);
+    }
+
+    @Override
+    public long getNextId()
+    {
+        return baseManager.getNextId();
+    }
+
+    @Override
+    public long getCurrMaxId()
+    {
+        return baseManager.getCurrMaxId();
+    }
+
+    @Override
+    public ExecutableFlow saveExecutableFlow(ExecutableFlow flow)
+    {
+        savesRequested.incrementAndGet();
+
+        if (flow.getStatus().isTerminal()) {
+            dirtyFlows.remove(flow.getId());
+            write(flow);
+        }
+        else {
+            dirtyFlows.put(flow.getId(), flow);
+        }
+
+        return flow;
+    }
+
+    @Override
+    public ExecutableFlow loadExecutableFlow(long id)
+    {
+        final ExecutableFlow pending = dirtyFlows.get(String.valueOf(id));
+        if (pending != null) {
+            return pending;
+        }
+
+        return baseManager.loadExecutableFlow(id);
+    }
+
+    @Override
+    public ExecutionSummary loadExecutionSummary(long id)
+    {
+        final ExecutableFlow pending = dirtyFlows.get(String.valueOf(id));
+        if (pending != null) {
+            return ExecutionSummary.of(pending);
+        }
+
+        return baseManager.loadExecutionSummary(id);
+    }
+
+    @Override
+    public void reload()
+    {
+        baseManager.reload();
+    }
+
+    /**
+     * Writes every dirty flow through to the base manager.
+     */
+    public void flush()
+    {
+        if (dirtyFlows.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+
+        List<String> ids = new ArrayList<String>(dirtyFlows.keySet());
+        for (String id : ids) {
+            ExecutableFlow flow = dirtyFlows.remove(id);
+            if (flow != null) {
+                try {
+                    write(flow);
+                }
+                catch (RuntimeException e) {
+                    dirtyFlows.putIfAbsent(id, flow);
+                    log.warn(String.format("Failed to write execution[%s], will retry on next flush.", id), e);
+                }
+            }
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        flushCount.incrementAndGet();
+        totalFlushNanos.addAndGet(elapsed);
+        long max = maxFlushNanos.get();
+        while (elapsed > max && !maxFlushNanos.compareAndSet(max, elapsed)) {
+            max = maxFlushNanos.get();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(String.format("Flushed %s executions in %s ms. %s", ids.size(), elapsed / 1000000, this));
+        }
+    }
+
+    /**
+     * Stops the background flusher after writing everything that is still dirty.
+     */
+    public void shutdown()
+    {
+        flusher.shutdown();
+        flush();
+        log.info("Execution write-behind stopped. " + this);
+    }
+
+    public long getFlushIntervalMs()
+    {
+        return flushIntervalMs;
+    }
+
+    public long getSavesRequested()
+    {
+        return savesRequested.get();
+    }
+
+    public long getWritesPerformed()
+    {
+        return writesPerformed.get();
+    }
+
+    public long getWritesAvoided()
+    {
+        return Math.max(0, savesRequested.get() - writesPerformed.get() - dirtyFlows.size());
+    }
+
+    public long getFlushCount()
+    {
+        return flushCount.get();
+    }
+
+    public double getAverageFlushLatencyMs()
+    {
+        final long flushes = flushCount.get();
+        return flushes == 0 ? 0 : totalFlushNanos.get() / (flushes * 1000000.0);
+    }
+
+    public double getMaxFlushLatencyMs()
+    {
+        return maxFlushNanos.get() / 1000000.0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+                "WriteBehindFlowManager{saves=%s, writes=%s, avoided=%s, dirty=%s, flushes=%s, avgFlushMs=%.2f, maxFlushMs=%.2f}",
+                getSavesRequested(),
+                getWritesPerformed(),
+                getWritesAvoided(),
+                dirtyFlows.size(),
+                getFlushCount(),
+                getAverageFlushLatencyMs(),
+                getMaxFlushLatencyMs()
+        );
+    }
+
+    private void write(ExecutableFlow flow)
+    {
+        synchronized (writeLocks[(flow.getId().hashCode() & Integer.MAX_VALUE) % writeLocks.length]) {
+            baseManager.saveExecutableFlow(flow);
+        }
+        writesPerformed.incrementAndGet();
+    }
+}
@@ -28,6 +28,7 @@ public class StreamGobbler extends Thread {
 
     private final InputStream _inputStream;
     private final OutputStream _redirect;
+    private final byte[] _buffer = new byte[8 * 1024];
 
     private static final Logger log = Logger.getLogger(StreamGobbler.class.getName());
 
@@ -41,18 +42,11 @@ public class StreamGobbler extends Thread {
             BufferedInputStream bufReader = new BufferedInputStream(_inputStream);
             BufferedOutputStream bufWriter = new BufferedOutputStream(_redirect);
 
-            while(true) {
-
+            // Reads block until there is output, so there is no need to poll for it.
+            while(!Thread.currentThread().isInterrupted()) {
                 if(-1 == readAndWrite(bufReader, bufWriter)) {
                     break;
                 }
-
-                try {
-                    Thread.sleep(10);
-                } catch(InterruptedException e) {
-                    readAndWrite(bufReader, bufWriter);
-                    break;
-                }
             }
 
             // close the buffers
@@ -67,14 +61,13 @@ public class StreamGobbler extends Thread {
     }
 
     private int readAndWrite(InputStream bufReader, OutputStream bufWriter) throws IOException {
-        byte[] buffer = new byte[Math.max(1, bufReader.available())];
-        int read = bufReader.read(buffer);
+        int read = bufReader.read(_buffer);
 
         if(-1 == read) {
             return -1;
         }
 
-        bufWriter.write(buffer, 0, read);
+        bufWriter.write(_buffer, 0, read);
         bufWriter.flush();
 
         return read;
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps class data sharing archives for the JVMs forked by JavaProcessJobs, so
+ * that jobs with the same class path map the classes they load at startup in
+ * from an archive instead of loading them one by one.
+ * 
+ * An archive is named after a fingerprint of the java command, the JVM
+ * arguments and the class path, including the size and modification time of
+ * each entry, so a changed jar means a new archive. The first run with a
+ * fingerprint dumps the archive as its JVM exits (-XX:ArchiveClassesAtExit,
+ * which needs Java 13 or later), and later runs use it. Archives for the same
+ * class path with other fingerprints are deleted when a new one is dumped.
+ * 
+ * How long each JVM took to start, up to its first line of output, is kept
+ * per fingerprint, with and without the archive, to report the time saved.
+ */
+public class ClassDataArchives {
+
+    private static final Logger logger = Logger.getLogger(ClassDataArchives.class);
+
+    private static final String ARCHIVE_SUFFIX = ".jsa";
+    private static final String STATS_SUFFIX = ".stats";
+
+    private static final ConcurrentHashMap<String, ClassDataArchives> _byDirectory = new ConcurrentHashMap<String, ClassDataArchives>();
+
+    private final File _dir;
+    private final Set<String> _dumping = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Random _random = new Random();
+
+    /**
+     * How a JVM should use the archive of its fingerprint
+     */
+    public class Use {
+
+        private final String _fingerprint;
+        private final File _archive;
+        private final File _dump;
+
+        private Use(String fingerprint, File archive, File dump) {
+            _fingerprint = fingerprint;
+            _archive = archive;
+            _dump = dump;
+        }
+
+        /**
+         * @return The JVM arguments that map the archive in, or dump it
+         */
+        public String getJvmArguments() {
+            if(_dump != null)
+                return "-XX:ArchiveClassesAtExit=" + _dump.getPath();
+            return "-XX:SharedArchiveFile=" + _archive.getPath() + " -Xshare:auto";
+        }
+
+        public boolean isDumping() {
+            return _dump != null;
+        }
+
+        /**
+         * Called once the JVM has exited
+         * 
+         * @param succeeded Whether it exited normally, having dumped the
+         *        archive if it was to
+         * @param startupMs How long it took to write its first line of output,
+         *        or a negative number if that isn't known
+         * @return A line reporting the startup time, or null if there is
+         *         nothing to report
+         */
+        public String finished(boolean succeeded, long startupMs) {
+            if(_dump != null) {
+                _dumping.remove(_fingerprint);
+                if(succeeded && _dump.length() > 0 && _dump.renameTo(_archive))
+                    logger.info("Dumped class data archive " + _archive);
+                else
+                    _dump.delete();
+            }
+            if(startupMs < 0)
+                return null;
+            return recordStartup(_fingerprint, _dump == null, startupMs);
+        }
+    }
+
+    public ClassDataArchives(File dir) {
+        _dir = dir;
+    }
+
+    /**
+     * @return The archives kept in the given directory, shared by every job
+     *         that uses it
+     */
+    public static ClassDataArchives forDirectory(File dir) {
+        String key = dir.getAbsolutePath();
+        ClassDataArchives archives = _byDirectory.get(key);
+        if(archives == null) {
+            _byDirectory.putIfAbsent(key, new ClassDataArchives(dir));
+            archives = _byDirectory.get(key);
+        }
+        return archives;
+    }
+
+    /**
+     * Decide how a JVM is to use the archive of its fingerprint: map in the
+     * archive if there is one, otherwise dump it, unless another JVM already
+     * is
+     * 
+     * @param javaCommand The java command
+     * @param jvmArguments The other JVM arguments
+     * @param classPath The class path entries, as absolute paths
+     * @return How to use the archive, or null if the JVM should do without
+     */
+    public Use prepare(String javaCommand, String jvmArguments, List<String> classPath) {
+        _dir.mkdirs();
+        String pathsHash = hash(javaCommand + "\n" + jvmArguments + "\n" + classPath);
+        StringBuilder stats = new StringBuilder();
+        for(String path: classPath) {
+            File entry = new File(path);
+            stats.append(path).append(' ').append(entry.length()).append(' ').append(entry.lastModified()).append('\n');
+        }
+        String fingerprint = pathsHash.substring(0, 16) + "-" + hash(stats.toString()).substring(0, 16);
+
+        File archive = new File(_dir, fingerprint + ARCHIVE_SUFFIX);
+        if(archive.exists())
+            return new Use(fingerprint, archive, null);
+
+        if(!_dumping.add(fingerprint))
+            return null;
+        deleteStale(pathsHash.substring(0, 16), fingerprint);
+        File dump = new File(_dir, fingerprint + "." + Long.toHexString(_random.nextLong()) + ".dumping");
+        return new Use(fingerprint, archive, dump);
+    }
+
+    /*
+     * The archives dumped for the same class path before one of its entries
+     * changed.
+     */
+    private void deleteStale(String pathsHash, String fingerprint) {
+        File[] files = _dir.listFiles();
+        if(files == null)
+            return;
+        for(File file: files) {
+            String name = file.getName();
+            if(name.startsWith(pathsHash + "-") && !name.startsWith(fingerprint)
+               && (name.endsWith(ARCHIVE_SUFFIX) || name.endsWith(STATS_SUFFIX))) {
+                logger.info("Deleting class data archive for a changed class path: " + file);
+                file.delete();
+            }
+        }
+    }
+
+    private synchronized String recordStartup(String fingerprint, boolean shared, long startupMs) {
+        File file = new File(_dir, fingerprint + STATS_SUFFIX);
+        Properties stats = new Properties();
+        try {
+            if(file.exists()) {
+                InputStream in = new FileInputStream(file);
+                try {
+                    stats.load(in);
+                } finally {
+                    in.close();
+                }
+            }
+
+            String prefix = shared ? "shared." : "unshared.";
+            long count = Long.parseLong(stats.getProperty(prefix + "count", "0")) + 1;
+            long total = Long.parseLong(stats.getProperty(prefix + "total.ms", "0")) + startupMs;
+            stats.setProperty(prefix + "count", Long.toString(count));
+            stats.setProperty(prefix + "total.ms", Long.toString(total));
+
+            OutputStream out = new FileOutputStream(file);
+            try {
+                stats.store(out, "JVM startup times of " + fingerprint);
+            } finally {
+                out.close();
+            }
+        } catch(IOException e) {
+            logger.warn("Could not record the startup time in " + file, e);
+        } catch(NumberFormatException e) {
+            logger.warn("Starting over the unreadable startup times in " + file);
+            file.delete();
+            stats = new Properties();
+        }
+
+        long unsharedCount = Long.parseLong(stats.getProperty("unshared.count", "0"));
+        if(!shared || unsharedCount == 0)
+            return "JVM started in " + startupMs + " ms without a class data archive.";
+        long unsharedMs = Long.parseLong(stats.getProperty("unshared.total.ms", "0")) / unsharedCount;
+        return "JVM started in " + startupMs + " ms with a class data archive, against " + unsharedMs
+               + " ms on average without, saving " + (unsharedMs - startupMs) + " ms.";
+    }
+
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for(byte b: digest)
+                hex.append(String.format("%02x", b & 0xff));
+            return hex.toString();
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -22,16 +22,19 @@ import azkaban.common.jobs.Job;
 import azkaban.common.utils.Props;
 import azkaban.common.utils.Utils;
 import azkaban.flow.ExecutableFlow;
+import azkaban.flow.ExecutionIdAllocator;
+import azkaban.flow.ExecutionStore;
 import azkaban.flow.Flow;
 import azkaban.flow.FlowCallback;
 import azkaban.flow.FlowManager;
 import azkaban.flow.JobManagerFlowDeserializer;
+import azkaban.flow.JsonExecutionStore;
 import azkaban.flow.RefreshableFlowManager;
 import azkaban.flow.Status;
 import azkaban.jobcontrol.impl.jobs.locks.NamedPermitManager;
 import azkaban.jobcontrol.impl.jobs.locks.ReadWriteLockManager;
-import azkaban.serialization.DefaultExecutableFlowSerializer;
 import azkaban.serialization.ExecutableFlowSerializer;
+import azkaban.serialization.StreamingExecutableFlowSerializer;
 import azkaban.serialization.de.ExecutableFlowDeserializer;
 import azkaban.serialization.de.JobFlowDeserializer;
 import com.google.common.base.Function;
@@ -118,18 +121,14 @@ public class CommandLineJobRunner {
             executionsStorageFile.mkdirs();
         }
 
-        long lastId = 0;
-        for(File file: executionsStorageFile.listFiles()) {
-            final String filename = file.getName();
-            if(filename.endsWith(".json")) {
-                try {
-                    lastId = Math.max(lastId,
-                                      Long.parseLong(filename.substring(0, filename.length() - 5)));
-                } catch(NumberFormatException e) {}
-            }
-        }
+        ExecutionStore executionStore = new JsonExecutionStore(executionsStorageFile);
+        File idMarkFile = new File(executionsStorageFile, "execution.id");
+        ExecutionIdAllocator executionIds = new ExecutionIdAllocator(idMarkFile,
+                                                                     100,
+                                                                     idMarkFile.exists() ? 0
+                                                                                         : executionStore.getMaxId());
 
-        final ExecutableFlowSerializer flowSerializer = new DefaultExecutableFlowSerializer();
+        final ExecutableFlowSerializer flowSerializer = new StreamingExecutableFlowSerializer();
         final ExecutableFlowDeserializer flowDeserializer = new ExecutableFlowDeserializer(
                 new JobFlowDeserializer(
                         ImmutableMap.<String, Function<Map<String, Object>, ExecutableFlow>>of(
@@ -140,8 +139,10 @@ public class CommandLineJobRunner {
                                                           factory,
                                                           flowSerializer,
                                                           flowDeserializer,
-                                                          executionsStorageFile,
-                                                          lastId);
+                                                          executionStore,
+                                                          executionIds,
+                                                          null,
+                                                          null);
         jobManager.setFlowManager(allFlows);
 
         final CountDownLatch countDown = new CountDownLatch(jobNames.size());
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import azkaban.app.JobDescriptor;
+import azkaban.common.utils.Props;
+
+/**
+ * A java job run inside Azkaban, for trusted jobs too small to be worth
+ * starting a JVM for. The class is run as JavaJobRunnerMain would run it, on
+ * the thread executing the job, but loaded by a class loader of its own over
+ * the job's class path.
+ * 
+ * That loader looks in the job's class path before asking its parent, so the
+ * job's classes, and their statics, are new on every run even though the
+ * job's jars are also on the class path of the job descriptor. Only the
+ * classes of the JDK, log4j and azkaban.common, Props among them, are shared
+ * with Azkaban.
+ * 
+ * Cancelling the job calls its cancel method and then interrupts it, and so
+ * does running past java.inprocess.timeout.ms. A job that ignores both keeps
+ * its thread. The job shares Azkaban's JVM, so what it writes to System.out
+ * goes to Azkaban's output rather than the job's log, and system properties
+ * it sets are set for everything.
+ */
+public class InProcessJavaJob extends JavaJob {
+
+    public static final String TIMEOUT_MS = "java.inprocess.timeout.ms";
+    public static final long DEFAULT_TIMEOUT_MS = 60 * 60 * 1000;
+
+    private static final ScheduledExecutorService _timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "java-inprocess-timeout");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final Object _lock = new Object();
+    private Thread _thread;
+    private Object _javaObject;
+    private volatile boolean _cancelled;
+    private volatile boolean _timedOut;
+
+    public InProcessJavaJob(JobDescriptor descriptor) {
+        super(descriptor);
+    }
+
+    @Override
+    public void run(Props inputGeneratedProperties) {
+        resolveProps(inputGeneratedProperties);
+
+        Props props = new Props(getProps(), inputGeneratedProperties);
+        Properties properties = new Properties();
+        for(String key: props.keySet())
+            properties.setProperty(key, props.get(key));
+        String className = properties.getProperty(JavaJobRunnerMain.JOB_CLASS);
+        if(className == null)
+            throw new IllegalArgumentException("Class name is not set.");
+
+        ClassLoader parent = getJobDescriptor().getClassLoader() != null ? getJobDescriptor().getClassLoader()
+                                                                          : InProcessJavaJob.class.getClassLoader();
+        URLClassLoader loader = new ChildFirstClassLoader(getClassPathUrls(), parent);
+
+        final long timeoutMs = getProps().getLong(TIMEOUT_MS, DEFAULT_TIMEOUT_MS);
+        Thread thread = Thread.currentThread();
+        ClassLoader previousLoader = thread.getContextClassLoader();
+        synchronized(_lock) {
+            _thread = thread;
+        }
+        ScheduledFuture<?> timeout = null;
+        if(timeoutMs > 0) {
+            timeout = _timeouts.schedule(new Runnable() {
+
+                public void run() {
+                    _timedOut = true;
+                    warn("The job has run for more than " + timeoutMs + " ms; cancelling it.");
+                    cancelJob();
+                }
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        try {
+            thread.setContextClassLoader(loader);
+            info("Running " + className + " in process");
+            Object javaObject = JavaJobRunnerMain.getObject(getJobName(), className, properties, loader);
+            if(javaObject == null)
+                throw new IllegalArgumentException("Could not create running object of " + className);
+            synchronized(_lock) {
+                _javaObject = javaObject;
+            }
+
+            String runMethod = properties.getProperty(JavaJobRunnerMain.RUN_METHOD_PARAM,
+                                                      JavaJobRunnerMain.DEFAULT_RUN_METHOD);
+            info("Invoking method " + runMethod);
+            javaObject.getClass()
+                      .getMethod(runMethod, new Class<?>[] { Props.class })
+                      .invoke(javaObject, new Object[] { new Props(null) });
+            checkStopped(null);
+
+            setJobGeneratedProperties((Props) javaObject.getClass()
+                                                        .getMethod(JavaJobRunnerMain.GET_GENERATED_PROPERTIES_METHOD,
+                                                                   new Class<?>[] {})
+                                                        .invoke(javaObject, new Object[] {}));
+        } catch(InvocationTargetException e) {
+            checkStopped(e.getCause());
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        } catch(RuntimeException e) {
+            throw e;
+        } catch(Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            if(timeout != null)
+                timeout.cancel(false);
+            synchronized(_lock) {
+                _thread = null;
+                _javaObject = null;
+                // Don't leave an interrupt meant for the job to whatever runs on this thread next.
+                Thread.interrupted();
+            }
+            thread.setContextClassLoader(previousLoader);
+            setComplete();
+        }
+    }
+
+    @Override
+    public void cancel() throws Exception {
+        _cancelled = true;
+        cancelJob();
+    }
+
+    private void cancelJob() {
+        Object javaObject;
+        synchronized(_lock) {
+            if(_thread == null)
+                return;
+            javaObject = _javaObject;
+        }
+
+        if(javaObject != null) {
+            String cancelMethod = getProps().getString(JavaJobRunnerMain.CANCEL_METHOD_PARAM,
+                                                       JavaJobRunnerMain.DEFAULT_CANCEL_METHOD);
+            try {
+                Method method = javaObject.getClass().getMethod(cancelMethod);
+                method.invoke(javaObject);
+            } catch(NoSuchMethodException e) {
+                info("Job has no " + cancelMethod + " method, interrupting it.");
+            } catch(Exception e) {
+                error("Cancel method failed! ", e);
+            }
+        }
+
+        synchronized(_lock) {
+            if(_thread != null)
+                _thread.interrupt();
+        }
+    }
+
+    /*
+     * A job that was stopped fails as having been stopped, whatever it threw.
+     */
+    private void checkStopped(Throwable cause) {
+        if(_timedOut)
+            throw new RuntimeException("Job timed out after " + getProps().getLong(TIMEOUT_MS, DEFAULT_TIMEOUT_MS)
+                                       + " ms.", cause);
+        if(_cancelled)
+            throw new RuntimeException("Job was cancelled.", cause);
+    }
+
+    private URL[] getClassPathUrls() {
+        File cwd = new File(getWorkingDirectory());
+        List<String> classPath = getClassPaths();
+        URL[] urls = new URL[classPath.size()];
+        for(int i = 0; i < urls.length; i++) {
+            File file = new File(classPath.get(i));
+            if(!file.isAbsolute())
+                file = new File(cwd, classPath.get(i));
+            try {
+                urls[i] = file.toURI().toURL();
+            } catch(MalformedURLException e) {
+                throw new IllegalArgumentException("Bad class path entry " + file, e);
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Loads classes from its own URLs before asking its parent, except for the
+     * classes that have to be the same on both sides of the job
+     */
+    private static class ChildFirstClassLoader extends URLClassLoader {
+
+        private static final String[] SHARED_PREFIXES = { "java.", "javax.", "sun.", "org.w3c.", "org.xml.",
+                "org.apache.log4j.", "azkaban.common." };
+
+        ChildFirstClassLoader(URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            Class<?> loaded = findLoadedClass(name);
+            if(loaded == null && !isShared(name)) {
+                try {
+                    loaded = findClass(name);
+                } catch(ClassNotFoundException e) {
+                    // Not the job's own, so it comes from the parent.
+                }
+            }
+            if(loaded == null)
+                return super.loadClass(name, resolve);
+            if(resolve)
+                resolveClass(loaded);
+            return loaded;
+        }
+
+        private static boolean isShared(String name) {
+            for(String prefix: SHARED_PREFIXES) {
+                if(name.startsWith(prefix))
+                    return true;
+            }
+            return false;
+        }
+    }
+}
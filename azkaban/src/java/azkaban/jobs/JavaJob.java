@@ -17,10 +17,23 @@
 package azkaban.jobs;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
 
+import org.apache.log4j.Logger;
+
 import azkaban.app.JobDescriptor;
+import azkaban.common.utils.Props;
+
+/**
+ * A job that runs a java class in a JVM of its own, or with java.worker.pool
+ * set, in a warm JVM of the JavaWorkerPool. A pooled JVM is retired after
+ * java.worker.max.jobs jobs, or once a job leaves it using more than
+ * java.worker.max.heap.ratio of its heap.
+ */
 public class JavaJob extends JavaProcessJob {
 
 	public static final String RUN_METHOD_PARAM = "method.run";
@@ -32,6 +45,12 @@ public class JavaJob extends JavaProcessJob {
 	public static final String DEFAULT_RUN_METHOD = "run";
 	public static final String DEFAULT_PROGRESS_METHOD = "getProgress";
 
+	public static final String WORKER_POOL = "java.worker.pool";
+	public static final String WORKER_MAX_JOBS = "java.worker.max.jobs";
+	public static final String WORKER_MAX_HEAP_RATIO = "java.worker.max.heap.ratio";
+	public static final int DEFAULT_WORKER_MAX_JOBS = 20;
+	public static final double DEFAULT_WORKER_MAX_HEAP_RATIO = 0.8;
+
 	private String _runMethod;
 	private String _cancelMethod;
 	private String _progressMethod;
@@ -39,10 +58,96 @@ public class JavaJob extends JavaProcessJob {
 	private Object _javaObject = null;
 	private JobDescriptor _descriptor;
 
+	private volatile JavaWorkerPool.Worker _worker;
+
 	public JavaJob(JobDescriptor descriptor) {
 		super(descriptor);
 	}
 
+	@Override
+	public void run(Props inputGeneratedProperties) {
+	    if (!getProps().getBoolean(WORKER_POOL, false)) {
+	        super.run(inputGeneratedProperties);
+	        return;
+	    }
+
+	    resolveProps(inputGeneratedProperties);
+	    File cwd = new File(getWorkingDirectory());
+	    JavaWorkerPool pool = JavaWorkerPool.getShared();
+	    JavaWorkerPool.Worker worker;
+	    try {
+	        worker = pool.acquire(getWorkerCommand(), cwd, getEnvironmentVariables());
+	    } catch (IOException e) {
+	        throw new RuntimeException("Could not start a java worker", e);
+	    }
+	    info("Running in " + worker);
+
+	    List<String> classPath = new ArrayList<String>();
+	    for (String path : getClassPaths()) {
+	        File file = new File(path);
+	        classPath.add(file.isAbsolute() ? path : new File(cwd, path).getPath());
+	    }
+
+	    _worker = worker;
+	    try {
+	        setJobGeneratedProperties(worker.run(getJobName(),
+	                                             classPath,
+	                                             new Props(getProps(), inputGeneratedProperties),
+	                                             getLogSink()));
+	    } finally {
+	        _worker = null;
+	        setComplete();
+	        pool.release(worker,
+	                     getProps().getInt(WORKER_MAX_JOBS, DEFAULT_WORKER_MAX_JOBS),
+	                     getProps().getDouble(WORKER_MAX_HEAP_RATIO, DEFAULT_WORKER_MAX_HEAP_RATIO));
+	    }
+	}
+
+	@Override
+	public void cancel() throws Exception {
+	    JavaWorkerPool.Worker worker = _worker;
+	    if (worker == null) {
+	        super.cancel();
+	        return;
+	    }
+
+	    warn("Attempting to cancel the job in " + worker);
+	    worker.cancel();
+	    synchronized (this) {
+	        wait(CLEAN_UP_TIME_MS);
+	    }
+	    if (worker.isRunning()) {
+	        warn("Force kill the worker");
+	        worker.destroy();
+	    }
+	}
+
+	/**
+	 * The command line of a pooled JVM, which has only what the worker needs
+	 * on its class path, the job's own class path being given with each job.
+	 */
+	protected List<String> getWorkerCommand() {
+	    List<String> command = new ArrayList<String>();
+	    command.add(JAVA_COMMAND);
+	    String jvmArguments = getJVMArguments().trim();
+	    if (jvmArguments.length() > 0) {
+	        command.addAll(Arrays.asList(partitionCommandLine(jvmArguments)));
+	    }
+	    command.add("-Xms" + getInitialMemorySize());
+	    command.add("-Xmx" + getMaxMemorySize());
+
+	    List<String> classPath = new ArrayList<String>();
+	    for (Class<?> c : new Class<?>[] { JavaJobWorkerMain.class, Props.class, Logger.class }) {
+	        String path = getSourcePathFromClass(c);
+	        if (!classPath.contains(path)) {
+	            classPath.add(path);
+	        }
+	    }
+	    command.add("-cp");
+	    command.add(createArguments(classPath, ":"));
+	    return command;
+	}
+
 	@Override
     protected List<String> getClassPaths() {
         List<String> classPath = super.getClassPaths();
@@ -65,11 +170,11 @@ public class JavaJob extends JavaProcessJob {
         return classPath;
 	}
 
-	private static String getSourcePathFromClass(Class containedClass) {
+	static String getSourcePathFromClass(Class<?> containedClass) {
 	    File file = new File(containedClass.getProtectionDomain().getCodeSource().getLocation().getPath());
 	    
         if (!file.isDirectory() && file.getName().endsWith(".class")) {
-            String name = JavaJobRunnerMain.class.getName();
+            String name = containedClass.getName();
             StringTokenizer tokenizer = new StringTokenizer(name, ".");
             while(tokenizer.hasMoreTokens()) {
                 tokenizer.nextElement();
@@ -80,7 +185,7 @@ public class JavaJob extends JavaProcessJob {
             return file.getPath();  
         }
         else {
-            return JavaJobRunnerMain.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+            return containedClass.getProtectionDomain().getCodeSource().getLocation().getPath();
         }
 	}
 	
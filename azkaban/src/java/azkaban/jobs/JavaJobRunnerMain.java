@@ -150,13 +150,18 @@ public class JavaJobRunnerMain {
 
     private static Object getObject(String jobName, String className, Properties properties) // Properties outputProperties)
             throws Exception {
-        Class<?> runningClass = JavaJobRunnerMain.class.getClassLoader().loadClass(className);
+        return getObject(jobName, className, properties, JavaJobRunnerMain.class.getClassLoader());
+    }
+
+    static Object getObject(String jobName, String className, Properties properties, ClassLoader loader)
+            throws Exception {
+        Class<?> runningClass = loader.loadClass(className);
 
         if(runningClass == null) {
             throw new Exception("Class " + className + " was not found. Cannot run job.");
         }
 
-        Class<?> propsClass = JavaJobRunnerMain.class.getClassLoader().loadClass(PROPS_CLASS);
+        Class<?> propsClass = loader.loadClass(PROPS_CLASS);
 
         Object obj = null;
         if(propsClass != null && getConstructor(runningClass, String.class, propsClass) != null) {
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+
+import azkaban.common.utils.Props;
+
+/**
+ * The main class of a pooled JVM that runs JavaJobs one after another, as
+ * JavaJobRunnerMain runs one. See JavaWorkerPool.
+ * 
+ * The worker connects back to the pool on the port it is given and with the
+ * token it reads from stdin, then runs each job it is sent in a class loader
+ * of its own over the job's class path, so nothing the job loads is seen by
+ * the next one. The job's output goes to the worker's stdout and stderr, and
+ * each job ends with an END_OF_JOB line on both, so the pool knows when it has
+ * all of it. The worker exits once the pool closes the connection.
+ */
+public class JavaJobWorkerMain {
+
+    static final int RUN = 1;
+    static final int CANCEL = 2;
+
+    static final int SUCCEEDED = 0;
+    static final int FAILED = 1;
+
+    static final String END_OF_JOB = "azkaban-worker-end-of-job";
+
+    private static final Layout DEFAULT_LAYOUT = new PatternLayout("%p %m\n");
+
+    private final Logger _logger;
+    private final DataInputStream _in;
+    private final DataOutputStream _out;
+
+    private volatile Object _javaObject;
+    private volatile String _cancelMethod;
+
+    public static void main(String[] args) throws Exception {
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(args[0]));
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(new BufferedReader(new InputStreamReader(System.in, "UTF-8")).readLine());
+        out.flush();
+
+        new JavaJobWorkerMain(new DataInputStream(socket.getInputStream()), out).serve();
+        System.exit(0);
+    }
+
+    JavaJobWorkerMain(DataInputStream in, DataOutputStream out) {
+        _in = in;
+        _out = out;
+        _logger = Logger.getRootLogger();
+        _logger.removeAllAppenders();
+        ConsoleAppender appender = new ConsoleAppender(DEFAULT_LAYOUT);
+        appender.activateOptions();
+        _logger.addAppender(appender);
+    }
+
+    /*
+     * Read requests until the pool goes away. Jobs run on a thread of their
+     * own so that a cancel can be read while one is running.
+     */
+    void serve() throws IOException {
+        while(true) {
+            int command;
+            try {
+                command = _in.readByte();
+            } catch(EOFException e) {
+                return;
+            }
+
+            if(command == RUN) {
+                final String jobName = _in.readUTF();
+                final String[] classPath = new String[_in.readInt()];
+                for(int i = 0; i < classPath.length; i++)
+                    classPath[i] = _in.readUTF();
+                final byte[] properties = new byte[_in.readInt()];
+                _in.readFully(properties);
+
+                new Thread(jobName) {
+
+                    @Override
+                    public void run() {
+                        runJob(jobName, classPath, properties);
+                    }
+                }.start();
+            } else if(command == CANCEL) {
+                cancelJob();
+            } else {
+                throw new IOException("Unknown command " + command);
+            }
+        }
+    }
+
+    private void runJob(String jobName, String[] classPath, byte[] propertyBytes) {
+        int status = SUCCEEDED;
+        byte[] result;
+        try {
+            URL[] urls = new URL[classPath.length];
+            for(int i = 0; i < classPath.length; i++)
+                urls[i] = new File(classPath[i]).toURI().toURL();
+            URLClassLoader loader = new URLClassLoader(urls, JavaJobWorkerMain.class.getClassLoader());
+            Thread.currentThread().setContextClassLoader(loader);
+
+            Properties prop = new Properties();
+            prop.load(new ByteArrayInputStream(propertyBytes));
+
+            _logger.info("Running job " + jobName + " in a pooled JVM");
+            String className = prop.getProperty(JavaJobRunnerMain.JOB_CLASS);
+            if(className == null)
+                throw new Exception("Class name is not set.");
+            _logger.info("Class name " + className);
+
+            Object javaObject = JavaJobRunnerMain.getObject(jobName, className, prop, loader);
+            if(javaObject == null)
+                throw new Exception("Could not create running object");
+            _cancelMethod = prop.getProperty(JavaJobRunnerMain.CANCEL_METHOD_PARAM,
+                                             JavaJobRunnerMain.DEFAULT_CANCEL_METHOD);
+            _javaObject = javaObject;
+
+            String runMethod = prop.getProperty(JavaJobRunnerMain.RUN_METHOD_PARAM,
+                                                JavaJobRunnerMain.DEFAULT_RUN_METHOD);
+            _logger.info("Invoking method " + runMethod);
+            javaObject.getClass()
+                      .getMethod(runMethod, new Class<?>[] { Props.class })
+                      .invoke(javaObject, new Object[] { new Props(null) });
+
+            Props generated = (Props) javaObject.getClass()
+                                                .getMethod(JavaJobRunnerMain.GET_GENERATED_PROPERTIES_METHOD,
+                                                           new Class<?>[] {})
+                                                .invoke(javaObject, new Object[] {});
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if(generated != null)
+                generated.storeFlattened(bytes);
+            result = bytes.toByteArray();
+        } catch(Throwable t) {
+            if(t instanceof InvocationTargetException && t.getCause() != null)
+                t = t.getCause();
+            t.printStackTrace();
+            status = FAILED;
+            StringWriter trace = new StringWriter();
+            t.printStackTrace(new PrintWriter(trace));
+            try {
+                result = trace.toString().getBytes("UTF-8");
+            } catch(IOException e) {
+                result = new byte[0];
+            }
+        } finally {
+            _javaObject = null;
+            Thread.currentThread().setContextClassLoader(null);
+        }
+
+        System.out.println();
+        System.out.println(END_OF_JOB);
+        System.out.flush();
+        System.err.println();
+        System.err.println(END_OF_JOB);
+        System.err.flush();
+
+        Runtime runtime = Runtime.getRuntime();
+        try {
+            synchronized(_out) {
+                _out.writeByte(status);
+                _out.writeInt(result.length);
+                _out.write(result);
+                _out.writeLong(runtime.totalMemory() - runtime.freeMemory());
+                _out.writeLong(runtime.maxMemory());
+                _out.flush();
+            }
+        } catch(IOException e) {
+            // The pool has gone away, so there is no one left to tell.
+            System.exit(1);
+        }
+    }
+
+    private void cancelJob() {
+        Object javaObject = _javaObject;
+        if(javaObject == null)
+            return;
+
+        _logger.info("Attempting to call cancel on this job");
+        try {
+            Method method = javaObject.getClass().getMethod(_cancelMethod);
+            method.invoke(javaObject);
+        } catch(Exception e) {
+            _logger.error("Cancel method failed! ", e);
+        }
+    }
+}
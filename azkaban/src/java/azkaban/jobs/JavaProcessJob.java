@@ -21,7 +21,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import azkaban.app.JobDescriptor;
+import azkaban.common.utils.Props;
 
+/**
+ * A job that runs the main method of a java class in a JVM of its own. With
+ * java.cds.enabled set, the JVMs of jobs with the same class path share a
+ * class data archive kept in java.cds.dir (see ClassDataArchives).
+ */
 public class JavaProcessJob extends ProcessJob {
 	public static final String CLASSPATH = "classpath";
 	public static final String JAVA_CLASS = "java.class";
@@ -29,16 +35,38 @@ public class JavaProcessJob extends ProcessJob {
 	public static final String MAX_MEMORY_SIZE = "Xmx";
 	public static final String MAIN_ARGS = "main.args";
 	public static final String JVM_PARAMS = "jvm.args";
+	public static final String CDS_ENABLED = "java.cds.enabled";
+	public static final String CDS_DIR = "java.cds.dir";
 
 	public static final String DEFAULT_INITIAL_MEMORY_SIZE = "64M";
 	public static final String DEFAULT_MAX_MEMORY_SIZE = "256M";
 
 	public static String JAVA_COMMAND = "java";
 
+	private volatile ClassDataArchives.Use _classDataArchive;
+
 	public JavaProcessJob(JobDescriptor descriptor) {
 		super(descriptor);
 	}
 
+	@Override
+	public void run(Props inputGeneratedProperties) {
+		boolean succeeded = false;
+		try {
+			super.run(inputGeneratedProperties);
+			succeeded = true;
+		} finally {
+			ClassDataArchives.Use archive = _classDataArchive;
+			if (archive != null) {
+				_classDataArchive = null;
+				String report = archive.finished(succeeded, getStartupMillis());
+				if (report != null) {
+					info(report);
+				}
+			}
+		}
+	}
+
 	@Override
 	protected List<String> getCommandList() {
 		ArrayList<String> list = new ArrayList<String>();
@@ -51,13 +79,44 @@ public class JavaProcessJob extends ProcessJob {
 		command += getJVMArguments() + " ";
 		command += "-Xms" + getInitialMemorySize() + " ";
 		command += "-Xmx" + getMaxMemorySize() + " ";
-		command += "-cp " + createArguments(getClassPaths(), ":") + " ";
+		List<String> classPaths = getClassPaths();
+		ClassDataArchives.Use archive = prepareClassDataArchive(classPaths);
+		if (archive != null) {
+			command += archive.getJvmArguments() + " ";
+		}
+		command += "-cp " + createArguments(classPaths, ":") + " ";
 		command += getJavaClass() + " ";
 		command += createArguments(getMainArguments(), " ");
 
 		return command;
 	}
 
+	/**
+	 * Decide whether the JVM maps in the class data archive of its class path,
+	 * dumps it, or does without.
+	 */
+	protected ClassDataArchives.Use prepareClassDataArchive(List<String> classPaths) {
+		if (!getProps().getBoolean(CDS_ENABLED, false)) {
+			return null;
+		}
+
+		File cwd = new File(getWorkingDirectory());
+		List<String> classPath = new ArrayList<String>();
+		for (String path : classPaths) {
+			File file = new File(path);
+			classPath.add(file.isAbsolute() ? path : new File(cwd, path).getAbsolutePath());
+		}
+
+		File dir = new File(getProps().getString(CDS_DIR, System.getProperty("java.io.tmpdir") + "/azkaban-cds"));
+		_classDataArchive = ClassDataArchives.forDirectory(dir).prepare(JAVA_COMMAND,
+				getJVMArguments() + " -Xms" + getInitialMemorySize() + " -Xmx" + getMaxMemorySize(),
+				classPath);
+		if (_classDataArchive != null && _classDataArchive.isDumping()) {
+			info("Dumping a class data archive for this class path as the JVM exits.");
+		}
+		return _classDataArchive;
+	}
+
 	protected String getJavaClass() {
 		return getProps().getString(JAVA_CLASS);
 	}
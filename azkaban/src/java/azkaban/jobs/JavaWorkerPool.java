@@ -0,0 +1,528 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+import azkaban.common.utils.Props;
+
+/**
+ * Keeps JVMs running JavaJobWorkerMain warm between JavaJobs, so that a small
+ * job doesn't spend most of its time starting a JVM and loading classes.
+ * 
+ * Workers are kept by signature: the java command line they were started
+ * with, their working directory and their environment. A job is run by an
+ * idle worker of its signature, or by a new one, and the worker goes back to
+ * the pool afterwards unless it has run its maximum number of jobs, is using
+ * more than its share of its heap, or failed. A worker that is retired is
+ * replaced in the background so the next job still finds a warm one. Workers
+ * idle for longer than the idle timeout are stopped.
+ * 
+ * Jobs in a worker share the JVM, so system properties they set and threads
+ * they leave running outlive them; such jobs should keep forking their own.
+ */
+public class JavaWorkerPool {
+
+    public static final String MAX_IDLE_PROPERTY = "azkaban.java.worker.max.idle";
+    public static final String IDLE_TIMEOUT_PROPERTY = "azkaban.java.worker.idle.ms";
+
+    private static final Logger logger = Logger.getLogger(JavaWorkerPool.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 60 * 1000;
+    private static final long END_OF_OUTPUT_WAIT_MS = 1000;
+    private static final long REAP_INTERVAL_MS = 30 * 1000;
+
+    private static JavaWorkerPool _shared;
+
+    private final int _maxIdle;
+    private final long _idleTimeoutMs;
+    private final Map<String, LinkedList<Worker>> _idle = new HashMap<String, LinkedList<Worker>>();
+    private final ScheduledExecutorService _executor;
+    private final SecureRandom _random = new SecureRandom();
+
+    /**
+     * @param maxIdle The most idle workers to keep of each signature
+     * @param idleTimeoutMs How long a worker may sit idle before it is stopped
+     */
+    public JavaWorkerPool(int maxIdle, long idleTimeoutMs) {
+        _maxIdle = maxIdle;
+        _idleTimeoutMs = idleTimeoutMs;
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "java-worker-pool");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                reapIdle();
+            }
+        }, REAP_INTERVAL_MS, REAP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The pool the jobs of this JVM share, configured by the
+     *         MAX_IDLE_PROPERTY and IDLE_TIMEOUT_PROPERTY system properties
+     */
+    public static synchronized JavaWorkerPool getShared() {
+        if(_shared == null)
+            _shared = new JavaWorkerPool(Integer.getInteger(MAX_IDLE_PROPERTY, 2),
+                                         Long.getLong(IDLE_TIMEOUT_PROPERTY, 10 * 60 * 1000L));
+        return _shared;
+    }
+
+    /**
+     * Get an idle worker of the given signature, or start one
+     * 
+     * @param command The java command line, up to but not including the main
+     *        class
+     * @param workingDir The directory to run the worker in
+     * @param env Environment variables to set for the worker
+     * @throws IOException If a worker can't be started
+     */
+    public Worker acquire(List<String> command, File workingDir, Map<String, String> env) throws IOException {
+        String signature = getSignature(command, workingDir, env);
+        synchronized(this) {
+            LinkedList<Worker> idle = _idle.get(signature);
+            while(idle != null && !idle.isEmpty()) {
+                Worker worker = idle.removeFirst();
+                if(worker.isAlive())
+                    return worker;
+                worker.destroy();
+            }
+        }
+        return start(signature, command, workingDir, env);
+    }
+
+    /**
+     * Give a worker back after running a job in it. It is kept for the next
+     * job unless it has to be retired.
+     * 
+     * @param maxJobs The most jobs a worker may run, or 0 for no limit
+     * @param maxHeapRatio The most of its heap a worker may still be using
+     *        after a job
+     */
+    public void release(final Worker worker, int maxJobs, double maxHeapRatio) {
+        boolean retire = !worker.isAlive() || worker._failed || (maxJobs > 0 && worker._jobsRun >= maxJobs)
+                         || worker._maxHeap > 0 && (double) worker._usedHeap / worker._maxHeap > maxHeapRatio;
+        if(!retire) {
+            synchronized(this) {
+                LinkedList<Worker> idle = _idle.get(worker._signature);
+                if(idle == null) {
+                    idle = new LinkedList<Worker>();
+                    _idle.put(worker._signature, idle);
+                }
+                if(idle.size() < _maxIdle) {
+                    worker._idleSince = System.currentTimeMillis();
+                    idle.addLast(worker);
+                    return;
+                }
+            }
+            worker.destroy();
+            return;
+        }
+
+        boolean failed = worker._failed;
+        logger.info("Retiring " + worker + " after " + worker._jobsRun + " jobs.");
+        worker.destroy();
+        if(failed)
+            return;
+
+        // Start its replacement now, so the next job doesn't wait for it.
+        _executor.execute(new Runnable() {
+
+            public void run() {
+                try {
+                    release(start(worker._signature, worker._command, worker._workingDir, worker._env),
+                            0,
+                            1.0);
+                } catch(IOException e) {
+                    logger.warn("Could not start a replacement for " + worker, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop every idle worker
+     */
+    public synchronized void shutdown() {
+        for(List<Worker> idle: _idle.values()) {
+            for(Worker worker: idle)
+                worker.destroy();
+        }
+        _idle.clear();
+    }
+
+    private synchronized void reapIdle() {
+        long now = System.currentTimeMillis();
+        for(Iterator<LinkedList<Worker>> i = _idle.values().iterator(); i.hasNext();) {
+            LinkedList<Worker> idle = i.next();
+            for(Iterator<Worker> j = idle.iterator(); j.hasNext();) {
+                Worker worker = j.next();
+                if(!worker.isAlive() || now - worker._idleSince > _idleTimeoutMs) {
+                    worker.destroy();
+                    j.remove();
+                }
+            }
+            if(idle.isEmpty())
+                i.remove();
+        }
+    }
+
+    private Worker start(String signature, List<String> command, File workingDir, Map<String, String> env)
+            throws IOException {
+        String token = Long.toHexString(_random.nextLong()) + Long.toHexString(_random.nextLong());
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            List<String> fullCommand = new ArrayList<String>(command);
+            fullCommand.add(JavaJobWorkerMain.class.getName());
+            fullCommand.add(Integer.toString(server.getLocalPort()));
+
+            ProcessBuilder builder = new ProcessBuilder(fullCommand);
+            builder.directory(workingDir);
+            builder.environment().putAll(env);
+            Process process = builder.start();
+            Worker worker = new Worker(signature, command, workingDir, env, process);
+
+            // The token goes over stdin, where ps and /proc/<pid>/cmdline don't show it.
+            try {
+                OutputStream stdin = process.getOutputStream();
+                stdin.write((token + "\n").getBytes("UTF-8"));
+                stdin.close();
+            } catch(IOException e) {
+                worker.destroy();
+                throw e;
+            }
+
+            // One deadline for the worker to connect, however many others connect first.
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            while(true) {
+                long remaining = deadline - System.currentTimeMillis();
+                Socket socket;
+                try {
+                    if(remaining <= 0)
+                        throw new SocketTimeoutException();
+                    server.setSoTimeout((int) remaining);
+                    socket = server.accept();
+                } catch(SocketTimeoutException e) {
+                    worker.destroy();
+                    throw new IOException("The worker did not connect within " + CONNECT_TIMEOUT_MS + " ms.");
+                }
+                // Whatever else connects to the port only gets what is left of the deadline to send the token.
+                socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                String sent;
+                try {
+                    sent = in.readUTF();
+                } catch(IOException e) {
+                    socket.close();
+                    continue;
+                }
+                if(token.equals(sent)) {
+                    socket.setSoTimeout(0);
+                    worker.connect(socket, in);
+                    logger.info("Started " + worker);
+                    return worker;
+                }
+                socket.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private static String getSignature(List<String> command, File workingDir, Map<String, String> env) {
+        return command + " in " + workingDir.getAbsolutePath() + " with " + new TreeMap<String, String>(env);
+    }
+
+    /**
+     * A pooled JVM, leased to one job at a time
+     */
+    public static class Worker {
+
+        private final String _signature;
+        private final List<String> _command;
+        private final File _workingDir;
+        private final Map<String, String> _env;
+        private final Process _process;
+        private final OutputRouter _stdout = new OutputRouter();
+        private final OutputRouter _stderr = new OutputRouter();
+
+        private Socket _socket;
+        private DataInputStream _in;
+        private DataOutputStream _out;
+        private volatile boolean _failed;
+        private volatile boolean _running;
+        private int _jobsRun;
+        private long _usedHeap;
+        private long _maxHeap;
+        private long _idleSince;
+
+        private Worker(String signature,
+                       List<String> command,
+                       File workingDir,
+                       Map<String, String> env,
+                       Process process) {
+            _signature = signature;
+            _command = command;
+            _workingDir = workingDir;
+            _env = env;
+            _process = process;
+
+            // Registered with no MDC of its own, as the lines belong to whichever job is running.
+            Hashtable<?, ?> context = MDC.getContext();
+            Map<Object, Object> saved = context == null ? null : new HashMap<Object, Object>(context);
+            clearMdc(saved);
+            try {
+                OutputReactor.Completion exited = OutputReactor.exitOf(process);
+                OutputReactor.getShared().register(process.getInputStream(), exited, Level.INFO, _stdout);
+                OutputReactor.getShared().register(process.getErrorStream(), exited, Level.ERROR, _stderr);
+            } finally {
+                restoreMdc(saved);
+            }
+        }
+
+        private void connect(Socket socket, DataInputStream in) throws IOException {
+            _socket = socket;
+            _in = in;
+            _out = new DataOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * Run a JavaJob in this worker and wait for it to finish
+         * 
+         * @param jobName The name of the job
+         * @param classPath The job's class path, as absolute paths
+         * @param properties The job's flattened properties
+         * @param sink Where the job's output goes
+         * @return The properties the job generated
+         * @throws RuntimeException If the job failed, or the worker died
+         */
+        public Props run(String jobName, List<String> classPath, Props properties, OutputReactor.LineSink sink) {
+            Hashtable<?, ?> context = MDC.getContext();
+            Map<Object, Object> mdc = context == null ? null : new HashMap<Object, Object>(context);
+            _stdout.lease(sink, mdc);
+            _stderr.lease(sink, mdc);
+            _running = true;
+            try {
+                ByteArrayOutputStream props = new ByteArrayOutputStream();
+                properties.storeFlattened(props);
+
+                synchronized(this) {
+                    _out.writeByte(JavaJobWorkerMain.RUN);
+                    _out.writeUTF(jobName);
+                    _out.writeInt(classPath.size());
+                    for(String path: classPath)
+                        _out.writeUTF(path);
+                    _out.writeInt(props.size());
+                    props.writeTo(_out);
+                    _out.flush();
+                }
+
+                int status = _in.readByte();
+                byte[] result = new byte[_in.readInt()];
+                _in.readFully(result);
+                _usedHeap = _in.readLong();
+                _maxHeap = _in.readLong();
+                _jobsRun++;
+
+                // Wait for the rest of the job's output, which ends with a marker.
+                _stdout.awaitEndOfJob(_jobsRun, END_OF_OUTPUT_WAIT_MS);
+                _stderr.awaitEndOfJob(_jobsRun, END_OF_OUTPUT_WAIT_MS);
+
+                if(status != JavaJobWorkerMain.SUCCEEDED)
+                    throw new RuntimeException("Job " + jobName + " failed in " + this + ": "
+                                               + firstLine(new String(result, "UTF-8")));
+                return new Props(null, new ByteArrayInputStream(result));
+            } catch(EOFException e) {
+                _failed = true;
+                throw new RuntimeException(this + " exited while running " + jobName + ".", e);
+            } catch(IOException e) {
+                _failed = true;
+                throw new RuntimeException(e);
+            } finally {
+                _running = false;
+                _stdout.lease(null, null);
+                _stderr.lease(null, null);
+            }
+        }
+
+        /**
+         * Ask the running job to cancel itself
+         */
+        public void cancel() throws IOException {
+            synchronized(this) {
+                _out.writeByte(JavaJobWorkerMain.CANCEL);
+                _out.flush();
+            }
+        }
+
+        public boolean isRunning() {
+            return _running;
+        }
+
+        /**
+         * Stop the worker, whatever it is doing
+         */
+        public void destroy() {
+            _failed = true;
+            try {
+                if(_socket != null)
+                    _socket.close();
+            } catch(IOException e) {
+                // It is going away either way.
+            }
+            _process.destroy();
+        }
+
+        boolean isAlive() {
+            try {
+                _process.exitValue();
+                return false;
+            } catch(IllegalThreadStateException e) {
+                return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "java worker " + Integer.toHexString(System.identityHashCode(this));
+        }
+
+        private static String firstLine(String text) {
+            int end = text.indexOf('\n');
+            return (end < 0 ? text : text.substring(0, end)).trim();
+        }
+    }
+
+    /*
+     * Hands the lines of a worker's stdout or stderr to the job that has the
+     * worker, under that job's MDC, and counts the jobs whose output has been
+     * read to its end.
+     */
+    private static class OutputRouter implements OutputReactor.LineSink {
+
+        private OutputReactor.LineSink _sink;
+        private Map<Object, Object> _mdc;
+        private int _jobsEnded;
+
+        synchronized void lease(OutputReactor.LineSink sink, Map<Object, Object> mdc) {
+            _sink = sink;
+            _mdc = mdc;
+        }
+
+        public synchronized void write(Level[] levels, String[] lines, int count) {
+            int start = 0;
+            for(int i = 0; i < count; i++) {
+                if(!lines[i].equals(JavaJobWorkerMain.END_OF_JOB))
+                    continue;
+                deliver(levels, lines, start, i);
+                _jobsEnded++;
+                notifyAll();
+                start = i + 1;
+            }
+            deliver(levels, lines, start, count);
+        }
+
+        synchronized void awaitEndOfJob(int jobs, long timeoutMs) {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            try {
+                for(long left = timeoutMs; _jobsEnded < jobs && left > 0; left = deadline
+                                                                                   - System.currentTimeMillis())
+                    wait(left);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliver(Level[] levels, String[] lines, int from, int to) {
+            if(from >= to)
+                return;
+
+            if(_sink == null) {
+                for(int i = from; i < to; i++)
+                    logger.debug("Worker output between jobs: " + lines[i]);
+                return;
+            }
+
+            Level[] someLevels = new Level[to - from];
+            String[] someLines = new String[to - from];
+            System.arraycopy(levels, from, someLevels, 0, to - from);
+            System.arraycopy(lines, from, someLines, 0, to - from);
+
+            Hashtable<?, ?> context = MDC.getContext();
+            Map<Object, Object> saved = context == null ? null : new HashMap<Object, Object>(context);
+            clearMdc(saved);
+            if(_mdc != null) {
+                for(Map.Entry<Object, Object> entry: _mdc.entrySet())
+                    MDC.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            try {
+                _sink.write(someLevels, someLines, to - from);
+            } finally {
+                clearMdc(_mdc);
+                restoreMdc(saved);
+            }
+        }
+    }
+
+    private static void clearMdc(Map<Object, Object> context) {
+        if(context != null) {
+            for(Object key: context.keySet())
+                MDC.remove(String.valueOf(key));
+        }
+    }
+
+    private static void restoreMdc(Map<Object, Object> context) {
+        if(context != null) {
+            for(Map.Entry<Object, Object> entry: context.entrySet())
+                MDC.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+    }
+}
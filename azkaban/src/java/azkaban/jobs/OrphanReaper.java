@@ -0,0 +1,217 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.jobs;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Terminates the processes that jobs left behind. Everything ProcessJob
+ * starts is tagged in its environment with the execution id of its flow and
+ * with the identity of the Azkaban instance that ran it, and while a job runs
+ * its execution is registered here. A process tagged with this reaper's
+ * instance is an orphan once its execution is no longer running in this JVM
+ * and the outermost tagged process above it has been reparented to init,
+ * which is what happens to the daemons and pipelines a job's command started
+ * and did not wait for. A ProcessSupervisor and everything under it is left
+ * alone, so that the next Azkaban can adopt it. Processes of other instances,
+ * and of jobs run without one, such as by CommandLineJobRunner, are never
+ * touched.
+ * 
+ * Daemons that a job starts on purpose are orphans too, so the reaper is
+ * only for installations whose jobs clean up after themselves.
+ * 
+ * An orphan is only terminated once it has been seen on two rounds in a row,
+ * which gives an execution that is being resumed after a restart a round to
+ * claim its processes. Needs /proc; without it the reaper does nothing.
+ */
+public class OrphanReaper {
+
+    private static final Logger logger = Logger.getLogger(OrphanReaper.class);
+
+    private static final Map<String, Integer> _running = new HashMap<String, Integer>();
+    private static volatile String _instance;
+
+    private final String _reaperInstance;
+    private final List<String> _signals;
+    private final long _graceMs;
+    private final Set<String> _suspects = new HashSet<String>();
+
+    private volatile ScheduledExecutorService _executor;
+
+    /**
+     * @param instance The identity of the instance whose orphans to reap
+     * @param signals The signals to send orphans, in turn
+     * @param graceMs How long to give them to exit after each
+     */
+    public OrphanReaper(String instance, List<String> signals, long graceMs) {
+        this._reaperInstance = instance;
+        this._signals = signals;
+        this._graceMs = graceMs;
+    }
+
+    /**
+     * Set the identity of the Azkaban instance in this JVM, which the
+     * processes of its jobs are tagged with from now on. It has to stay the
+     * same across restarts for resumed executions to keep their processes.
+     */
+    public static void setInstance(String instance) {
+        _instance = instance;
+    }
+
+    /**
+     * @return The identity of the Azkaban instance in this JVM, or null if
+     *         the jobs run outside of one
+     */
+    public static String getInstance() {
+        return _instance;
+    }
+
+    /**
+     * Register a job of the execution as running in this JVM, so its
+     * processes are not taken for orphans
+     */
+    public static void executionStarted(String executionId) {
+        synchronized(_running) {
+            Integer count = _running.get(executionId);
+            _running.put(executionId, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Register a job of the execution as finished
+     */
+    public static void executionEnded(String executionId) {
+        synchronized(_running) {
+            Integer count = _running.get(executionId);
+            if(count == null || count <= 1)
+                _running.remove(executionId);
+            else
+                _running.put(executionId, count - 1);
+        }
+    }
+
+    public static boolean isRunning(String executionId) {
+        synchronized(_running) {
+            return _running.containsKey(executionId);
+        }
+    }
+
+    /**
+     * Reap every intervalMs from now on, on a background thread
+     */
+    public void start(long intervalMs) {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "orphan-reaper");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        _executor.scheduleWithFixedDelay(new Runnable() {
+
+            public void run() {
+                try {
+                    reap();
+                } catch(RuntimeException e) {
+                    logger.warn("Reaping orphans failed, will retry on next interval.", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if(_executor != null)
+            _executor.shutdownNow();
+    }
+
+    /**
+     * Do one round of reaping
+     * 
+     * @return The number of orphans terminated
+     */
+    public synchronized int reap() {
+        if(!ProcessTree.isSupported())
+            return 0;
+
+        Set<String> suspects = new HashSet<String>();
+        Map<Integer, String> roots = new HashMap<Integer, String>();
+        for(Integer pid: ProcessTree.getPids()) {
+            String executionId = ProcessTree.getEnvironment(pid, ProcessTree.EXECUTION_ID_ENV);
+            if(executionId == null || !isOurs(pid) || isRunning(executionId))
+                continue;
+
+            int root = getOutermostTagged(pid);
+            if(ProcessTree.getParentPid(root) != 1 || isSupervisor(root))
+                continue;
+
+            String suspect = root + "@" + ProcessTree.getStartTime(root);
+            suspects.add(suspect);
+            if(_suspects.contains(suspect))
+                roots.put(root, executionId);
+        }
+        _suspects.clear();
+        _suspects.addAll(suspects);
+
+        int reaped = 0;
+        for(Map.Entry<Integer, String> root: roots.entrySet()) {
+            ProcessTree tree = new ProcessTree(root.getKey());
+            int members = tree.refresh().size();
+            logger.info("Terminating " + members + " orphaned processes of execution " + root.getValue()
+                        + " under " + root.getKey() + " " + ProcessTree.getCommandLine(root.getKey()));
+            try {
+                if(!tree.terminate(_signals, _graceMs))
+                    logger.warn("Orphans under " + root.getKey() + " outlived " + _signals);
+            } catch(IOException e) {
+                logger.warn("Could not signal the orphans under " + root.getKey(), e);
+            }
+            reaped += members;
+        }
+        return reaped;
+    }
+
+    private boolean isOurs(int pid) {
+        return _reaperInstance != null && _reaperInstance.equals(ProcessTree.getEnvironment(pid, ProcessTree.INSTANCE_ENV));
+    }
+
+    private int getOutermostTagged(int pid) {
+        int retVal = pid;
+        for(int parent = ProcessTree.getParentPid(pid); parent > 1; parent = ProcessTree.getParentPid(parent)) {
+            if(ProcessTree.getEnvironment(parent, ProcessTree.EXECUTION_ID_ENV) == null || !isOurs(parent))
+                break;
+            retVal = parent;
+        }
+        return retVal;
+    }
+
+    private static boolean isSupervisor(int pid) {
+        return ProcessTree.getCommandLine(pid).contains(ProcessSupervisor.SUPERVISOR_NAME);
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+/**
+ * Reads the output of child processes on a few shared threads instead of a
+ * thread per stream. Each thread looks after many streams: it reads whatever
+ * is available on each of them into a buffer the stream keeps for its whole
+ * life, splits out the complete lines and hands them to the stream's LineSink
+ * a batch at a time.
+ * 
+ * Process pipes can't be selected on, so a thread that finds nothing to read
+ * on any of its streams backs off for a little longer each time, up to
+ * MAX_IDLE_MS, and never blocks on a read. A stream is done once its
+ * Completion says nothing more will be written and all that was written has
+ * been read.
+ * 
+ * A line starting with the name of a log4j level is logged at that level,
+ * without the name; any other line is logged at the stream's default level.
+ * Lines are handed over under the log4j MDC of the thread that registered
+ * the stream.
+ */
+public class OutputReactor {
+
+    /**
+     * Receives the lines read from a stream
+     */
+    public interface LineSink {
+
+        /**
+         * @param levels The level of each line
+         * @param lines The lines, without their level prefix or line end
+         * @param count The number of lines in this batch
+         */
+        void write(Level[] levels, String[] lines, int count);
+    }
+
+    /**
+     * Tells whether the writer of a stream is done with it
+     */
+    public interface Completion {
+
+        boolean isComplete();
+    }
+
+    public static final String THREADS_PROPERTY = "azkaban.process.output.threads";
+
+    private static final int MIN_IDLE_MS = 1;
+    private static final int MAX_IDLE_MS = 20;
+    private static final int COMPLETION_CHECK_MS = 50;
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BATCH = 256;
+
+    // Checked in this order, as log4j names them.
+    private static final Level[] PREFIX_LEVELS = { Level.DEBUG, Level.ERROR, Level.INFO, Level.WARN, Level.FATAL,
+            Level.TRACE };
+    private static final byte[][] PREFIXES = new byte[PREFIX_LEVELS.length][];
+    static {
+        for(int i = 0; i < PREFIX_LEVELS.length; i++) {
+            String name = PREFIX_LEVELS[i].toString();
+            PREFIXES[i] = new byte[name.length()];
+            for(int j = 0; j < name.length(); j++)
+                PREFIXES[i][j] = (byte) name.charAt(j);
+        }
+    }
+
+    private static final Logger logger = Logger.getLogger(OutputReactor.class);
+
+    private static volatile OutputReactor shared;
+
+    private final Worker[] _workers;
+    private final AtomicInteger _nextWorker = new AtomicInteger(0);
+
+    public OutputReactor(int threads) {
+        _workers = new Worker[Math.max(1, threads)];
+        for(int i = 0; i < _workers.length; i++) {
+            _workers[i] = new Worker("process-output-" + i);
+            _workers[i].start();
+        }
+    }
+
+    /**
+     * @return The reactor shared by all jobs of this JVM, with as many threads
+     *         as the azkaban.process.output.threads system property asks for
+     */
+    public static OutputReactor getShared() {
+        if(shared == null) {
+            synchronized(OutputReactor.class) {
+                if(shared == null)
+                    shared = new OutputReactor(Integer.getInteger(THREADS_PROPERTY, 2));
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * A Completion for the output of a process, which is complete once the
+     * process has exited
+     */
+    public static Completion exitOf(final Process process) {
+        return new Completion() {
+
+            public boolean isComplete() {
+                try {
+                    process.exitValue();
+                    return true;
+                } catch(IllegalThreadStateException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    /**
+     * Start reading a stream
+     * 
+     * @param in The stream, whose available() must tell how much can be read
+     *        without blocking
+     * @param completion Tells when nothing more will be written to the stream
+     * @param defaultLevel The level of lines without a level prefix
+     * @param sink Where the lines go
+     * @return A handle to wait on for the stream to be read to its end
+     */
+    public Stream register(InputStream in, Completion completion, Level defaultLevel, LineSink sink) {
+        Stream stream = new Stream(in, completion, defaultLevel, sink);
+        Worker worker = _workers[(_nextWorker.getAndIncrement() & Integer.MAX_VALUE) % _workers.length];
+        worker._pending.add(stream);
+        return stream;
+    }
+
+    /**
+     * A stream being read by the reactor
+     */
+    public static class Stream {
+
+        private final InputStream _in;
+        private final Completion _completion;
+        private final Level _defaultLevel;
+        private final LineSink _sink;
+        private final CountDownLatch _done = new CountDownLatch(1);
+        private final Map<?, ?> _context;
+
+        private byte[] _buffer = new byte[BUFFER_SIZE];
+        private int _length = 0;
+        private long _lastCompletionCheck = 0;
+        private final Level[] _levels = new Level[MAX_BATCH];
+        private final String[] _lines = new String[MAX_BATCH];
+
+        private Stream(InputStream in, Completion completion, Level defaultLevel, LineSink sink) {
+            _in = in;
+            _completion = completion;
+            _defaultLevel = defaultLevel;
+            _sink = sink;
+
+            Hashtable<?, ?> context = MDC.getContext();
+            _context = context == null ? null : new HashMap<Object, Object>(context);
+        }
+
+        /**
+         * Wait for the stream to be read to its end
+         * 
+         * @return true if it was, false if the time ran out first
+         */
+        public boolean awaitDrained(long timeoutMs) throws InterruptedException {
+            return _done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+
+        public void awaitDrained() throws InterruptedException {
+            _done.await();
+        }
+
+        /*
+         * Reads what is available and writes out the complete lines.
+         * 
+         * @return The number of bytes read, or -1 once the stream is done
+         */
+        private int pump() throws IOException {
+            boolean complete = false;
+            int available = _in.available();
+            if(available <= 0) {
+                // Checked before reading again, so that nothing written before completion is missed.
+                long now = System.currentTimeMillis();
+                if(now - _lastCompletionCheck < COMPLETION_CHECK_MS)
+                    return 0;
+                _lastCompletionCheck = now;
+                complete = _completion.isComplete();
+                available = _in.available();
+                if(available <= 0) {
+                    if(complete) {
+                        flushPartialLine();
+                        return -1;
+                    }
+                    return 0;
+                }
+            }
+
+            if(_length == _buffer.length) {
+                // A line longer than the buffer: grow it up to a point, then split the line.
+                if(_buffer.length < 8 * BUFFER_SIZE) {
+                    byte[] bigger = new byte[_buffer.length * 2];
+                    System.arraycopy(_buffer, 0, bigger, 0, _length);
+                    _buffer = bigger;
+                } else {
+                    flushPartialLine();
+                }
+            }
+
+            int read = _in.read(_buffer, _length, Math.min(available, _buffer.length - _length));
+            if(read < 0) {
+                flushPartialLine();
+                return -1;
+            }
+            _length += read;
+            writeLines();
+            return read;
+        }
+
+        private void writeLines() {
+            int count = 0;
+            int lineStart = 0;
+            for(int i = 0; i < _length; i++) {
+                if(_buffer[i] != '\n')
+                    continue;
+
+                int lineEnd = i > lineStart && _buffer[i - 1] == '\r' ? i - 1 : i;
+                addLine(count++, lineStart, lineEnd);
+                lineStart = i + 1;
+                if(count == MAX_BATCH) {
+                    deliver(count);
+                    count = 0;
+                }
+            }
+            if(count > 0)
+                deliver(count);
+
+            if(lineStart > 0) {
+                System.arraycopy(_buffer, lineStart, _buffer, 0, _length - lineStart);
+                _length -= lineStart;
+            }
+        }
+
+        /*
+         * Hands lines to the sink with the MDC of the thread that registered
+         * the stream, so they are logged as if that thread had logged them.
+         */
+        private void deliver(int count) {
+            if(_context != null) {
+                for(Map.Entry<?, ?> entry: _context.entrySet())
+                    MDC.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            try {
+                _sink.write(_levels, _lines, count);
+            } finally {
+                if(_context != null) {
+                    for(Object key: _context.keySet())
+                        MDC.remove(String.valueOf(key));
+                }
+            }
+        }
+
+        private void flushPartialLine() {
+            if(_length > 0) {
+                addLine(0, 0, _length);
+                deliver(1);
+                _length = 0;
+            }
+        }
+
+        private void addLine(int index, int start, int end) {
+            Level level = _defaultLevel;
+            for(int p = 0; p < PREFIXES.length; p++) {
+                if(startsWith(start, end, PREFIXES[p])) {
+                    level = PREFIX_LEVELS[p];
+                    start += PREFIXES[p].length;
+                    break;
+                }
+            }
+            _levels[index] = level;
+            _lines[index] = new String(_buffer, start, end - start);
+        }
+
+        private boolean startsWith(int start, int end, byte[] prefix) {
+            if(end - start < prefix.length)
+                return false;
+            for(int i = 0; i < prefix.length; i++) {
+                if(_buffer[start + i] != prefix[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private void finish() {
+            IOUtils.closeQuietly(_in);
+            _done.countDown();
+        }
+    }
+
+    private static class Worker extends Thread {
+
+        private final LinkedBlockingQueue<Stream> _pending = new LinkedBlockingQueue<Stream>();
+        private final List<Stream> _active = new ArrayList<Stream>();
+
+        private Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idleMs = MIN_IDLE_MS;
+            while(true) {
+                try {
+                    if(_active.isEmpty())
+                        _active.add(_pending.take());
+                    _pending.drainTo(_active);
+
+                    boolean progressed = false;
+                    for(Iterator<Stream> iter = _active.iterator(); iter.hasNext();) {
+                        Stream stream = iter.next();
+                        int read;
+                        try {
+                            read = stream.pump();
+                        } catch(Exception e) {
+                            logger.error("Error reading process output, giving up on the stream.", e);
+                            read = -1;
+                        }
+                        if(read < 0) {
+                            stream.finish();
+                            iter.remove();
+                        } else if(read > 0) {
+                            progressed = true;
+                        }
+                    }
+
+                    if(progressed) {
+                        idleMs = MIN_IDLE_MS;
+                    } else if(!_active.isEmpty()) {
+                        Thread.sleep(idleMs);
+                        idleMs = Math.min(idleMs * 2, MAX_IDLE_MS);
+                    }
+                } catch(InterruptedException e) {
+                    logger.warn("Interrupted, no longer reading process output on " + getName());
+                    for(Stream stream: _active)
+                        stream.finish();
+                    return;
+                } catch(Throwable t) {
+                    logger.error("Unexpected error reading process output.", t);
+                }
+            }
+        }
+    }
+}
@@ -16,22 +16,22 @@
 
 package azkaban.jobs;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.log4j.Level;
+import org.joda.time.DateTime;
 
 import azkaban.app.JobDescriptor;
-import azkaban.app.PropsUtils;
 import azkaban.common.jobs.AbstractJob;
 import azkaban.common.jobs.Job;
 import azkaban.common.utils.Props;
@@ -47,9 +47,17 @@ public class ProcessJob extends AbstractJob implements Job {
     public static final String ENV_PREFIX = "env.";
     public static final String COMMAND = "command";
     public static final String WORKING_DIR = "working.dir";
+    public static final String SUPERVISED = "process.supervised";
+    public static final String LAUNCHER = "process.launcher";
+    public static final String RUN_DIR = "process.run.dir";
+    public static final String SETSID = "process.setsid";
+    public static final String KILL_SIGNALS = "process.kill.signals";
+    public static final String KILL_GRACE_MS = "process.kill.grace.ms";
+    public static final String SAMPLE_INTERVAL_MS = "process.sample.interval.ms";
     public static final String JOB_PROP_ENV = "JOB_PROP_FILE";
     public static final String JOB_NAME_ENV = "JOB_NAME";
     public static final int CLEAN_UP_TIME_MS = 1000;
+    public static final List<String> DEFAULT_KILL_SIGNALS = Arrays.asList("TERM", "KILL");
     
     public static final String JOB_OUTPUT_PROP_FILE = "JOB_OUTPUT_PROP_FILE";
 
@@ -59,10 +67,24 @@ public class ProcessJob extends AbstractJob implements Job {
     private final JobDescriptor _descriptor;
     private volatile Props _props;
     private volatile Process _process;
+    private volatile ProcessSupervisor _supervisor;
     private volatile boolean _isComplete;
+    private volatile long _processStartMillis;
+    private volatile long _firstOutputMillis;
+    private volatile ResourceUsage _resourceUsage;
     
     private volatile Props generatedPropeties;
 
+    private final OutputReactor.LineSink _logSink = new OutputReactor.LineSink() {
+
+        public void write(Level[] levels, String[] lines, int count) {
+            if(_firstOutputMillis == 0)
+                _firstOutputMillis = System.currentTimeMillis();
+            for(int i = 0; i < count; i++)
+                getLog().log(levels[i], lines[i]);
+        }
+    };
+
     public ProcessJob(JobDescriptor descriptor) {
         super(descriptor.getId());
         this._props = descriptor.getProps();
@@ -81,15 +103,38 @@ public class ProcessJob extends AbstractJob implements Job {
     }
 
     public void run(Props inputGeneratedProperties) {
-        _props = PropsUtils.resolveProps(_props, inputGeneratedProperties);
-        
+        resolveProps(inputGeneratedProperties);
+
+        // Registered so that the reaper leaves the processes of the execution alone meanwhile.
+        String executionId = getExecutionId();
+        if(executionId != null)
+            OrphanReaper.executionStarted(executionId);
+        try {
+            runCommands(inputGeneratedProperties);
+        } finally {
+            if(executionId != null)
+                OrphanReaper.executionEnded(executionId);
+        }
+    }
+
+    private void runCommands(Props inputGeneratedProperties) {
         // Sets a list of all the commands that need to be run.
         List<String> commands = getCommandList();
         info(commands.size() + " commands to execute.");
 
         Map<String, String> env = getEnvironmentVariables();
+        if(getExecutionId() != null) {
+            env.put(ProcessTree.EXECUTION_ID_ENV, getExecutionId());
+            if(OrphanReaper.getInstance() != null)
+                env.put(ProcessTree.INSTANCE_ENV, OrphanReaper.getInstance());
+        }
 
         String cwd = getWorkingDirectory();
+        if(_props.getBoolean(SUPERVISED, false) || _props.getBoolean(LAUNCHER, false)) {
+            runSupervised(commands, env, cwd, inputGeneratedProperties);
+            return;
+        }
+
         // Create properties file with additionally all input generated properties.
         File file = createFlattenedPropsFile(cwd, _props, inputGeneratedProperties, _name);
         System.out.println("Temp file created " + file.getAbsolutePath());
@@ -103,7 +148,7 @@ public class ProcessJob extends AbstractJob implements Job {
         // For each of the jobs, set up a process and run them.
         for(String command: commands) {
             info("Executing command: " + command);
-            String[] cmdPieces = partitionCommandLine(command);
+            String[] cmdPieces = getCommandPieces(command);
 
             ProcessBuilder builder = new ProcessBuilder(cmdPieces);
 
@@ -111,15 +156,21 @@ public class ProcessJob extends AbstractJob implements Job {
             builder.environment().putAll(env);
 
             try {
+                startingProcess();
                 _process = builder.start();
             } catch(IOException e) {
                 file.delete();
                 throw new RuntimeException(e);
             }
-            Thread outputGobbler = new LoggingGobbler(new InputStreamReader(_process.getInputStream()),
-                                                      Level.INFO);
-            Thread errorGobbler = new LoggingGobbler(new InputStreamReader(_process.getErrorStream()),
-                                                     Level.ERROR);
+            OutputReactor.Completion exited = OutputReactor.exitOf(_process);
+            OutputReactor.Stream output = OutputReactor.getShared().register(_process.getInputStream(),
+                                                                             exited,
+                                                                             Level.INFO,
+                                                                             _logSink);
+            OutputReactor.Stream errors = OutputReactor.getShared().register(_process.getErrorStream(),
+                                                                             exited,
+                                                                             Level.ERROR,
+                                                                             _logSink);
 
             int processId = getProcessId();
             if(processId == 0) {
@@ -127,12 +178,13 @@ public class ProcessJob extends AbstractJob implements Job {
             } else {
                 info("Spawned thread with processId " + processId);
             }
-            outputGobbler.start();
-            errorGobbler.start();
+            ResourceSampler sampler = startSampler(processId);
             int exitCode = -999;
             try {
                 exitCode = _process.waitFor();
             } catch(InterruptedException e) {
+            } finally {
+                recordUsage(sampler);
             }
 
             _isComplete = true;
@@ -143,8 +195,8 @@ public class ProcessJob extends AbstractJob implements Job {
 
             // try to wait for everything to get logged out before exiting
             try {
-                outputGobbler.join(1000);
-                errorGobbler.join(1000);
+                output.awaitDrained(1000);
+                errors.awaitDrained(1000);
             } catch(InterruptedException e) {
             }
         }
@@ -156,6 +208,195 @@ public class ProcessJob extends AbstractJob implements Job {
         file.delete();
     }
 
+    /**
+     * Run the commands under ProcessSupervisors, each in its own directory
+     * under the job's run directory, along with the job's input and output
+     * property files. If a previous Azkaban left commands of this execution of
+     * the job running, or finished but uncollected, they are adopted instead of
+     * being started again: their output is followed from the start and their
+     * exit status collected. With process.launcher set, the supervisors are
+     * forked by the ProcessLauncher daemon instead of by this JVM.
+     */
+    private void runSupervised(List<String> commands,
+                               Map<String, String> env,
+                               String cwd,
+                               Props inputGeneratedProperties) {
+        File runDir = getRunDirectory();
+        File inputFile = new File(runDir, "input.properties");
+        File outputFile = new File(runDir, "output.properties");
+
+        boolean adopting = new ProcessSupervisor(new File(runDir, "0")).canAdopt();
+        try {
+            if(!adopting) {
+                FileUtils.deleteDirectory(runDir);
+                runDir.mkdirs();
+                new Props(_props, inputGeneratedProperties).storeFlattened(inputFile);
+                outputFile.createNewFile();
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Failed to prepare run directory " + runDir, e);
+        }
+
+        env.put(JOB_PROP_ENV, inputFile.getAbsolutePath());
+        env.put(JOB_NAME_ENV, _name);
+        env.put(JOB_OUTPUT_PROP_FILE, outputFile.getAbsolutePath());
+
+        try {
+            for(int i = 0; i < commands.size(); i++) {
+                String command = commands.get(i);
+                ProcessSupervisor supervisor = new ProcessSupervisor(new File(runDir, String.valueOf(i)));
+                _supervisor = supervisor;
+
+                if(adopting && supervisor.canAdopt()) {
+                    info("Adopting command started at " + new DateTime(supervisor.getStartedMillis())
+                         + " with processId " + supervisor.getPid() + ": " + command);
+                } else {
+                    adopting = false;
+                    info("Executing supervised command: " + command);
+                    try {
+                        startingProcess();
+                        supervisor.start(getCommandPieces(command),
+                                         new File(cwd),
+                                         env,
+                                         _props.getBoolean(LAUNCHER, false) ? ProcessLauncher.getShared() : null);
+                    } catch(IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    info("Spawned supervised process with processId " + supervisor.getPid() + " in "
+                         + supervisor.getRunDir());
+                }
+
+                OutputReactor.Completion exited = supervisor.exited();
+                OutputReactor.Stream output = OutputReactor.getShared()
+                                                           .register(supervisor.follow(ProcessSupervisor.STDOUT_FILE),
+                                                                     exited,
+                                                                     Level.INFO,
+                                                                     _logSink);
+                OutputReactor.Stream errors = OutputReactor.getShared()
+                                                           .register(supervisor.follow(ProcessSupervisor.STDERR_FILE),
+                                                                     exited,
+                                                                     Level.ERROR,
+                                                                     _logSink);
+
+                ResourceSampler sampler = startSampler(supervisor.getSupervisorPid());
+                int exitCode = -999;
+                try {
+                    exitCode = supervisor.waitFor();
+                    output.awaitDrained();
+                    errors.awaitDrained();
+                } catch(InterruptedException e) {
+                } finally {
+                    recordUsage(sampler);
+                }
+
+                if(exitCode != 0)
+                    throw new RuntimeException("Processes ended with exit code " + exitCode + ".");
+            }
+
+            generatedPropeties = loadOutputFileProps(_descriptor, outputFile);
+        } finally {
+            _isComplete = true;
+            try {
+                FileUtils.deleteDirectory(runDir);
+            } catch(IOException e) {
+                warn("Could not remove run directory " + runDir);
+            }
+        }
+    }
+
+    /**
+     * @return The command split into its arguments, run through setsid unless
+     *         process.setsid is false, so that it leads a process group and
+     *         session of its own that a cancel can terminate as a whole
+     */
+    private String[] getCommandPieces(String command) {
+        String[] pieces = partitionCommandLine(command);
+        return _props.getBoolean(SETSID, true) ? ProcessTree.inNewSession(pieces) : pieces;
+    }
+
+    /**
+     * @return The id of the flow execution the job runs in, or null if it runs
+     *         on its own
+     */
+    protected String getExecutionId() {
+        return _props.containsKey("azkaban.flow.id") ? _props.getString("azkaban.flow.id") : null;
+    }
+
+    /**
+     * Resolve the job's properties against the properties generated by the
+     * jobs before it
+     */
+    protected void resolveProps(Props inputGeneratedProperties) {
+        _props = _descriptor.getPropsTemplate().resolve(inputGeneratedProperties);
+    }
+
+    protected void setJobGeneratedProperties(Props generatedProperties) {
+        generatedPropeties = generatedProperties;
+    }
+
+    protected void setComplete() {
+        _isComplete = true;
+    }
+
+    private void startingProcess() {
+        _firstOutputMillis = 0;
+        _processStartMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return How long the last process started took to write its first line
+     *         of output, or -1 if it hasn't
+     */
+    protected long getStartupMillis() {
+        long firstOutput = _firstOutputMillis;
+        long start = _processStartMillis;
+        return firstOutput == 0 || start == 0 ? -1 : firstOutput - start;
+    }
+
+    /**
+     * @return What the processes of all the job's runs so far used, as far as
+     *         they were sampled, or null if none was
+     */
+    public ResourceUsage getResourceUsage() {
+        return _resourceUsage;
+    }
+
+    /**
+     * @return A sampler of what the process and everything under it uses,
+     *         every process.sample.interval.ms, or null if it is 0 or there is
+     *         no /proc to sample
+     */
+    private ResourceSampler startSampler(int pid) {
+        long intervalMs = _props.getLong(SAMPLE_INTERVAL_MS, 5000);
+        if(intervalMs <= 0 || pid == 0 || !ProcessTree.isSupported())
+            return null;
+        return new ResourceSampler(new ProcessTree(pid)).start(intervalMs);
+    }
+
+    private void recordUsage(ResourceSampler sampler) {
+        if(sampler == null)
+            return;
+        ResourceUsage usage = sampler.stop();
+        info("Resources used: " + usage);
+        _resourceUsage = _resourceUsage == null ? usage : _resourceUsage.plus(usage);
+    }
+
+    /**
+     * @return A sink that logs lines of output to the job's log
+     */
+    protected OutputReactor.LineSink getLogSink() {
+        return _logSink;
+    }
+
+    /**
+     * The directory of this job's supervised commands, named after the
+     * execution and the job so that a restarted Azkaban finds it again.
+     */
+    protected File getRunDirectory() {
+        File root = new File(_props.getString(RUN_DIR, System.getProperty("java.io.tmpdir") + "/azkaban-runs"));
+        return new File(new File(root, _props.getString("azkaban.flow.id", "adhoc")), _name);
+    }
+
     private File createFlattenedPropsFile(String workingDir, 
                                           final Props props,
                                           Props inputGeneratedProperties,
@@ -226,14 +467,31 @@ public class ProcessJob extends AbstractJob implements Job {
         return prefixProperties;
     }
 
+    /**
+     * Terminate the job's processes along with everything they started, with
+     * the signals of process.kill.signals in turn, process.kill.grace.ms
+     * apart, and destroy whatever of the job is left after that.
+     */
     @Override
     public void cancel() throws Exception {
-        if(_process != null) {
+        ProcessSupervisor supervisor = _supervisor;
+        if(supervisor != null) {
+            warn("Attempting to kill the supervised process tree of " + supervisor.getPid());
+            // The supervisor itself stays to record the exit status.
+            terminate(getProcessTree(supervisor.getPid()).excluding(supervisor.getSupervisorPid()));
+            synchronized(this) {
+                wait(CLEAN_UP_TIME_MS);
+            }
+            if(!_isComplete) {
+                warn("Force kill the supervisor");
+                supervisor.destroy();
+            }
+        } else if(_process != null) {
             int processId = getProcessId();
             if(processId != 0) {
-                warn("Attempting to kill the process " + processId);
+                warn("Attempting to kill the process tree of " + processId);
+                terminate(getProcessTree(processId));
                 try {
-                    Runtime.getRuntime().exec("kill " + processId);
                     synchronized(this) {
                         wait(CLEAN_UP_TIME_MS);
                     }
@@ -255,7 +513,24 @@ public class ProcessJob extends AbstractJob implements Job {
         }
     }
 
+    private ProcessTree getProcessTree(int pid) {
+        ProcessTree tree = new ProcessTree(pid);
+        if(getExecutionId() != null)
+            tree.tagged(getExecutionId(), _name);
+        return tree;
+    }
+
+    private void terminate(ProcessTree tree) throws IOException {
+        List<String> signals = _props.getStringList(KILL_SIGNALS, DEFAULT_KILL_SIGNALS);
+        long graceMs = _props.getLong(KILL_GRACE_MS, CLEAN_UP_TIME_MS);
+        if(!tree.terminate(signals, graceMs))
+            error("Processes " + tree.refresh() + " of the job outlived " + signals + ".");
+    }
+
     public int getProcessId() {
+        if(_supervisor != null)
+            return _supervisor.getPid();
+
         int processId = 0;
 
         try {
@@ -263,7 +538,12 @@ public class ProcessJob extends AbstractJob implements Job {
             f.setAccessible(true);
 
             processId = f.getInt(_process);
-        } catch(Throwable e) {}
+        } catch(Throwable e) {
+            // Newer JVMs hide the field, but tell the pid instead.
+            try {
+                processId = ((Number) Process.class.getMethod("pid").invoke(_process)).intValue();
+            } catch(Throwable e2) {}
+        }
 
         return processId;
     }
@@ -273,57 +553,6 @@ public class ProcessJob extends AbstractJob implements Job {
         return _isComplete ? 1.0 : 0.0;
     }
 
-    private class LoggingGobbler extends Thread {
-
-        private final BufferedReader _inputReader;
-        private final Level _loggingLevel;
-
-        public LoggingGobbler(InputStreamReader inputReader, Level level) {
-            _inputReader = new BufferedReader(inputReader);
-            _loggingLevel = level;
-        }
-
-        @Override
-        public void run() {
-            try {
-                while(!Thread.currentThread().isInterrupted()) {
-                    String line = _inputReader.readLine();
-                    if(line == null)
-                        return;
-
-                    logMessage(line);
-                }
-            } catch(IOException e) {
-                error("Error reading from logging stream:", e);
-            }
-        }
-
-        private void logMessage(String message) {
-            if(message.startsWith(Level.DEBUG.toString())) {
-                String newMsg = message.substring(Level.DEBUG.toString().length());
-                getLog().debug(newMsg);
-            } else if(message.startsWith(Level.ERROR.toString())) {
-                String newMsg = message.substring(Level.ERROR.toString().length());
-                getLog().error(newMsg);
-            } else if(message.startsWith(Level.INFO.toString())) {
-                String newMsg = message.substring(Level.INFO.toString().length());
-                getLog().info(newMsg);
-            } else if(message.startsWith(Level.WARN.toString())) {
-                String newMsg = message.substring(Level.WARN.toString().length());
-                getLog().warn(newMsg);
-            } else if(message.startsWith(Level.FATAL.toString())) {
-                String newMsg = message.substring(Level.FATAL.toString().length());
-                getLog().fatal(newMsg);
-            } else if(message.startsWith(Level.TRACE.toString())) {
-                String newMsg = message.substring(Level.TRACE.toString().length());
-                getLog().trace(newMsg);
-            } else {
-                getLog().log(_loggingLevel, message);
-            }
-
-        }
-    }
-
     public Props getProps() {
         return _props;
     }
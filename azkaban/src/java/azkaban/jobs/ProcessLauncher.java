@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.jobs;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Starts processes from a small shell daemon rather than from Azkaban's own
+ * JVM, whose heap makes every fork of it expensive. The daemon is forked from
+ * the JVM once and from then on forks the children itself.
+ * 
+ * Each launch is a short script, written to a file, that changes to the
+ * working directory and execs the command with its environment. The daemon is
+ * sent the path of the script on its stdin, starts it in the background and
+ * answers with its pid. The children write their output to files rather than
+ * to the daemon, which is how ProcessSupervisor runs them anyway; a supervised
+ * command started through the launcher is followed just like one started
+ * directly. If the daemon dies, the next launch starts a new one.
+ */
+public class ProcessLauncher {
+
+    private static final Logger logger = Logger.getLogger(ProcessLauncher.class);
+
+    /*
+     * HUP is ignored so that the daemon doesn't die with Azkaban's session,
+     * and children get no stdin so they can't read the requests. Each child is
+     * started from a subshell that exits straight away, so the child is
+     * reparented to init, which collects it when it exits, rather than staying
+     * a zombie of the daemon.
+     */
+    private static final String SCRIPT = "trap '' HUP\n"
+                                         + "exec 2> /dev/null\n"
+                                         + "while IFS= read -r request; do\n"
+                                         + "  (sh \"$request\" > /dev/null 2>&1 < /dev/null & echo $!)\n"
+                                         + "done\n";
+
+    private static ProcessLauncher _shared;
+
+    private Process _daemon;
+    private Writer _requests;
+    private BufferedReader _replies;
+
+    /**
+     * @return The launcher the jobs of this JVM share
+     */
+    public static synchronized ProcessLauncher getShared() {
+        if(_shared == null)
+            _shared = new ProcessLauncher();
+        return _shared;
+    }
+
+    /**
+     * Start a command from the daemon
+     * 
+     * @param command The command and its arguments
+     * @param workingDir The directory to run it in
+     * @param env Environment variables to add to the daemon's for the command
+     * @param script Where to write the launch script
+     * @return The pid of the started process
+     * @throws IOException If the daemon can't be started or doesn't answer
+     */
+    public synchronized int launch(List<String> command, File workingDir, Map<String, String> env, File script)
+            throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append("cd ").append(quote(workingDir.getAbsolutePath())).append(" || exit 127\n");
+        text.append("exec env");
+        for(Map.Entry<String, String> entry: env.entrySet())
+            text.append(' ').append(quote(entry.getKey() + "=" + entry.getValue()));
+        for(String arg: command)
+            text.append(' ').append(quote(arg));
+        text.append('\n');
+        FileUtils.writeStringToFile(script, text.toString());
+
+        for(int attempt = 0;; attempt++) {
+            if(_daemon == null)
+                startDaemon();
+            try {
+                _requests.write(script.getAbsolutePath() + "\n");
+                _requests.flush();
+                String pid = _replies.readLine();
+                if(pid == null)
+                    throw new IOException("The launcher daemon exited.");
+                return Integer.parseInt(pid.trim());
+            } catch(IOException e) {
+                shutdown();
+                if(attempt > 0)
+                    throw e;
+                logger.warn("Restarting the launcher daemon: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop the daemon. Processes it started carry on.
+     */
+    public synchronized void shutdown() {
+        if(_daemon != null) {
+            _daemon.destroy();
+            _daemon = null;
+        }
+    }
+
+    private void startDaemon() throws IOException {
+        _daemon = new ProcessBuilder("sh", "-c", SCRIPT, "azkaban-launcher").start();
+        _requests = new OutputStreamWriter(_daemon.getOutputStream(), "UTF-8");
+        _replies = new BufferedReader(new InputStreamReader(_daemon.getInputStream(), "UTF-8"));
+        logger.info("Started the launcher daemon.");
+    }
+
+    /**
+     * @return The argument quoted for sh, in single quotes
+     */
+    static String quote(String arg) {
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Runs a command under a small shell supervisor that outlives the JVM that
+ * started it.
+ * 
+ * The supervisor starts the command with its output redirected to files in a
+ * run directory and records there the pid of the command, its own pid and,
+ * once the command is done, its exit status. Nothing ties the command to the
+ * JVM: if Azkaban goes away, the command carries on, and a later Azkaban can
+ * adopt the run directory, follow the output files from where they are and
+ * collect the exit status.
+ * 
+ * Run directory layout: pid, supervisor.pid, started (epoch millis),
+ * supervisor.start (the supervisor's start time from /proc, where there is
+ * one, to tell it apart from a later process reusing its pid), stdout, stderr
+ * and exit.
+ */
+public class ProcessSupervisor {
+
+    public static final String PID_FILE = "pid";
+    public static final String SUPERVISOR_PID_FILE = "supervisor.pid";
+    public static final String SUPERVISOR_START_FILE = "supervisor.start";
+    public static final String STARTED_FILE = "started";
+    public static final String EXIT_FILE = "exit";
+    public static final String STDOUT_FILE = "stdout";
+    public static final String STDERR_FILE = "stderr";
+    public static final String SUPERVISOR_NAME = "azkaban-supervisor";
+
+    private static final int POLL_MS = 200;
+
+    /*
+     * $1 is the run directory, the rest is the command. HUP is ignored so that
+     * neither the supervisor nor the command dies with Azkaban's session, and
+     * every file is written under a temporary name and renamed, so readers
+     * never see half of one.
+     */
+    private static final String SCRIPT = "trap '' HUP\n"
+                                         + "run=\"$1\"; shift\n"
+                                         + "echo $$ > \"$run/supervisor.pid.tmp\" && mv \"$run/supervisor.pid.tmp\" \"$run/supervisor.pid\"\n"
+                                         + "\"$@\" > \"$run/stdout\" 2> \"$run/stderr\" < /dev/null &\n"
+                                         + "child=$!\n"
+                                         + "echo $child > \"$run/pid.tmp\" && mv \"$run/pid.tmp\" \"$run/pid\"\n"
+                                         + "wait $child\n"
+                                         + "code=$?\n"
+                                         + "echo $code > \"$run/exit.tmp\" && mv \"$run/exit.tmp\" \"$run/exit\"\n"
+                                         + "exit $code\n";
+
+    private final File _runDir;
+    private volatile Process _process;
+    private volatile int _launchedPid;
+
+    public ProcessSupervisor(File runDir) {
+        this._runDir = runDir;
+    }
+
+    public File getRunDir() {
+        return _runDir;
+    }
+
+    /**
+     * Start the command under a new supervisor. Whatever a previous run left
+     * in the run directory is removed first.
+     */
+    public void start(String[] command, File workingDir, Map<String, String> env) throws IOException {
+        start(command, workingDir, env, null);
+    }
+
+    /**
+     * Start the command under a new supervisor, forked by the given launcher
+     * rather than by this JVM if there is one.
+     */
+    public void start(String[] command, File workingDir, Map<String, String> env, ProcessLauncher launcher)
+            throws IOException {
+        if(_runDir.exists())
+            FileUtils.deleteDirectory(_runDir);
+        if(!_runDir.mkdirs())
+            throw new IOException("Could not create run directory " + _runDir);
+
+        List<String> args = new ArrayList<String>();
+        args.add("sh");
+        args.add("-c");
+        args.add(SCRIPT);
+        args.add(SUPERVISOR_NAME);
+        args.add(_runDir.getAbsolutePath());
+        args.addAll(Arrays.asList(command));
+
+        writeFile(STARTED_FILE, String.valueOf(System.currentTimeMillis()));
+        if(launcher != null) {
+            _launchedPid = launcher.launch(args, workingDir, env, new File(_runDir, "launch"));
+        } else {
+            ProcessBuilder builder = new ProcessBuilder(args);
+            builder.directory(workingDir);
+            builder.environment().putAll(env);
+            builder.redirectErrorStream(true);
+            _process = builder.start();
+            _process.getOutputStream().close();
+        }
+
+        String startTime = ProcessTree.getStartTime(waitForPid(SUPERVISOR_PID_FILE));
+        if(startTime != null)
+            writeFile(SUPERVISOR_START_FILE, startTime);
+    }
+
+    /**
+     * @return whether the run directory holds a command that is still running
+     *         or has finished but was never collected
+     */
+    public boolean canAdopt() {
+        return hasExited() || isSupervisorAlive();
+    }
+
+    public boolean hasExited() {
+        return new File(_runDir, EXIT_FILE).exists();
+    }
+
+    /**
+     * @return the exit status of the command, or null if it has not exited
+     */
+    public Integer getExitCode() {
+        String code = readFile(EXIT_FILE);
+        return code == null ? null : Integer.valueOf(code);
+    }
+
+    /**
+     * @return the pid of the command, or 0 if it is not known (yet)
+     */
+    public int getPid() {
+        String pid = readFile(PID_FILE);
+        return pid == null ? 0 : Integer.parseInt(pid);
+    }
+
+    /**
+     * @return the pid of the supervisor, or 0 if it is not known (yet)
+     */
+    public int getSupervisorPid() {
+        String pid = readFile(SUPERVISOR_PID_FILE);
+        return pid == null ? 0 : Integer.parseInt(pid);
+    }
+
+    public long getStartedMillis() {
+        String started = readFile(STARTED_FILE);
+        return started == null ? 0 : Long.parseLong(started);
+    }
+
+    public boolean isSupervisorAlive() {
+        String pid = readFile(SUPERVISOR_PID_FILE);
+        if(pid == null)
+            return false;
+
+        File proc = new File("/proc");
+        if(proc.isDirectory()) {
+            String recorded = readFile(SUPERVISOR_START_FILE);
+            // A zombie is dead, its parent just hasn't collected it yet.
+            ProcessTree.Stat stat = ProcessTree.readStat(Integer.parseInt(pid));
+            return stat != null && !stat.zombie && (recorded == null || recorded.equals(stat.startTime));
+        }
+
+        try {
+            return Runtime.getRuntime().exec(new String[] { "kill", "-0", pid }).waitFor() == 0;
+        } catch(IOException e) {
+            return false;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wait for the command to exit.
+     * 
+     * @return its exit status
+     * @throws IllegalStateException if the supervisor went away without
+     *         recording one
+     */
+    public int waitFor() throws InterruptedException {
+        if(_process != null)
+            _process.waitFor();
+
+        while(!hasExited()) {
+            if(!isSupervisorAlive() && !hasExited())
+                throw new IllegalStateException("The supervisor in " + _runDir
+                                                + " died without recording an exit status.");
+            Thread.sleep(POLL_MS);
+        }
+
+        return getExitCode();
+    }
+
+    /**
+     * @return An OutputReactor.Completion for the output files of the
+     *         process, complete once it has exited or its supervisor has gone
+     */
+    public OutputReactor.Completion exited() {
+        return new OutputReactor.Completion() {
+
+            public boolean isComplete() {
+                return hasExited() || !isSupervisorAlive();
+            }
+        };
+    }
+
+    /**
+     * @return the named output file from its start, read as it grows until
+     *         the command is done
+     */
+    public InputStream follow(String fileName) {
+        return new FollowingInputStream(new File(_runDir, fileName));
+    }
+
+    /**
+     * Ask the command to terminate.
+     */
+    public void kill() throws IOException {
+        int pid = getPid();
+        if(pid != 0)
+            Runtime.getRuntime().exec(new String[] { "kill", String.valueOf(pid) });
+    }
+
+    public void destroy() {
+        if(_process != null) {
+            _process.destroy();
+        } else if(_launchedPid != 0) {
+            try {
+                Runtime.getRuntime().exec(new String[] { "kill", String.valueOf(_launchedPid) });
+            } catch(IOException e) {
+                // The supervisor is left to finish on its own.
+            }
+        }
+    }
+
+    /**
+     * Remove the run directory once the outcome has been collected.
+     */
+    public void cleanUp() {
+        try {
+            FileUtils.deleteDirectory(_runDir);
+        } catch(IOException e) {
+            // Left behind, it is replaced by the next start in the same directory.
+        }
+    }
+
+    private int waitForPid(String fileName) throws IOException {
+        for(int i = 0; i < 10000 / POLL_MS; i++) {
+            String pid = readFile(fileName);
+            if(pid != null)
+                return Integer.parseInt(pid);
+            try {
+                Thread.sleep(POLL_MS / 4);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        throw new IOException("The supervisor in " + _runDir + " did not record its pid.");
+    }
+
+    private String readFile(String fileName) {
+        File file = new File(_runDir, fileName);
+        if(!file.exists())
+            return null;
+
+        try {
+            String contents = FileUtils.readFileToString(file).trim();
+            return contents.length() == 0 ? null : contents;
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private void writeFile(String fileName, String contents) throws IOException {
+        File tmp = new File(_runDir, fileName + ".tmp");
+        FileUtils.writeStringToFile(tmp, contents);
+        if(!tmp.renameTo(new File(_runDir, fileName)))
+            throw new IOException("Could not rename " + tmp);
+    }
+
+    /**
+     * Reads a file that another process is still appending to. At the end of
+     * the file it waits for more, until the command has exited and everything
+     * it wrote has been read.
+     */
+    private class FollowingInputStream extends InputStream {
+
+        private final File _file;
+        private RandomAccessFile _in;
+
+        private FollowingInputStream(File file) {
+            this._file = file;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            while(true) {
+                if(_in == null && _file.exists())
+                    _in = new RandomAccessFile(_file, "r");
+
+                // Check before reading, so nothing written before the exit is missed.
+                boolean done = hasExited() || !isSupervisorAlive();
+                if(_in != null) {
+                    int read = _in.read(b, off, len);
+                    if(read > 0)
+                        return read;
+                }
+                if(done)
+                    return -1;
+
+                try {
+                    Thread.sleep(POLL_MS);
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            if(_in == null && _file.exists())
+                _in = new RandomAccessFile(_file, "r");
+            if(_in == null)
+                return 0;
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, _in.length() - _in.getFilePointer()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(_in != null)
+                _in.close();
+        }
+    }
+}
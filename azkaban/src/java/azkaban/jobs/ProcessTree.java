@@ -0,0 +1,381 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.jobs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A process together with everything it started, found by walking /proc, so
+ * that it can be terminated as a whole.
+ * 
+ * Children that outlive their parent are reparented away from it, so the
+ * members found are remembered from one look to the next, and processes can
+ * also be claimed by the execution id and job name in their environment, the
+ * tag ProcessJob gives everything it starts, or by the session of a command
+ * that was started in a new one. A remembered member is known by its start
+ * time as well as its pid, so a later process that reuses the pid is left
+ * alone.
+ * 
+ * Without /proc only the process itself and its process group are signalled.
+ */
+public class ProcessTree {
+
+    public static final String EXECUTION_ID_ENV = "AZKABAN_EXECUTION_ID";
+    public static final String INSTANCE_ENV = "AZKABAN_INSTANCE";
+
+    private static final File PROC = new File("/proc");
+    private static final int POLL_MS = 100;
+    private static final String[] SETSID_PATHS = { "/usr/bin/setsid", "/bin/setsid" };
+
+    private final int _rootPid;
+    private final Set<Integer> _excluded = new HashSet<Integer>();
+    private final Map<Integer, String> _members = new HashMap<Integer, String>();
+    private String _executionId;
+    private String _jobName;
+    private int _session;
+
+    public ProcessTree(int rootPid) {
+        this._rootPid = rootPid;
+    }
+
+    /**
+     * Also claim the processes tagged with the given execution and job, by
+     * the Azkaban instance in this JVM
+     */
+    public ProcessTree tagged(String executionId, String jobName) {
+        this._executionId = executionId;
+        this._jobName = jobName;
+        return this;
+    }
+
+    /**
+     * Never claim the given process, nor signal it
+     */
+    public ProcessTree excluding(int pid) {
+        _excluded.add(pid);
+        return this;
+    }
+
+    /**
+     * Look for the members again
+     * 
+     * @return The pids of the members that are alive
+     */
+    public synchronized Set<Integer> refresh() {
+        return refresh(isSupported() ? readStats() : null);
+    }
+
+    /**
+     * Look for the members again in what readStats returned, so that one
+     * pass over /proc can serve many trees
+     * 
+     * @return The pids of the members that are alive
+     */
+    synchronized Set<Integer> refresh(Map<Integer, Stat> stats) {
+        if(!isSupported())
+            return _rootPid > 0 && isAlive(_rootPid) ? Collections.singleton(_rootPid) : Collections.<Integer> emptySet();
+
+        Stat root = stats.get(_rootPid);
+        if(_session == 0 && root != null && root.session == _rootPid)
+            _session = _rootPid;
+
+        // Forget the members that have gone, and the pids that now belong to someone else.
+        for(Integer pid: new ArrayList<Integer>(_members.keySet())) {
+            Stat stat = stats.get(pid);
+            if(stat == null || stat.zombie || !stat.startTime.equals(_members.get(pid)))
+                _members.remove(pid);
+        }
+
+        List<Integer> pending = new ArrayList<Integer>();
+        if(root != null && claim(root))
+            pending.add(_rootPid);
+        for(Stat stat: stats.values()) {
+            if(((_session != 0 && stat.session == _session) || isTagged(stat.pid)) && claim(stat))
+                pending.add(stat.pid);
+        }
+        pending.addAll(_members.keySet());
+
+        // Then everything below the members, until nothing new turns up.
+        Map<Integer, List<Stat>> children = new HashMap<Integer, List<Stat>>();
+        for(Stat stat: stats.values()) {
+            List<Stat> siblings = children.get(stat.ppid);
+            if(siblings == null) {
+                siblings = new ArrayList<Stat>();
+                children.put(stat.ppid, siblings);
+            }
+            siblings.add(stat);
+        }
+        while(!pending.isEmpty()) {
+            List<Stat> below = children.get(pending.remove(pending.size() - 1));
+            if(below == null)
+                continue;
+            for(Stat child: below) {
+                if(claim(child))
+                    pending.add(child.pid);
+            }
+        }
+
+        return new HashSet<Integer>(_members.keySet());
+    }
+
+    /**
+     * @return Whether the process is a new member
+     */
+    private boolean claim(Stat stat) {
+        if(stat.zombie || _excluded.contains(stat.pid) || _members.containsKey(stat.pid))
+            return false;
+        _members.put(stat.pid, stat.startTime);
+        return true;
+    }
+
+    /**
+     * Send the signal, by name, to every member
+     */
+    public synchronized void signal(String signal) throws IOException {
+        List<String> args = new ArrayList<String>();
+        args.add("kill");
+        args.add("-" + signal);
+        args.add("--");
+        if(isSupported()) {
+            for(Integer pid: refresh())
+                args.add(String.valueOf(pid));
+        } else if(_rootPid > 0) {
+            args.add(String.valueOf(_rootPid));
+            args.add(String.valueOf(-_rootPid));
+        }
+        if(args.size() == 3)
+            return;
+
+        try {
+            // Members may exit meanwhile, so kill failing on some of them is expected.
+            new ProcessBuilder(args).redirectErrorStream(true).start().waitFor();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Send the signals in turn, each one after the members have had graceMs
+     * to exit after the one before, until none is left.
+     * 
+     * @return Whether all the members have exited
+     */
+    public boolean terminate(List<String> signals, long graceMs) throws IOException {
+        for(String signal: signals) {
+            if(refresh().isEmpty())
+                return true;
+            signal(signal);
+            if(awaitExit(graceMs))
+                return true;
+        }
+        return refresh().isEmpty();
+    }
+
+    /**
+     * Wait up to timeoutMs for the members to exit
+     * 
+     * @return Whether they all have
+     */
+    public boolean awaitExit(long timeoutMs) {
+        long end = System.currentTimeMillis() + timeoutMs;
+        while(!refresh().isEmpty()) {
+            if(System.currentTimeMillis() >= end)
+                return false;
+            try {
+                Thread.sleep(POLL_MS);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return refresh().isEmpty();
+            }
+        }
+        return true;
+    }
+
+    private boolean isTagged(int pid) {
+        if(_executionId == null || !_executionId.equals(getEnvironment(pid, EXECUTION_ID_ENV))
+           || !_jobName.equals(getEnvironment(pid, ProcessJob.JOB_NAME_ENV)))
+            return false;
+        String instance = getEnvironment(pid, INSTANCE_ENV);
+        return OrphanReaper.getInstance() == null ? instance == null : OrphanReaper.getInstance().equals(instance);
+    }
+
+    /**
+     * @return Whether processes can be found through /proc here
+     */
+    public static boolean isSupported() {
+        return PROC.isDirectory();
+    }
+
+    /**
+     * @return The command prefixed with setsid, so it starts in a session and
+     *         process group of its own, or the command as it is where there is
+     *         no setsid
+     */
+    public static String[] inNewSession(String[] command) {
+        for(String path: SETSID_PATHS) {
+            if(new File(path).canExecute()) {
+                String[] retVal = new String[command.length + 1];
+                retVal[0] = path;
+                System.arraycopy(command, 0, retVal, 1, command.length);
+                return retVal;
+            }
+        }
+        return command;
+    }
+
+    /**
+     * @return the start time field of /proc/[pid]/stat, or null without /proc
+     *         or without the process
+     */
+    public static String getStartTime(int pid) {
+        Stat stat = readStat(pid);
+        return stat == null ? null : stat.startTime;
+    }
+
+    /**
+     * @return the parent of the process, or 0 if it isn't known
+     */
+    public static int getParentPid(int pid) {
+        Stat stat = readStat(pid);
+        return stat == null ? 0 : stat.ppid;
+    }
+
+    /**
+     * @return the value of the variable in the environment the process was
+     *         started with, or null if it has none or can't be read
+     */
+    public static String getEnvironment(int pid, String name) {
+        String prefix = name + "=";
+        for(String entry: readNulSeparated(pid, "environ")) {
+            if(entry.startsWith(prefix))
+                return entry.substring(prefix.length());
+        }
+        return null;
+    }
+
+    /**
+     * @return the command line of the process, or an empty list if it can't
+     *         be read
+     */
+    public static List<String> getCommandLine(int pid) {
+        return readNulSeparated(pid, "cmdline");
+    }
+
+    /**
+     * @return the pids of the processes that are alive and not zombies
+     */
+    public static Set<Integer> getPids() {
+        Set<Integer> retVal = new HashSet<Integer>();
+        for(Stat stat: readStats().values()) {
+            if(!stat.zombie)
+                retVal.add(stat.pid);
+        }
+        return retVal;
+    }
+
+    private static boolean isAlive(int pid) {
+        if(isSupported()) {
+            Stat stat = readStat(pid);
+            return stat != null && !stat.zombie;
+        }
+        try {
+            return Runtime.getRuntime().exec(new String[] { "kill", "-0", String.valueOf(pid) }).waitFor() == 0;
+        } catch(IOException e) {
+            return false;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static List<String> readNulSeparated(int pid, String fileName) {
+        List<String> retVal = new ArrayList<String>();
+        try {
+            String contents = FileUtils.readFileToString(new File(PROC, pid + "/" + fileName));
+            for(String entry: contents.split("\0")) {
+                if(entry.length() > 0)
+                    retVal.add(entry);
+            }
+        } catch(IOException e) {
+            // Gone, or someone else's.
+        }
+        return retVal;
+    }
+
+    static Map<Integer, Stat> readStats() {
+        Map<Integer, Stat> retVal = new HashMap<Integer, Stat>();
+        String[] names = PROC.list();
+        if(names == null)
+            return retVal;
+        for(String name: names) {
+            if(name.length() == 0 || !Character.isDigit(name.charAt(0)))
+                continue;
+            Stat stat = readStat(Integer.parseInt(name));
+            if(stat != null)
+                retVal.put(stat.pid, stat);
+        }
+        return retVal;
+    }
+
+    static Stat readStat(int pid) {
+        File file = new File(PROC, pid + "/stat");
+        if(!file.exists())
+            return null;
+
+        try {
+            String contents = FileUtils.readFileToString(file);
+            // The command name may contain spaces, but it is the only field in parentheses.
+            String[] fields = contents.substring(contents.lastIndexOf(')') + 2).split(" ");
+            Stat stat = new Stat();
+            stat.pid = pid;
+            stat.zombie = fields[0].equals("Z") || fields[0].equals("X");
+            stat.ppid = Integer.parseInt(fields[1]);
+            stat.session = Integer.parseInt(fields[3]);
+            stat.cpuTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            stat.startTime = fields[19];
+            return stat;
+        } catch(IOException e) {
+            return null;
+        } catch(RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The fields of /proc/[pid]/stat that are of use here
+     */
+    static class Stat {
+
+        int pid;
+        int ppid;
+        int session;
+        boolean zombie;
+        long cpuTicks;
+        String startTime;
+    }
+}
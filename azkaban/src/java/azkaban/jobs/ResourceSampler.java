@@ -0,0 +1,243 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.jobs;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Samples what the processes of a ProcessTree use, from /proc/[pid]/stat,
+ * status and io, on one background thread shared by all the samplers of the
+ * JVM. The samplers with the same interval are sampled together, from one
+ * pass over /proc per interval rather than one per sampler.
+ * 
+ * CPU time and bytes read and written are the last values sampled from each
+ * process, added up over every process seen, so whatever a process does after
+ * the last sample before it exits, or a process that comes and goes between
+ * two samples, is missed. Peak RSS and threads are the most the members held
+ * at once at a sample.
+ */
+public class ResourceSampler {
+
+    private static final Logger logger = Logger.getLogger(ResourceSampler.class);
+
+    private static final ScheduledExecutorService _executor = Executors.newSingleThreadScheduledExecutor(new SamplerThreadFactory());
+    // The samplers sampled together, by their interval.
+    private static final Map<Long, Tick> _ticks = new HashMap<Long, Tick>();
+
+    private static long _ticksPerSecond;
+
+    private final ProcessTree _tree;
+    // By pid and start time, the cpu ticks, bytes read and bytes written last sampled.
+    private final Map<String, long[]> _counters = new HashMap<String, long[]>();
+    private long _peakRssBytes;
+    private int _peakThreads;
+    private long _intervalMs;
+
+    public ResourceSampler(ProcessTree tree) {
+        this._tree = tree;
+    }
+
+    /**
+     * Sample now and every intervalMs from now on, until stopped
+     */
+    public ResourceSampler start(long intervalMs) {
+        sample();
+        synchronized(_ticks) {
+            _intervalMs = intervalMs;
+            Tick tick = _ticks.get(intervalMs);
+            if(tick == null) {
+                tick = new Tick();
+                tick.future = _executor.scheduleWithFixedDelay(tick, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+                _ticks.put(intervalMs, tick);
+            }
+            tick.samplers.add(this);
+        }
+        return this;
+    }
+
+    /**
+     * Stop sampling, after a last sample
+     * 
+     * @return What was used
+     */
+    public ResourceUsage stop() {
+        synchronized(_ticks) {
+            Tick tick = _ticks.get(_intervalMs);
+            if(tick != null && tick.samplers.remove(this) && tick.samplers.isEmpty()) {
+                tick.future.cancel(false);
+                _ticks.remove(_intervalMs);
+            }
+        }
+        sample();
+        return getUsage();
+    }
+
+    /**
+     * Take one sample
+     */
+    public void sample() {
+        sample(ProcessTree.isSupported() ? ProcessTree.readStats() : null);
+    }
+
+    /*
+     * Take one sample, from what ProcessTree.readStats returned.
+     */
+    private synchronized void sample(Map<Integer, ProcessTree.Stat> stats) {
+        long rssBytes = 0;
+        int threads = 0;
+        for(Integer pid: _tree.refresh(stats)) {
+            ProcessTree.Stat stat = stats == null ? null : stats.get(pid);
+            if(stat == null || stat.zombie)
+                continue;
+
+            Map<String, String> io = readFields(pid, "io");
+            _counters.put(pid + "@" + stat.startTime, new long[] { stat.cpuTicks,
+                    parseLong(io.get("read_bytes")), parseLong(io.get("write_bytes")) });
+
+            Map<String, String> status = readFields(pid, "status");
+            rssBytes += parseLong(status.get("VmRSS")) * 1024;
+            threads += (int) parseLong(status.get("Threads"));
+        }
+        _peakRssBytes = Math.max(_peakRssBytes, rssBytes);
+        _peakThreads = Math.max(_peakThreads, threads);
+    }
+
+    public synchronized ResourceUsage getUsage() {
+        long ticks = 0;
+        long read = 0;
+        long written = 0;
+        for(long[] counters: _counters.values()) {
+            ticks += counters[0];
+            read += counters[1];
+            written += counters[2];
+        }
+        return new ResourceUsage(ticks * 1000 / getTicksPerSecond(), _peakRssBytes, read, written, _peakThreads);
+    }
+
+    /**
+     * @return The "name: value" lines of /proc/[pid]/[fileName] by name, or
+     *         nothing if it can't be read
+     */
+    private static Map<String, String> readFields(int pid, String fileName) {
+        Map<String, String> retVal = new HashMap<String, String>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader("/proc/" + pid + "/" + fileName));
+            for(String line = reader.readLine(); line != null; line = reader.readLine()) {
+                int colon = line.indexOf(':');
+                if(colon > 0)
+                    retVal.put(line.substring(0, colon), line.substring(colon + 1).trim());
+            }
+        } catch(IOException e) {
+            // Gone, or not ours to read.
+        } finally {
+            if(reader != null) {
+                try {
+                    reader.close();
+                } catch(IOException e) {
+                    // Nothing more to read anyway.
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * @return The number at the start of the value, such as 1024 of "1024 kB",
+     *         or 0 if there is none
+     */
+    private static long parseLong(String value) {
+        if(value == null)
+            return 0;
+        int end = 0;
+        while(end < value.length() && Character.isDigit(value.charAt(end)))
+            end++;
+        return end == 0 ? 0 : Long.parseLong(value.substring(0, end));
+    }
+
+    /**
+     * @return The clock ticks per second /proc counts CPU time in, which is
+     *         100 nearly everywhere
+     */
+    private static synchronized long getTicksPerSecond() {
+        if(_ticksPerSecond == 0) {
+            _ticksPerSecond = 100;
+            try {
+                Process process = new ProcessBuilder("getconf", "CLK_TCK").redirectErrorStream(true).start();
+                String ticks = new BufferedReader(new InputStreamReader(process.getInputStream())).readLine();
+                if(process.waitFor() == 0 && ticks != null && parseLong(ticks.trim()) > 0)
+                    _ticksPerSecond = parseLong(ticks.trim());
+            } catch(IOException e) {
+                // Stay with the usual.
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return _ticksPerSecond;
+    }
+
+    /*
+     * Samples every sampler of one interval, from one pass over /proc.
+     */
+    private static class Tick implements Runnable {
+
+        final Set<ResourceSampler> samplers = new LinkedHashSet<ResourceSampler>();
+        ScheduledFuture<?> future;
+
+        public void run() {
+            List<ResourceSampler> sampled;
+            synchronized(_ticks) {
+                sampled = new ArrayList<ResourceSampler>(samplers);
+            }
+            Map<Integer, ProcessTree.Stat> stats = ProcessTree.isSupported() ? ProcessTree.readStats() : null;
+            for(ResourceSampler sampler: sampled) {
+                try {
+                    sampler.sample(stats);
+                } catch(RuntimeException e) {
+                    logger.warn("Sampling resource usage failed, will retry on next interval.", e);
+                }
+            }
+        }
+    }
+
+    private static class SamplerThreadFactory implements ThreadFactory {
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "resource-sampler");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.jobs;
+
+import org.joda.time.Duration;
+import org.joda.time.Period;
+
+import azkaban.common.utils.Props;
+
+/**
+ * What the processes of a job used: their CPU time, the most memory and
+ * threads they held at once, and what they read from and wrote to storage.
+ */
+public class ResourceUsage {
+
+    public static final String CPU_MS = "resource.cpu.ms";
+    public static final String PEAK_RSS_BYTES = "resource.rss.peak.bytes";
+    public static final String READ_BYTES = "resource.io.read.bytes";
+    public static final String WRITE_BYTES = "resource.io.write.bytes";
+    public static final String PEAK_THREADS = "resource.threads.peak";
+
+    private final long _cpuMillis;
+    private final long _peakRssBytes;
+    private final long _readBytes;
+    private final long _writeBytes;
+    private final int _peakThreads;
+
+    public ResourceUsage(long cpuMillis, long peakRssBytes, long readBytes, long writeBytes, int peakThreads) {
+        this._cpuMillis = cpuMillis;
+        this._peakRssBytes = peakRssBytes;
+        this._readBytes = readBytes;
+        this._writeBytes = writeBytes;
+        this._peakThreads = peakThreads;
+    }
+
+    /**
+     * @return The usage recorded in the properties by storeIn, or null if
+     *         there is none
+     */
+    public static ResourceUsage fromProps(Props props) {
+        if(props == null || !props.containsKey(CPU_MS))
+            return null;
+        return new ResourceUsage(props.getLong(CPU_MS),
+                                 props.getLong(PEAK_RSS_BYTES, 0),
+                                 props.getLong(READ_BYTES, 0),
+                                 props.getLong(WRITE_BYTES, 0),
+                                 props.getInt(PEAK_THREADS, 0));
+    }
+
+    public void storeIn(Props props) {
+        props.put(CPU_MS, Long.toString(_cpuMillis));
+        props.put(PEAK_RSS_BYTES, Long.toString(_peakRssBytes));
+        props.put(READ_BYTES, Long.toString(_readBytes));
+        props.put(WRITE_BYTES, Long.toString(_writeBytes));
+        props.put(PEAK_THREADS, Integer.toString(_peakThreads));
+    }
+
+    /**
+     * @return The usage of this and of other one after the other: the totals
+     *         added up and the larger of the peaks
+     */
+    public ResourceUsage plus(ResourceUsage other) {
+        return new ResourceUsage(_cpuMillis + other._cpuMillis,
+                                 Math.max(_peakRssBytes, other._peakRssBytes),
+                                 _readBytes + other._readBytes,
+                                 _writeBytes + other._writeBytes,
+                                 Math.max(_peakThreads, other._peakThreads));
+    }
+
+    public long getCpuMillis() {
+        return _cpuMillis;
+    }
+
+    public Period getCpuTime() {
+        return new Duration(_cpuMillis).toPeriod();
+    }
+
+    public long getPeakRssBytes() {
+        return _peakRssBytes;
+    }
+
+    public long getReadBytes() {
+        return _readBytes;
+    }
+
+    public long getWriteBytes() {
+        return _writeBytes;
+    }
+
+    public int getPeakThreads() {
+        return _peakThreads;
+    }
+
+    @Override
+    public String toString() {
+        return "cpu " + _cpuMillis + " ms, peak rss " + _peakRssBytes + " bytes, read " + _readBytes
+               + " bytes, written " + _writeBytes + " bytes, peak threads " + _peakThreads;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.serialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * A compact, versioned binary encoding of executions.
+ *
+ * The format starts with the magic bytes "AZX", a format version and a flags byte.  What follows, deflated if
+ * the flags say so, is a dictionary holding every distinct string once and then the tree of values.  Strings in the
+ * tree are varint indices into the dictionary, ISO timestamps are varint epoch millis plus their zone offset, and
+ * "status" values are an index into the statuses known to the format version.
+ *
+ * Timestamps and statuses only get their short form when decoding it gives back the very same string, so a
+ * decoded execution always equals the one that was encoded, apart from sets coming back as lists as they do from
+ * JSON.
+ */
+public class BinaryExecutionCodec implements ExecutionCodec
+{
+    private static final byte[] MAGIC = { 'A', 'Z', 'X' };
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATED = 1;
+
+    // The statuses of format version 1, in the order they are numbered.  Only ever append to this.
+    private static final String[] STATUSES = { "RUNNING", "SUCCEEDED", "FAILED", "READY", "COMPLETED" };
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_MAP = 1;
+    private static final int TAG_LIST = 2;
+    private static final int TAG_STRING = 3;
+    private static final int TAG_TIME = 4;
+    private static final int TAG_STATUS = 5;
+
+    private final boolean deflate;
+
+    public BinaryExecutionCodec(boolean deflate)
+    {
+        this.deflate = deflate;
+    }
+
+    @Override
+    public byte[] encode(Map<String, Object> descriptor)
+    {
+        try {
+            Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+            ByteArrayOutputStream tree = new ByteArrayOutputStream();
+            writeValue(tree, null, descriptor, dictionary);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(tree.size() + 64);
+            bytes.write(MAGIC);
+            bytes.write(VERSION);
+            bytes.write(deflate ? FLAG_DEFLATED : 0);
+
+            OutputStream body = deflate ? new DeflaterOutputStream(bytes) : bytes;
+            writeVarint(body, dictionary.size());
+            for (String s : dictionary.keySet()) {
+                byte[] utf8 = s.getBytes("UTF-8");
+                writeVarint(body, utf8.length);
+                body.write(utf8);
+            }
+            tree.writeTo(body);
+            body.close();
+
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> decode(byte[] bytes)
+    {
+        if (! canDecode(bytes)) {
+            throw new IllegalArgumentException("Not a binary execution.");
+        }
+        if (bytes[MAGIC.length] != VERSION) {
+            throw new IllegalArgumentException(String.format("Unknown binary execution version[%s].", bytes[MAGIC.length]));
+        }
+
+        try {
+            InputStream body = new ByteArrayInputStream(bytes, MAGIC.length + 2, bytes.length - MAGIC.length - 2);
+            if ((bytes[MAGIC.length + 1] & FLAG_DEFLATED) != 0) {
+                body = new InflaterInputStream(body);
+            }
+            DataInputStream in = new DataInputStream(body);
+
+            String[] dictionary = new String[readVarint(in)];
+            for (int i = 0; i < dictionary.length; ++i) {
+                byte[] utf8 = new byte[readVarint(in)];
+                in.readFully(utf8);
+                dictionary[i] = new String(utf8, "UTF-8");
+            }
+
+            Object value = readValue(in, dictionary);
+            if (! (value instanceof Map)) {
+                throw new IllegalArgumentException("Binary execution does not hold a map.");
+            }
+
+            @SuppressWarnings("unchecked")
+            Map<String, Object> retVal = (Map<String, Object>) value;
+            return retVal;
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Could not decode binary execution.", e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes)
+    {
+        if (bytes.length < MAGIC.length + 2) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; ++i) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return deflate ? "binary-deflate" : "binary";
+    }
+
+    private void writeValue(OutputStream out, String key, Object value, Map<String, Integer> dictionary) throws IOException
+    {
+        if (value == null) {
+            out.write(TAG_NULL);
+        }
+        else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.write(TAG_MAP);
+            writeVarint(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                String entryKey = String.valueOf(entry.getKey());
+                writeVarint(out, indexOf(entryKey, dictionary));
+                writeValue(out, entryKey, entry.getValue(), dictionary);
+            }
+        }
+        else if (value instanceof Iterable) {
+            List<Object> elements = new ArrayList<Object>();
+            for (Object element : (Iterable<?>) value) {
+                elements.add(element);
+            }
+            out.write(TAG_LIST);
+            writeVarint(out, elements.size());
+            for (Object element : elements) {
+                writeValue(out, null, element, dictionary);
+            }
+        }
+        else {
+            final String s = value.toString();
+
+            final int status = "status".equals(key) ? statusIndex(s) : -1;
+            if (status >= 0) {
+                out.write(TAG_STATUS);
+                writeVarint(out, status);
+                return;
+            }
+
+            final DateTime time = asTime(s);
+            if (time != null) {
+                out.write(TAG_TIME);
+                writeVarint(out, zigZag(time.getMillis()));
+                writeVarint(out, zigZag(time.getZone().getOffset(time.getMillis()) / 60000));
+                return;
+            }
+
+            out.write(TAG_STRING);
+            writeVarint(out, indexOf(s, dictionary));
+        }
+    }
+
+    private Object readValue(DataInputStream in, String[] dictionary) throws IOException
+    {
+        final int tag = in.readUnsignedByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_MAP: {
+                final int size = readVarint(in);
+                Map<String, Object> map = new HashMap<String, Object>(size * 2);
+                for (int i = 0; i < size; ++i) {
+                    String key = dictionary[readVarint(in)];
+                    map.put(key, readValue(in, dictionary));
+                }
+                return map;
+            }
+            case TAG_LIST: {
+                final int size = readVarint(in);
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; ++i) {
+                    list.add(readValue(in, dictionary));
+                }
+                return list;
+            }
+            case TAG_STRING:
+                return dictionary[readVarint(in)];
+            case TAG_TIME: {
+                final long millis = unZigZag(readVarintLong(in));
+                final int offsetMinutes = (int) unZigZag(readVarintLong(in));
+                return new DateTime(millis, DateTimeZone.forOffsetMillis(offsetMinutes * 60000)).toString();
+            }
+            case TAG_STATUS:
+                return STATUSES[readVarint(in)];
+            default:
+                throw new IOException(String.format("Unknown tag[%s] in binary execution.", tag));
+        }
+    }
+
+    private static int indexOf(String s, Map<String, Integer> dictionary)
+    {
+        Integer index = dictionary.get(s);
+        if (index == null) {
+            index = dictionary.size();
+            dictionary.put(s, index);
+        }
+        return index;
+    }
+
+    private static int statusIndex(String s)
+    {
+        for (int i = 0; i < STATUSES.length; ++i) {
+            if (STATUSES[i].equals(s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Returns the timestamp held by a string if it prints back to exactly the same string.
+     */
+    private static DateTime asTime(String s)
+    {
+        // Cheap checks first: yyyy-MM-ddTHH:mm:ss.SSS followed by an offset.
+        if (s.length() < 24 || s.length() > 29 || s.charAt(4) != '-' || s.charAt(10) != 'T' || ! Character.isDigit(s.charAt(0))) {
+            return null;
+        }
+
+        try {
+            DateTime parsed = new DateTime(s);
+            int offset = parsed.getZone().getOffset(parsed.getMillis());
+            DateTime fixed = new DateTime(parsed.getMillis(), DateTimeZone.forOffsetMillis((offset / 60000) * 60000));
+            return s.equals(fixed.toString()) ? fixed : null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static long zigZag(long n)
+    {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n)
+    {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(OutputStream out, long value) throws IOException
+    {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException
+    {
+        long value = readVarintLong(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Varint[%s] out of range.", value));
+        }
+        return (int) value;
+    }
+
+    private static long readVarintLong(DataInputStream in) throws IOException
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.serialization;
+
+import java.util.Map;
+
+/**
+ * Turns the serialized form of an execution, as produced by an ExecutableFlowSerializer, into bytes and back.
+ */
+public interface ExecutionCodec
+{
+    byte[] encode(Map<String, Object> descriptor);
+
+    Map<String, Object> decode(byte[] bytes);
+
+    /**
+     * @return true if the bytes look like they were written by this codec
+     */
+    boolean canDecode(byte[] bytes);
+}
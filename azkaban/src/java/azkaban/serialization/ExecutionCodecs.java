@@ -0,0 +1,68 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.serialization;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Utility methods for picking an ExecutionCodec.
+ */
+public class ExecutionCodecs
+{
+    private static final List<ExecutionCodec> READERS = Arrays.<ExecutionCodec>asList(
+            new BinaryExecutionCodec(false),
+            new JsonExecutionCodec()
+    );
+
+    /**
+     * Gets the codec with the given name: json, binary or binary-deflate.
+     */
+    public static ExecutionCodec forName(String name)
+    {
+        if ("json".equals(name)) {
+            return new JsonExecutionCodec();
+        }
+        else if ("binary".equals(name)) {
+            return new BinaryExecutionCodec(false);
+        }
+        else if ("binary-deflate".equals(name)) {
+            return new BinaryExecutionCodec(true);
+        }
+
+        throw new IllegalArgumentException(String.format(
+                "Unknown execution codec[%s], expected json, binary or binary-deflate.",
+                name
+        ));
+    }
+
+    /**
+     * Decodes bytes written by any known codec, whichever one the store is currently configured to write with.
+     */
+    public static Map<String, Object> decode(byte[] bytes)
+    {
+        for (ExecutionCodec codec : READERS) {
+            if (codec.canDecode(bytes)) {
+                return codec.decode(bytes);
+            }
+        }
+
+        throw new IllegalArgumentException("Stored execution was not written by any known codec.");
+    }
+}
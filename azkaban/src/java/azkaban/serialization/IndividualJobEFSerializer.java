@@ -16,10 +16,13 @@
 
 package azkaban.serialization;
 
+import azkaban.common.utils.Props;
 import azkaban.flow.ExecutableFlow;
 import azkaban.flow.IndividualJobExecutableFlow;
+import azkaban.flow.Status;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableMap;
+import org.apache.log4j.Logger;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -31,22 +34,54 @@ import java.util.Map;
  */
 public class IndividualJobEFSerializer implements Function<ExecutableFlow, Map<String, Object>>
 {
+    private static final Logger log = Logger.getLogger(IndividualJobEFSerializer.class);
+
+    public static final int DEFAULT_MAX_GENERATED_PROPS_BYTES = 64 * 1024;
+
+    private final int maxGeneratedPropsBytes;
+
+    public IndividualJobEFSerializer()
+    {
+        this(DEFAULT_MAX_GENERATED_PROPS_BYTES);
+    }
+
+    /**
+     * @param maxGeneratedPropsBytes the most characters of keys and values of generated properties kept per job
+     */
+    public IndividualJobEFSerializer(int maxGeneratedPropsBytes)
+    {
+        this.maxGeneratedPropsBytes = maxGeneratedPropsBytes;
+    }
+
     @Override
     public Map<String, Object> apply(ExecutableFlow executableFlow)
     {
         IndividualJobExecutableFlow flow = (IndividualJobExecutableFlow) executableFlow;
         Map<String, Object> retVal = new HashMap<String, Object>();
 
+        final String jobName = flow.getName();
+
+        retVal.put("jobs", ImmutableMap.<String, Object>of(jobName, describe(flow)));
+        retVal.put("root", Arrays.asList(jobName));
+        retVal.put("dependencies", Collections.<String, Object>emptyMap());
+        retVal.put("id", flow.getId());
+
+        return retVal;
+    }
+
+    /**
+     * Builds the entry of the "jobs" map for a single job.
+     */
+    public Map<String, Object> describe(IndividualJobExecutableFlow flow)
+    {
         // "Jobs" should really be first-class, serializable things so that they can be stored
         // along with their execution-specific properties, and stuff.  But, that's a more involved
         // change than I can make right now.
         // TODO MED: Fix the above.
-        final String jobName = flow.getName();
-
         ImmutableMap.Builder<String, Object> jobInfoMapBuilder = ImmutableMap.builder();
         
         jobInfoMapBuilder.put("type", "jobManagerLoaded");
-        jobInfoMapBuilder.put("name", jobName);
+        jobInfoMapBuilder.put("name", flow.getName());
         jobInfoMapBuilder.put("status", flow.getStatus().toString());
         jobInfoMapBuilder.put("id", flow.getId());
         jobInfoMapBuilder.put("overrideProps", flow.getOverrideProps().getMapByPrefix(""));
@@ -59,11 +94,53 @@ public class IndividualJobEFSerializer implements Function<ExecutableFlow, Map<S
             jobInfoMapBuilder.put("endTime", flow.getEndTime().toString());
         }
 
-        retVal.put("jobs", ImmutableMap.<String, Object>of(jobName, jobInfoMapBuilder.build()));
-        retVal.put("root", Arrays.asList(jobName));
-        retVal.put("dependencies", Collections.<String, Object>emptyMap());
-        retVal.put("id", flow.getId());
+        jobInfoMapBuilder.putAll(describeGeneratedProps(flow, maxGeneratedPropsBytes));
 
-        return retVal;
+        return jobInfoMapBuilder.build();
+    }
+
+    /**
+     * Describes what a succeeded job generated, so that dependers of the job can still be given it after the flow
+     * is loaded again.  Only the properties the job generated itself are kept, not those it passed on from upstream
+     * jobs, which are kept with those jobs.  Properties larger than maxBytes in all are left out and the job is
+     * marked as missing them.
+     *
+     * @return the entries to add to the description of the job, possibly none
+     */
+    public static Map<String, Object> describeGeneratedProps(IndividualJobExecutableFlow flow, int maxBytes)
+    {
+        if (flow.getStatus() != Status.SUCCEEDED) {
+            return Collections.emptyMap();
+        }
+
+        if (flow.isGeneratedPropertiesOmitted()) {
+            return ImmutableMap.<String, Object>of("generatedPropsOmitted", Boolean.TRUE);
+        }
+
+        final Props generated = flow.getOwnGeneratedProperties();
+        if (generated == null) {
+            return Collections.emptyMap();
+        }
+
+        final Map<String, String> generatedMap = generated.getMapByPrefix("");
+        long bytes = 0;
+        for (Map.Entry<String, String> entry : generatedMap.entrySet()) {
+            bytes += entry.getKey().length() + entry.getValue().length();
+        }
+
+        if (bytes > maxBytes) {
+            log.warn(String.format(
+                    "Not storing the [%s] characters of properties generated by job[%s] of execution[%s], the limit is [%s].",
+                    bytes,
+                    flow.getName(),
+                    flow.getId(),
+                    maxBytes
+            ));
+            return ImmutableMap.<String, Object>of("generatedPropsOmitted", Boolean.TRUE);
+        }
+
+        return generatedMap.isEmpty()
+               ? Collections.<String, Object>emptyMap()
+               : ImmutableMap.<String, Object>of("generatedProps", generatedMap);
     }
 }
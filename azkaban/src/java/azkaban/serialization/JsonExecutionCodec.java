@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import azkaban.util.JSONToJava;
+import azkaban.util.StreamingJSONWriter;
+
+/**
+ * Encodes executions as compact UTF-8 JSON.
+ */
+public class JsonExecutionCodec implements ExecutionCodec
+{
+    private final JSONToJava jsonToJava = new JSONToJava();
+
+    @Override
+    public byte[] encode(Map<String, Object> descriptor)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            Writer out = new OutputStreamWriter(bytes, "UTF-8");
+            new StreamingJSONWriter(out).write(descriptor).flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Map<String, Object> decode(byte[] bytes)
+    {
+        try {
+            return jsonToJava.apply(new JSONObject(new String(bytes, "UTF-8")));
+        }
+        catch (JSONException e) {
+            throw new RuntimeException("Stored execution is not valid JSON.", e);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] bytes)
+    {
+        for (byte b : bytes) {
+            if (! Character.isWhitespace((char) b)) {
+                return b == '{';
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "json";
+    }
+}
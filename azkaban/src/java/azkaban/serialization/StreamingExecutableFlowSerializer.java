@@ -0,0 +1,138 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.serialization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import azkaban.flow.ComposedExecutableFlow;
+import azkaban.flow.ExecutableFlow;
+import azkaban.flow.GroupedExecutableFlow;
+import azkaban.flow.IndividualJobExecutableFlow;
+import azkaban.flow.MultipleDependencyExecutableFlow;
+
+/**
+ * Serializes an ExecutableFlow into the same form as DefaultExecutableFlowSerializer in a single walk of the flow.
+ *
+ * The per-class serializers build a complete map for every node and merge the "jobs" and "dependencies" of its
+ * children into it, which costs depth times width and re-serializes sub-flows that are shared by several dependers.
+ * This serializer instead visits every node once, remembering the root jobs of each node it has seen, and adds
+ * each job and each dependency edge straight into the single result map.
+ */
+public class StreamingExecutableFlowSerializer extends ExecutableFlowSerializer
+{
+    private final IndividualJobEFSerializer jobSerializer;
+
+    public StreamingExecutableFlowSerializer()
+    {
+        this(IndividualJobEFSerializer.DEFAULT_MAX_GENERATED_PROPS_BYTES);
+    }
+
+    /**
+     * @param maxGeneratedPropsBytes the most characters of generated properties kept per job
+     */
+    public StreamingExecutableFlowSerializer(int maxGeneratedPropsBytes)
+    {
+        this.jobSerializer = new IndividualJobEFSerializer(maxGeneratedPropsBytes);
+    }
+
+    @Override
+    public Map<String, Object> apply(ExecutableFlow executableFlow)
+    {
+        Walk walk = new Walk();
+        List<String> roots = walk.visit(executableFlow);
+
+        Map<String, Object> retVal = new HashMap<String, Object>();
+        retVal.put("jobs", walk.jobs);
+        retVal.put("root", new ArrayList<String>(roots));
+        retVal.put("dependencies", walk.dependencies);
+        retVal.put("id", executableFlow.getId());
+
+        return retVal;
+    }
+
+    /*
+     * The state of one serialization.
+     */
+    private class Walk
+    {
+        private final Map<String, Object> jobs = new LinkedHashMap<String, Object>();
+        private final Map<String, Object> dependencies = new HashMap<String, Object>();
+        private final Map<ExecutableFlow, List<String>> rootsOfVisited = new IdentityHashMap<ExecutableFlow, List<String>>();
+
+        /*
+         * Visits a node, returning the names of its root jobs.
+         */
+        private List<String> visit(ExecutableFlow flow)
+        {
+            List<String> retVal = rootsOfVisited.get(flow);
+            if (retVal != null) {
+                return retVal;
+            }
+
+            if (flow instanceof IndividualJobExecutableFlow) {
+                final String name = flow.getName();
+                if (! jobs.containsKey(name)) {
+                    jobs.put(name, jobSerializer.describe((IndividualJobExecutableFlow) flow));
+                }
+                retVal = Collections.singletonList(name);
+            }
+            else if (flow instanceof MultipleDependencyExecutableFlow) {
+                retVal = visit(((MultipleDependencyExecutableFlow) flow).getActualFlow());
+            }
+            else if (flow instanceof ComposedExecutableFlow) {
+                final List<String> dependeeRoots = visit(((ComposedExecutableFlow) flow).getDependee());
+                retVal = visit(((ComposedExecutableFlow) flow).getDepender());
+
+                for (String root : retVal) {
+                    dependenciesOf(root).addAll(dependeeRoots);
+                }
+            }
+            else if (flow instanceof GroupedExecutableFlow) {
+                retVal = new ArrayList<String>();
+                for (ExecutableFlow child : flow.getChildren()) {
+                    retVal.addAll(visit(child));
+                }
+            }
+            else {
+                throw new RuntimeException(String.format("No known serializer for class[%s].", flow.getClass()));
+            }
+
+            rootsOfVisited.put(flow, retVal);
+            return retVal;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Set<String> dependenciesOf(String name)
+        {
+            Set<String> retVal = (Set<String>) dependencies.get(name);
+            if (retVal == null) {
+                retVal = new TreeSet<String>();
+                dependencies.put(name, retVal);
+            }
+            return retVal;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes Maps, Iterables and scalars as compact JSON straight to a Writer, without building JSONObjects or an
+ * intermediate String.  The output can be read back with JSONObject and JSONToJava.
+ */
+public class StreamingJSONWriter
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+
+    public StreamingJSONWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    public StreamingJSONWriter write(Object value) throws IOException
+    {
+        if (value == null) {
+            out.write("null");
+        }
+        else if (value instanceof Map) {
+            out.write('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (! first) {
+                    out.write(',');
+                }
+                first = false;
+
+                writeString(String.valueOf(entry.getKey()));
+                out.write(':');
+                write(entry.getValue());
+            }
+            out.write('}');
+        }
+        else if (value instanceof Iterable) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Iterable<?>) value) {
+                if (! first) {
+                    out.write(',');
+                }
+                first = false;
+
+                write(element);
+            }
+            out.write(']');
+        }
+        else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+            out.write(value.toString());
+        }
+        else {
+            writeString(value.toString());
+        }
+
+        return this;
+    }
+
+    public void flush() throws IOException
+    {
+        out.flush();
+    }
+
+    private void writeString(String s) throws IOException
+    {
+        out.write('"');
+
+        int start = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+
+            out.write(s, start, i - start);
+            start = i + 1;
+
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write("\\u00");
+                    out.write(HEX[c >> 4]);
+                    out.write(HEX[c & 0xf]);
+            }
+        }
+        out.write(s, start, s.length() - start);
+
+        out.write('"');
+    }
+}
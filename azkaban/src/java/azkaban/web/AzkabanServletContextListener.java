@@ -42,6 +42,8 @@ public class AzkabanServletContextListener implements ServletContextListener {
      * Delete the app
      */
     public void contextDestroyed(ServletContextEvent event) {
+        if(this.app != null)
+            this.app.shutdown();
         this.app = null;
     }
 
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package azkaban.web;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import azkaban.flow.ExecutionIndex;
+import azkaban.flow.ExecutionSummary;
+import azkaban.flow.Status;
+
+/**
+ * Answers queries against the execution index as JSON.
+ *
+ * Parameters, all optional: flow, status, startedAfter and startedBefore (ISO-8601 times), offset and limit.
+ * Executions are returned newest first.
+ */
+public class ExecutionQueryServlet extends AbstractAzkabanServlet {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int DEFAULT_LIMIT = 25;
+    private static final int MAX_LIMIT = 1000;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
+            IOException {
+        final ExecutionIndex index = getApplication().getExecutionIndex();
+        if(index == null) {
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                           "The execution index is disabled (azkaban.executions.index.enabled).");
+            return;
+        }
+
+        final String flowName;
+        final Status status;
+        final DateTime startedAfter;
+        final DateTime startedBefore;
+        final int offset;
+        final int limit;
+        try {
+            flowName = optionalParam(req, "flow");
+            status = optionalParam(req, "status") == null ? null
+                                                          : Status.valueOf(getParam(req, "status").toUpperCase());
+            startedAfter = optionalParam(req, "startedAfter") == null ? null
+                                                                      : new DateTime(getParam(req, "startedAfter"));
+            startedBefore = optionalParam(req, "startedBefore") == null ? null
+                                                                        : new DateTime(getParam(req, "startedBefore"));
+            offset = optionalParam(req, "offset") == null ? 0 : Math.max(0, getIntParam(req, "offset"));
+            limit = optionalParam(req, "limit") == null ? DEFAULT_LIMIT
+                                                        : Math.min(MAX_LIMIT, Math.max(1, getIntParam(req, "limit")));
+        } catch(IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // Ask for one more than the page to know whether there is a next one.
+        List<ExecutionSummary> executions = index.query(flowName,
+                                                        status,
+                                                        startedAfter,
+                                                        startedBefore,
+                                                        offset,
+                                                        limit + 1);
+        final boolean hasMore = executions.size() > limit;
+        if(hasMore)
+            executions = executions.subList(0, limit);
+
+        try {
+            JSONArray array = new JSONArray();
+            for(ExecutionSummary summary: executions) {
+                JSONObject json = new JSONObject(summary.toMap());
+                if(summary.getStartTime() != null && summary.getEndTime() != null)
+                    json.put("duration", summary.getEndTime().getMillis() - summary.getStartTime().getMillis());
+                array.put(json);
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("offset", offset);
+            result.put("limit", limit);
+            result.put("hasMore", hasMore);
+            result.put("executions", array);
+
+            resp.setContentType("application/json");
+            resp.getWriter().write(result.toString());
+        } catch(JSONException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    private String optionalParam(HttpServletRequest req, String name) {
+        String p = req.getParameter(name);
+        return p == null || p.equals("") ? null : p;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 LinkedIn, Inc
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package azkaban.web;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import azkaban.app.JobDescriptor;
+import azkaban.app.LogIndexer;
+
+/**
+ * Searches the tagged lines of job logs and answers as JSON.
+ *
+ * Parameters: job, or flow to search the logs of every job in the flow; level (ERROR or WARN, which includes
+ * ERROR) and tag (the name of a log pattern), which default to every tag; text the lines must contain; and limit.
+ * Lines are returned from the most recent runs first.
+ */
+public class LogSearchServlet extends AbstractAzkabanServlet {
+
+    private static final long serialVersionUID = 1;
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
+            IOException {
+        LogIndexer indexer = getApplication().getLogIndexer();
+
+        final Set<String> jobNames = new LinkedHashSet<String>();
+        final Set<String> tags = new HashSet<String>();
+        final String text;
+        final int limit;
+        try {
+            if(optionalParam(req, "job") != null) {
+                jobNames.add(getParam(req, "job"));
+            } else if(optionalParam(req, "flow") != null) {
+                JobDescriptor flow = getApplication().getJobManager().getJobDescriptor(getParam(req, "flow"));
+                if(flow == null)
+                    throw new IllegalArgumentException("Unknown flow '" + getParam(req, "flow") + "'.");
+                addJobs(flow, jobNames);
+            } else {
+                throw new IllegalArgumentException("Either a job or a flow is required.");
+            }
+
+            if(optionalParam(req, "level") != null) {
+                String level = getParam(req, "level").toUpperCase();
+                if(!level.equals(LogIndexer.ERROR) && !level.equals(LogIndexer.WARN))
+                    throw new IllegalArgumentException("The level must be ERROR or WARN.");
+                tags.add(LogIndexer.ERROR);
+                if(level.equals(LogIndexer.WARN))
+                    tags.add(LogIndexer.WARN);
+            }
+            if(optionalParam(req, "tag") != null)
+                tags.add(getParam(req, "tag"));
+            if(tags.isEmpty())
+                tags.addAll(indexer.getTags());
+
+            text = optionalParam(req, "text");
+            limit = optionalParam(req, "limit") == null ? DEFAULT_LIMIT
+                                                        : Math.min(MAX_LIMIT, Math.max(1, getIntParam(req, "limit")));
+        } catch(IllegalArgumentException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        // Ask for one more than the limit to know whether there are more.
+        List<LogIndexer.Match> matches = indexer.search(jobNames, tags, text, limit + 1);
+        final boolean hasMore = matches.size() > limit;
+        if(hasMore)
+            matches = matches.subList(0, limit);
+
+        try {
+            JSONArray array = new JSONArray();
+            for(LogIndexer.Match match: matches) {
+                JSONObject json = new JSONObject();
+                json.put("job", match.getJobName());
+                json.put("run", match.getRunName());
+                json.put("log", match.getLogPath());
+                json.put("offset", match.getEntry().getOffset());
+                json.put("tag", match.getEntry().getTag());
+                json.put("line", match.getLine());
+                array.put(json);
+            }
+
+            JSONObject result = new JSONObject();
+            result.put("jobs", new JSONArray(new ArrayList<String>(jobNames)));
+            result.put("limit", limit);
+            result.put("hasMore", hasMore);
+            result.put("matches", array);
+
+            resp.setContentType("application/json");
+            resp.getWriter().write(result.toString());
+        } catch(JSONException e) {
+            throw new ServletException(e);
+        }
+    }
+
+    private void addJobs(JobDescriptor job, Set<String> jobNames) {
+        if(jobNames.add(job.getId())) {
+            for(JobDescriptor dependency: job.getDependencies())
+                addJobs(dependency, jobNames);
+        }
+    }
+
+    private String optionalParam(HttpServletRequest req, String name) {
+        String p = req.getParameter(name);
+        return p == null || p.equals("") ? null : p;
+    }
+}
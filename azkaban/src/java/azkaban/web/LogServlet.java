@@ -16,22 +16,45 @@
 
 package azkaban.web;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import azkaban.app.LogArchive;
+import azkaban.app.LogIndexer;
+import azkaban.common.web.Page;
+
 /**
- * A servlet that reads log files from the filesystem
+ * A servlet that reads log files from the filesystem, including ones that
+ * have since been compressed or archived
+ * 
+ * Without parameters it shows the last 200KB of the log, and with ?full the
+ * whole of it. Single HTTP byte ranges are honored. Logs are sent as bytes,
+ * with FileChannel.transferTo where the log is a plain file.
+ * 
+ * ?tail&offset=n sends what the log holds past byte n, waiting up to
+ * ?wait=ms for something to appear if there is nothing yet. The response
+ * tells where to continue from in X-Log-Offset, and X-Log-Complete says
+ * whether the log is done growing. A negative offset starts near the end.
+ * ?follow shows a page that follows the log that way.
+ * 
+ * ?level=ERROR or ?level=WARN shows only the lines at that level or above,
+ * and ?tag=name only the lines matching the log pattern of that name, as
+ * found by the LogIndexer.
  * 
  * @author jkreps
  * 
@@ -40,50 +63,291 @@ public class LogServlet extends AbstractAzkabanServlet {
 
     private static final long serialVersionUID = 1;
 
-    private String _logDir;
+    private static final int RECENT_BYTES = 200 * 1024;
+    private static final int MAX_TAIL_BYTES = 1024 * 1024;
+    private static final long DEFAULT_TAIL_WAIT_MS = 30 * 1000;
+    private static final long MAX_TAIL_WAIT_MS = 60 * 1000;
+    private static final long TAIL_POLL_MS = 250;
+
+    private LogArchive _logArchive;
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException,
             IOException {
-        resp.setContentType("text/plain");
         String file = getParam(req, "file");
 
-        String fileName = _logDir + File.separator + file;
-        if(!new File(fileName).canRead()) {
-            resp.getWriter().write("No log available at '" + file + "'");
+        if(hasParam(req, "follow")) {
+            Page page = newPage(req, resp, "azkaban/web/pages/log_follow.vm");
+            page.add("file", file);
+            page.render();
+            return;
+        }
+
+        resp.setContentType("text/plain");
+        if(hasParam(req, "level") || hasParam(req, "tag")) {
+            sendTagged(req, resp, file);
             return;
         }
 
-        long size = new File(fileName).length();
-        FileInputStream f = new FileInputStream(fileName);
-        long skipped = 0;
-        if(req.getParameter("full") == null) {
-            skipped = Math.max(0, size - 200 * 1024);
-            f.skip(skipped);
+        LogArchive.LogFile log;
+        try {
+            log = _logArchive.open(file);
+        } catch(IOException e) {
+            resp.getWriter().write("Log at '" + file + "' can't be read: " + e.getMessage());
+            return;
+        }
+        if(log == null) {
+            resp.getWriter().write("No log available at '" + file + "'");
+            return;
         }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(f));
+
         try {
-            Writer writer = resp.getWriter();
-            String line = reader.readLine();
-            if(skipped > 0) {
-                // skip to next full line
-                writer.write("Skipping "
-                             + skipped
-                             + " bytes. Use the optional parameter ?full to see the entire log.\n\n");
-                line = reader.readLine();
+            resp.setHeader("Accept-Ranges", "bytes");
+            if(hasParam(req, "tail"))
+                sendTail(req, resp, file, log);
+            else if(req.getHeader("Range") != null)
+                sendRange(req.getHeader("Range"), resp, log);
+            else if(hasParam(req, "full"))
+                send(log, 0, log.getSize(), resp);
+            else
+                sendRecent(log, resp);
+        } finally {
+            log.getInputStream().close();
+        }
+    }
+
+    /*
+     * Only the lines of the log at or above a level, or with a tag.
+     */
+    private void sendTagged(HttpServletRequest req, HttpServletResponse resp, String file)
+            throws ServletException, IOException {
+        Set<String> tags = new HashSet<String>();
+        if(hasParam(req, "level")) {
+            String level = getParam(req, "level").toUpperCase();
+            if(level.equals(LogIndexer.WARN)) {
+                tags.add(LogIndexer.WARN);
+                tags.add(LogIndexer.ERROR);
+            } else if(level.equals(LogIndexer.ERROR)) {
+                tags.add(LogIndexer.ERROR);
+            } else {
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "The level must be ERROR or WARN.");
+                return;
             }
-            for(; line != null; line = reader.readLine()) {
-                writer.write(line);
-                writer.write("\n");
+        }
+        if(hasParam(req, "tag"))
+            tags.add(getParam(req, "tag"));
+
+        LogIndexer indexer = getApplication().getLogIndexer();
+        List<LogIndexer.Entry> entries;
+        List<String> lines;
+        try {
+            entries = indexer.getEntries(file, tags);
+            lines = indexer.readLines(file, entries);
+        } catch(IOException e) {
+            resp.getWriter().write("Log at '" + file + "' can't be read: " + e.getMessage());
+            return;
+        }
+
+        Writer writer = resp.getWriter();
+        long lastOffset = -1;
+        for(int i = 0; i < entries.size(); i++) {
+            // A line with more than one of the tags is listed once for each.
+            if(entries.get(i).getOffset() == lastOffset)
+                continue;
+            lastOffset = entries.get(i).getOffset();
+            writer.write(lines.get(i));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    /*
+     * The last RECENT_BYTES of the log, from the start of a line.
+     */
+    private void sendRecent(LogArchive.LogFile log, HttpServletResponse resp) throws IOException {
+        long skipped = Math.max(0, log.getSize() - RECENT_BYTES);
+        long start = skipped > 0 ? nextLineStart(log, skipped) : 0;
+        byte[] banner = new byte[0];
+        if(skipped > 0)
+            banner = ("Skipping " + skipped
+                      + " bytes. Use the optional parameter ?full to see the entire log.\n\n").getBytes();
+        send(log, banner, start, log.getSize() - start, resp);
+    }
+
+    private void sendRange(String range, HttpServletResponse resp, LogArchive.LogFile log) throws IOException {
+        long size = log.getSize();
+        long[] bounds = parseRange(range, size);
+        if(bounds == null) {
+            // Not a single byte range, which is all that is supported, so ignore it.
+            send(log, 0, size, resp);
+        } else if(bounds[0] >= size || bounds[0] > bounds[1]) {
+            resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            resp.setHeader("Content-Range", "bytes */" + size);
+        } else {
+            long end = Math.min(bounds[1], size - 1);
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes " + bounds[0] + "-" + end + "/" + size);
+            send(log, bounds[0], end - bounds[0] + 1, resp);
+        }
+    }
+
+    private void sendTail(HttpServletRequest req, HttpServletResponse resp, String file, LogArchive.LogFile log)
+            throws IOException {
+        long offset;
+        long waitMs;
+        try {
+            offset = req.getParameter("offset") == null ? 0 : Long.parseLong(req.getParameter("offset"));
+            waitMs = req.getParameter("wait") == null ? DEFAULT_TAIL_WAIT_MS
+                                                      : Math.min(Long.parseLong(req.getParameter("wait")),
+                                                                 MAX_TAIL_WAIT_MS);
+        } catch(NumberFormatException e) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "The offset and wait must be numbers.");
+            return;
+        }
+
+        // Wait for the log to grow past the offset, as long as it still might.
+        long deadline = System.currentTimeMillis() + waitMs;
+        while(!log.isComplete() && offset >= 0 && log.getSize() <= offset
+              && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(TAIL_POLL_MS);
+            } catch(InterruptedException e) {
+                break;
             }
+            LogArchive.LogFile reopened = _logArchive.open(file);
+            if(reopened == null)
+                break;
+            log.getInputStream().close();
+            log = reopened;
+        }
+
+        long size = log.getSize();
+        if(offset < 0)
+            offset = size > RECENT_BYTES ? nextLineStart(log, size - RECENT_BYTES) : 0;
+        else if(offset > size)
+            offset = 0; // the log was replaced
+
+        long length = Math.min(size - offset, MAX_TAIL_BYTES);
+        resp.setHeader("X-Log-Offset", Long.toString(offset + length));
+        resp.setHeader("X-Log-Size", Long.toString(size));
+        resp.setHeader("X-Log-Complete", Boolean.toString(log.isComplete() && offset + length >= size));
+        try {
+            send(log, offset, length, resp);
         } finally {
-            reader.close();
+            log.getInputStream().close();
+        }
+    }
+
+    /*
+     * Sends length bytes of the log from offset. A plain file is transferred
+     * by its channel; a compressed log has to be read through from the start.
+     */
+    private void send(LogArchive.LogFile log, long offset, long length, HttpServletResponse resp)
+            throws IOException {
+        send(log, new byte[0], offset, length, resp);
+    }
+
+    /*
+     * Sends the banner, then length bytes of the log from offset.
+     */
+    private void send(LogArchive.LogFile log, byte[] banner, long offset, long length, HttpServletResponse resp)
+            throws IOException {
+        resp.setHeader("Content-Length", Long.toString(banner.length + length));
+        OutputStream out = resp.getOutputStream();
+        out.write(banner);
+        FileChannel channel = log.getChannel();
+        if(channel != null) {
+            WritableByteChannel target = Channels.newChannel(out);
+            for(long sent = 0; sent < length;) {
+                long n = channel.transferTo(offset + sent, length - sent, target);
+                if(n <= 0)
+                    break;
+                sent += n;
+            }
+        } else {
+            InputStream in = log.getInputStream();
+            skip(in, offset);
+            byte[] buffer = new byte[64 * 1024];
+            for(long left = length; left > 0;) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if(n < 0)
+                    break;
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+        }
+        out.flush();
+    }
+
+    /*
+     * The position just past the first line end at or after offset, or offset
+     * itself if there is none close by.
+     */
+    private long nextLineStart(LogArchive.LogFile log, long offset) throws IOException {
+        FileChannel channel = log.getChannel();
+        if(channel == null)
+            return offset;
+
+        ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+        for(long position = offset; position < offset + 64 * 1024;) {
+            buffer.clear();
+            int n = channel.read(buffer, position);
+            if(n <= 0)
+                break;
+            for(int i = 0; i < n; i++) {
+                if(buffer.get(i) == '\n')
+                    return position + i + 1;
+            }
+            position += n;
+        }
+        return offset;
+    }
+
+    /**
+     * Parse a Range header of a single byte range
+     * 
+     * @return The first and last byte of the range, or null if the header
+     *         isn't a single byte range
+     */
+    static long[] parseRange(String header, long size) {
+        String value = header.trim();
+        if(!value.startsWith("bytes=") || value.indexOf(',') >= 0)
+            return null;
+
+        String spec = value.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if(dash < 0)
+            return null;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if(first.length() == 0) {
+                if(last.length() == 0)
+                    return null;
+                long suffix = Long.parseLong(last);
+                return new long[] { Math.max(0, size - suffix), size - 1 };
+            }
+            return new long[] { Long.parseLong(first),
+                    last.length() == 0 ? size - 1 : Long.parseLong(last) };
+        } catch(NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void skip(InputStream in, long bytes) throws IOException {
+        // compressed logs may skip less than asked at a time
+        for(long left = bytes; left > 0;) {
+            long n = in.skip(left);
+            if(n <= 0)
+                break;
+            left -= n;
         }
     }
 
     @Override
     public void init(ServletConfig config) throws ServletException {
-        _logDir = WebUtils.getApp(config).getLogDirectory();
+        super.init(config);
+        _logArchive = new LogArchive(new File(getApplication().getLogDirectory()));
     }
 
 }
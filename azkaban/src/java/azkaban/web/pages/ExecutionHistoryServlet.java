@@ -18,8 +18,11 @@ package azkaban.web.pages;
 
 import azkaban.common.web.Page;
 import azkaban.flow.ExecutableFlow;
+import azkaban.flow.ExecutionIndex;
+import azkaban.flow.ExecutionSummary;
 import azkaban.flow.FlowManager;
 import azkaban.flow.Flows;
+import azkaban.flow.Status;
 import azkaban.web.AbstractAzkabanServlet;
 
 import javax.servlet.ServletException;
@@ -68,17 +71,70 @@ public class ExecutionHistoryServlet extends AbstractAzkabanServlet {
         if(sizeParam != null)
             size = Integer.parseInt(sizeParam);
 
-        List<ExecutableFlow> execs = new ArrayList<ExecutableFlow>(size);
-        for (int i = 0; i < size; ++i) {
-            ExecutableFlow flow = allFlows.loadExecutableFlow(currMaxId - i);
+        Page page = newPage(req, resp, "azkaban/web/pages/execution_history.vm");
 
-            if (flow != null) {
-                execs.add(flow);
+        // Only the summaries are needed for the listing; the full flow is
+        // loaded for the one execution being drilled into, if any.
+        final ExecutionIndex index = this.getApplication().getExecutionIndex();
+        List<ExecutionSummary> execs;
+        if(index != null) {
+            String flowName = req.getParameter("flow");
+            Status status = null;
+            if(req.getParameter("status") != null && req.getParameter("status").length() > 0) {
+                try {
+                    status = Status.valueOf(req.getParameter("status"));
+                }
+                catch (IllegalArgumentException e) {
+                    addMessage(req, String.format("Apparently [%s] is not a valid status.", req.getParameter("status")));
+                }
+            }
+            int pageNum = 0;
+            if(req.getParameter("page") != null) {
+                try {
+                    pageNum = Math.max(0, Integer.parseInt(req.getParameter("page")));
+                }
+                catch (NumberFormatException e) {
+                    addMessage(req, String.format("Apparently [%s] is not a valid page.", req.getParameter("page")));
+                }
+            }
+
+            execs = index.query(flowName == null || flowName.length() == 0 ? null : flowName,
+                                status,
+                                null,
+                                null,
+                                pageNum * size,
+                                size + 1);
+            if(execs.size() > size) {
+                execs = execs.subList(0, size);
+                page.add("next", pageNum + 1);
+            }
+            if(pageNum > 0)
+                page.add("prev", pageNum - 1);
+            page.add("flowNames", index.getFlowNames());
+            page.add("statuses", Status.values());
+            page.add("flowFilter", flowName);
+            page.add("statusFilter", status);
+        }
+        else {
+            execs = new ArrayList<ExecutionSummary>(size);
+            for (int i = 0; i < size; ++i) {
+                ExecutionSummary summary = allFlows.loadExecutionSummary(currMaxId - i);
+
+                if (summary != null) {
+                    execs.add(summary);
+                }
             }
         }
 
-        Page page = newPage(req, resp, "azkaban/web/pages/execution_history.vm");
         page.add("executions", execs);
+        if(!hasParam(req, "action") && hasParam(req, "id")) {
+            try {
+                page.add("flow", allFlows.loadExecutableFlow(Long.parseLong(getParam(req, "id"))));
+            }
+            catch (NumberFormatException e) {
+                addMessage(req, String.format("Apparently [%s] is not a valid long.", getParam(req, "id")));
+            }
+        }
         page.render();
     }
 
@@ -0,0 +1,162 @@
+package azkaban.app;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+import azkaban.flow.ExecutionIndex;
+import azkaban.flow.ExecutionSummary;
+import azkaban.flow.JsonExecutionStore;
+import azkaban.flow.Status;
+
+public class ArchiverTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    private File _logDir;
+    private JobManager _jobManager;
+
+    @Before
+    public void setUp() throws Exception {
+        _logDir = File.createTempFile("logs", "test");
+        _logDir.delete();
+        _logDir.mkdirs();
+        _jobManager = new JobManager(null, _logDir.getAbsolutePath(), new Props(), null, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_logDir);
+    }
+
+    @Test
+    public void testOldRunsAreArchivedAndStillReadable() throws Exception {
+        DateTime now = new DateTime();
+        String recent = run("a", now.minusHours(1), "recent");
+        String yesterday = run("a", now.minusDays(2), "yesterday");
+        String lastMonth = run("a", now.minusDays(40), "last month");
+
+        new Archiver(_logDir, null, 0, 0, 30 * DAY_MS, DAY_MS, 0).archive();
+
+        File jobDir = new File(_logDir, "a");
+        Assert.assertTrue(new File(_logDir, logPath("a", recent)).exists());
+        Assert.assertTrue(new File(_logDir, logPath("a", yesterday) + ".gz").exists());
+        Assert.assertFalse(new File(jobDir, lastMonth).exists());
+
+        LogArchive logs = new LogArchive(_logDir);
+        Assert.assertEquals("recent", read(logs, logPath("a", recent)));
+        Assert.assertEquals("yesterday", read(logs, logPath("a", yesterday)));
+        Assert.assertEquals("last month", read(logs, logPath("a", lastMonth)));
+        Assert.assertEquals("yesterday".length(), logs.open(logPath("a", yesterday)).getSize());
+
+        List<JobExecution> execs = _jobManager.loadJobExecutions("a");
+        Assert.assertEquals(3, execs.size());
+        Assert.assertEquals(logPath("a", lastMonth), execs.get(2).getLog());
+        Assert.assertTrue(execs.get(2).isSucceeded());
+    }
+
+    @Test
+    public void testRunsBeyondTheCountAreArchivedAndExpire() throws Exception {
+        DateTime now = new DateTime();
+        for(int i = 0; i < 5; i++)
+            run("b", now.minusHours(i + 1), "run " + i);
+
+        new Archiver(_logDir, null, 2, 0, 0, 0, 0).archive();
+        Assert.assertEquals(2, new LogArchive(_logDir).listRuns("b").size());
+
+        Map<String, Props> archived = new LogArchive(_logDir).loadArchivedRuns("b");
+        Assert.assertEquals(3, archived.size());
+        Assert.assertEquals(5, _jobManager.loadJobExecutions("b").size());
+
+        // Every archived run is older than a minute.
+        new Archiver(_logDir, null, 2, 0, 0, 0, 60 * 1000).archive();
+        Assert.assertTrue(new LogArchive(_logDir).loadArchivedRuns("b").isEmpty());
+        Assert.assertEquals(2, _jobManager.loadJobExecutions("b").size());
+    }
+
+    @Test
+    public void testExecutionsBeyondTheCountAreArchived() throws Exception {
+        File storeDir = new File(_logDir, ".executions");
+        storeDir.mkdirs();
+        JsonExecutionStore store = new JsonExecutionStore(storeDir);
+        ExecutionIndex index = new ExecutionIndex(new File(_logDir, ".index"));
+        DateTime now = new DateTime();
+        for(int i = 1; i <= 4; i++) {
+            Status status = i == 4 ? Status.RUNNING : Status.SUCCEEDED;
+            ExecutionSummary summary = new ExecutionSummary(Integer.toString(i), "f", status, now.minusHours(5 - i),
+                                                            i == 4 ? null : now.minusHours(5 - i).plusMinutes(1));
+            store.save(summary.getId(), summary.toMap(), summary.toMap());
+            index.update(summary);
+        }
+
+        // Read from the store, then from the index, the same executions are archived.
+        Archiver archiver = new Archiver(_logDir, store, 0, 1, 0, 0, 0);
+        archiver.archive();
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "2")), new HashSet<String>(store.getArchivedIds()));
+        archiver.archive();
+        Assert.assertEquals(2, store.getArchivedIds().size());
+
+        store.save("5", null, new HashMap<String, Object>());
+        new Archiver(_logDir, store, index, 0, 0, DAY_MS / 24, 0, 0).archive();
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1", "2", "3")), new HashSet<String>(store.getArchivedIds()));
+        index.close();
+        store.close();
+    }
+
+    @Test
+    public void testUnreadableExecutionIsSkipped() throws Exception {
+        File storeDir = new File(_logDir, ".executions");
+        storeDir.mkdirs();
+        JsonExecutionStore store = new JsonExecutionStore(storeDir);
+        DateTime now = new DateTime();
+        for(int i = 1; i <= 2; i++) {
+            ExecutionSummary summary = new ExecutionSummary(Integer.toString(i), "f", Status.SUCCEEDED,
+                                                            now.minusHours(3 - i), now.minusHours(3 - i).plusMinutes(1));
+            store.save(summary.getId(), summary.toMap(), summary.toMap());
+        }
+        FileUtils.writeStringToFile(new File(storeDir, "3.json"), "{\"summary\": {\"id\": \"3\", \"na");
+
+        new Archiver(_logDir, store, 0, 1, 0, 0, 0).archive();
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("1")), store.getArchivedIds());
+        store.close();
+    }
+
+    private String run(String jobName, DateTime started, String log) throws Exception {
+        String runName = LogArchive.RUN_DATE_FORMAT.print(started);
+        File runDir = new File(new File(_logDir, jobName), runName);
+        runDir.mkdirs();
+        FileUtils.writeStringToFile(new File(_logDir, logPath(jobName, runName)), log);
+
+        Props props = new Props();
+        props.put("start", Long.toString(started.getMillis()));
+        props.put("end", Long.toString(started.getMillis() + 1000));
+        props.put("succeeded", "true");
+        props.storeLocal(new File(runDir, "run.properties"));
+        return runName;
+    }
+
+    private static String logPath(String jobName, String runName) {
+        return jobName + File.separator + runName + File.separator + jobName + "." + runName + ".log";
+    }
+
+    private static String read(LogArchive logs, String path) throws Exception {
+        LogArchive.LogFile log = logs.open(path);
+        try {
+            return IOUtils.toString(log.getInputStream());
+        } finally {
+            log.getInputStream().close();
+        }
+    }
+}
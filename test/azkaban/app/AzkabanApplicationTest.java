@@ -0,0 +1,52 @@
+package azkaban.app;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AzkabanApplicationTest {
+
+    private File _dir;
+    private File _jobDir;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile("app", "test");
+        _dir.delete();
+        _jobDir = new File(_dir, "jobs");
+        File executions = new File(_jobDir, "executions");
+        executions.mkdirs();
+        FileUtils.writeStringToFile(new File(executions, "1.json"), "");
+        FileUtils.writeStringToFile(new File(executions, "2.json"), "{\"id\": \"2\", \"na");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_dir);
+    }
+
+    @Test
+    public void testCorruptExecutionsDoNotStopStartup() throws Exception {
+        start().shutdown();
+    }
+
+    @Test
+    public void testCorruptExecutionsDoNotStopRecovery() throws Exception {
+        FileUtils.writeStringToFile(new File(_jobDir, "azkaban.properties"), "azkaban.executions.recovery.enabled=true\n");
+        start().shutdown();
+    }
+
+    private AzkabanApplication start() throws Exception {
+        AzkabanApplication app = new AzkabanApplication(Collections.singletonList(_jobDir),
+                                                        new File(_dir, "logs"),
+                                                        new File(_dir, "temp"),
+                                                        false);
+        Assert.assertNotNull(app.getExecutionIndex());
+        return app;
+    }
+}
@@ -0,0 +1,112 @@
+package azkaban.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+import org.apache.log4j.PatternLayout;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutionLogTest {
+
+    private File _dir;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile("log", "test");
+        _dir.delete();
+        _dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_dir);
+    }
+
+    @Test
+    public void testEverythingWrittenIsThereAfterClose() throws Exception {
+        ExecutionLog log = new ExecutionLog(new File(_dir, "a.log"), ExecutionLog.DEFAULT_OPTIONS);
+        StringBuilder expected = new StringBuilder();
+        for(int i = 0; i < 10000; i++) {
+            log.write("line " + i + "\n");
+            expected.append("line " + i + "\n");
+        }
+        log.close();
+
+        Assert.assertEquals(expected.toString(), FileUtils.readFileToString(log.getFile()));
+        Assert.assertEquals(expected.length(), log.getBytesWritten());
+        Assert.assertEquals(0, log.getBytesTruncated());
+    }
+
+    @Test
+    public void testCappedLogKeepsHeadAndTail() throws Exception {
+        ExecutionLog log = new ExecutionLog(new File(_dir, "b.log"), new ExecutionLog.Options(64 * 1024, 100, false));
+        for(int i = 0; i < 1000; i++)
+            log.write(String.format("%09d\n", i));
+        log.close();
+
+        String contents = FileUtils.readFileToString(log.getFile());
+        Assert.assertTrue(contents.startsWith("000000000\n000000001\n000000002\n000000003\n000000004\n\n"));
+        Assert.assertTrue(contents.contains("... 9900 bytes truncated ...\n"));
+        Assert.assertTrue(contents.endsWith("000000995\n000000996\n000000997\n000000998\n000000999\n"));
+        Assert.assertEquals(10000, log.getBytesWritten());
+        Assert.assertEquals(9900, log.getBytesTruncated());
+        Assert.assertFalse(new File(log.getFile().getPath() + ".tail.0").exists());
+    }
+
+    @Test
+    public void testGzippedLog() throws Exception {
+        ExecutionLog log = new ExecutionLog(new File(_dir, "c.log"), new ExecutionLog.Options(4096, 0, true));
+        log.write("compressed\n");
+        log.close();
+
+        Assert.assertEquals(new File(_dir, "c.log.gz"), log.getFile());
+        Assert.assertEquals("compressed\n",
+                            IOUtils.toString(new GZIPInputStream(new FileInputStream(log.getFile()))));
+    }
+
+    @Test
+    public void testWritesThatDoNotFitAreDropped() throws Exception {
+        ExecutionLog log = new ExecutionLog(new File(_dir, "d.log"), new ExecutionLog.Options(1024, 0, false));
+        log.write(new String(new char[2000]).replace('\0', 'x'));
+        log.write("after\n");
+        log.close();
+
+        Assert.assertEquals(2000, log.getBytesDropped());
+        Assert.assertEquals("... 2000 bytes dropped, the log could not keep up ...\nafter\n",
+                            FileUtils.readFileToString(log.getFile()));
+    }
+
+    @Test
+    public void testConcurrentRunsOfAJobKeepToTheirOwnLogs() throws Exception {
+        Logger logger = Logger.getLogger("ExecutionLogTest.job");
+        ExecutionLog first = new ExecutionLog(new File(_dir, "first.log"), ExecutionLog.DEFAULT_OPTIONS);
+        ExecutionLog second = new ExecutionLog(new File(_dir, "second.log"), ExecutionLog.DEFAULT_OPTIONS);
+        ExecutionLogAppender firstAppender = new ExecutionLogAppender(first, new PatternLayout("%m\n"), "job/1");
+        ExecutionLogAppender secondAppender = new ExecutionLogAppender(second, new PatternLayout("%m\n"), "job/2");
+        logger.addAppender(firstAppender);
+        logger.addAppender(secondAppender);
+        try {
+            MDC.put(ExecutionLogAppender.RUN_MDC_KEY, "job/1");
+            logger.info("from the first run");
+            MDC.put(ExecutionLogAppender.RUN_MDC_KEY, "job/2");
+            logger.info("from the second run");
+        } finally {
+            MDC.remove(ExecutionLogAppender.RUN_MDC_KEY);
+            logger.removeAppender(firstAppender);
+            logger.removeAppender(secondAppender);
+        }
+        first.close();
+        second.close();
+
+        Assert.assertEquals("from the first run\n", FileUtils.readFileToString(first.getFile()));
+        Assert.assertEquals("from the second run\n", FileUtils.readFileToString(second.getFile()));
+    }
+}
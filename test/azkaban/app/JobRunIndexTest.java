@@ -0,0 +1,159 @@
+package azkaban.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+import azkaban.jobs.ResourceUsage;
+
+public class JobRunIndexTest {
+
+    private File _logDir;
+
+    @Before
+    public void setUp() throws Exception {
+        _logDir = File.createTempFile("logs", "test");
+        _logDir.delete();
+        _logDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_logDir);
+    }
+
+    @Test
+    public void testLatestRunsComeFromTheTail() throws Exception {
+        JobRunIndex index = new JobRunIndex(_logDir, "a");
+        long start = new DateTime().minusDays(1).getMillis();
+        for(int i = 0; i < 300; i++) {
+            String run = LogArchive.RUN_DATE_FORMAT.print(start + i * 1000);
+            new File(new File(_logDir, "a"), run).mkdirs();
+            index.runStarted(run, start + i * 1000);
+            if(i < 299)
+                index.runEnded(run, start + i * 1000, start + i * 1000 + 500, i % 2 == 0);
+        }
+
+        List<JobExecution> latest = index.loadLatest(3);
+        Assert.assertEquals(3, latest.size());
+        Assert.assertFalse("The last run has not ended.", latest.get(0).hasEnded());
+        Assert.assertEquals(start + 299 * 1000, latest.get(0).getStarted().getMillis());
+        Assert.assertTrue(latest.get(1).isSucceeded());
+        Assert.assertFalse(latest.get(2).isSucceeded());
+        Assert.assertEquals(start + 297 * 1000 + 500, latest.get(2).getEnded().getMillis());
+
+        Assert.assertEquals(300, index.loadLatest(Integer.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testTornRecordIsIgnoredAndOverwritten() throws Exception {
+        JobRunIndex index = new JobRunIndex(_logDir, "b");
+        new File(new File(_logDir, "b"), "01-01-2010.00.00.00.000").mkdirs();
+        index.runEnded("01-01-2010.00.00.00.000", 1, 2, true);
+
+        FileOutputStream out = new FileOutputStream(new File(new File(_logDir, "b"), JobRunIndex.INDEX_FILE), true);
+        out.write(new byte[JobRunIndex.RECORD_SIZE / 2]);
+        out.close();
+        Assert.assertEquals(1, index.loadLatest(10).size());
+
+        new File(new File(_logDir, "b"), "01-01-2010.00.00.01.000").mkdirs();
+        index.runEnded("01-01-2010.00.00.01.000", 3, 4, false);
+        List<JobExecution> runs = index.loadLatest(10);
+        Assert.assertEquals(2, runs.size());
+        Assert.assertEquals(3, runs.get(0).getStarted().getMillis());
+    }
+
+    @Test
+    public void testExistingRunsAreIndexedOnFirstUse() throws Exception {
+        DateTime started = new DateTime().minusHours(2);
+        String run = LogArchive.RUN_DATE_FORMAT.print(started);
+        File runDir = new File(new File(_logDir, "c"), run);
+        runDir.mkdirs();
+        Props props = new Props();
+        props.put("start", Long.toString(started.getMillis()));
+        props.put("end", Long.toString(started.getMillis() + 1000));
+        props.put("succeeded", "true");
+        props.storeLocal(new File(runDir, "run.properties"));
+        new File(new File(_logDir, "c"), LogArchive.RUN_DATE_FORMAT.print(started.plusHours(1))).mkdirs();
+
+        List<JobExecution> runs = new JobRunIndex(_logDir, "c").loadLatest(10);
+        Assert.assertEquals(2, runs.size());
+        Assert.assertFalse(runs.get(0).hasEnded());
+        Assert.assertTrue(runs.get(1).isSucceeded());
+        Assert.assertEquals("c" + File.separator + run + File.separator + "c." + run + ".log", runs.get(1).getLog());
+
+        Assert.assertTrue(new JobRunIndex(_logDir, "missing").loadLatest(10).isEmpty());
+        Assert.assertFalse(new File(_logDir, "missing").exists());
+    }
+
+    @Test
+    public void testResourcesAreRecordedAndRebuiltFromRunProperties() throws Exception {
+        DateTime started = new DateTime().minusHours(2);
+        String run = LogArchive.RUN_DATE_FORMAT.print(started);
+        ResourceUsage usage = new ResourceUsage(1500, 64 * 1024 * 1024, 4096, 8192, 12);
+
+        File runDir = new File(new File(_logDir, "d"), run);
+        runDir.mkdirs();
+        JobRunIndex index = new JobRunIndex(_logDir, "d");
+        index.runEnded(run, started.getMillis(), started.getMillis() + 1000, true, usage);
+        assertUsage(usage, index.loadLatest(1).get(0).getResources());
+
+        Props props = new Props();
+        props.put("start", Long.toString(started.getMillis()));
+        props.put("end", Long.toString(started.getMillis() + 1000));
+        props.put("succeeded", "true");
+        usage.storeIn(props);
+        props.storeLocal(new File(runDir, "run.properties"));
+
+        // An index of an older version is rebuilt rather than misread.
+        RandomAccessFile file = new RandomAccessFile(new File(new File(_logDir, "d"), JobRunIndex.INDEX_FILE), "rw");
+        file.seek(4);
+        file.writeInt(1);
+        file.close();
+
+        List<JobExecution> runs = index.loadLatest(10);
+        Assert.assertEquals(1, runs.size());
+        assertUsage(usage, runs.get(0).getResources());
+    }
+
+    @Test
+    public void testRunsDeletedByHandAreDropped() throws Exception {
+        new File(_logDir, "e").mkdirs();
+        Assert.assertTrue(new JobRunIndex(_logDir, "e").loadLatest(10).isEmpty());
+        Assert.assertFalse("A directory without runs gets no index.",
+                           new File(new File(_logDir, "e"), JobRunIndex.INDEX_FILE).exists());
+
+        DateTime started = new DateTime().minusHours(2);
+        String kept = LogArchive.RUN_DATE_FORMAT.print(started);
+        String archived = LogArchive.RUN_DATE_FORMAT.print(started.plusHours(1));
+        String deleted = LogArchive.RUN_DATE_FORMAT.print(started.plusMinutes(90));
+        JobRunIndex index = new JobRunIndex(_logDir, "e");
+        for(String run: new String[] { kept, archived, deleted }) {
+            new File(new File(_logDir, "e"), run).mkdirs();
+            index.runStarted(run, LogArchive.getRunDate(run).getMillis());
+        }
+        new LogArchive(_logDir).archiveRuns("e", Collections.singletonList(archived));
+        FileUtils.deleteDirectory(new File(new File(_logDir, "e"), deleted));
+
+        List<JobExecution> runs = index.loadLatest(10);
+        Assert.assertEquals(2, runs.size());
+        Assert.assertEquals(started.plusHours(1).getMillis(), runs.get(0).getStarted().getMillis());
+        Assert.assertEquals(started.getMillis(), runs.get(1).getStarted().getMillis());
+        Assert.assertEquals(2, index.loadLatest(10).size());
+    }
+
+    private static void assertUsage(ResourceUsage expected, ResourceUsage actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.toString(), actual.toString());
+    }
+}
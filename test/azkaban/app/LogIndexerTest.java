@@ -0,0 +1,150 @@
+package azkaban.app;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogIndexerTest {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final Set<String> ERRORS = Collections.singleton(LogIndexer.ERROR);
+
+    private File _logDir;
+    private LogIndexer _indexer;
+
+    @Before
+    public void setUp() throws Exception {
+        _logDir = File.createTempFile("logs", "test");
+        _logDir.delete();
+        _logDir.mkdirs();
+        _indexer = new LogIndexer(_logDir, Collections.singletonMap("npe", "NullPointerException"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_logDir);
+    }
+
+    @Test
+    public void testOnlyAppendedLinesAreIndexed() throws Exception {
+        String run = "01-01-2010.10.00.00.000";
+        String path = LogIndexer.getLogPath("a", run);
+        append(path, "01-01-2010 10:00:00 a INFO - starting\n01-01-2010 10:00:01 a ERROR - first\n");
+
+        Assert.assertEquals(1, _indexer.update(path));
+        Assert.assertEquals(0, _indexer.update(path));
+
+        // A line still being written is left for the next round.
+        append(path, "01-01-2010 10:00:02 a WARN - java.lang.NullPointerException\n01-01-2010 10:00:03 a ERROR - sec");
+        Assert.assertEquals(2, _indexer.update(path));
+        append(path, "ond\n");
+        Assert.assertEquals(1, _indexer.update(path));
+
+        // A fresh indexer picks up from the checkpoint in the index file.
+        LogIndexer reopened = new LogIndexer(_logDir, Collections.singletonMap("npe", "NullPointerException"));
+        Assert.assertEquals(0, reopened.update(path));
+
+        List<LogIndexer.Entry> errors = reopened.getEntries(path, ERRORS);
+        Assert.assertEquals(Arrays.asList("01-01-2010 10:00:01 a ERROR - first",
+                                          "01-01-2010 10:00:03 a ERROR - second"),
+                            reopened.readLines(path, errors));
+        Assert.assertEquals(1, reopened.getEntries(path, Collections.singleton("npe")).size());
+    }
+
+    @Test
+    public void testUnfinishedRoundIsIgnored() throws Exception {
+        String path = LogIndexer.getLogPath("a", "01-01-2010.10.00.00.000");
+        append(path, "x ERROR - one\n");
+        _indexer.update(path);
+
+        // Entries written by a round that never got to its checkpoint.
+        FileOutputStream out = new FileOutputStream(new File(_logDir, path + LogIndexer.INDEX_SUFFIX), true);
+        out.write("99 5 ERROR\n@10".getBytes("UTF-8"));
+        out.close();
+
+        append(path, "x ERROR - two\n");
+        LogIndexer reopened = new LogIndexer(_logDir, Collections.<String, String> emptyMap());
+        Assert.assertEquals(1, reopened.update(path));
+        Assert.assertEquals(Arrays.asList("x ERROR - one", "x ERROR - two"),
+                            reopened.readLines(path, reopened.getEntries(path, ERRORS)));
+    }
+
+    @Test
+    public void testGarbledIndexIsRewritten() throws Exception {
+        String path = LogIndexer.getLogPath("a", "01-01-2010.10.00.00.000");
+        append(path, "x ERROR - one\n");
+        _indexer.update(path);
+
+        FileOutputStream out = new FileOutputStream(new File(_logDir, path + LogIndexer.INDEX_SUFFIX), true);
+        out.write("x? 5 ERROR\n@1O\n".getBytes("UTF-8"));
+        out.close();
+
+        append(path, "x ERROR - two\n");
+        LogIndexer reopened = new LogIndexer(_logDir, Collections.<String, String> emptyMap());
+        Assert.assertEquals(2, reopened.search(Arrays.asList("a"), ERRORS, null, 10).size());
+        Assert.assertEquals(Arrays.asList("x ERROR - one", "x ERROR - two"),
+                            reopened.readLines(path, reopened.getEntries(path, ERRORS)));
+        Assert.assertFalse(FileUtils.readFileToString(new File(_logDir, path + LogIndexer.INDEX_SUFFIX)).contains("x?"));
+    }
+
+    @Test
+    public void testFinishedLogsAreNotReadAgain() throws Exception {
+        String run = "01-01-2010.10.00.00.000";
+        String path = LogIndexer.getLogPath("a", run);
+        append(path, "x ERROR - one\nx ERROR - two");
+        append("a" + File.separator + run + File.separator + "run.properties", "succeeded=false\n");
+        Assert.assertEquals(2, _indexer.update(path));
+
+        // Whatever is written after the run ended is not looked for, not even by a fresh indexer.
+        append(path, "\nx ERROR - three\n");
+        Assert.assertEquals(0, _indexer.update(path));
+        Assert.assertEquals(0, new LogIndexer(_logDir, Collections.<String, String> emptyMap()).update(path));
+
+        // Only the recent runs are indexed in the background.
+        String recent = LogArchive.RUN_DATE_FORMAT.print(new DateTime().minusHours(1));
+        append(LogIndexer.getLogPath("b", recent), "x ERROR - recent\n");
+        append(LogIndexer.getLogPath("b", run), "x ERROR - old\n");
+        Assert.assertEquals(1, new LogIndexer(_logDir, Collections.<String, String> emptyMap(), DAY_MS).indexAll());
+    }
+
+    @Test
+    public void testSearchIncludesArchivedRuns() throws Exception {
+        String oldRun = "01-01-2010.10.00.00.000";
+        String newRun = "01-02-2010.10.00.00.000";
+        append(LogIndexer.getLogPath("a", oldRun), "x ERROR - disk full\n");
+        append("a" + File.separator + oldRun + File.separator + "run.properties", "succeeded=false\n");
+        append(LogIndexer.getLogPath("a", newRun), "x ERROR - disk full again\nx ERROR - timeout\n");
+        append(LogIndexer.getLogPath("b", newRun), "x ERROR - disk full in b\n");
+
+        _indexer.indexAll();
+        new LogArchive(_logDir).archiveRuns("a", Arrays.asList(oldRun));
+
+        List<LogIndexer.Match> matches = _indexer.search(Arrays.asList("a"), ERRORS, "disk", 10);
+        Assert.assertEquals(2, matches.size());
+        Assert.assertEquals(newRun, matches.get(0).getRunName());
+        Assert.assertEquals("x ERROR - disk full", matches.get(1).getLine());
+
+        Set<String> both = new HashSet<String>(Arrays.asList("a", "b"));
+        Assert.assertEquals(1, _indexer.search(both, ERRORS, "disk", 1).size());
+        Assert.assertEquals(3, _indexer.search(both, ERRORS, "disk", 10).size());
+    }
+
+    private void append(String path, String text) throws Exception {
+        File file = new File(_logDir, path);
+        file.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(text.getBytes("UTF-8"));
+        out.close();
+    }
+}
@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import azkaban.common.utils.Props;
+import azkaban.common.utils.UndefinedPropertyException;
 
 public class PropUtilsTest {
     
@@ -38,4 +39,52 @@ public class PropUtilsTest {
         
         Assert.assertEquals("the guilty party is Francesco Estaban", answer);
     }
+
+    @Test
+    public void testResolveNestedAndLiteralProps() throws Exception {
+        Props inputProps = new Props();
+        inputProps.put("root", "/data");
+        inputProps.put("input", "${root}/in");
+        inputProps.put("output", "${input}/../out");
+        inputProps.put("price", "costs $5 and \\ ${notClosed");
+        inputProps.put("dollars", "${price} ${}");
+
+        Props outputProps = PropsUtils.resolveProps(inputProps, null);
+
+        Assert.assertEquals("/data/in/../out", outputProps.get("output"));
+        Assert.assertEquals("costs $5 and \\ ${notClosed", outputProps.get("price"));
+        Assert.assertEquals("costs $5 and \\ ${notClosed ${}", outputProps.get("dollars"));
+    }
+
+    @Test
+    public void testResolveGeneratedPropsReferencingLocalProps() throws Exception {
+        Props inputProps = new Props();
+        Props genProps = new Props();
+        inputProps.put("cluster", "hdfs://nn:9000");
+        inputProps.put("path", "${outputDir}/part-0");
+        genProps.put("outputDir", "${cluster}/tmp");
+
+        Props outputProps = PropsTemplate.compile(inputProps).resolve(genProps);
+
+        Assert.assertEquals("hdfs://nn:9000/tmp/part-0", outputProps.get("path"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultiHopCircularReference() throws Exception {
+        Props inputProps = new Props();
+        inputProps.put("start", "${a}");
+        inputProps.put("a", "${b}");
+        inputProps.put("b", "x${c}");
+        inputProps.put("c", "${a}");
+
+        PropsUtils.resolveProps(inputProps, null);
+    }
+
+    @Test(expected = UndefinedPropertyException.class)
+    public void testUndefinedVariable() throws Exception {
+        Props inputProps = new Props();
+        inputProps.put("a", "${missing}");
+
+        PropsUtils.resolveProps(inputProps, new Props());
+    }
 }
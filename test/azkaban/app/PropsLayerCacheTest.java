@@ -0,0 +1,148 @@
+package azkaban.app;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+
+public class PropsLayerCacheTest {
+
+    private File _dir;
+    private PropsLayerCache _cache;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile("layers", "test");
+        _dir.delete();
+        _dir.mkdirs();
+        _cache = new PropsLayerCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_dir);
+    }
+
+    @Test
+    public void testUnchangedLayersAreReusedAcrossReloads() throws Exception {
+        File common = write("common.properties", "user=azkaban\n");
+        File job = write("a.job", "type=command\n");
+        Props root = new Props();
+
+        Props dirLayer = _cache.getLayer(_dir, files(common), root);
+        Props jobLayer = _cache.getLayer(job, files(job), dirLayer);
+
+        Assert.assertSame(dirLayer, _cache.getLayer(_dir, files(common), root));
+        Assert.assertSame(jobLayer, _cache.getLayer(job, files(job), dirLayer));
+        Assert.assertEquals("azkaban", jobLayer.get("user"));
+        Assert.assertEquals(2, _cache.getParsedCount());
+        Assert.assertEquals(2, _cache.getReusedCount());
+    }
+
+    @Test
+    public void testChangedFilesAreReloaded() throws Exception {
+        File common = write("common.properties", "user=azkaban\n");
+        File job = write("a.job", "type=command\n");
+        Props root = new Props();
+
+        Props dirLayer = _cache.getLayer(_dir, files(common), root);
+        Props jobLayer = _cache.getLayer(job, files(job), dirLayer);
+
+        write("common.properties", "user=someone.else\n");
+        Props newDirLayer = _cache.getLayer(_dir, files(common), root);
+        Assert.assertNotSame(dirLayer, newDirLayer);
+        Assert.assertEquals("someone.else", newDirLayer.get("user"));
+
+        // The job file didn't change, so its values are restacked on the new parent without parsing.
+        Props newJobLayer = _cache.getLayer(job, files(job), newDirLayer);
+        Assert.assertNotSame(jobLayer, newJobLayer);
+        Assert.assertEquals("someone.else", newJobLayer.get("user"));
+        Assert.assertEquals("command", newJobLayer.get("type"));
+        Assert.assertEquals(1, _cache.getRestackedCount());
+
+        write("a.job", "type=java\n");
+        Assert.assertEquals("java", _cache.getLayer(job, files(job), newDirLayer).get("type"));
+        Assert.assertEquals(4, _cache.getParsedCount());
+    }
+
+    @Test
+    public void testLayersOfMissingFilesAreEvicted() throws Exception {
+        File job = write("a.job", "type=command\n");
+        File other = write("b.job", "type=java\n");
+        _cache.getLayer(job, files(job), null);
+        _cache.getLayer(other, files(other), null);
+        Assert.assertEquals(2, _cache.getLayerCount());
+
+        other.delete();
+        _cache.evictMissing();
+        Assert.assertEquals(1, _cache.getLayerCount());
+    }
+
+    @Test
+    public void testTransientLayersLeaveTheCachedOneAlone() throws Exception {
+        File job = write("a.job", "type=command\n");
+        Props dirLayer = new Props();
+        Props jobLayer = _cache.getLayer(job, files(job), dirLayer);
+
+        Props overrides = new Props(dirLayer, Props.of("user", "override"));
+        Props overridden = _cache.getTransientLayer(job, files(job), overrides);
+        Assert.assertEquals("override", overridden.get("user"));
+        Assert.assertEquals("command", overridden.get("type"));
+
+        Assert.assertSame(jobLayer, _cache.getLayer(job, files(job), dirLayer));
+        Assert.assertEquals(1, _cache.getParsedCount());
+    }
+
+    @Test
+    public void testLayersAreReadOnly() throws Exception {
+        File job = write("a.job", "type=command\n");
+        Props layer = _cache.getLayer(job, files(job), null);
+
+        try {
+            layer.put("type", "java");
+            Assert.fail("A shared layer was changed.");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            layer.removeLocal("type");
+            Assert.fail("A shared layer was changed.");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            layer.localKeySet().clear();
+            Assert.fail("A shared layer was changed.");
+        } catch(UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals("command", layer.get("type"));
+
+        // Stacking a Props on a layer is how to add to it.
+        Props child = new Props(layer);
+        child.put("type", "java");
+        Assert.assertEquals("java", child.get("type"));
+    }
+
+    private File write(String name, String contents) throws Exception {
+        File file = new File(_dir, name);
+        long before = file.exists() ? file.lastModified() : 0;
+        FileUtils.writeStringToFile(file, contents);
+        // Make sure a rewrite shows, even on file systems with coarse timestamps.
+        if(file.lastModified() <= before)
+            file.setLastModified(before + 1000);
+        return file;
+    }
+
+    private static List<File> files(File... files) {
+        return files.length == 1 ? Collections.singletonList(files[0]) : Arrays.asList(files);
+    }
+}
@@ -0,0 +1,107 @@
+package azkaban.flow;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ExecutionIdAllocatorTest
+{
+    private volatile File dir;
+    private volatile File markFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = File.createTempFile("ids", "test");
+        dir.delete();
+        dir.mkdirs();
+        markFile = new File(dir, "execution.id");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testIdsAreNotReusedAfterACrash() throws Exception
+    {
+        ExecutionIdAllocator ids = new ExecutionIdAllocator(markFile, 10, 0);
+        long last = 0;
+        for (int i = 0; i < 25; ++i) {
+            last = ids.next();
+        }
+        Assert.assertEquals(25, last);
+        Assert.assertEquals(3, ids.getReservations());
+
+        // Nothing is closed: the process simply goes away.
+        ExecutionIdAllocator restarted = new ExecutionIdAllocator(markFile, 10, 0);
+        Assert.assertTrue(restarted.next() > last);
+    }
+
+    @Test
+    public void testTornReservationKeepsTheOldMark() throws Exception
+    {
+        ExecutionIdAllocator ids = new ExecutionIdAllocator(markFile, 10, 0);
+        Assert.assertEquals(1, ids.next());
+
+        // A crash while writing the next mark leaves only a partial temporary file behind.
+        FileUtils.writeStringToFile(new File(dir, "execution.id.tmp"), "2");
+
+        Assert.assertEquals(11, new ExecutionIdAllocator(markFile, 10, 0).next());
+    }
+
+    @Test
+    public void testFloorAppliesWithoutAMark() throws Exception
+    {
+        Assert.assertEquals(43, new ExecutionIdAllocator(markFile, 10, 42).next());
+        Assert.assertEquals(53, new ExecutionIdAllocator(markFile, 10, 0).next());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCorruptMarkIsRefused() throws Exception
+    {
+        FileUtils.writeStringToFile(markFile, "12x");
+        new ExecutionIdAllocator(markFile, 10, 0);
+    }
+
+    @Test
+    public void testConcurrentAllocationIsUnique() throws Exception
+    {
+        final ExecutionIdAllocator ids = new ExecutionIdAllocator(markFile, 50, 0);
+        final Set<Long> seen = Collections.synchronizedSet(new HashSet<Long>());
+        final CountDownLatch done = new CountDownLatch(8);
+
+        for (int t = 0; t < 8; ++t) {
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 1000; ++i) {
+                        seen.add(ids.next());
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        Assert.assertEquals(8000, seen.size());
+        Assert.assertEquals(8000, ids.current());
+        Assert.assertEquals(160, ids.getReservations());
+        Assert.assertTrue(new ExecutionIdAllocator(markFile, 50, 0).next() > 8000);
+    }
+}
@@ -0,0 +1,90 @@
+package azkaban.flow;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class ExecutionIndexTest
+{
+    private volatile File indexDir;
+    private volatile ExecutionIndex index;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        indexDir = File.createTempFile("index", "test");
+        indexDir.delete();
+        index = new ExecutionIndex(indexDir);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        index.close();
+        FileUtils.deleteDirectory(indexDir);
+    }
+
+    @Test
+    public void testQueriesFilterAndPage() throws Exception
+    {
+        DateTime base = new DateTime(2010, 6, 1, 0, 0, 0, 0);
+        // More than the initial mapping holds, so the file has to grow.
+        for (int i = 1; i <= 3000; ++i) {
+            index.update(summary(i, i % 3 == 0 ? "a" : "b", i % 2 == 0 ? Status.SUCCEEDED : Status.FAILED, base.plusMinutes(i)));
+        }
+
+        List<ExecutionSummary> page = index.query(null, null, null, null, 0, 10);
+        Assert.assertEquals(10, page.size());
+        Assert.assertEquals("3000", page.get(0).getId());
+        Assert.assertEquals("2991", page.get(9).getId());
+
+        page = index.query("a", Status.SUCCEEDED, null, null, 2, 3);
+        Assert.assertEquals("2988", page.get(0).getId());
+        Assert.assertEquals("2976", page.get(2).getId());
+        Assert.assertEquals(base.plusMinutes(2988), page.get(0).getStartTime());
+        Assert.assertEquals(Status.SUCCEEDED, page.get(0).getStatus());
+
+        page = index.query(null, null, base.plusMinutes(10), base.plusMinutes(20), 0, 100);
+        Assert.assertEquals(10, page.size());
+        Assert.assertEquals("19", page.get(0).getId());
+
+        Assert.assertEquals(1000, index.count("a", null));
+        Assert.assertEquals(500, index.count("a", Status.FAILED));
+        Assert.assertEquals(0, index.query("missing", null, null, null, 0, 10).size());
+    }
+
+    @Test
+    public void testUpdatesMovePostingsAndSurviveReopen() throws Exception
+    {
+        index.update(summary(1, "a", Status.RUNNING, new DateTime()));
+        index.update(summary(2, "a", Status.RUNNING, new DateTime()));
+        index.update(summary(1, "a", Status.SUCCEEDED, new DateTime()));
+
+        Assert.assertEquals(1, index.count(null, Status.RUNNING));
+        Assert.assertEquals(1, index.count(null, Status.SUCCEEDED));
+        Assert.assertEquals(2, index.size());
+
+        index.close();
+        index = new ExecutionIndex(indexDir);
+
+        Assert.assertEquals(2, index.getMaxId());
+        Assert.assertEquals(Status.SUCCEEDED, index.get(1).getStatus());
+        Assert.assertEquals("2", index.query("a", Status.RUNNING, null, null, 0, 10).get(0).getId());
+        Assert.assertEquals(1, index.getUnfinishedIds().size());
+        Assert.assertNull(index.get(3));
+    }
+
+    private static ExecutionSummary summary(long id, String name, Status status, DateTime start)
+    {
+        return new ExecutionSummary(String.valueOf(id), name, status, start, start.plusSeconds(30));
+    }
+}
@@ -0,0 +1,129 @@
+package azkaban.flow;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+
+/**
+ *
+ */
+public class ExecutionJournalTest
+{
+    private volatile File journalDir;
+    private volatile ExecutionJournal journal;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        journalDir = File.createTempFile("journal", "test");
+        journalDir.delete();
+        journal = new ExecutionJournal(journalDir, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        journal.close();
+        FileUtils.deleteDirectory(journalDir);
+    }
+
+    @Test
+    public void testTransitionsAreReplayedAfterRestart() throws Exception
+    {
+        IndividualJobExecutableFlow ready = new IndividualJobExecutableFlow("1", "a", new Props(), null);
+
+        Assert.assertFalse("The first save needs a base snapshot.", journal.record(ready));
+        journal.snapshotWritten(ready);
+
+        DateTime start = new DateTime();
+        IndividualJobExecutableFlow running = new IndividualJobExecutableFlow("1", "a", new Props(), null)
+                .setStatus(Status.RUNNING)
+                .setStartTime(start);
+
+        Assert.assertTrue(journal.record(running));
+        Assert.assertTrue("Saving an unchanged flow journals nothing.", journal.record(running));
+        Assert.assertEquals(2, journal.getEventsWritten());
+
+        journal.close();
+        journal = new ExecutionJournal(journalDir, 1024 * 1024);
+        Assert.assertTrue(journal.getUnfinishedExecutionIds().contains("1"));
+
+        Map<String, Object> job = new HashMap<String, Object>();
+        job.put("name", "a");
+        job.put("status", Status.READY.toString());
+        Map<String, Object> jobs = new HashMap<String, Object>();
+        jobs.put("a", job);
+        Map<String, Object> descriptor = new HashMap<String, Object>();
+        descriptor.put("jobs", jobs);
+
+        journal.replay("1", descriptor);
+
+        Assert.assertEquals(Status.RUNNING.toString(), job.get("status"));
+        Assert.assertEquals(start.toString(), job.get("startTime"));
+    }
+
+    @Test
+    public void testFinalSnapshotRetiresSegments() throws Exception
+    {
+        IndividualJobExecutableFlow ready = new IndividualJobExecutableFlow("2", "b", new Props(), null);
+        journal.snapshotWritten(ready);
+
+        IndividualJobExecutableFlow succeeded = new IndividualJobExecutableFlow("2", "b", new Props(), null)
+                .setStatus(Status.SUCCEEDED);
+
+        Assert.assertFalse("A terminal flow needs a final snapshot.", journal.record(succeeded));
+        journal.snapshotWritten(succeeded);
+        journal.close();
+
+        journal = new ExecutionJournal(journalDir, 1024 * 1024);
+
+        Assert.assertTrue(journal.getUnfinishedExecutionIds().isEmpty());
+        Assert.assertEquals("Only the freshly opened segment is left.", 1, journalDir.listFiles().length);
+    }
+
+    @Test
+    public void testTransitionsOfTheSnapshottedFlowAreJournaled() throws Exception
+    {
+        IndividualJobExecutableFlow flow = new IndividualJobExecutableFlow("3", "c", new Props(), null);
+        journal.snapshotWritten(flow);
+        long written = journal.getEventsWritten();
+
+        Assert.assertTrue("Saving an unchanged flow journals nothing.", journal.record(flow));
+        Assert.assertEquals(written, journal.getEventsWritten());
+
+        flow.setStatus(Status.RUNNING);
+        Assert.assertTrue(journal.record(flow));
+        Assert.assertEquals(written + 1, journal.getEventsWritten());
+    }
+
+    @Test
+    public void testForgottenExecutionsAreDropped() throws Exception
+    {
+        journal.close();
+        journal = new ExecutionJournal(journalDir, 1024 * 1024, 1000);
+
+        IndividualJobExecutableFlow idle = new IndividualJobExecutableFlow("4", "d", new Props(), null);
+        journal.snapshotWritten(idle);
+        IndividualJobExecutableFlow abandoned = new IndividualJobExecutableFlow("5", "e", new Props(), null);
+        journal.snapshotWritten(abandoned);
+
+        journal.forget("5");
+        Assert.assertFalse("A forgotten execution needs a new base snapshot.", journal.record(abandoned));
+        Assert.assertEquals(Collections.singleton("4"), journal.evictIdle(System.currentTimeMillis() + 2000));
+        Assert.assertFalse(journal.record(idle));
+
+        journal.close();
+        journal = new ExecutionJournal(journalDir, 1024 * 1024);
+        Assert.assertTrue(journal.getUnfinishedExecutionIds().isEmpty());
+    }
+}
@@ -0,0 +1,141 @@
+package azkaban.flow;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+import azkaban.serialization.IndividualJobEFSerializer;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ *
+ */
+public class FlowsTest
+{
+    @Test
+    public void testInterruptedJobIsResetForRerun() throws Exception
+    {
+        IndividualJobExecutableFlow finished = succeeded("a");
+        IndividualJobExecutableFlow interrupted = interrupted("b");
+        IndividualJobExecutableFlow waiting = new IndividualJobExecutableFlow("1", "c", new Props(), null);
+
+        ExecutableFlow flow = new ComposedExecutableFlow(
+                "1",
+                waiting,
+                new ComposedExecutableFlow("1", interrupted, finished)
+        );
+
+        Assert.assertEquals(Arrays.asList("b"), Flows.recoverInterruptedJobs(flow, Predicates.<String>alwaysTrue()));
+
+        Assert.assertEquals(Status.SUCCEEDED, finished.getStatus());
+        Assert.assertEquals(Status.READY, interrupted.getStatus());
+        Assert.assertNull(interrupted.getStartTime());
+        Assert.assertEquals(Status.READY, waiting.getStatus());
+    }
+
+    @Test
+    public void testInterruptedJobFailsTheFlow() throws Exception
+    {
+        IndividualJobExecutableFlow interrupted = interrupted("b");
+        ExecutableFlow flow = new ComposedExecutableFlow("1", interrupted, succeeded("a"));
+
+        Assert.assertEquals(Arrays.asList("b"), Flows.recoverInterruptedJobs(flow, Predicates.<String>alwaysFalse()));
+        Assert.assertEquals(Status.FAILED, interrupted.getStatus());
+        Assert.assertNotNull(interrupted.getEndTime());
+
+        // Resuming the flow runs nothing: the interrupted job's failure is its result.
+        final AtomicReference<Status> result = new AtomicReference<Status>();
+        flow.execute(new OneCallFlowCallback(new AtomicBoolean(false))
+        {
+            @Override
+            protected void theCallback(Status status)
+            {
+                result.set(status);
+            }
+        }, new Props());
+
+        Assert.assertEquals(Status.FAILED, result.get());
+    }
+
+    @Test
+    public void testRestoredPropertiesReachDependers() throws Exception
+    {
+        Props first = new Props();
+        first.put("a.out", "1");
+        Props second = new Props();
+        second.put("b.out", "2");
+
+        IndividualJobExecutableFlow a = succeeded("a").setRestoredGeneratedProperties(first, false);
+        IndividualJobExecutableFlow b = succeeded("b").setRestoredGeneratedProperties(second, false);
+        ExecutableFlow flow = new ComposedExecutableFlow("1", b, a);
+
+        Props input = new Props();
+        input.put("flow.in", "0");
+
+        final AtomicReference<Status> result = new AtomicReference<Status>();
+        flow.execute(new OneCallFlowCallback(new AtomicBoolean(false))
+        {
+            @Override
+            protected void theCallback(Status status)
+            {
+                result.set(status);
+            }
+        }, input);
+
+        Assert.assertEquals(Status.SUCCEEDED, result.get());
+
+        Props output = flow.getFlowGeneratedProperties();
+        Assert.assertEquals("0", output.get("flow.in"));
+        Assert.assertEquals("1", output.get("a.out"));
+        Assert.assertEquals("2", output.get("b.out"));
+
+        // Saved again, b keeps only what it generated itself.
+        Map<String, Object> described = IndividualJobEFSerializer.describeGeneratedProps(b, 1024);
+        Assert.assertEquals(ImmutableMap.of("b.out", "2"), described.get("generatedProps"));
+    }
+
+    @Test
+    public void testOversizedPropertiesAreOmittedAndRerun() throws Exception
+    {
+        Props generated = new Props();
+        generated.put("big", "0123456789");
+
+        IndividualJobExecutableFlow a = succeeded("a").setRestoredGeneratedProperties(generated, false);
+        Map<String, Object> described = IndividualJobEFSerializer.describeGeneratedProps(a, 8);
+        Assert.assertFalse(described.containsKey("generatedProps"));
+        Assert.assertEquals(Boolean.TRUE, described.get("generatedPropsOmitted"));
+
+        IndividualJobExecutableFlow omitted = succeeded("a").setRestoredGeneratedProperties(null, true);
+        IndividualJobExecutableFlow kept = succeeded("b").setRestoredGeneratedProperties(new Props(), false);
+        Flows.resetFailedFlows(new ComposedExecutableFlow("1", kept, omitted));
+
+        Assert.assertEquals(Status.READY, omitted.getStatus());
+        Assert.assertFalse(omitted.isGeneratedPropertiesOmitted());
+        Assert.assertEquals(Status.SUCCEEDED, kept.getStatus());
+    }
+
+    private static IndividualJobExecutableFlow succeeded(String name)
+    {
+        return new IndividualJobExecutableFlow("1", name, new Props(), null)
+                .setStatus(Status.SUCCEEDED)
+                .setStartTime(new DateTime())
+                .setEndTime(new DateTime());
+    }
+
+    /**
+     * What JobManagerFlowDeserializer builds from a job that was saved RUNNING.
+     */
+    private static IndividualJobExecutableFlow interrupted(String name)
+    {
+        return new IndividualJobExecutableFlow("1", name, new Props(), null)
+                .setStartTime(new DateTime());
+    }
+}
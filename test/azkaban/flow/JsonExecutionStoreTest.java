@@ -0,0 +1,91 @@
+package azkaban.flow;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class JsonExecutionStoreTest
+{
+    private volatile File storeDir;
+    private volatile JsonExecutionStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        storeDir = File.createTempFile("store", "test");
+        storeDir.delete();
+        storeDir.mkdirs();
+        store = new JsonExecutionStore(storeDir);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(storeDir);
+    }
+
+    @Test
+    public void testSummaryIsWrittenAtTheHead() throws Exception
+    {
+        Map<String, Object> summary = new HashMap<String, Object>();
+        summary.put("id", "1");
+        summary.put("status", "SUCCEEDED");
+
+        store.save("1", summary, SegmentedExecutionStoreTest.execution("1", "SUCCEEDED"));
+
+        Assert.assertEquals(summary, store.loadSummary("1"));
+        Assert.assertEquals(SegmentedExecutionStoreTest.execution("1", "SUCCEEDED"), store.load("1"));
+        Assert.assertEquals(1, store.getMaxId());
+    }
+
+    @Test
+    public void testOldFilesHaveNoSummary() throws Exception
+    {
+        FileWriter out = new FileWriter(new File(storeDir, "2.json"));
+        out.write(new JSONObject(SegmentedExecutionStoreTest.execution("2", "FAILED")).toString(2));
+        out.close();
+
+        Assert.assertNull(store.loadSummary("2"));
+        Assert.assertEquals(SegmentedExecutionStoreTest.execution("2", "FAILED"), store.load("2"));
+        Assert.assertNull(store.loadSummary("3"));
+    }
+
+    @Test
+    public void testArchivedExecutionsStillLoad() throws Exception
+    {
+        Map<String, Object> summary = new HashMap<String, Object>();
+        summary.put("id", "3");
+        summary.put("status", "SUCCEEDED");
+
+        store.save("3", summary, SegmentedExecutionStoreTest.execution("3", "SUCCEEDED"));
+        store.save("4", null, SegmentedExecutionStoreTest.execution("4", "RUNNING"));
+
+        Assert.assertEquals(1, store.archive(Arrays.asList("3", "5")));
+        Assert.assertFalse(new File(storeDir, "3.json").exists());
+
+        // A reopened store finds the archived execution too.
+        store = new JsonExecutionStore(storeDir);
+        Assert.assertEquals(summary, store.loadSummary("3"));
+        Assert.assertEquals(SegmentedExecutionStoreTest.execution("3", "SUCCEEDED"), store.load("3"));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("3", "4")), new HashSet<String>(store.getIds()));
+        Assert.assertEquals(4, store.getMaxId());
+
+        // Saved again, the execution's own file shadows the archived copy.
+        store.save("3", null, SegmentedExecutionStoreTest.execution("3", "FAILED"));
+        Assert.assertEquals(SegmentedExecutionStoreTest.execution("3", "FAILED"), store.load("3"));
+        Assert.assertEquals(2, store.getIds().size());
+    }
+}
@@ -0,0 +1,147 @@
+package azkaban.flow;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SegmentedExecutionStoreTest
+{
+    private volatile File storeDir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        storeDir = File.createTempFile("store", "test");
+        storeDir.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(storeDir);
+    }
+
+    @Test
+    public void testLatestVersionSurvivesReopen() throws Exception
+    {
+        SegmentedExecutionStore store = new SegmentedExecutionStore(storeDir, 1024 * 1024, false);
+        store.save("1", null, execution("1", "RUNNING"));
+        store.save("2", null, execution("2", "READY"));
+        store.save("1", null, execution("1", "SUCCEEDED"));
+        store.close();
+
+        store = new SegmentedExecutionStore(storeDir, 1024 * 1024, false);
+        Assert.assertEquals(execution("1", "SUCCEEDED"), store.load("1"));
+        Assert.assertEquals(execution("2", "READY"), store.load("2"));
+        Assert.assertNull(store.load("3"));
+        Assert.assertEquals(2, store.getMaxId());
+        store.close();
+    }
+
+    @Test
+    public void testTornTailIsTruncated() throws Exception
+    {
+        SegmentedExecutionStore store = new SegmentedExecutionStore(storeDir, 1024 * 1024, false);
+        store.save("1", null, execution("1", "RUNNING"));
+        store.close();
+
+        File segment = new File(storeDir, "executions-0.seg");
+        final long goodLength = segment.length();
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] { 0x41, 0x7a, 0x6b, 0x31, 0, 0, 0, 1 });
+        out.close();
+
+        store = new SegmentedExecutionStore(storeDir, 1024 * 1024, false);
+        Assert.assertEquals(goodLength, segment.length());
+        Assert.assertEquals(execution("1", "RUNNING"), store.load("1"));
+
+        store.save("2", null, execution("2", "READY"));
+        Assert.assertEquals(execution("2", "READY"), store.load("2"));
+        store.close();
+    }
+
+    @Test
+    public void testSupersededSegmentsAreCompacted() throws Exception
+    {
+        // Small enough that every save seals a segment.
+        SegmentedExecutionStore store = new SegmentedExecutionStore(storeDir, 10, false);
+        for (int i = 0; i < 5; ++i) {
+            store.save("1", null, execution("1", "RUNNING"));
+        }
+        store.save("2", null, execution("2", "SUCCEEDED"));
+
+        Assert.assertTrue(store.getSegmentsCompacted() > 0);
+        Assert.assertTrue(store.getSegmentCount() <= 3);
+        store.close();
+
+        store = new SegmentedExecutionStore(storeDir, 10, false);
+        Assert.assertEquals(execution("1", "RUNNING"), store.load("1"));
+        Assert.assertEquals(execution("2", "SUCCEEDED"), store.load("2"));
+        store.close();
+    }
+
+    @Test
+    public void testShortHintFileFallsBackToScan() throws Exception
+    {
+        // Small enough that every save seals a segment.
+        SegmentedExecutionStore store = new SegmentedExecutionStore(storeDir, 10, false);
+        store.save("1", null, execution("1", "RUNNING"));
+        store.save("2", null, execution("2", "READY"));
+        store.close();
+
+        File hint = new File(storeDir, "executions-0.hint");
+        RandomAccessFile file = new RandomAccessFile(hint, "rw");
+        file.setLength(hint.length() - 3);
+        file.close();
+
+        store = new SegmentedExecutionStore(storeDir, 10, false);
+        Assert.assertEquals(execution("1", "RUNNING"), store.load("1"));
+        Assert.assertEquals(execution("2", "READY"), store.load("2"));
+        store.close();
+    }
+
+    @Test
+    public void testSummaryIsReadWithoutTheExecution() throws Exception
+    {
+        Map<String, Object> summary = new HashMap<String, Object>();
+        summary.put("id", "1");
+        summary.put("status", "RUNNING");
+
+        SegmentedExecutionStore store = new SegmentedExecutionStore(storeDir, 1024 * 1024, false);
+        store.save("1", summary, execution("1", "RUNNING"));
+        store.save("2", null, execution("2", "READY"));
+
+        Assert.assertEquals(summary, store.loadSummary("1"));
+        Assert.assertEquals(execution("1", "RUNNING"), store.load("1"));
+        Assert.assertNull(store.loadSummary("2"));
+        Assert.assertNull(store.loadSummary("3"));
+        store.close();
+    }
+
+    static Map<String, Object> execution(String id, String status)
+    {
+        Map<String, Object> job = new HashMap<String, Object>();
+        job.put("name", "job" + id);
+        job.put("status", status);
+
+        Map<String, Object> jobs = new HashMap<String, Object>();
+        jobs.put("job" + id, job);
+
+        Map<String, Object> retVal = new HashMap<String, Object>();
+        retVal.put("id", id);
+        retVal.put("jobs", jobs);
+
+        return retVal;
+    }
+}
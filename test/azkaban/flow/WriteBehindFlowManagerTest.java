@@ -0,0 +1,77 @@
+package azkaban.flow;
+
+import org.easymock.classextension.EasyMock;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class WriteBehindFlowManagerTest
+{
+    private volatile FlowManager baseManager;
+    private volatile ExecutableFlow flow;
+    private volatile WriteBehindFlowManager manager;
+
+    @Before
+    public void setUp()
+    {
+        baseManager = EasyMock.createMock(FlowManager.class);
+        flow = EasyMock.createMock(ExecutableFlow.class);
+        EasyMock.expect(flow.getId()).andReturn("1").anyTimes();
+
+        // Long enough that the background flusher never fires during a test.
+        manager = new WriteBehindFlowManager(baseManager, 60 * 60 * 1000);
+    }
+
+    @After
+    public void tearDown()
+    {
+        EasyMock.verify(baseManager, flow);
+    }
+
+    @Test
+    public void testRunningSavesAreCoalesced() throws Exception
+    {
+        EasyMock.expect(flow.getStatus()).andReturn(Status.RUNNING).times(3);
+        EasyMock.expect(baseManager.saveExecutableFlow(flow)).andReturn(flow).once();
+        EasyMock.replay(baseManager, flow);
+
+        manager.saveExecutableFlow(flow);
+        manager.saveExecutableFlow(flow);
+        manager.saveExecutableFlow(flow);
+
+        Assert.assertSame(flow, manager.loadExecutableFlow(1));
+        Assert.assertEquals(0, manager.getWritesPerformed());
+
+        manager.flush();
+
+        Assert.assertEquals(3, manager.getSavesRequested());
+        Assert.assertEquals(1, manager.getWritesPerformed());
+        Assert.assertEquals(2, manager.getWritesAvoided());
+        Assert.assertEquals(1, manager.getFlushCount());
+    }
+
+    @Test
+    public void testTerminalSaveIsWrittenImmediately() throws Exception
+    {
+        EasyMock.expect(flow.getStatus()).andReturn(Status.RUNNING).once();
+        EasyMock.expect(flow.getStatus()).andReturn(Status.SUCCEEDED).once();
+        EasyMock.expect(baseManager.saveExecutableFlow(flow)).andReturn(flow).once();
+        EasyMock.replay(baseManager, flow);
+
+        manager.saveExecutableFlow(flow);
+        manager.saveExecutableFlow(flow);
+
+        Assert.assertEquals(1, manager.getWritesPerformed());
+
+        // Nothing is left dirty, so neither a flush nor shutdown writes again.
+        manager.flush();
+        manager.shutdown();
+
+        Assert.assertEquals(1, manager.getWritesPerformed());
+        Assert.assertEquals(1, manager.getWritesAvoided());
+    }
+}
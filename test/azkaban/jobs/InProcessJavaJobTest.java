@@ -0,0 +1,136 @@
+package azkaban.jobs;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.app.JobDescriptor;
+import azkaban.common.utils.Props;
+
+public class InProcessJavaJobTest {
+
+    /**
+     * Echoes its greeting into the generated properties
+     */
+    public static class EchoJob {
+
+        private final Props _props;
+        private final Props _generated = new Props();
+
+        public EchoJob(String name, Props props) {
+            _props = props;
+        }
+
+        public void run(Props generated) {
+            _generated.put("echo", _props.getString("greeting") + " from " + Thread.currentThread().getName());
+        }
+
+        public Props getJobGeneratedProperties() {
+            return _generated;
+        }
+    }
+
+    /**
+     * Waits until it is interrupted
+     */
+    public static class StuckJob {
+
+        public void run(Props generated) {
+            try {
+                Thread.sleep(60 * 1000);
+            } catch(InterruptedException e) {
+                // Stops like a well behaved job.
+            }
+        }
+
+        public Props getJobGeneratedProperties() {
+            return new Props();
+        }
+    }
+
+    /**
+     * Counts its runs in a static
+     */
+    public static class CountingJob {
+
+        private static int _runs = 0;
+
+        public void run(Props generated) {
+            _runs++;
+        }
+
+        public Props getJobGeneratedProperties() {
+            return Props.of("runs", Integer.toString(_runs));
+        }
+    }
+
+    private File _dir;
+
+    @Before
+    public void setUp() throws Exception {
+        _dir = File.createTempFile("inprocess", "test");
+        _dir.delete();
+        _dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_dir);
+    }
+
+    @Test
+    public void testJobRunsOnTheCallingThread() throws Exception {
+        InProcessJavaJob job = newJob(Props.of(JavaJobRunnerMain.JOB_CLASS, EchoJob.class.getName(),
+                                               "greeting", "hello"));
+        job.run(new Props());
+
+        Assert.assertEquals("hello from " + Thread.currentThread().getName(),
+                            job.getJobGeneratedProperties().getString("echo"));
+        Assert.assertEquals(1.0, job.getProgress(), 0.0);
+    }
+
+    @Test
+    public void testJobIsInterruptedWhenItTimesOut() throws Exception {
+        InProcessJavaJob job = newJob(Props.of(JavaJobRunnerMain.JOB_CLASS, StuckJob.class.getName(),
+                                               InProcessJavaJob.TIMEOUT_MS, "100"));
+        long start = System.currentTimeMillis();
+        try {
+            job.run(new Props());
+            Assert.fail("The job should have timed out.");
+        } catch(RuntimeException e) {
+            Assert.assertEquals("Job timed out after 100 ms.", e.getMessage());
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 30 * 1000);
+        Assert.assertFalse("The interrupt is not left behind.", Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testStaticsAreNotSharedBetweenRuns() throws Exception {
+        // The job's class on its own class path, as well as on the one of the descriptor's loader.
+        String classFile = CountingJob.class.getName().replace('.', '/') + ".class";
+        FileUtils.copyURLToFile(getClass().getClassLoader().getResource(classFile), new File(_dir, classFile));
+
+        for(int i = 0; i < 2; i++) {
+            InProcessJavaJob job = newJob(Props.of(JavaJobRunnerMain.JOB_CLASS, CountingJob.class.getName()));
+            job.run(new Props());
+            Assert.assertEquals("1", job.getJobGeneratedProperties().getString("runs"));
+        }
+        Assert.assertEquals(0, CountingJob._runs);
+    }
+
+    private InProcessJavaJob newJob(Props props) {
+        props.put(JavaProcessJob.CLASSPATH, _dir.getAbsolutePath());
+        props.put(JobDescriptor.NOTIFY_EMAIL, "");
+        File path = new File(_dir, "job.job");
+        JobDescriptor descriptor = new JobDescriptor("job",
+                                                     "job.job",
+                                                     path.getAbsolutePath(),
+                                                     props,
+                                                     getClass().getClassLoader());
+        return new InProcessJavaJob(descriptor);
+    }
+}
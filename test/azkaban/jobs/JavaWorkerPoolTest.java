@@ -0,0 +1,121 @@
+package azkaban.jobs;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+
+public class JavaWorkerPoolTest {
+
+    /**
+     * Reports the JVM it ran in, and fails when asked to
+     */
+    public static class WhereJob {
+
+        private final Props _props;
+        private final Props _generated = new Props();
+
+        public WhereJob(String name, Props props) {
+            _props = props;
+        }
+
+        public void run(Props generated) {
+            System.out.println("running " + _props.getString("greeting"));
+            if(_props.getBoolean("fail", false))
+                throw new IllegalStateException("asked to fail");
+            _generated.put("jvm", ManagementFactory.getRuntimeMXBean().getName());
+        }
+
+        public Props getJobGeneratedProperties() {
+            return _generated;
+        }
+    }
+
+    private static class CollectingSink implements OutputReactor.LineSink {
+
+        private final List<String> _lines = Collections.synchronizedList(new ArrayList<String>());
+
+        public void write(Level[] levels, String[] lines, int count) {
+            for(int i = 0; i < count; i++)
+                _lines.add(lines[i]);
+        }
+    }
+
+    private JavaWorkerPool _pool;
+    private List<String> _command;
+
+    @Before
+    public void setUp() {
+        _pool = new JavaWorkerPool(2, 60 * 1000);
+        _command = Arrays.asList("java", "-cp", System.getProperty("java.class.path"));
+    }
+
+    @After
+    public void tearDown() {
+        _pool.shutdown();
+    }
+
+    @Test
+    public void testJobsReuseAWarmWorker() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        String first = runJob(Props.of("greeting", "hello"), sink);
+        String second = runJob(Props.of("greeting", "again"), sink);
+
+        Assert.assertEquals(first, second);
+        Assert.assertTrue(sink._lines.contains("running hello"));
+        Assert.assertTrue(sink._lines.contains("running again"));
+        Assert.assertFalse(sink._lines.contains(JavaJobWorkerMain.END_OF_JOB));
+    }
+
+    @Test
+    public void testFailedJobLeavesTheWorkerUsable() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        JavaWorkerPool.Worker worker = _pool.acquire(_command, new File("."), new HashMap<String, String>());
+        try {
+            worker.run("job", Collections.<String> emptyList(), jobProps(Props.of("greeting", "bye", "fail", "true")), sink);
+            Assert.fail("The job should have failed.");
+        } catch(RuntimeException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("asked to fail"));
+        }
+        _pool.release(worker, 0, 1.0);
+
+        Assert.assertNotNull(runJob(Props.of("greeting", "hello"), sink));
+    }
+
+    @Test
+    public void testWorkerIsRetiredAfterItsJobs() throws Exception {
+        CollectingSink sink = new CollectingSink();
+        JavaWorkerPool.Worker worker = _pool.acquire(_command, new File("."), new HashMap<String, String>());
+        worker.run("job", Collections.<String> emptyList(), jobProps(Props.of("greeting", "hello")), sink);
+        _pool.release(worker, 1, 1.0);
+
+        JavaWorkerPool.Worker next = _pool.acquire(_command, new File("."), new HashMap<String, String>());
+        Assert.assertNotSame(worker, next);
+        _pool.release(next, 0, 1.0);
+    }
+
+    private String runJob(Props props, CollectingSink sink) throws Exception {
+        JavaWorkerPool.Worker worker = _pool.acquire(_command, new File("."), new HashMap<String, String>());
+        try {
+            return worker.run("job", Collections.<String> emptyList(), jobProps(props), sink).getString("jvm");
+        } finally {
+            _pool.release(worker, 0, 1.0);
+        }
+    }
+
+    private Props jobProps(Props props) {
+        props.put(JavaJobRunnerMain.JOB_CLASS, WhereJob.class.getName());
+        return props;
+    }
+}
@@ -0,0 +1,76 @@
+package azkaban.jobs;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OrphanReaperTest {
+
+    private static final String INSTANCE = "reaper-test";
+
+    private OrphanReaper _reaper;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ProcessTree.isSupported());
+        _reaper = new OrphanReaper(INSTANCE, Arrays.asList("TERM", "KILL"), 2000);
+    }
+
+    @Test
+    public void testOrphanIsReapedOnTheSecondRound() throws Exception {
+        String executionId = "reaper-test-" + System.nanoTime();
+        int orphan = startOrphan(executionId, INSTANCE);
+        // Ours was reparented to init, which isn't so everywhere.
+        Assume.assumeTrue(ProcessTree.getParentPid(orphan) == 1);
+
+        _reaper.reap();
+        Assert.assertTrue("An orphan gets a round to be claimed.", ProcessTree.getPids().contains(orphan));
+
+        _reaper.reap();
+        Assert.assertFalse(ProcessTree.getPids().contains(orphan));
+    }
+
+    @Test
+    public void testRunningExecutionIsLeftAlone() throws Exception {
+        String executionId = "reaper-test-" + System.nanoTime();
+        int orphan = startOrphan(executionId, INSTANCE);
+
+        OrphanReaper.executionStarted(executionId);
+        try {
+            _reaper.reap();
+            _reaper.reap();
+            Assert.assertTrue(ProcessTree.getPids().contains(orphan));
+        } finally {
+            OrphanReaper.executionEnded(executionId);
+            new ProcessTree(orphan).terminate(Arrays.asList("KILL"), 2000);
+        }
+        Assert.assertFalse(OrphanReaper.isRunning(executionId));
+    }
+
+    @Test
+    public void testOtherInstancesAreLeftAlone() throws Exception {
+        String executionId = "reaper-test-" + System.nanoTime();
+        int other = startOrphan(executionId, "other-" + INSTANCE);
+        int untagged = startOrphan(executionId, null);
+        try {
+            _reaper.reap();
+            _reaper.reap();
+            Assert.assertTrue(ProcessTree.getPids().contains(other));
+            Assert.assertTrue(ProcessTree.getPids().contains(untagged));
+        } finally {
+            new ProcessTree(other).terminate(Arrays.asList("KILL"), 2000);
+            new ProcessTree(untagged).terminate(Arrays.asList("KILL"), 2000);
+        }
+    }
+
+    private static int startOrphan(String executionId, String instance) throws Exception {
+        String[] pids = ProcessTreeTest.startShell("sleep 60 & echo $$ $!", executionId, instance);
+        int orphan = Integer.parseInt(pids[1]);
+        for(int i = 0; i < 50 && ProcessTree.getPids().contains(Integer.parseInt(pids[0])); i++)
+            Thread.sleep(20);
+        return orphan;
+    }
+}
@@ -0,0 +1,75 @@
+package azkaban.jobs;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutputReactorTest {
+
+    private static class CollectingSink implements OutputReactor.LineSink {
+
+        private final List<String> _lines = Collections.synchronizedList(new ArrayList<String>());
+
+        public void write(Level[] levels, String[] lines, int count) {
+            for(int i = 0; i < count; i++)
+                _lines.add(levels[i] + ":" + lines[i]);
+        }
+    }
+
+    @Test
+    public void testLinesAndLevelsOfAProcess() throws Exception {
+        OutputReactor reactor = new OutputReactor(1);
+        Process process = new ProcessBuilder("sh", "-c", "echo hello; echo 'WARN careful'; echo 'ERRORS'; printf 'no end'")
+                .start();
+
+        CollectingSink sink = new CollectingSink();
+        OutputReactor.Stream stream = reactor.register(process.getInputStream(),
+                                                       OutputReactor.exitOf(process),
+                                                       Level.INFO,
+                                                       sink);
+        process.waitFor();
+
+        Assert.assertTrue(stream.awaitDrained(5000));
+        Assert.assertEquals(4, sink._lines.size());
+        Assert.assertEquals("INFO:hello", sink._lines.get(0));
+        Assert.assertEquals("WARN: careful", sink._lines.get(1));
+        Assert.assertEquals("ERROR:S", sink._lines.get(2));
+        Assert.assertEquals("INFO:no end", sink._lines.get(3));
+    }
+
+    @Test
+    public void testOneThreadReadsManyStreams() throws Exception {
+        OutputReactor reactor = new OutputReactor(1);
+        OutputReactor.Completion done = new OutputReactor.Completion() {
+
+            public boolean isComplete() {
+                return true;
+            }
+        };
+
+        StringBuilder longLine = new StringBuilder();
+        for(int i = 0; i < 20000; i++)
+            longLine.append('x');
+
+        List<CollectingSink> sinks = new ArrayList<CollectingSink>();
+        List<OutputReactor.Stream> streams = new ArrayList<OutputReactor.Stream>();
+        for(int i = 0; i < 50; i++) {
+            CollectingSink sink = new CollectingSink();
+            String output = "first " + i + "\r\n" + longLine + "\nDEBUGlast\n";
+            streams.add(reactor.register(new ByteArrayInputStream(output.getBytes()), done, Level.ERROR, sink));
+            sinks.add(sink);
+        }
+
+        for(int i = 0; i < 50; i++) {
+            Assert.assertTrue(streams.get(i).awaitDrained(5000));
+            Assert.assertEquals("ERROR:first " + i, sinks.get(i)._lines.get(0));
+            Assert.assertEquals("ERROR:" + longLine, sinks.get(i)._lines.get(1));
+            Assert.assertEquals("DEBUG:last", sinks.get(i)._lines.get(2));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package azkaban.jobs;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.HashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessSupervisorTest {
+
+    private File _runDir;
+
+    @Before
+    public void setUp() throws Exception {
+        _runDir = File.createTempFile("run", "test");
+        _runDir.delete();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(_runDir);
+    }
+
+    @Test
+    public void testExitStatusAndOutputAreRecorded() throws Exception {
+        ProcessSupervisor supervisor = new ProcessSupervisor(_runDir);
+        supervisor.start(new String[] { "sh", "-c", "echo hello; echo oops >&2; exit 3" },
+                         _runDir.getParentFile(),
+                         new HashMap<String, String>());
+
+        Assert.assertEquals(3, supervisor.waitFor());
+        Assert.assertTrue(supervisor.getPid() > 0);
+        Assert.assertEquals("hello\n", IOUtils.toString(supervisor.follow(ProcessSupervisor.STDOUT_FILE)));
+        Assert.assertEquals("oops\n", IOUtils.toString(supervisor.follow(ProcessSupervisor.STDERR_FILE)));
+    }
+
+    @Test
+    public void testCommandIsStartedByTheLauncher() throws Exception {
+        ProcessLauncher launcher = new ProcessLauncher();
+        try {
+            ProcessSupervisor supervisor = new ProcessSupervisor(_runDir);
+            HashMap<String, String> env = new HashMap<String, String>();
+            env.put("GREETING", "it's me");
+            supervisor.start(new String[] { "sh", "-c", "echo \"$GREETING\" from `pwd`; exit 2" },
+                             _runDir.getParentFile(),
+                             env,
+                             launcher);
+
+            Assert.assertEquals(2, supervisor.waitFor());
+            Assert.assertEquals("it's me from " + _runDir.getParentFile().getCanonicalPath() + "\n",
+                                IOUtils.toString(supervisor.follow(ProcessSupervisor.STDOUT_FILE)));
+        } finally {
+            launcher.shutdown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testKilledLaunchedSupervisorIsNoticed() throws Exception {
+        ProcessLauncher launcher = new ProcessLauncher();
+        ProcessSupervisor supervisor = new ProcessSupervisor(_runDir);
+        try {
+            supervisor.start(new String[] { "sleep", "30" },
+                             _runDir.getParentFile(),
+                             new HashMap<String, String>(),
+                             launcher);
+            while(supervisor.getPid() == 0)
+                Thread.sleep(10);
+            Runtime.getRuntime()
+                   .exec(new String[] { "kill", "-9", String.valueOf(supervisor.getSupervisorPid()) })
+                   .waitFor();
+
+            supervisor.waitFor();
+            Assert.fail("The supervisor was killed before it recorded an exit status.");
+        } catch(IllegalStateException e) {
+            // expected
+        } finally {
+            if(supervisor.getPid() > 0)
+                Runtime.getRuntime().exec(new String[] { "kill", "-9", String.valueOf(supervisor.getPid()) }).waitFor();
+            launcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testRunningCommandIsAdopted() throws Exception {
+        new ProcessSupervisor(_runDir).start(new String[] { "sh", "-c", "echo first; sleep 1; echo second" },
+                                             _runDir.getParentFile(),
+                                             new HashMap<String, String>());
+
+        // What a restarted Azkaban sees: only the run directory.
+        ProcessSupervisor adopted = new ProcessSupervisor(_runDir);
+        Assert.assertTrue(adopted.canAdopt());
+        Assert.assertFalse(adopted.hasExited());
+
+        InputStream out = adopted.follow(ProcessSupervisor.STDOUT_FILE);
+        Assert.assertEquals(0, adopted.waitFor());
+        Assert.assertEquals("first\nsecond\n", IOUtils.toString(out));
+    }
+
+    @Test
+    public void testEmptyRunDirectoryIsNotAdopted() throws Exception {
+        _runDir.mkdirs();
+        Assert.assertFalse(new ProcessSupervisor(_runDir).canAdopt());
+    }
+}
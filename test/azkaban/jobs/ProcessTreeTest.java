@@ -0,0 +1,75 @@
+package azkaban.jobs;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessTreeTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ProcessTree.isSupported());
+    }
+
+    @Test
+    public void testGrandchildrenAreTerminated() throws Exception {
+        String[] pids = startShell("sleep 60 & echo $$ $!; sleep 60", null);
+        int shell = Integer.parseInt(pids[0]);
+        int grandchild = Integer.parseInt(pids[1]);
+
+        ProcessTree tree = new ProcessTree(shell);
+        Assert.assertTrue(tree.refresh().contains(grandchild));
+        Assert.assertTrue(tree.terminate(Arrays.asList("TERM", "KILL"), 2000));
+        Assert.assertFalse(ProcessTree.getPids().contains(grandchild));
+    }
+
+    @Test
+    public void testTaggedOrphansAreClaimed() throws Exception {
+        String executionId = "tree-test-" + System.nanoTime();
+        String[] pids = startShell("sleep 60 & echo $$ $!", executionId);
+        int orphan = Integer.parseInt(pids[1]);
+
+        // The shell has exited, so the orphan is found by its tag alone.
+        ProcessTree tree = new ProcessTree(Integer.parseInt(pids[0])).tagged(executionId, "job");
+        Assert.assertTrue(tree.refresh().contains(orphan));
+        Assert.assertTrue(tree.terminate(Arrays.asList("TERM"), 2000));
+        Assert.assertFalse(ProcessTree.getPids().contains(orphan));
+    }
+
+    @Test
+    public void testExcludedProcessIsSpared() throws Exception {
+        String executionId = "tree-test-" + System.nanoTime();
+        String[] pids = startShell("sleep 60 & echo $$ $!", executionId);
+        int spared = Integer.parseInt(pids[1]);
+
+        ProcessTree tree = new ProcessTree(Integer.parseInt(pids[0])).tagged(executionId, "job").excluding(spared);
+        Assert.assertTrue(tree.terminate(Arrays.asList("KILL"), 2000));
+        Assert.assertTrue(ProcessTree.getPids().contains(spared));
+
+        new ProcessTree(spared).terminate(Arrays.asList("KILL"), 2000);
+    }
+
+    /**
+     * Start the script in sh and return the words of the first line it prints
+     */
+    static String[] startShell(String script, String executionId) throws Exception {
+        return startShell(script, executionId, null);
+    }
+
+    static String[] startShell(String script, String executionId, String instance) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder("sh", "-c", script);
+        builder.environment().put(ProcessJob.JOB_NAME_ENV, "job");
+        if(executionId != null)
+            builder.environment().put(ProcessTree.EXECUTION_ID_ENV, executionId);
+        if(instance != null)
+            builder.environment().put(ProcessTree.INSTANCE_ENV, instance);
+        Process process = builder.start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        return reader.readLine().split(" ");
+    }
+}
@@ -0,0 +1,57 @@
+package azkaban.jobs;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceSamplerTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ProcessTree.isSupported());
+    }
+
+    @Test
+    public void testTreeIsSampled() throws Exception {
+        // A child that spins for a couple of seconds, under a shell that waits for it.
+        String spin = "end=$(($(date +%s) + 2)); while [ $(date +%s) -lt $end ]; do :; done";
+        String[] pids = ProcessTreeTest.startShell("echo $$; sh -c '" + spin + "'", null);
+        ProcessTree tree = new ProcessTree(Integer.parseInt(pids[0]));
+        ResourceSampler sampler = new ResourceSampler(tree).start(100);
+        try {
+            Thread.sleep(1000);
+            ResourceUsage usage = sampler.stop();
+
+            Assert.assertTrue("Spinning takes cpu: " + usage, usage.getCpuMillis() > 0);
+            Assert.assertTrue(usage.getPeakRssBytes() > 0);
+            Assert.assertTrue("The shell and its child.", usage.getPeakThreads() >= 2);
+        } finally {
+            tree.terminate(Arrays.asList("KILL"), 2000);
+        }
+    }
+
+    @Test
+    public void testSamplerKeepsGoingWhenAnotherOfItsIntervalStops() throws Exception {
+        String[] first = ProcessTreeTest.startShell("echo $$; sleep 60", null);
+        // A third process turns up under the shell only after a while.
+        String[] second = ProcessTreeTest.startShell("echo $$; sleep 0.3; sleep 60 & sleep 60", null);
+        ProcessTree firstTree = new ProcessTree(Integer.parseInt(first[0]));
+        ProcessTree secondTree = new ProcessTree(Integer.parseInt(second[0]));
+        try {
+            ResourceSampler firstSampler = new ResourceSampler(firstTree).start(50);
+            ResourceSampler secondSampler = new ResourceSampler(secondTree).start(50);
+            Assert.assertTrue(secondSampler.getUsage().getPeakThreads() <= 2);
+            firstSampler.stop();
+
+            Thread.sleep(1000);
+            Assert.assertTrue(secondSampler.getUsage().getPeakThreads() >= 3);
+            secondSampler.stop();
+        } finally {
+            firstTree.terminate(Arrays.asList("KILL"), 2000);
+            secondTree.terminate(Arrays.asList("KILL"), 2000);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package azkaban.serialization;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+import azkaban.flow.ExecutableFlow;
+import azkaban.flow.IndividualJobExecutableFlow;
+import azkaban.flow.MultipleDependencyExecutableFlow;
+
+/**
+ *
+ */
+public class BinaryExecutionCodecTest
+{
+    @Test
+    public void testRoundTripMatchesJson() throws Exception
+    {
+        Map<String, Object> descriptor = descriptor();
+        Map<String, Object> fromJson = new JsonExecutionCodec().decode(new JsonExecutionCodec().encode(descriptor));
+
+        for (BinaryExecutionCodec codec : new BinaryExecutionCodec[] { new BinaryExecutionCodec(false), new BinaryExecutionCodec(true) }) {
+            byte[] bytes = codec.encode(descriptor);
+
+            Assert.assertEquals(fromJson, codec.decode(bytes));
+            Assert.assertEquals(fromJson, ExecutionCodecs.decode(bytes));
+        }
+    }
+
+    @Test
+    public void testOldIndentedJsonIsStillRead() throws Exception
+    {
+        Map<String, Object> descriptor = descriptor();
+        byte[] indented = new JSONObject(descriptor).toString(2).getBytes("UTF-8");
+
+        Assert.assertEquals(new JsonExecutionCodec().decode(indented), ExecutionCodecs.decode(indented));
+    }
+
+    @Test
+    public void testBinaryIsSmaller() throws Exception
+    {
+        Map<String, Object> descriptor = descriptor();
+
+        int json = new JsonExecutionCodec().encode(descriptor).length;
+        int binary = new BinaryExecutionCodec(false).encode(descriptor).length;
+
+        Assert.assertTrue(String.format("binary[%s] json[%s]", binary, json), binary < json);
+    }
+
+    private static ExecutableFlow flow()
+    {
+        Props props = new Props();
+        props.put("azkaban.flow.id", "7");
+        props.put("azkaban.flow.start.timestamp", new DateTime().toString());
+
+        return new MultipleDependencyExecutableFlow(
+                "7",
+                new IndividualJobExecutableFlow("7", "second", props, null),
+                new IndividualJobExecutableFlow("7", "first", props, null),
+                new IndividualJobExecutableFlow("7", "other", props, null)
+        );
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> descriptor()
+    {
+        Map<String, Object> retVal = new StreamingExecutableFlowSerializer().apply(flow());
+
+        Map<String, Object> jobs = (Map<String, Object>) retVal.get("jobs");
+        Map<String, Object> first = new HashMap<String, Object>((Map<String, Object>) jobs.get("first"));
+        first.put("startTime", new DateTime().toString());
+        first.put("endTime", new DateTime().plusMinutes(5).toString());
+        jobs.put("first", first);
+
+        return retVal;
+    }
+}
@@ -0,0 +1,122 @@
+package azkaban.serialization;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.json.JSONObject;
+
+import azkaban.common.utils.Props;
+import azkaban.flow.ExecutableFlow;
+import azkaban.flow.GroupedExecutableFlow;
+import azkaban.flow.IndividualJobExecutableFlow;
+import azkaban.flow.MultipleDependencyExecutableFlow;
+import azkaban.util.StreamingJSONWriter;
+
+/**
+ * Compares the time taken to serialize and write large flows with DefaultExecutableFlowSerializer and
+ * JSONObject against StreamingExecutableFlowSerializer and StreamingJSONWriter, then the size and decode time of
+ * each ExecutionCodec.
+ *
+ * Usage: ExecutableFlowSerializerBenchmark [chains] [depth] [iterations]
+ *
+ * The flow is a group of independent chains of jobs, chains * depth jobs in all.  The defaults give 5000 jobs.
+ */
+public class ExecutableFlowSerializerBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        int chains = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        ExecutableFlow flow = buildFlow(chains, depth);
+        ExecutableFlowSerializer defaultSerializer = new DefaultExecutableFlowSerializer();
+        ExecutableFlowSerializer streamingSerializer = new StreamingExecutableFlowSerializer();
+
+        System.out.printf("Flow of %s jobs (%s chains of %s).%n", chains * depth, chains, depth);
+        for (int round = 0; round < 2; ++round) {
+            final String label = round == 0 ? "warmup" : "measured";
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                Writer out = nullWriter();
+                out.write(new JSONObject(defaultSerializer.apply(flow)).toString(2));
+                out.flush();
+            }
+            final double defaultMs = (System.nanoTime() - start) / (iterations * 1000000.0);
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                new StreamingJSONWriter(nullWriter()).write(streamingSerializer.apply(flow)).flush();
+            }
+            final double streamingMs = (System.nanoTime() - start) / (iterations * 1000000.0);
+
+            System.out.printf(
+                    "%s: default+JSONObject %.1f ms/save, streaming %.1f ms/save (%.1fx)%n",
+                    label,
+                    defaultMs,
+                    streamingMs,
+                    defaultMs / streamingMs
+            );
+        }
+
+        Map<String, Object> descriptor = streamingSerializer.apply(flow);
+        final int indentedBytes = new JSONObject(descriptor).toString(2).getBytes("UTF-8").length;
+        System.out.printf("indented json: %s bytes%n", indentedBytes);
+
+        for (String name : Arrays.asList("json", "binary", "binary-deflate")) {
+            ExecutionCodec codec = ExecutionCodecs.forName(name);
+            byte[] bytes = codec.encode(descriptor);
+
+            for (int i = 0; i < iterations; ++i) {
+                ExecutionCodecs.decode(bytes);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; ++i) {
+                ExecutionCodecs.decode(bytes);
+            }
+            final double decodeMs = (System.nanoTime() - start) / (iterations * 1000000.0);
+
+            System.out.printf(
+                    "%s: %s bytes (%.1fx smaller than indented json), %.1f ms/decode%n",
+                    name,
+                    bytes.length,
+                    indentedBytes / (double) bytes.length,
+                    decodeMs
+            );
+        }
+    }
+
+    private static Writer nullWriter()
+    {
+        return new BufferedWriter(new OutputStreamWriter(new NullOutputStream()));
+    }
+
+    private static ExecutableFlow buildFlow(int chains, int depth)
+    {
+        Props props = new Props();
+        props.put("azkaban.flow.id", "1");
+        props.put("azkaban.flow.start.timestamp", "2010-07-29T12:00:00.000-07:00");
+
+        List<ExecutableFlow> tips = new ArrayList<ExecutableFlow>(chains);
+        for (int c = 0; c < chains; ++c) {
+            ExecutableFlow tip = new IndividualJobExecutableFlow("1", String.format("chain%s-job0", c), props, null);
+            for (int d = 1; d < depth; ++d) {
+                tip = new MultipleDependencyExecutableFlow(
+                        "1",
+                        new IndividualJobExecutableFlow("1", String.format("chain%s-job%s", c, d), props, null),
+                        tip
+                );
+            }
+            tips.add(tip);
+        }
+
+        return new GroupedExecutableFlow("1", tips.toArray(new ExecutableFlow[tips.size()]));
+    }
+}
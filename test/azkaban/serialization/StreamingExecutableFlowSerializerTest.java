@@ -0,0 +1,71 @@
+package azkaban.serialization;
+
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+import azkaban.common.utils.Props;
+import azkaban.flow.ExecutableFlow;
+import azkaban.flow.IndividualJobExecutableFlow;
+import azkaban.flow.MultipleDependencyExecutableFlow;
+import azkaban.flow.Status;
+import azkaban.util.JSONToJava;
+import azkaban.util.StreamingJSONWriter;
+
+/**
+ *
+ */
+public class StreamingExecutableFlowSerializerTest
+{
+    @Test
+    public void testSameFormAsDefaultSerializer() throws Exception
+    {
+        ExecutableFlow flow = diamond();
+
+        Map<String, Object> expected = new DefaultExecutableFlowSerializer().apply(flow);
+        Map<String, Object> actual = new StreamingExecutableFlowSerializer().apply(flow);
+
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testStreamedJsonReadsBack() throws Exception
+    {
+        ExecutableFlow flow = diamond();
+        Map<String, Object> descriptor = new StreamingExecutableFlowSerializer().apply(flow);
+
+        StringWriter out = new StringWriter();
+        new StreamingJSONWriter(out).write(descriptor).flush();
+
+        JSONToJava jsonToJava = new JSONToJava();
+        Assert.assertEquals(
+                jsonToJava.apply(new JSONObject(new JSONObject(descriptor).toString(2))),
+                jsonToJava.apply(new JSONObject(out.toString()))
+        );
+    }
+
+    /*
+     * d depends on a and b, which both depend on the same instance of c.
+     */
+    private static ExecutableFlow diamond()
+    {
+        Props props = new Props();
+        props.put("quoted", "a \"value\"\twith\\escapes\n");
+
+        IndividualJobExecutableFlow c = new IndividualJobExecutableFlow("1", "c", props, null);
+        ExecutableFlow a = new MultipleDependencyExecutableFlow(
+                "1", new IndividualJobExecutableFlow("1", "a", new Props(), null), c
+        );
+        ExecutableFlow b = new MultipleDependencyExecutableFlow(
+                "1", new IndividualJobExecutableFlow("1", "b", new Props(), null), c
+        );
+
+        return new MultipleDependencyExecutableFlow(
+                "1", new IndividualJobExecutableFlow("1", "d", new Props(), null), a, b
+        );
+    }
+}
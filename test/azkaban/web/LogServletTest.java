@@ -0,0 +1,52 @@
+package azkaban.web;
+
+import java.io.StringWriter;
+
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.log.Log4JLogChute;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import azkaban.common.web.GuiUtils;
+
+public class LogServletTest {
+
+    @Test
+    public void testSingleRangesAreParsed() {
+        Assert.assertArrayEquals(new long[] { 0, 99 }, LogServlet.parseRange("bytes=0-99", 1000));
+        Assert.assertArrayEquals(new long[] { 500, 999 }, LogServlet.parseRange("bytes=500-", 1000));
+        Assert.assertArrayEquals(new long[] { 900, 999 }, LogServlet.parseRange("bytes=-100", 1000));
+        Assert.assertArrayEquals(new long[] { 0, 999 }, LogServlet.parseRange("bytes=-5000", 1000));
+    }
+
+    @Test
+    public void testOtherRangesAreIgnored() {
+        Assert.assertNull(LogServlet.parseRange("bytes=0-1,5-6", 1000));
+        Assert.assertNull(LogServlet.parseRange("lines=0-10", 1000));
+        Assert.assertNull(LogServlet.parseRange("bytes=-", 1000));
+        Assert.assertNull(LogServlet.parseRange("bytes=a-b", 1000));
+    }
+
+    @Test
+    public void testFollowPageEscapesTheFile() throws Exception {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty("resource.loader", "classpath");
+        engine.setProperty("classpath.resource.loader.class", ClasspathResourceLoader.class.getName());
+        engine.setProperty("runtime.log.logsystem.class", Log4JLogChute.class);
+        engine.init();
+        VelocityContext context = new VelocityContext();
+        context.put("utils", new GuiUtils());
+        context.put("context", "");
+        context.put("file", "a'</script><script>alert(1)</script>&b");
+        StringWriter out = new StringWriter();
+        engine.mergeTemplate("azkaban/web/pages/log_follow.vm", "UTF-8", context, out);
+
+        String page = out.toString();
+        Assert.assertFalse(page.contains("</script><script>alert(1)"));
+        Assert.assertTrue(page.contains("file: 'a\\'<\\/script><script>alert(1)<\\/script>&b'"));
+        Assert.assertTrue(page.contains("<h2>a'&lt;/script&gt;&lt;script&gt;alert(1)&lt;/script&gt;&amp;b</h2>"));
+        Assert.assertTrue(page.contains("logs?file=a%27%3C%2Fscript%3E%3Cscript%3Ealert%281%29%3C%2Fscript%3E%26b&amp;full"));
+    }
+}